@@ -0,0 +1,218 @@
+package wallet_service.eci.edu.co.config;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verifica al arrancar que cada forma de consulta de los repositorios tenga un
+ * índice que la resuelva. Ejecuta explain() (queryPlanner) contra la base
+ * configurada y reporta las consultas cuyo plan ganador incluye COLLSCAN o un
+ * SORT en memoria, o cuyo IXSCAN no acota un campo que la consulta sí acota
+ * (p. ej. UNBOUNDED_createdAt).
+ */
+@Component
+public class IndexPlanVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexPlanVerifier.class);
+    private static final String PROBE = "explain-probe";
+
+    private final MongoTemplate mongoTemplate;
+    private final TaskExecutor taskExecutor;
+    private final boolean enabled;
+    private volatile Map<String, List<String>> lastReport = Map.of();
+
+    public IndexPlanVerifier(MongoTemplate mongoTemplate,
+            @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+            @Value("${wallet.index-verification.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.taskExecutor = taskExecutor;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            taskExecutor.execute(this::verify);
+        }
+    }
+
+    /**
+     * Ejecuta la verificación sobre todas las formas de consulta conocidas
+     * @return Problemas encontrados por forma de consulta (lista vacía si usa índice)
+     */
+    public Map<String, List<String>> verify() {
+        Map<String, List<String>> report = new LinkedHashMap<>();
+        for (QueryShape shape : queryShapes()) {
+            try {
+                List<String> problems = new ArrayList<>();
+                collectProblems(explain(shape).get("queryPlanner", Document.class), shape.boundedField(),
+                        problems);
+                report.put(shape.name(), problems);
+                if (problems.isEmpty()) {
+                    logger.debug("Consulta {} resuelta por índice", shape.name());
+                } else {
+                    logger.warn("Consulta {} sin índice adecuado: {}", shape.name(), problems);
+                }
+            } catch (Exception e) {
+                logger.warn("No se pudo ejecutar explain para {}: {}", shape.name(), e.getMessage());
+                report.put(shape.name(), List.of("EXPLAIN_FAILED"));
+            }
+        }
+        lastReport = report;
+        return report;
+    }
+
+    public Map<String, List<String>> getLastReport() {
+        return lastReport;
+    }
+
+    private Document explain(QueryShape shape) {
+        Document find = new Document("find", shape.collection()).append("filter", shape.filter());
+        if (shape.sort() != null) {
+            find.append("sort", shape.sort());
+        }
+        return mongoTemplate.getDb().runCommand(
+                new Document("explain", find).append("verbosity", "queryPlanner"));
+    }
+
+    /**
+     * Recorre el plan ganador (incluidos los planes SBE anidados en queryPlan)
+     */
+    private static void collectProblems(Document queryPlanner, String boundedField, List<String> problems) {
+        if (queryPlanner == null) {
+            return;
+        }
+        Document winningPlan = queryPlanner.get("winningPlan", Document.class);
+        if (winningPlan != null && winningPlan.containsKey("queryPlan")) {
+            winningPlan = winningPlan.get("queryPlan", Document.class);
+        }
+        walk(winningPlan, boundedField, problems);
+    }
+
+    private static void walk(Document stage, String boundedField, List<String> problems) {
+        if (stage == null) {
+            return;
+        }
+        String name = stage.getString("stage");
+        if ("COLLSCAN".equals(name) || "SORT".equals(name)) {
+            problems.add(name);
+        }
+        if ("IXSCAN".equals(name) && boundedField != null && !isBounded(stage, boundedField)) {
+            problems.add("UNBOUNDED_" + boundedField);
+        }
+        walk(stage.get("inputStage", Document.class), boundedField, problems);
+        List<?> inputStages = stage.get("inputStages", List.class);
+        if (inputStages != null) {
+            for (Object child : inputStages) {
+                if (child instanceof Document document) {
+                    walk(document, boundedField, problems);
+                }
+            }
+        }
+    }
+
+    /**
+     * Un campo sin cota aparece en indexBounds como el intervalo completo [MaxKey, MinKey]
+     */
+    private static boolean isBounded(Document ixscan, String field) {
+        Document indexBounds = ixscan.get("indexBounds", Document.class);
+        List<?> bounds = indexBounds == null ? null : indexBounds.get(field, List.class);
+        return bounds != null && bounds.stream()
+                .noneMatch(bound -> "[MaxKey, MinKey]".equals(bound) || "[MinKey, MaxKey]".equals(bound));
+    }
+
+    private static List<QueryShape> queryShapes() {
+        Date now = new Date();
+        Document byCreatedAtDesc = new Document("createdAt", -1);
+        Document historySort = new Document("createdAt", -1).append("_id", -1);
+        return List.of(
+                new QueryShape("WalletRepository.findByUserId", "wallets",
+                        new Document("userId", PROBE), null),
+                new QueryShape("WalletRepository.pruneDailyRollups", "wallets",
+                        new Document("rollupDaysFrom", new Document("$lt", "2000-01-01")), null),
+                new QueryShape("TransactionRepository.findByUserIdOrderByCreatedAtDesc", "transactions",
+                        new Document("userId", PROBE), byCreatedAtDesc),
+                new QueryShape("TransactionRepository.findByWalletIdOrderByCreatedAtDesc", "transactions",
+                        new Document("walletId", PROBE), byCreatedAtDesc),
+                new QueryShape("TransactionRepository.findByUserIdAndTypeOrderByCreatedAtDesc", "transactions",
+                        new Document("userId", PROBE).append("type", "PURCHASE"), byCreatedAtDesc),
+                new QueryShape("TransactionRepository.findByUserIdAndStatusOrderByCreatedAtDesc", "transactions",
+                        new Document("userId", PROBE).append("status", "COMPLETED"), byCreatedAtDesc),
+                new QueryShape("TransactionRepository.findByStripeSessionId", "transactions",
+                        new Document("stripeSessionId", PROBE), null),
+                new QueryShape("TransactionRepository.findByUserIdAndCreatedAtBetweenOrderByCreatedAtDesc",
+                        "transactions",
+                        new Document("userId", PROBE).append("createdAt",
+                                new Document("$gt", new Date(0)).append("$lt", now)),
+                        byCreatedAtDesc),
+                new QueryShape("TransactionRepository.findByBookingId", "transactions",
+                        new Document("bookingId", PROBE), null),
+                new QueryShape("TransactionRepository.findFirstByBookingIdAndUserIdAndType", "transactions",
+                        new Document("bookingId", PROBE).append("userId", PROBE).append("type", "USAGE"), null),
+                new QueryShape("TransactionRepository.findByBookingIdInAndType", "transactions",
+                        new Document("bookingId", new Document("$in", List.of(PROBE))).append("type", "USAGE"),
+                        null),
+                new QueryShape("TransactionRepository.findByOperationId", "transactions",
+                        new Document("operationId", PROBE), null),
+                new QueryShape("TransactionRepository.findTop100ByStatusAndOperationIdIsNotNullAndCreatedAtBefore",
+                        "transactions",
+                        new Document("status", "PENDING")
+                                .append("operationId", new Document("$ne", null))
+                                .append("createdAt", new Document("$lt", now)),
+                        null),
+                new QueryShape("StripeEventService.claimBatch", "stripe_events",
+                        new Document("status", "PENDING").append("$or", List.of(
+                                new Document("claimedUntil", new Document("$exists", false)),
+                                new Document("claimedUntil", new Document("$lt", now)))),
+                        new Document("receivedAt", 1)),
+                new QueryShape("StripeEventRepository.findFirstBySessionId", "stripe_events",
+                        new Document("sessionId", PROBE), null),
+                new QueryShape("TransactionReports.pipeline ($match)", "transactions",
+                        new Document("userId", PROBE).append("status", "COMPLETED")
+                                .append("createdAt", new Document("$gte", new Date(0)).append("$lt", now)),
+                        null),
+                new QueryShape("TransactionRepository.findHistoryPage", "transactions",
+                        historyPage(new Document("userId", PROBE), now), historySort, "createdAt"),
+                new QueryShape("TransactionRepository.findHistoryPage (type)", "transactions",
+                        historyPage(new Document("userId", PROBE).append("type", "USAGE"), now), historySort,
+                        "createdAt"));
+    }
+
+    /**
+     * Página siguiente del historial, con la forma de TransactionCriteria.history
+     */
+    private static Document historyPage(Document owner, Date cursor) {
+        List<Document> conditions = new ArrayList<>();
+        owner.forEach((field, value) -> conditions.add(new Document(field, value)));
+        conditions.add(new Document("createdAt", new Document("$lte", cursor)));
+        conditions.add(new Document("$or", List.of(
+                new Document("createdAt", new Document("$lt", cursor)),
+                new Document("createdAt", cursor).append("_id", new Document("$lt", PROBE)))));
+        return new Document("$and", conditions);
+    }
+
+    /**
+     * @param boundedField Campo que el IXSCAN debe acotar (null si no se verifica)
+     */
+    private record QueryShape(String name, String collection, Document filter, Document sort,
+            String boundedField) {
+
+        QueryShape(String name, String collection, Document filter, Document sort) {
+            this(name, collection, filter, sort, null);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package wallet_service.eci.edu.co.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * CommandListener del driver de Mongo (registrado en {@link MongoConfig}) que
+ * reemplaza el logging DEBUG del driver:
+ * <ul>
+ * <li>mongodb.command: timer por comando, colección, método de repositorio que lo
+ * originó y estado (el histograma se configura en application.properties)</li>
+ * <li>Los comandos de consulta que superan el umbral se guardan en un buffer
+ * circular con la forma del filtro (valores reemplazados por ?) y se sirven en
+ * /api/admin/slow-queries junto con el plan de explain() de esa forma</li>
+ * </ul>
+ * El método de repositorio se toma del hilo que ejecuta el comando, así que solo
+ * se conoce con el cliente bloqueante; los comandos del cliente reactivo y de
+ * MongoTemplate usado directamente quedan con origin=none. El explain se ejecuta
+ * en segundo plano y una sola vez por forma de consulta mientras su plan esté en
+ * caché.
+ */
+@Component
+public class MongoCommandProfiler implements CommandListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoCommandProfiler.class);
+    private static final String NO_ORIGIN = "none";
+    private static final ThreadLocal<String> ORIGIN = new ThreadLocal<>();
+
+    // Comandos con filtro: son los únicos que se capturan y explican
+    private static final Set<String> QUERY_COMMANDS = Set.of(
+            "find", "findAndModify", "update", "delete", "count", "distinct", "aggregate");
+
+    /**
+     * Consulta lenta capturada
+     * @param capturedAt Momento en que terminó el comando
+     * @param origin Método de repositorio que lo originó (o none)
+     * @param command Nombre del comando
+     * @param collection Colección consultada
+     * @param durationMs Duración en milisegundos
+     * @param shape Forma del filtro y del orden, sin valores
+     */
+    public record SlowQuery(Instant capturedAt, String origin, String command, String collection,
+            double durationMs, String shape) {
+    }
+
+    /** Datos del comando tomados al iniciar (el documento del evento solo es válido durante el callback) */
+    private record StartedCommand(String origin, String collection, BsonDocument filter, BsonDocument sort,
+            BsonArray pipeline) {
+    }
+
+    private final MeterRegistry registry;
+    private final ObjectProvider<MongoTemplate> mongoTemplate;
+    private final TaskExecutor taskExecutor;
+    private final long thresholdNanos;
+    private final boolean explainEnabled;
+    private final Map<Integer, StartedCommand> started = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<SlowQuery> slowQueries;
+    private final AtomicLong slowQueryCount = new AtomicLong();
+    private final Cache<String, String> plans;
+
+    public MongoCommandProfiler(MeterRegistry registry,
+            ObjectProvider<MongoTemplate> mongoTemplate,
+            @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+            @Value("${wallet.mongo.slow-query.threshold:PT0.1S}") Duration threshold,
+            @Value("${wallet.mongo.slow-query.capacity:100}") int capacity,
+            @Value("${wallet.mongo.slow-query.explain:true}") boolean explainEnabled,
+            @Value("${wallet.mongo.slow-query.plan-ttl:PT10M}") Duration planTtl) {
+        this.registry = registry;
+        this.mongoTemplate = mongoTemplate;
+        this.taskExecutor = taskExecutor;
+        this.thresholdNanos = threshold.toNanos();
+        this.explainEnabled = explainEnabled;
+        this.slowQueries = new AtomicReferenceArray<>(capacity);
+        this.plans = Caffeine.newBuilder()
+                .maximumSize(1_000)
+                .expireAfterWrite(planTtl)
+                .build();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String origin = ORIGIN.get();
+        String commandName = event.getCommandName();
+        BsonDocument filter = null;
+        BsonDocument sort = null;
+        BsonArray pipeline = null;
+        if (QUERY_COMMANDS.contains(commandName)) {
+            BsonDocument command = event.getCommand();
+            switch (commandName) {
+                case "find" -> {
+                    filter = documentOrNull(command.get("filter"));
+                    sort = documentOrNull(command.get("sort"));
+                }
+                case "findAndModify" -> {
+                    filter = documentOrNull(command.get("query"));
+                    sort = documentOrNull(command.get("sort"));
+                }
+                case "update" -> filter = firstStatementFilter(command.get("updates"));
+                case "delete" -> filter = firstStatementFilter(command.get("deletes"));
+                case "aggregate" -> pipeline = command.get("pipeline") instanceof BsonArray stages
+                        ? stages.clone() : null;
+                default -> filter = documentOrNull(command.get("query"));
+            }
+        }
+        started.put(event.getRequestId(), new StartedCommand(origin == null ? NO_ORIGIN : origin,
+                collectionOf(event), filter, sort, pipeline));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        finish(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), "success");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        finish(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), "failed");
+    }
+
+    /**
+     * @param limit Máximo de consultas a devolver
+     * @return Consultas lentas más recientes primero, cada una con el plan de su forma si ya se obtuvo
+     */
+    public List<Map<String, Object>> recentSlowQueries(int limit) {
+        long total = slowQueryCount.get();
+        int capacity = slowQueries.length();
+        List<Map<String, Object>> recent = new ArrayList<>();
+        for (long i = total - 1; i >= 0 && i >= total - capacity && recent.size() < limit; i--) {
+            SlowQuery query = slowQueries.get((int) (i % capacity));
+            if (query == null) {
+                continue;
+            }
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("capturedAt", query.capturedAt());
+            view.put("origin", query.origin());
+            view.put("command", query.command());
+            view.put("collection", query.collection());
+            view.put("durationMs", query.durationMs());
+            view.put("shape", query.shape());
+            view.put("plan", plans.getIfPresent(planKey(query.collection(), query.shape())));
+            recent.add(view);
+        }
+        return recent;
+    }
+
+    /**
+     * @return Total de consultas lentas capturadas desde el arranque
+     */
+    public long slowQueryCount() {
+        return slowQueryCount.get();
+    }
+
+    /**
+     * Interceptor de los proxies de repositorio: deja en el hilo el método que se
+     * está ejecutando para etiquetar los comandos que emita
+     */
+    static MethodInterceptor originInterceptor(Class<?> repositoryInterface) {
+        Map<Method, String> names = new ConcurrentHashMap<>();
+        return (MethodInvocation invocation) -> {
+            if (ORIGIN.get() != null) {
+                // Llamada anidada (p. ej. un fragmento custom que usa otro método): se conserva el origen externo
+                return invocation.proceed();
+            }
+            ORIGIN.set(names.computeIfAbsent(invocation.getMethod(),
+                    method -> repositoryInterface.getSimpleName() + "." + method.getName()));
+            try {
+                return invocation.proceed();
+            } finally {
+                ORIGIN.remove();
+            }
+        };
+    }
+
+    private void finish(int requestId, String commandName, long elapsedNanos, String status) {
+        StartedCommand command = started.remove(requestId);
+        String origin = command == null ? NO_ORIGIN : command.origin();
+        String collection = command == null ? "unknown" : command.collection();
+        Timer.builder("mongodb.command")
+                .description("Duración de los comandos de Mongo")
+                .tags("command", commandName, "collection", collection, "origin", origin, "status", status)
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+        if (command != null && elapsedNanos >= thresholdNanos && QUERY_COMMANDS.contains(commandName)) {
+            capture(commandName, elapsedNanos, command);
+        }
+    }
+
+    private void capture(String commandName, long elapsedNanos, StartedCommand command) {
+        String shape;
+        if (command.pipeline() != null) {
+            shape = "pipeline: " + shapeOf(command.pipeline());
+        } else {
+            shape = "filter: " + shapeOf(command.filter())
+                    + (command.sort() != null ? ", sort: " + command.sort().toJson() : "");
+        }
+        SlowQuery query = new SlowQuery(Instant.now(), command.origin(), commandName, command.collection(),
+                elapsedNanos / 1_000_000.0, shape);
+        long index = slowQueryCount.getAndIncrement();
+        slowQueries.set((int) (index % slowQueries.length()), query);
+        logger.warn("Consulta lenta en Mongo ({} ms): {} {} desde {} - {}", Math.round(query.durationMs()),
+                commandName, command.collection(), command.origin(), shape);
+
+        String planKey = planKey(command.collection(), shape);
+        if (explainEnabled && plans.getIfPresent(planKey) == null) {
+            // Marcador para no lanzar otro explain de la misma forma mientras este corre
+            plans.put(planKey, "pendiente");
+            taskExecutor.execute(() -> plans.put(planKey, explain(command)));
+        }
+    }
+
+    /**
+     * Ejecuta explain (queryPlanner) con los valores originales y resume el plan
+     * ganador; las escrituras se explican como un find con el mismo filtro
+     */
+    private String explain(StartedCommand command) {
+        try {
+            Document explained;
+            if (command.pipeline() != null) {
+                explained = new Document("aggregate", command.collection())
+                        .append("pipeline", command.pipeline())
+                        .append("cursor", new Document());
+            } else {
+                explained = new Document("find", command.collection())
+                        .append("filter", command.filter() == null ? new BsonDocument() : command.filter());
+                if (command.sort() != null) {
+                    explained.append("sort", command.sort());
+                }
+            }
+            Document result = mongoTemplate.getObject().getDb().runCommand(
+                    new Document("explain", explained).append("verbosity", "queryPlanner"));
+            return summarizePlan(result);
+        } catch (Exception e) {
+            logger.warn("No se pudo ejecutar explain de una consulta lenta: {}", e.getMessage());
+            return "EXPLAIN_FAILED: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Resume el plan ganador como etapas encadenadas, p. ej. "FETCH <- IXSCAN userId_1_createdAt_-1"
+     */
+    static String summarizePlan(Document explainResult) {
+        Document queryPlanner = explainResult.get("queryPlanner", Document.class);
+        if (queryPlanner == null && explainResult.get("stages") instanceof List<?> stages && !stages.isEmpty()
+                && stages.get(0) instanceof Document first && first.get("$cursor") instanceof Document cursor) {
+            // aggregate: el plan de la etapa $match/$sort inicial viene dentro de $cursor
+            queryPlanner = cursor.get("queryPlanner", Document.class);
+        }
+        if (queryPlanner == null) {
+            return "sin plan";
+        }
+        Document stage = queryPlanner.get("winningPlan", Document.class);
+        if (stage != null && stage.containsKey("queryPlan")) {
+            stage = stage.get("queryPlan", Document.class);
+        }
+        List<String> stages = new ArrayList<>();
+        while (stage != null) {
+            String name = stage.getString("stage");
+            String indexName = stage.getString("indexName");
+            stages.add(indexName == null ? name : name + " " + indexName);
+            stage = stage.get("inputStage", Document.class);
+        }
+        return stages.isEmpty() ? "sin plan" : String.join(" <- ", stages);
+    }
+
+    /**
+     * Forma de un filtro: conserva campos y operadores y reemplaza los valores por ?
+     */
+    static String shapeOf(BsonValue value) {
+        if (value == null) {
+            return "{}";
+        }
+        if (value.isDocument()) {
+            StringBuilder shape = new StringBuilder("{");
+            for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                if (shape.length() > 1) {
+                    shape.append(", ");
+                }
+                shape.append(entry.getKey()).append(": ").append(shapeOf(entry.getValue()));
+            }
+            return shape.append('}').toString();
+        }
+        if (value.isArray()) {
+            List<BsonValue> values = value.asArray().getValues();
+            // Arreglos de subdocumentos ($and, $or, pipelines) conservan su estructura; los de valores ($in) no
+            if (!values.isEmpty() && values.get(0).isDocument()) {
+                List<String> shapes = new ArrayList<>();
+                values.forEach(element -> shapes.add(shapeOf(element)));
+                return "[" + String.join(", ", shapes) + "]";
+            }
+            return "[?]";
+        }
+        return "?";
+    }
+
+    private static String planKey(String collection, String shape) {
+        return collection + "|" + shape;
+    }
+
+    private static String collectionOf(CommandStartedEvent event) {
+        // getMore lleva el id del cursor en lugar de la colección
+        String field = "getMore".equals(event.getCommandName()) ? "collection" : event.getCommandName();
+        BsonValue target = event.getCommand().get(field);
+        return target != null && target.isString() ? target.asString().getValue() : "none";
+    }
+
+    private static BsonDocument documentOrNull(BsonValue value) {
+        return value != null && value.isDocument() ? value.asDocument().clone() : null;
+    }
+
+    private static BsonDocument firstStatementFilter(BsonValue statements) {
+        if (statements != null && statements.isArray() && !statements.asArray().isEmpty()
+                && statements.asArray().get(0).isDocument()) {
+            return documentOrNull(statements.asArray().get(0).asDocument().get("q"));
+        }
+        return null;
+    }
+}
@@ -1,11 +1,42 @@
 package wallet_service.eci.edu.co.config;
 
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
 
 @Configuration
 @EnableMongoRepositories(basePackages = "wallet_service.eci.edu.co.repository")
 @EnableMongoAuditing
 public class MongoConfig {
+
+    /**
+     * Registra el perfilador de comandos en los clientes de Mongo (bloqueante y reactivo)
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoCommandProfilerCustomizer(MongoCommandProfiler profiler) {
+        return settings -> settings.addCommandListener(profiler);
+    }
+
+    /**
+     * Agrega a cada proxy de repositorio el interceptor que identifica el método
+     * que origina cada comando de Mongo (etiqueta origin de mongodb.command)
+     */
+    @Bean
+    public static BeanPostProcessor repositoryOriginPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxyFactory, information) -> proxyFactory.addAdvice(
+                                    MongoCommandProfiler.originInterceptor(information.getRepositoryInterface()))));
+                }
+                return bean;
+            }
+        };
+    }
 }
@@ -0,0 +1,100 @@
+package wallet_service.eci.edu.co.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import org.springframework.web.cors.reactive.CorsConfigurationSource;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import wallet_service.eci.edu.co.util.CognitoPrincipalCache;
+import wallet_service.eci.edu.co.util.CognitoTokenWebFilter;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Seguridad del perfil "reactive": mismas reglas que {@link SecurityConfig} sobre la
+ * cadena de filtros de WebFlux, con el token de Cognito validado por
+ * {@link CognitoTokenWebFilter}.
+ */
+@Configuration
+@EnableWebFluxSecurity
+@Profile("reactive")
+public class ReactiveSecurityConfig {
+
+    private final CognitoPrincipalCache principalCache;
+    private final int managementPort;
+    private final int serverPort;
+
+    public ReactiveSecurityConfig(CognitoPrincipalCache principalCache,
+                                  @Value("${management.server.port:${server.port:8080}}") int managementPort,
+                                  @Value("${server.port:8080}") int serverPort) {
+        this.principalCache = principalCache;
+        this.managementPort = managementPort;
+        this.serverPort = serverPort;
+    }
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+        return http
+            .csrf(ServerHttpSecurity.CsrfSpec::disable)
+            .cors(cors -> cors.configurationSource(corsConfigurationSource()))
+            .httpBasic(ServerHttpSecurity.HttpBasicSpec::disable)
+            .formLogin(ServerHttpSecurity.FormLoginSpec::disable)
+            // Sin sesión: cada petición se autentica con su token
+            .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+            // Misma respuesta que el stack servlet para peticiones sin autenticar
+            .exceptionHandling(exceptions -> exceptions
+                .authenticationEntryPoint(new HttpStatusServerEntryPoint(HttpStatus.FORBIDDEN)))
+            .authorizeExchange(auth -> auth
+                // Permitir solicitudes OPTIONS (preflight CORS)
+                .pathMatchers(HttpMethod.OPTIONS).permitAll()
+                // Endpoints públicos
+                .pathMatchers("/api/stripe/public-key").permitAll()
+                .pathMatchers("/api/stripe/webhook/**").permitAll()
+                .pathMatchers("/api/stripe/webhook").permitAll()
+                .pathMatchers("/api/stripe/confirm-payment").permitAll()
+                .pathMatchers("/api/stripe/success").permitAll()
+                .pathMatchers("/api/stripe/cancel").permitAll()
+                .pathMatchers("/api/wallet/health").permitAll() // Endpoint de prueba
+                // Salud de Actuator; las métricas solo sin token en el puerto interno de gestión
+                .pathMatchers("/actuator/health").permitAll()
+                .matchers(prometheusOnManagementPort()).permitAll()
+                // TEMP para pruebas sin token
+                .pathMatchers("/api/stripe/checkout").permitAll()
+                // Diagnóstico interno (cachés, planes de índices, consultas lentas): solo administradores
+                .pathMatchers("/api/admin/**").hasRole("ADMIN")
+                // Todos los demás endpoints requieren autenticación
+                .anyExchange().authenticated()
+            )
+            .addFilterAt(new CognitoTokenWebFilter(principalCache), SecurityWebFiltersOrder.AUTHENTICATION)
+            .build();
+    }
+
+    private ServerWebExchangeMatcher prometheusOnManagementPort() {
+        ServerWebExchangeMatcher prometheus = ServerWebExchangeMatchers.pathMatchers("/actuator/prometheus");
+        return exchange -> {
+            InetSocketAddress localAddress = exchange.getRequest().getLocalAddress();
+            return localAddress != null
+                    && SecurityConfig.isManagementPort(localAddress.getPort(), managementPort, serverPort)
+                    ? prometheus.matches(exchange)
+                    : ServerWebExchangeMatcher.MatchResult.notMatch();
+        };
+    }
+
+    @Bean
+    public CorsConfigurationSource corsConfigurationSource() {
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", SecurityConfig.corsConfiguration());
+        return source;
+    }
+}
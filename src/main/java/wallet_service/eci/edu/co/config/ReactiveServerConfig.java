@@ -0,0 +1,21 @@
+package wallet_service.eci.edu.co.config;
+
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Servidor del perfil "reactive". Tomcat sigue en el classpath por el stack servlet
+ * y Spring Boot lo preferiría también para WebFlux; se fija Netty para que el
+ * perfil corra sobre el event loop sin hilos por petición.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveServerConfig {
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
@@ -1,7 +1,10 @@
 package wallet_service.eci.edu.co.config;
 
+import jakarta.servlet.DispatcherType;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -16,12 +19,19 @@ import java.util.Arrays;
 
 @Configuration
 @EnableWebSecurity
+@Profile("!reactive")
 public class SecurityConfig {
 
     private final CognitoTokenFilter cognitoTokenFilter;
+    private final int managementPort;
+    private final int serverPort;
 
-    public SecurityConfig(CognitoTokenFilter cognitoTokenFilter) {
+    public SecurityConfig(CognitoTokenFilter cognitoTokenFilter,
+                          @Value("${management.server.port:${server.port:8080}}") int managementPort,
+                          @Value("${server.port:8080}") int serverPort) {
         this.cognitoTokenFilter = cognitoTokenFilter;
+        this.managementPort = managementPort;
+        this.serverPort = serverPort;
     }
 
     @Bean
@@ -32,6 +42,8 @@ public class SecurityConfig {
             .sessionManagement(session -> session
                 .sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
+                // Los despachos async (respuestas CompletableFuture) ya se autorizaron en la petición original
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // Permitir solicitudes OPTIONS (preflight CORS)
                 .requestMatchers(request -> "OPTIONS".equals(request.getMethod())).permitAll()
                 // Endpoints públicos
@@ -42,8 +54,14 @@ public class SecurityConfig {
                 .requestMatchers("/api/stripe/success").permitAll()
                 .requestMatchers("/api/stripe/cancel").permitAll()
                 .requestMatchers("/api/wallet/health").permitAll() // Endpoint de prueba
+                // Salud de Actuator; las métricas solo sin token en el puerto interno de gestión
+                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers(request -> isManagementPort(request.getLocalPort(), managementPort, serverPort)
+                        && "/actuator/prometheus".equals(request.getRequestURI())).permitAll()
                 // TEMP para pruebas sin token
                 .requestMatchers("/api/stripe/checkout").permitAll()
+                // Diagnóstico interno (cachés, planes de índices, consultas lentas): solo administradores
+                .requestMatchers("/api/admin/**").hasRole("ADMIN")
                 // Todos los demás endpoints requieren autenticación
                 .anyRequest().authenticated()
             )
@@ -54,6 +72,24 @@ public class SecurityConfig {
 
     @Bean
     public CorsConfigurationSource corsConfigurationSource() {
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", corsConfiguration());
+        return source;
+    }
+
+    /**
+     * Compartido con ReactiveSecurityConfig: true si la petición llegó al puerto interno
+     * de Actuator. Si management.server.port coincide con el de la API no hay puerto
+     * interno y las métricas exigen token como el resto de endpoints
+     */
+    static boolean isManagementPort(int localPort, int managementPort, int serverPort) {
+        return managementPort != serverPort && localPort == managementPort;
+    }
+
+    /**
+     * Configuración CORS compartida con ReactiveSecurityConfig
+     */
+    static CorsConfiguration corsConfiguration() {
         CorsConfiguration configuration = new CorsConfiguration();
         configuration.setAllowedOrigins(Arrays.asList(
             "https://uplearnfront.duckdns.org",
@@ -64,9 +100,6 @@ public class SecurityConfig {
         configuration.setAllowedHeaders(Arrays.asList("*"));
         configuration.setAllowCredentials(true);
         configuration.setExposedHeaders(Arrays.asList("Authorization"));
-        
-        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
-        source.registerCorsConfiguration("/**", configuration);
-        return source;
+        return configuration;
     }
 }
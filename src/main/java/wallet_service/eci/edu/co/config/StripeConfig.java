@@ -0,0 +1,61 @@
+package wallet_service.eci.edu.co.config;
+
+import com.stripe.StripeClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+
+/**
+ * Cliente de Stripe y executor dedicado para sus llamadas. Las llamadas a Stripe
+ * corren fuera de los hilos de Tomcat y con timeouts explícitos; la URL base es
+ * configurable para apuntar a un stub local en pruebas y pruebas de carga.
+ */
+@Configuration
+public class StripeConfig {
+
+    @Bean
+    public StripeClient stripeClient(@Value("${stripe.secretKey}") String secretKey,
+            @Value("${stripe.api-base:https://api.stripe.com}") String apiBase,
+            @Value("${stripe.connect-timeout:PT5S}") Duration connectTimeout,
+            @Value("${stripe.read-timeout:PT15S}") Duration readTimeout,
+            @Value("${stripe.max-network-retries:1}") int maxNetworkRetries) {
+        return StripeClient.builder()
+                .setApiKey(secretKey)
+                .setApiBase(apiBase)
+                .setConnectTimeout((int) connectTimeout.toMillis())
+                .setReadTimeout((int) readTimeout.toMillis())
+                .setMaxNetworkRetries(maxNetworkRetries)
+                .build();
+    }
+
+    /**
+     * Executor de las llamadas a Stripe. Con spring.threads.virtual.enabled usa un hilo
+     * virtual por llamada, acotando solo la concurrencia hacia Stripe; si no, un pool
+     * fijo de hilos de plataforma con cola.
+     */
+    @Bean(name = "stripeExecutor")
+    public AsyncTaskExecutor stripeExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${stripe.executor.pool-size:16}") int poolSize,
+            @Value("${stripe.executor.queue-capacity:500}") int queueCapacity,
+            @Value("${stripe.executor.virtual-concurrency-limit:256}") int virtualConcurrencyLimit) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("stripe-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(virtualConcurrencyLimit);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("stripe-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+}
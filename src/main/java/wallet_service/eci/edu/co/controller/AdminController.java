@@ -0,0 +1,63 @@
+package wallet_service.eci.edu.co.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import wallet_service.eci.edu.co.config.IndexPlanVerifier;
+import wallet_service.eci.edu.co.config.MongoCommandProfiler;
+import wallet_service.eci.edu.co.service.WalletBalanceCache;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    private final WalletBalanceCache walletBalanceCache;
+    private final IndexPlanVerifier indexPlanVerifier;
+    private final MongoCommandProfiler mongoCommandProfiler;
+
+    public AdminController(WalletBalanceCache walletBalanceCache, IndexPlanVerifier indexPlanVerifier,
+            MongoCommandProfiler mongoCommandProfiler) {
+        this.walletBalanceCache = walletBalanceCache;
+        this.indexPlanVerifier = indexPlanVerifier;
+        this.mongoCommandProfiler = mongoCommandProfiler;
+    }
+
+    /**
+     * Estadísticas del near-cache de saldos (aciertos, fallos y desalojos)
+     */
+    @GetMapping("/cache/balances")
+    public Map<String, Object> getBalanceCacheStats() {
+        CacheStats stats = walletBalanceCache.stats();
+        return Map.of(
+                "size", walletBalanceCache.size(),
+                "hitCount", stats.hitCount(),
+                "missCount", stats.missCount(),
+                "hitRate", stats.hitRate(),
+                "missRate", stats.missRate(),
+                "evictionCount", stats.evictionCount());
+    }
+
+    /**
+     * Resultado de la última verificación de planes de consulta (COLLSCAN / SORT en memoria)
+     */
+    @GetMapping("/index-report")
+    public Map<String, List<String>> getIndexReport() {
+        return indexPlanVerifier.getLastReport();
+    }
+
+    /**
+     * Últimos comandos de Mongo que superaron el umbral de lentitud, con la forma
+     * del filtro, el método de repositorio que los originó y el plan de explain()
+     */
+    @GetMapping("/slow-queries")
+    public Map<String, Object> getSlowQueries(@RequestParam(defaultValue = "50") int limit) {
+        return Map.of(
+                "totalCaptured", mongoCommandProfiler.slowQueryCount(),
+                "queries", mongoCommandProfiler.recentSlowQueries(limit));
+    }
+}
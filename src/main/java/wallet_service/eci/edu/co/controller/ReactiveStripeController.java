@@ -0,0 +1,168 @@
+package wallet_service.eci.edu.co.controller;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.checkout.Session;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import wallet_service.eci.edu.co.dto.ProductRequest;
+import wallet_service.eci.edu.co.dto.StripeResponse;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.service.ReactiveWalletService;
+import wallet_service.eci.edu.co.service.StripeEventService;
+import wallet_service.eci.edu.co.service.StripeService;
+
+/**
+ * Endpoints de {@link StripeController} sobre WebFlux (perfil "reactive"). Las
+ * llamadas a Stripe ya corren en el executor de Stripe y se adaptan con
+ * Mono.fromFuture; las escrituras en la cola de eventos usan el repositorio
+ * bloqueante, por lo que se ejecutan en el scheduler elástico.
+ */
+@RestController
+@RequestMapping("/api/stripe")
+@CrossOrigin(origins = "*")
+@Profile("reactive")
+public class ReactiveStripeController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveStripeController.class);
+    private static final String STATUS_SUCCESS = "success";
+    private static final String MESSAGE = "message";
+    private static final String ERROR = "error";
+
+    private final StripeService stripeService;
+    private final ReactiveWalletService walletService;
+    private final StripeEventService eventService;
+
+    @Value("${stripe.publicKey}")
+    private String publicKey;
+
+    public ReactiveStripeController(StripeService stripeService, ReactiveWalletService walletService,
+            StripeEventService eventService) {
+        this.stripeService = stripeService;
+        this.walletService = walletService;
+        this.eventService = eventService;
+    }
+
+    @PostMapping("/checkout")
+    public Mono<ResponseEntity<StripeResponse>> createCheckout(@RequestBody ProductRequest request,
+                                                        Authentication authentication) {
+        String userId = (authentication != null) ? authentication.getName() : "TEST_USER";
+        return Mono.fromFuture(() -> stripeService.createCheckoutSessionAsync(request, userId))
+                .map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/public-key")
+    public Map<String, String> getPublicKey() {
+        return Map.of("publicKey", publicKey);
+    }
+
+    @GetMapping("/success")
+    public Map<String, Object> success(@RequestParam(name = "session_id", required = false) String sessionId) {
+        return Map.of("status", STATUS_SUCCESS, "sessionId", sessionId);
+    }
+
+    @GetMapping("/cancel")
+    public Map<String, Object> cancel() {
+        return Map.of("status", "canceled", MESSAGE, "Pago cancelado por el usuario");
+    }
+
+    /**
+     * Confirma un pago y acredita los tokens: primero el ledger, luego la cola del
+     * webhook y por último la sesión en Stripe
+     */
+    @PostMapping("/confirm-payment")
+    public Mono<ResponseEntity<Object>> confirmPayment(@RequestBody Map<String, String> payload) {
+        String rawSessionId = payload.get("sessionId");
+        logger.info("Confirmando pago. sessionId raw: {}", rawSessionId);
+
+        if (rawSessionId == null || rawSessionId.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of(ERROR, "sessionId es requerido")));
+        }
+
+        int hashIndex = rawSessionId.indexOf('#');
+        if (hashIndex != -1) rawSessionId = rawSessionId.substring(0, hashIndex);
+
+        String sessionId = rawSessionId.trim();
+        logger.info("SessionId normalizado: {}", sessionId);
+
+        Mono<Transaction> recorded = walletService.findTransactionByStripeSession(sessionId)
+                .switchIfEmpty(Mono.fromCallable(() -> eventService.creditQueued(sessionId).orElse(null))
+                        .subscribeOn(Schedulers.boundedElastic()));
+        return recorded
+                .map(purchase -> StripeController.purchaseResponse(purchase.getTokensAmount(),
+                        Optional.ofNullable(purchase.getMoneyAmount()).orElse(0.0)))
+                .switchIfEmpty(Mono.defer(() -> Mono.fromFuture(stripeService.retrieveSessionAsync(sessionId))
+                        .flatMap(session -> creditSession(session, sessionId))))
+                .onErrorResume(e -> Mono.just(ResponseEntity.badRequest()
+                        .body(Map.of(ERROR, "Error al procesar el pago: " + e.getMessage()))));
+    }
+
+    private Mono<ResponseEntity<Object>> creditSession(Session session, String sessionId) {
+        logger.info("Session recuperada. Status: {}, Payment Status: {}",
+                session.getStatus(), session.getPaymentStatus());
+
+        if (!"complete".equals(session.getStatus()) || !"paid".equals(session.getPaymentStatus())) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of(ERROR, "El pago no ha sido completado")));
+        }
+
+        Map<String, String> metadata = session.getMetadata();
+        String userId = metadata.get("userId");
+        String tokensStr = metadata.get("tokens");
+        String tokenPriceStr = metadata.get("tokenPrice");
+
+        if (userId == null || tokensStr == null || tokenPriceStr == null) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of(ERROR, "Metadata incompleta en la sesión")));
+        }
+
+        int tokens = Integer.parseInt(tokensStr);
+        double amount = tokens * Double.parseDouble(tokenPriceStr);
+
+        // processPurchase crea la wallet si no existe al acreditar la compra
+        return walletService.processPurchase(userId, tokens, amount, sessionId)
+                .thenReturn(StripeController.purchaseResponse(tokens, amount));
+    }
+
+    /**
+     * Recibe los webhooks de Stripe. Verifica la firma y encola los eventos de
+     * checkout pagado; la acreditación la hace StripeEventWorker.
+     */
+    @PostMapping("/webhook")
+    public Mono<ResponseEntity<Void>> handleStripeWebhook(@RequestBody String payload,
+            @RequestHeader(value = "Stripe-Signature", required = false) String sigHeader) {
+        if (sigHeader == null || sigHeader.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        if (!eventService.isWebhookConfigured()) {
+            // Stripe reintenta las entregas que no reciben 2xx: se acreditan al configurar el secreto
+            logger.error("Webhook de Stripe rechazado: stripe.webhookSecret no está configurado");
+            return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        }
+        return Mono.fromCallable(() -> eventService.enqueue(payload, sigHeader))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(queued -> {
+                    logger.debug("Webhook de Stripe recibido (encolado: {})", queued);
+                    return ResponseEntity.ok().<Void>build();
+                })
+                .onErrorResume(SignatureVerificationException.class, e -> {
+                    logger.warn("Webhook de Stripe con firma inválida: {}", e.getMessage());
+                    return Mono.just(ResponseEntity.badRequest().build());
+                })
+                .onErrorResume(e -> {
+                    // Stripe reintenta las entregas que no reciben 2xx
+                    logger.error("Error encolando webhook de Stripe: {}", e.getMessage());
+                    return Mono.just(ResponseEntity.internalServerError().build());
+                });
+    }
+}
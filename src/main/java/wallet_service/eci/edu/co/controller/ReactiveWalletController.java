@@ -0,0 +1,366 @@
+package wallet_service.eci.edu.co.controller;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import wallet_service.eci.edu.co.dto.BalanceResponse;
+import wallet_service.eci.edu.co.dto.TransactionPage;
+import wallet_service.eci.edu.co.dto.TransactionReport;
+import wallet_service.eci.edu.co.dto.TransferRequest;
+import wallet_service.eci.edu.co.dto.WalletSummary;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.repository.TransactionReports;
+import wallet_service.eci.edu.co.service.ReactiveWalletService;
+import wallet_service.eci.edu.co.service.TransactionExportService;
+import wallet_service.eci.edu.co.service.TransactionExportService.ExportFormat;
+import wallet_service.eci.edu.co.service.WalletService;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Endpoints de {@link WalletController} sobre WebFlux (perfil "reactive"). Las
+ * rutas, validaciones y respuestas son las mismas para poder comparar ambos stacks
+ * con el mismo cliente.
+ */
+@RestController
+@RequestMapping("/api/wallet")
+@CrossOrigin(origins = "*")
+@Profile("reactive")
+public class ReactiveWalletController {
+
+    private static final String STUDENT_ROLE = "STUDENT";
+    private static final String TUTOR_ROLE = "TUTOR";
+    private static final String USER_ID_KEY = "userId";
+    private static final String ERROR_KEY = "error";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final int DEFAULT_REPORT_SIZE = 100;
+    private static final int MAX_REPORT_SIZE = 1000;
+
+    private final ReactiveWalletService walletService;
+    private final WalletService blockingWalletService;
+    private final TransactionExportService exportService;
+
+    public ReactiveWalletController(ReactiveWalletService walletService, WalletService blockingWalletService,
+            TransactionExportService exportService) {
+        this.walletService = walletService;
+        this.blockingWalletService = blockingWalletService;
+        this.exportService = exportService;
+    }
+
+    /**
+     * Obtiene la wallet del estudiante
+     */
+    @GetMapping("/student")
+    public Mono<ResponseEntity<Wallet>> getStudentWallet(@AuthenticationPrincipal CognitoUserInfo userInfo) {
+        return walletResponse(userInfo, STUDENT_ROLE);
+    }
+
+    /**
+     * Obtiene la wallet del tutor
+     */
+    @GetMapping("/tutor")
+    public Mono<ResponseEntity<Wallet>> getTutorWallet(@AuthenticationPrincipal CognitoUserInfo userInfo) {
+        return walletResponse(userInfo, TUTOR_ROLE);
+    }
+
+    private Mono<ResponseEntity<Wallet>> walletResponse(CognitoUserInfo userInfo, String role) {
+        return walletService.getOrCreateWallet(userInfo.getSub(), role, userInfo.getEmail())
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build()));
+    }
+
+    /**
+     * Obtiene el saldo de tokens del estudiante
+     */
+    @GetMapping("/balance/student")
+    public Mono<ResponseEntity<BalanceResponse>> getStudentBalance(Authentication authentication) {
+        return balanceResponse(authentication.getName(), STUDENT_ROLE);
+    }
+
+    /**
+     * Obtiene el saldo de tokens del tutor
+     */
+    @GetMapping("/balance/tutor")
+    public Mono<ResponseEntity<BalanceResponse>> getTutorBalance(Authentication authentication) {
+        return balanceResponse(authentication.getName(), TUTOR_ROLE);
+    }
+
+    private Mono<ResponseEntity<BalanceResponse>> balanceResponse(String userId, String role) {
+        return walletService.getTokenBalance(userId, role)
+                .map(balance -> ResponseEntity.ok(new BalanceResponse(userId, role, balance)))
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(
+                        new BalanceResponse(userId, role, 0, "No se pudo obtener la wallet: " + e.getMessage()))));
+    }
+
+    /**
+     * Transfiere tokens de un estudiante a un tutor cuando se acepta una
+     * reservación
+     */
+    @PostMapping("/transfer")
+    public Mono<ResponseEntity<Map<String, Object>>> transferTokens(Authentication authentication,
+            @RequestBody Map<String, Object> request) {
+        String fromUserId = (String) request.get("fromUserId"); // Estudiante que hace la reserva
+        String toUserId = (String) request.get("toUserId"); // Tutor que recibe los tokens
+        String reservationId = (String) request.get("reservationId");
+        Integer tokens = (Integer) request.get("tokens");
+
+        if (fromUserId == null || fromUserId.isEmpty()) {
+            return badRequest("El ID del estudiante es requerido");
+        }
+        if (toUserId == null || toUserId.isEmpty()) {
+            return badRequest("El ID del tutor es requerido");
+        }
+        if (tokens == null || tokens <= 0) {
+            return badRequest("La cantidad de tokens debe ser mayor a 0");
+        }
+
+        return walletService.transferTokens(fromUserId, toUserId, tokens,
+                        "Pago por reservación: " + reservationId, reservationId)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> operationError(e, "Error al transferir tokens: "));
+    }
+
+    /**
+     * Transfiere tokens para un lote de reservaciones (liquidación de fin de día).
+     * El lote usa las escrituras masivas de WalletService, que son bloqueantes, por
+     * lo que corre en el scheduler elástico y no en el event loop.
+     */
+    @PostMapping("/transfer/batch")
+    public Mono<ResponseEntity<Object>> transferTokensBatch(Authentication authentication,
+            @RequestBody List<TransferRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of(ERROR_KEY, "El lote de transferencias está vacío")));
+        }
+        if (requests.size() > MAX_BATCH_SIZE) {
+            return Mono.just(ResponseEntity.badRequest()
+                    .body(Map.of(ERROR_KEY, "El lote no puede superar " + MAX_BATCH_SIZE + " transferencias")));
+        }
+        return Mono.fromCallable(() -> blockingWalletService.transferTokensBatch(requests))
+                .subscribeOn(Schedulers.boundedElastic())
+                .<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(Map.of(ERROR_KEY, "Error al transferir tokens: " + e.getMessage()))));
+    }
+
+    /**
+     * Maneja cancelaciones tanto por estudiante como por tutor.
+     */
+    @PostMapping("/refund")
+    public Mono<ResponseEntity<Map<String, Object>>> refundOnCancellation(Authentication authentication,
+            @RequestBody Map<String, Object> request) {
+        String fromUserId = (String) request.get("fromUserId"); // Estudiante
+        String toUserId = (String) request.get("toUserId"); // Tutor
+        String reservationId = (String) request.get("reservationId");
+        String cancelledBy = (String) request.get("cancelledBy");
+        String reason = (String) request.getOrDefault("reason", "Cancelación de reservación");
+        if (reservationId == null || reservationId.isBlank()) {
+            return badRequest("El 'reservationId' es requerido");
+        }
+        if (cancelledBy == null || cancelledBy.isBlank()) {
+            return badRequest("El campo 'cancelledBy' es requerido (STUDENT o TUTOR)");
+        }
+        if (fromUserId == null || fromUserId.isBlank()) {
+            return badRequest("El ID del estudiante ('fromUserId') es requerido");
+        }
+        if (toUserId == null || toUserId.isBlank()) {
+            return badRequest("El ID del tutor ('toUserId') es requerido");
+        }
+        if (!STUDENT_ROLE.equalsIgnoreCase(cancelledBy) && !TUTOR_ROLE.equalsIgnoreCase(cancelledBy)) {
+            return badRequest("Valor inválido para 'cancelledBy'. Use STUDENT o TUTOR");
+        }
+
+        return walletService.refundTokensByBooking(fromUserId, toUserId, reservationId,
+                        reason + " - Cancelación por " + cancelledBy + " - Reservación: " + reservationId)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> operationError(e, "Error al procesar cancelación: "));
+    }
+
+    private static Mono<ResponseEntity<Map<String, Object>>> badRequest(String message) {
+        return Mono.just(ResponseEntity.badRequest().body(Map.of(ERROR_KEY, message)));
+    }
+
+    private static Mono<ResponseEntity<Map<String, Object>>> operationError(Throwable e, String prefix) {
+        if (e instanceof WalletService.OperationInProgressException) {
+            return Mono.just(ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(ERROR_KEY, e.getMessage())));
+        }
+        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of(ERROR_KEY, prefix + e.getMessage())));
+    }
+
+    /**
+     * Verifica si el estudiante tiene suficientes tokens
+     */
+    @GetMapping("/student/check/{tokens}")
+    public Mono<ResponseEntity<Object>> checkStudentTokens(Authentication authentication,
+            @PathVariable Integer tokens) {
+        return walletService.checkTokens(authentication.getName(), STUDENT_ROLE, tokens)
+                .<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(Map.of(ERROR_KEY, "Error al verificar tokens: " + e.getMessage()))));
+    }
+
+    /**
+     * Obtiene el historial de transacciones del estudiante (paginado por cursor)
+     */
+    @GetMapping("/student/transactions")
+    public Mono<ResponseEntity<TransactionPage>> getStudentTransactions(Authentication authentication,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return transactionPage(authentication.getName(), STUDENT_ROLE, WalletController.parseType(type), null, null,
+                cursor, limit);
+    }
+
+    /**
+     * Obtiene transacciones en un rango de fechas del estudiante (paginado por cursor)
+     */
+    @GetMapping("/student/transactions/range")
+    public Mono<ResponseEntity<TransactionPage>> getStudentTransactionsByRange(
+            Authentication authentication,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return transactionPage(authentication.getName(), STUDENT_ROLE, null, startDate, endDate, cursor, limit);
+    }
+
+    /**
+     * Obtiene transacciones en un rango de fechas del tutor (paginado por cursor)
+     */
+    @GetMapping("/tutor/transactions/range")
+    public Mono<ResponseEntity<TransactionPage>> getTutorTransactionsByRange(
+            Authentication authentication,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return transactionPage(authentication.getName(), TUTOR_ROLE, null, startDate, endDate, cursor, limit);
+    }
+
+    /**
+     * Resumen de la wallet del estudiante o del tutor desde sus contadores
+     */
+    @GetMapping("/{role}/summary")
+    public Mono<ResponseEntity<WalletSummary>> getWalletSummary(Authentication authentication,
+            @PathVariable String role,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth month,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate day) {
+        String walletRole = role.toUpperCase();
+        if (!STUDENT_ROLE.equals(walletRole) && !TUTOR_ROLE.equals(walletRole)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return walletService.getWalletSummary(authentication.getName(), walletRole, month, day)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build()));
+    }
+
+    /**
+     * Reporte agregado de la wallet por periodo o por reservación (ver {@link WalletController})
+     */
+    @GetMapping("/{role}/reports")
+    public Mono<ResponseEntity<TransactionReport>> getTransactionReport(Authentication authentication,
+            @PathVariable String role,
+            @RequestParam(defaultValue = "month") String groupBy,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) Integer limit) {
+        String walletRole = role.toUpperCase();
+        TransactionReports.Grouping grouping = WalletController.parseGrouping(groupBy);
+        if ((!STUDENT_ROLE.equals(walletRole) && !TUTOR_ROLE.equals(walletRole)) || grouping == null) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        int rows = (limit == null || limit <= 0) ? DEFAULT_REPORT_SIZE : Math.min(limit, MAX_REPORT_SIZE);
+        return walletService.getTransactionReport(authentication.getName(), walletRole, grouping,
+                        WalletController.parseType(type), startDate, endDate, rows)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build()));
+    }
+
+    /**
+     * Exporta el historial completo del estudiante o del tutor como NDJSON o CSV.
+     * Cada documento se escribe en cuanto el cursor de Mongo lo entrega, y el
+     * cursor solo pide más cuando el cliente consumió lo anterior (backpressure).
+     */
+    @GetMapping("/{role}/transactions/export")
+    public ResponseEntity<Flux<DataBuffer>> exportTransactions(Authentication authentication,
+            @PathVariable String role,
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+        String walletRole = role.toUpperCase();
+        if (!STUDENT_ROLE.equals(walletRole) && !TUTOR_ROLE.equals(walletRole)) {
+            return ResponseEntity.badRequest().build();
+        }
+        ExportFormat exportFormat;
+        try {
+            exportFormat = ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        DefaultDataBufferFactory buffers = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.concat(
+                Mono.fromSupplier(() -> buffers.wrap(exportService.header(exportFormat))),
+                walletService.streamHistory(authentication.getName(), walletRole, WalletController.parseType(type),
+                                startDate, endDate)
+                        .map(transaction -> buffers.wrap(exportService.line(transaction, exportFormat))));
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"transactions-"
+                        + role.toLowerCase() + "." + exportFormat.getExtension() + "\"")
+                .body(body);
+    }
+
+    private Mono<ResponseEntity<TransactionPage>> transactionPage(String userId, String role,
+            Transaction.TransactionType type, LocalDateTime startDate, LocalDateTime endDate,
+            String cursor, Integer limit) {
+        int pageSize = (limit == null || limit <= 0) ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        return walletService.getTransactionPage(userId, role, type, startDate, endDate, cursor, pageSize)
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()))
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build()));
+    }
+
+    /**
+     * Acredita una compra exitosa de Stripe en la wallet del ESTUDIANTE
+     */
+    @PostMapping("/process-purchase")
+    public Mono<ResponseEntity<Map<String, Object>>> processPurchase(@RequestBody Map<String, Object> purchaseData) {
+        return Mono.defer(() -> {
+                    String userId = (String) purchaseData.get(USER_ID_KEY);
+                    Integer tokens = (Integer) purchaseData.get("tokens");
+                    Double amount = ((Number) purchaseData.get("amount")).doubleValue();
+                    String stripeSessionId = (String) purchaseData.get("stripeSessionId");
+                    // Las compras siempre van a la wallet del estudiante
+                    return walletService.processPurchase(userId, tokens, amount, stripeSessionId);
+                })
+                .map(transaction -> ResponseEntity.ok(Map.<String, Object>of(
+                        "success", true,
+                        "message", "Compra procesada exitosamente",
+                        "transaction", transaction,
+                        "role", STUDENT_ROLE)))
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(Map.of(ERROR_KEY, "Error al procesar compra: " + e.getMessage()))));
+    }
+}
@@ -1,27 +1,34 @@
 package wallet_service.eci.edu.co.controller;
 
 import java.util.Map;
-
-import jakarta.annotation.PostConstruct;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
-import com.stripe.Stripe;
+import com.stripe.exception.SignatureVerificationException;
 import com.stripe.model.checkout.Session;
 
 import wallet_service.eci.edu.co.dto.ProductRequest;
 import wallet_service.eci.edu.co.dto.StripeResponse;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.service.StripeEventService;
 import wallet_service.eci.edu.co.service.StripeService;
+import wallet_service.eci.edu.co.service.WalletMetrics;
 import wallet_service.eci.edu.co.service.WalletService;
 
 @RestController
 @RequestMapping("/api/stripe")
 @CrossOrigin(origins = "*")
+@Profile("!reactive")
 public class StripeController {
 
     private static final Logger logger = LoggerFactory.getLogger(StripeController.class);
@@ -31,30 +38,29 @@ public class StripeController {
 
     private final StripeService stripeService;
     private final WalletService walletService;
+    private final StripeEventService eventService;
+    private final WalletMetrics metrics;
 
     @Value("${stripe.publicKey}")
     private String publicKey;
 
-    @Value("${stripe.secretKey}")
-    private String secretKey;
-
-    public StripeController(StripeService stripeService, WalletService walletService) {
+    public StripeController(StripeService stripeService, WalletService walletService,
+            StripeEventService eventService, WalletMetrics metrics) {
         this.stripeService = stripeService;
         this.walletService = walletService;
+        this.eventService = eventService;
+        this.metrics = metrics;
     }
 
-    @PostConstruct
-    public void init() {
-        Stripe.apiKey = secretKey;
-        logger.info("Stripe apiKey inicializada (secretKey configurada: {})", secretKey != null && !secretKey.isBlank());
-    }
-
+    /**
+     * Crea la sesión de checkout. La llamada a Stripe corre en el executor de Stripe
+     * y el hilo de la petición se libera mientras tanto.
+     */
     @PostMapping("/checkout")
-    public ResponseEntity<StripeResponse> createCheckout(@RequestBody ProductRequest request,
+    public CompletableFuture<ResponseEntity<StripeResponse>> createCheckout(@RequestBody ProductRequest request,
                                                         Authentication authentication) {
         String userId = (authentication != null) ? authentication.getName() : "TEST_USER";
-        StripeResponse response = stripeService.createCheckoutSession(request, userId);
-        return ResponseEntity.ok(response);
+        return stripeService.createCheckoutSessionAsync(request, userId).thenApply(ResponseEntity::ok);
     }
 
     @GetMapping("/public-key")
@@ -72,64 +78,114 @@ public class StripeController {
         return Map.of("status", "canceled", MESSAGE, "Pago cancelado por el usuario");
     }
 
+    /**
+     * Confirma un pago y acredita los tokens. Si la compra ya está en el ledger o su
+     * evento ya llegó por el webhook, responde sin consultar a Stripe. Si no, la
+     * sesión se recupera de Stripe en el executor de Stripe y el hilo de la petición
+     * se libera mientras tanto.
+     */
     @PostMapping("/confirm-payment")
-    public ResponseEntity<Object> confirmPayment(@RequestBody Map<String, String> payload) {
-        try {
-            String rawSessionId = payload.get("sessionId");
-            logger.info("Confirmando pago. sessionId raw: {}", rawSessionId);
+    public CompletableFuture<ResponseEntity<Object>> confirmPayment(@RequestBody Map<String, String> payload) {
+        String rawSessionId = payload.get("sessionId");
+        // Líneas de diagnóstico muestreadas (wallet.logging.sample-rate); processPurchase escribe el resumen
+        Logger log = metrics.diagnostics(logger, "confirmPayment");
+        log.info("Confirmando pago. sessionId raw: {}", rawSessionId);
+
+        if (rawSessionId == null || rawSessionId.isBlank()) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of(ERROR, "sessionId es requerido")));
+        }
 
-            if (rawSessionId == null || rawSessionId.isBlank()) {
-                return ResponseEntity.badRequest().body(Map.of(ERROR, "sessionId es requerido"));
-            }
+        int hashIndex = rawSessionId.indexOf('#');
+        if (hashIndex != -1) rawSessionId = rawSessionId.substring(0, hashIndex);
 
-            int hashIndex = rawSessionId.indexOf('#');
-            if (hashIndex != -1) rawSessionId = rawSessionId.substring(0, hashIndex);
+        String sessionId = rawSessionId.trim();
+        log.info("SessionId normalizado: {}", sessionId);
 
-            String sessionId = rawSessionId.trim();
-            logger.info("SessionId normalizado: {}", sessionId);
+        try {
+            Optional<Transaction> purchase = walletService.findTransactionByStripeSession(sessionId)
+                    .or(() -> eventService.creditQueued(sessionId));
+            if (purchase.isPresent()) {
+                return CompletableFuture.completedFuture(purchaseResponse(purchase.get().getTokensAmount(),
+                        Optional.ofNullable(purchase.get().getMoneyAmount()).orElse(0.0)));
+            }
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body(Map.of(ERROR, "Error al procesar el pago: " + e.getMessage())));
+        }
 
+        return stripeService.retrieveSessionAsync(sessionId)
+                .thenApply(session -> creditSession(session, sessionId, log))
+                .exceptionally(e -> {
+                    Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+                    return ResponseEntity.badRequest()
+                            .body(Map.of(ERROR, "Error al procesar el pago: " + cause.getMessage()));
+                });
+    }
 
-            Session session = Session.retrieve(sessionId);
+    private ResponseEntity<Object> creditSession(Session session, String sessionId, Logger log) {
+        log.info("Session recuperada. Status: {}, Payment Status: {}",
+                session.getStatus(), session.getPaymentStatus());
 
-            logger.info("Session recuperada. Status: {}, Payment Status: {}",
-                    session.getStatus(), session.getPaymentStatus());
+        if (!"complete".equals(session.getStatus()) || !"paid".equals(session.getPaymentStatus())) {
+            return ResponseEntity.badRequest().body(Map.of(ERROR, "El pago no ha sido completado"));
+        }
 
-            if (!"complete".equals(session.getStatus()) || !"paid".equals(session.getPaymentStatus())) {
-                return ResponseEntity.badRequest().body(Map.of(ERROR, "El pago no ha sido completado"));
-            }
+        Map<String, String> metadata = session.getMetadata();
+        String userId = metadata.get("userId");
+        String tokensStr = metadata.get("tokens");
+        String tokenPriceStr = metadata.get("tokenPrice");
 
-            Map<String, String> metadata = session.getMetadata();
-            String userId = metadata.get("userId");
-            String tokensStr = metadata.get("tokens");
-            String tokenPriceStr = metadata.get("tokenPrice");
+        if (userId == null || tokensStr == null || tokenPriceStr == null) {
+            return ResponseEntity.badRequest().body(Map.of(ERROR, "Metadata incompleta en la sesión"));
+        }
 
-            if (userId == null || tokensStr == null || tokenPriceStr == null) {
-                return ResponseEntity.badRequest().body(Map.of(ERROR, "Metadata incompleta en la sesión"));
-            }
+        int tokens = Integer.parseInt(tokensStr);
+        double tokenPrice = Double.parseDouble(tokenPriceStr);
+        double amount = tokens * tokenPrice;
 
-            int tokens = Integer.parseInt(tokensStr);
-            double tokenPrice = Double.parseDouble(tokenPriceStr);
-            double amount = tokens * tokenPrice;
+        // processPurchase crea la wallet si no existe al acreditar la compra
+        walletService.processPurchase(userId, tokens, amount, sessionId);
 
-            walletService.getOrCreateWallet(userId, "");
-            walletService.processPurchase(userId, tokens, amount, sessionId);
+        return purchaseResponse(tokens, amount);
+    }
 
-            return ResponseEntity.ok(Map.of(
-                    STATUS_SUCCESS, true,
-                    MESSAGE, "Pago procesado exitosamente",
-                    "tokens", tokens,
-                    "amount", amount
-            ));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of(ERROR, "Error al procesar el pago: " + e.getMessage()));
-        }
+    static ResponseEntity<Object> purchaseResponse(int tokens, double amount) {
+        return ResponseEntity.ok(Map.of(
+                STATUS_SUCCESS, true,
+                MESSAGE, "Pago procesado exitosamente",
+                "tokens", tokens,
+                "amount", amount
+        ));
     }
 
+    /**
+     * Recibe los webhooks de Stripe. Verifica la firma y encola los eventos de
+     * checkout pagado; la acreditación la hace StripeEventWorker, así que la
+     * respuesta solo espera una inserción en Mongo.
+     */
     @PostMapping("/webhook")
     public ResponseEntity<Void> handleStripeWebhook(@RequestBody String payload,
             @RequestHeader(value = "Stripe-Signature", required = false) String sigHeader) {
-        logger.info("Webhook recibido de Stripe");
-        logger.debug("Payload: {}", payload);
-        return ResponseEntity.ok().build();
+        if (sigHeader == null || sigHeader.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!eventService.isWebhookConfigured()) {
+            // Stripe reintenta las entregas que no reciben 2xx: se acreditan al configurar el secreto
+            logger.error("Webhook de Stripe rechazado: stripe.webhookSecret no está configurado");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            boolean queued = eventService.enqueue(payload, sigHeader);
+            logger.debug("Webhook de Stripe recibido (encolado: {})", queued);
+            return ResponseEntity.ok().build();
+        } catch (SignatureVerificationException e) {
+            logger.warn("Webhook de Stripe con firma inválida: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            // Stripe reintenta las entregas que no reciben 2xx
+            logger.error("Error encolando webhook de Stripe: {}", e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
     }
 }
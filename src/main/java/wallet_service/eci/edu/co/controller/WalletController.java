@@ -1,51 +1,69 @@
 package wallet_service.eci.edu.co.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import wallet_service.eci.edu.co.dto.BalanceResponse;
+import wallet_service.eci.edu.co.dto.TransactionPage;
+import wallet_service.eci.edu.co.dto.TransactionReport;
+import wallet_service.eci.edu.co.dto.TransferRequest;
+import wallet_service.eci.edu.co.dto.TransferResult;
+import wallet_service.eci.edu.co.dto.WalletSummary;
 import wallet_service.eci.edu.co.model.Transaction;
 import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.repository.TransactionReports;
+import wallet_service.eci.edu.co.service.TransactionExportService;
+import wallet_service.eci.edu.co.service.TransactionExportService.ExportFormat;
 import wallet_service.eci.edu.co.service.WalletService;
-import wallet_service.eci.edu.co.util.CognitoTokenDecoder;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/wallet")
 @CrossOrigin(origins = "*")
+@Profile("!reactive")
 public class WalletController {
 
     private static final String STUDENT_ROLE = "STUDENT";
     private static final String TUTOR_ROLE = "TUTOR";
     private static final String USER_ID_KEY = "userId";
     private static final String ERROR_KEY = "error";
-    private static final String TOKEN_BALANCE_KEY = "tokenBalance";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final int DEFAULT_REPORT_SIZE = 100;
+    private static final int MAX_REPORT_SIZE = 1000;
 
     private final WalletService walletService;
-    private final CognitoTokenDecoder tokenDecoder;
+    private final TransactionExportService exportService;
 
     @Autowired
-    public WalletController(WalletService walletService, CognitoTokenDecoder tokenDecoder) {
+    public WalletController(WalletService walletService, TransactionExportService exportService) {
         this.walletService = walletService;
-        this.tokenDecoder = tokenDecoder;
+        this.exportService = exportService;
     }
 
     /**
      * Obtiene la wallet del estudiante
      */
     @GetMapping("/student")
-    public ResponseEntity<Wallet> getStudentWallet(Authentication authentication,
-            @RequestHeader("Authorization") String token) {
+    public ResponseEntity<Wallet> getStudentWallet(@AuthenticationPrincipal CognitoUserInfo userInfo) {
         try {
-            String userId = authentication.getName();
-            CognitoTokenDecoder.CognitoUserInfo userInfo = tokenDecoder.extractUserInfo(token.replace("Bearer ", ""));
-
-            Wallet studentWallet = walletService.getOrCreateWallet(userId, STUDENT_ROLE, userInfo.getEmail());
+            Wallet studentWallet = walletService.getOrCreateWallet(userInfo.getSub(), STUDENT_ROLE,
+                    userInfo.getEmail());
 
             return ResponseEntity.ok(studentWallet);
         } catch (Exception e) {
@@ -58,12 +76,9 @@ public class WalletController {
      * Obtiene la wallet del tutor
      */
     @GetMapping("/tutor")
-    public ResponseEntity<Wallet> getTutorWallet(Authentication authentication,
-            @RequestHeader("Authorization") String token) {
+    public ResponseEntity<Wallet> getTutorWallet(@AuthenticationPrincipal CognitoUserInfo userInfo) {
         try {
-            String userId = authentication.getName();
-            CognitoTokenDecoder.CognitoUserInfo userInfo = tokenDecoder.extractUserInfo(token.replace("Bearer ", ""));
-            Wallet tutorWallet = walletService.getOrCreateWallet(userId, TUTOR_ROLE, userInfo.getEmail());
+            Wallet tutorWallet = walletService.getOrCreateWallet(userInfo.getSub(), TUTOR_ROLE, userInfo.getEmail());
 
             return ResponseEntity.ok(tutorWallet);
         } catch (Exception e) {
@@ -76,43 +91,25 @@ public class WalletController {
      * Obtiene el saldo de tokens del estudiante
      */
     @GetMapping("/balance/student")
-    public ResponseEntity<Map<String, Object>> getStudentBalance(Authentication authentication) {
-        try {
-            String userId = authentication.getName();
-            Integer balance = walletService.getTokenBalance(userId, STUDENT_ROLE);
-            return ResponseEntity.ok(Map.of(
-                    USER_ID_KEY, userId,
-                    "role", STUDENT_ROLE,
-                    TOKEN_BALANCE_KEY, balance));
-        } catch (Exception e) {
-            String userId = authentication.getName();
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
-                    USER_ID_KEY, userId,
-                    "role", STUDENT_ROLE,
-                    TOKEN_BALANCE_KEY, 0,
-                    "warning", "No se pudo obtener la wallet: " + e.getMessage()));
-        }
+    public ResponseEntity<BalanceResponse> getStudentBalance(Authentication authentication) {
+        return balanceResponse(authentication.getName(), STUDENT_ROLE);
     }
 
     /**
      * Obtiene el saldo de tokens del tutor
      */
     @GetMapping("/balance/tutor")
-    public ResponseEntity<Map<String, Object>> getTutorBalance(Authentication authentication) {
+    public ResponseEntity<BalanceResponse> getTutorBalance(Authentication authentication) {
+        return balanceResponse(authentication.getName(), TUTOR_ROLE);
+    }
+
+    private ResponseEntity<BalanceResponse> balanceResponse(String userId, String role) {
         try {
-            String userId = authentication.getName();
-            Integer balance = walletService.getTokenBalance(userId, TUTOR_ROLE);
-            return ResponseEntity.ok(Map.of(
-                    USER_ID_KEY, userId,
-                    "role", TUTOR_ROLE,
-                    TOKEN_BALANCE_KEY, balance));
+            Integer balance = walletService.getTokenBalance(userId, role);
+            return ResponseEntity.ok(new BalanceResponse(userId, role, balance));
         } catch (Exception e) {
-            String userId = authentication.getName();
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
-                    USER_ID_KEY, userId,
-                    "role", TUTOR_ROLE,
-                    TOKEN_BALANCE_KEY, 0,
-                    "warning", "No se pudo obtener la wallet: " + e.getMessage()));
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new BalanceResponse(
+                    userId, role, 0, "No se pudo obtener la wallet: " + e.getMessage()));
         }
     }
 
@@ -152,6 +149,31 @@ public class WalletController {
                     reservationId);
 
             return ResponseEntity.ok(result);
+        } catch (WalletService.OperationInProgressException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(ERROR_KEY, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of(ERROR_KEY, "Error al transferir tokens: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Transfiere tokens para un lote de reservaciones (liquidación de fin de día).
+     * Devuelve el resultado de cada elemento, incluidos los que fallaron.
+     */
+    @PostMapping("/transfer/batch")
+    public ResponseEntity<Object> transferTokensBatch(Authentication authentication,
+            @RequestBody List<TransferRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of(ERROR_KEY, "El lote de transferencias está vacío"));
+        }
+        if (requests.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of(ERROR_KEY, "El lote no puede superar " + MAX_BATCH_SIZE + " transferencias"));
+        }
+        try {
+            List<TransferResult> results = walletService.transferTokensBatch(requests);
+            return ResponseEntity.ok(results);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of(ERROR_KEY, "Error al transferir tokens: " + e.getMessage()));
@@ -201,6 +223,8 @@ public class WalletController {
                 return ResponseEntity.badRequest()
                         .body(Map.of(ERROR_KEY, "Valor inválido para 'cancelledBy'. Use STUDENT o TUTOR"));
             }
+        } catch (WalletService.OperationInProgressException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(ERROR_KEY, e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of(ERROR_KEY, "Error al procesar cancelación: " + e.getMessage()));
@@ -211,18 +235,11 @@ public class WalletController {
      * Verifica si el estudiante tiene suficientes tokens
      */
     @GetMapping("/student/check/{tokens}")
-    public ResponseEntity<Map<String, Object>> checkStudentTokens(Authentication authentication,
+    public ResponseEntity<Object> checkStudentTokens(Authentication authentication,
             @PathVariable Integer tokens) {
         try {
             String userId = authentication.getName();
-            boolean hasEnough = walletService.hasEnoughTokens(userId, STUDENT_ROLE, tokens);
-            Integer currentBalance = walletService.getTokenBalance(userId, STUDENT_ROLE);
-
-            return ResponseEntity.ok(Map.of(
-                    "hasEnoughTokens", hasEnough,
-                    "requiredTokens", tokens,
-                    "currentBalance", currentBalance,
-                    "role", STUDENT_ROLE));
+            return ResponseEntity.ok(walletService.checkTokens(userId, STUDENT_ROLE, tokens));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of(ERROR_KEY, "Error al verificar tokens: " + e.getMessage()));
@@ -230,31 +247,58 @@ public class WalletController {
     }
 
     /**
-     * Obtiene el historial de transacciones del estudiante
+     * Obtiene el historial de transacciones del estudiante (paginado por cursor)
      */
     @GetMapping("/student/transactions")
-    public ResponseEntity<List<Transaction>> getStudentTransactions(Authentication authentication,
-            @RequestParam(required = false) String type) {
-        try {
-            String userId = authentication.getName();
-            List<Transaction> transactions;
-
-            if (type != null) {
-                switch (type.toUpperCase()) {
-                    case "PURCHASE":
-                        transactions = walletService.getPurchaseHistory(userId, STUDENT_ROLE);
-                        break;
-                    case "USAGE":
-                        transactions = walletService.getUsageHistory(userId, STUDENT_ROLE);
-                        break;
-                    default:
-                        transactions = walletService.getTransactionHistory(userId, STUDENT_ROLE);
-                }
-            } else {
-                transactions = walletService.getTransactionHistory(userId, STUDENT_ROLE);
-            }
+    public ResponseEntity<TransactionPage> getStudentTransactions(Authentication authentication,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return transactionPage(authentication.getName(), STUDENT_ROLE, parseType(type), null, null, cursor, limit);
+    }
+
+    /**
+     * Obtiene transacciones en un rango de fechas del estudiante (paginado por cursor)
+     */
+    @GetMapping("/student/transactions/range")
+    public ResponseEntity<TransactionPage> getStudentTransactionsByRange(
+            Authentication authentication,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return transactionPage(authentication.getName(), STUDENT_ROLE, null, startDate, endDate, cursor, limit);
+    }
 
-            return ResponseEntity.ok(transactions);
+    /**
+     * Obtiene transacciones en un rango de fechas del tutor (paginado por cursor)
+     */
+    @GetMapping("/tutor/transactions/range")
+    public ResponseEntity<TransactionPage> getTutorTransactionsByRange(
+            Authentication authentication,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return transactionPage(authentication.getName(), TUTOR_ROLE, null, startDate, endDate, cursor, limit);
+    }
+
+    /**
+     * Resumen de la wallet del estudiante o del tutor: comprado, usado, ganado,
+     * reembolsado y cantidad de asientos del total, de un mes y de un día (por
+     * defecto el mes actual y hoy), leído de los contadores de la wallet
+     */
+    @GetMapping("/{role}/summary")
+    public ResponseEntity<WalletSummary> getWalletSummary(Authentication authentication,
+            @PathVariable String role,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth month,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate day) {
+        String walletRole = role.toUpperCase();
+        if (!STUDENT_ROLE.equals(walletRole) && !TUTOR_ROLE.equals(walletRole)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(walletService.getWalletSummary(authentication.getName(), walletRole, month, day));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .build();
@@ -262,19 +306,28 @@ public class WalletController {
     }
 
     /**
-     * Obtiene transacciones en un rango de fechas del estudiante
+     * Reporte agregado de la wallet del estudiante o del tutor: tokens, monto y
+     * cantidad de asientos por periodo (groupBy=day|week|month|year) o por
+     * reservación (groupBy=booking), por tipo y sentido. startDate es inclusiva y
+     * endDate exclusiva. La agregación corre en Mongo y solo viajan las filas.
      */
-    @GetMapping("/student/transactions/range")
-    public ResponseEntity<List<Transaction>> getStudentTransactionsByRange(
-            Authentication authentication,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+    @GetMapping("/{role}/reports")
+    public ResponseEntity<TransactionReport> getTransactionReport(Authentication authentication,
+            @PathVariable String role,
+            @RequestParam(defaultValue = "month") String groupBy,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) Integer limit) {
+        String walletRole = role.toUpperCase();
+        TransactionReports.Grouping grouping = parseGrouping(groupBy);
+        if ((!STUDENT_ROLE.equals(walletRole) && !TUTOR_ROLE.equals(walletRole)) || grouping == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        int rows = (limit == null || limit <= 0) ? DEFAULT_REPORT_SIZE : Math.min(limit, MAX_REPORT_SIZE);
         try {
-            String userId = authentication.getName();
-            List<Transaction> transactions = walletService.getTransactionsByDateRange(userId, STUDENT_ROLE, startDate,
-                    endDate);
-
-            return ResponseEntity.ok(transactions);
+            return ResponseEntity.ok(walletService.getTransactionReport(authentication.getName(), walletRole,
+                    grouping, parseType(type), startDate, endDate, rows));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .build();
@@ -282,25 +335,78 @@ public class WalletController {
     }
 
     /**
-     * Obtiene transacciones en un rango de fechas del tutor
+     * Convierte la agregación del reporte; un valor desconocido es inválido (null)
      */
-    @GetMapping("/tutor/transactions/range")
-    public ResponseEntity<List<Transaction>> getTutorTransactionsByRange(
-            Authentication authentication,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+    static TransactionReports.Grouping parseGrouping(String groupBy) {
         try {
-            String userId = authentication.getName();
-            List<Transaction> transactions = walletService.getTransactionsByDateRange(userId, TUTOR_ROLE, startDate,
-                    endDate);
+            return TransactionReports.Grouping.valueOf(groupBy.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Exporta el historial completo del estudiante o del tutor como NDJSON o CSV,
+     * escribiendo en streaming desde el cursor de Mongo
+     */
+    @GetMapping("/{role}/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(Authentication authentication,
+            @PathVariable String role,
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+        String walletRole = role.toUpperCase();
+        if (!STUDENT_ROLE.equals(walletRole) && !TUTOR_ROLE.equals(walletRole)) {
+            return ResponseEntity.badRequest().build();
+        }
+        ExportFormat exportFormat;
+        try {
+            exportFormat = ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
 
-            return ResponseEntity.ok(transactions);
+        String userId = authentication.getName();
+        Transaction.TransactionType transactionType = parseType(type);
+        StreamingResponseBody body = out -> exportService.export(userId, walletRole, exportFormat,
+                transactionType, startDate, endDate, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"transactions-"
+                        + role.toLowerCase() + "." + exportFormat.getExtension() + "\"")
+                .body(body);
+    }
+
+    private ResponseEntity<TransactionPage> transactionPage(String userId, String role,
+            Transaction.TransactionType type, LocalDateTime startDate, LocalDateTime endDate,
+            String cursor, Integer limit) {
+        int pageSize = (limit == null || limit <= 0) ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        try {
+            return ResponseEntity.ok(walletService.getTransactionPage(userId, role, type, startDate, endDate,
+                    cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .build();
         }
     }
 
+    /**
+     * Convierte el filtro de tipo; un valor desconocido equivale a no filtrar
+     */
+    static Transaction.TransactionType parseType(String type) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return Transaction.TransactionType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     /**
      * Webhook para procesar pagos exitosos de Stripe (llamado desde el
      * StripeService)
@@ -0,0 +1,21 @@
+package wallet_service.eci.edu.co.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BalanceResponse {
+    private String userId;
+    private String role;
+    private Integer tokenBalance;
+    private String warning;
+
+    public BalanceResponse(String userId, String role, Integer tokenBalance) {
+        this(userId, role, tokenBalance, null);
+    }
+}
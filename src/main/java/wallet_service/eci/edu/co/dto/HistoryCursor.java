@@ -0,0 +1,45 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Posición dentro del historial de transacciones (createdAt + _id del último
+ * elemento entregado). Se expone al cliente como un token opaco en Base64URL.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryCursor {
+
+    private static final char SEPARATOR = '|';
+
+    private LocalDateTime createdAt;
+    private String id;
+
+    public String encode() {
+        String raw = createdAt.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodifica un cursor recibido del cliente
+     * @param token Cursor opaco
+     * @return Cursor decodificado
+     * @throws IllegalArgumentException si el cursor es inválido
+     */
+    public static HistoryCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            return new HistoryCursor(LocalDateTime.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor inválido: " + token);
+        }
+    }
+}
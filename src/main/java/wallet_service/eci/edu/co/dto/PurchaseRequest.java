@@ -0,0 +1,15 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PurchaseRequest {
+    private String userId; // Sub de Cognito del estudiante que compra
+    private Integer tokens;
+    private Double amount; // Monto pagado en pesos
+    private String stripeSessionId;
+}
@@ -0,0 +1,15 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenCheckResponse {
+    private boolean hasEnoughTokens;
+    private Integer requiredTokens;
+    private Integer currentBalance;
+    private String role;
+}
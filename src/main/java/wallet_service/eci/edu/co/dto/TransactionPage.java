@@ -0,0 +1,16 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionPage {
+    private List<Transaction> items;
+    private String next; // Cursor de la siguiente página (null si no hay más)
+}
@@ -0,0 +1,16 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionReport {
+    private String groupBy; // day, week, month, year o booking
+    private List<TransactionReportRow> rows;
+    private boolean truncated; // true si se alcanzó el límite de filas
+}
@@ -0,0 +1,29 @@
+package wallet_service.eci.edu.co.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fila de un reporte agregado: un periodo (o una reservación), un tipo de asiento
+ * y un sentido, con sus totales
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransactionReportRow {
+    private String period; // yyyy-MM-dd, yyyy-Www, yyyy-MM o yyyy (null si se agrupa por reservación)
+    private String bookingId; // Solo al agrupar por reservación
+    private Transaction.TransactionType type;
+    private String category; // purchased, used, earned, refunded o returned (mismos contadores que el resumen)
+    private long tokens;
+    private double amount; // Monto en pesos (compras)
+    private long transactions;
+    private LocalDateTime firstAt;
+    private LocalDateTime lastAt;
+}
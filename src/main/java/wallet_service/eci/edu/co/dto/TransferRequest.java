@@ -0,0 +1,15 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferRequest {
+    private String fromUserId; // Estudiante que hace la reserva
+    private String toUserId; // Tutor que recibe los tokens
+    private String reservationId;
+    private Integer tokens;
+}
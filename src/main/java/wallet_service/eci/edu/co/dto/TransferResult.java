@@ -0,0 +1,23 @@
+package wallet_service.eci.edu.co.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferResult {
+    private int index; // Posición del elemento en el lote
+    private String reservationId;
+    private boolean success;
+    private String error;
+    private Integer studentNewBalance; // Saldo del estudiante tras este elemento (balanceAfter de su asiento)
+    private Integer tutorNewBalance; // Saldo del tutor tras este elemento (balanceAfter de su asiento)
+
+    public static TransferResult failure(int index, String reservationId, String error) {
+        return new TransferResult(index, reservationId, false, error, null, null);
+    }
+}
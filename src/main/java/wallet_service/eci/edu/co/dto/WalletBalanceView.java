@@ -0,0 +1,18 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proyección de una wallet con solo el saldo y la fecha de actualización
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletBalanceView {
+    private Integer tokenBalance;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,48 @@
+package wallet_service.eci.edu.co.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Resumen de una wallet a partir de sus contadores: total, un mes y un día
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletSummary {
+    private String userId;
+    private String role;
+    private Integer tokenBalance;
+    private LocalDateTime since; // Primer movimiento contado (null si la wallet no tiene movimientos contados)
+    private String month; // yyyy-MM
+    private String day; // yyyy-MM-dd
+    private WalletRollup total;
+    private WalletRollup monthly;
+    private WalletRollup daily;
+
+    /**
+     * Arma el resumen desde la wallet parcial que devuelve findRollups; los periodos
+     * sin movimientos (o una wallet inexistente) quedan en cero
+     */
+    public static WalletSummary of(String userId, String role, Wallet wallet, YearMonth month, LocalDate day) {
+        Map<String, WalletRollup> rollups = Optional.ofNullable(wallet).map(Wallet::getRollups).orElse(Map.of());
+        String monthKey = WalletRollup.monthKey(month);
+        String dayKey = WalletRollup.dayKey(day);
+        return new WalletSummary(userId, role,
+                wallet == null ? 0 : Optional.ofNullable(wallet.getTokenBalance()).orElse(0),
+                wallet == null ? null : wallet.getRollupsSince(),
+                monthKey, dayKey,
+                rollups.getOrDefault(WalletRollup.TOTAL, new WalletRollup()),
+                rollups.getOrDefault(monthKey, new WalletRollup()),
+                rollups.getOrDefault(dayKey, new WalletRollup()));
+    }
+}
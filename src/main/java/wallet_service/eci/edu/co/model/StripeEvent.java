@@ -0,0 +1,59 @@
+package wallet_service.eci.edu.co.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Evento de Stripe verificado y encolado por el webhook, pendiente de acreditar.
+ * El _id es el id del evento en Stripe, de modo que las reentregas no se duplican.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "stripe_events")
+@CompoundIndex(name = "status_received_idx", def = "{ 'status': 1, 'receivedAt': 1 }")
+public class StripeEvent {
+
+    @Id
+    private String id; // ID del evento en Stripe (evt_...)
+
+    private String type; // Tipo del evento (checkout.session.completed)
+
+    @Indexed
+    private String sessionId; // ID de la sesión de checkout
+
+    private String paymentStatus; // Estado de pago de la sesión (paid, unpaid...)
+
+    private String userId; // Metadata: sub de Cognito del comprador
+
+    private Integer tokens; // Metadata: tokens comprados
+
+    private Double tokenPrice; // Metadata: precio por token
+
+    private EventStatus status;
+
+    private int attempts; // Intentos de acreditación fallidos
+
+    private String claimedBy; // Lote del worker que tomó el evento
+
+    private LocalDateTime claimedUntil; // Vencimiento de la toma (luego otro worker puede tomarlo)
+
+    private String lastError;
+
+    private LocalDateTime receivedAt;
+
+    private LocalDateTime processedAt;
+
+    public enum EventStatus {
+        PENDING,    // Encolado, pendiente de acreditar
+        PROCESSED,  // Compra acreditada (o no aplicable)
+        FAILED      // Se agotaron los intentos
+    }
+}
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.index.Indexed;
 
@@ -13,15 +15,24 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "transactions")
+@CompoundIndexes({
+    // Historial paginado por cursor y rango de fechas: userId [+ type] ordenado por createdAt, _id
+    @CompoundIndex(name = "user_history_idx", def = "{ 'userId': 1, 'createdAt': -1, '_id': -1 }"),
+    @CompoundIndex(name = "user_type_history_idx", def = "{ 'userId': 1, 'type': 1, 'createdAt': -1, '_id': -1 }"),
+    @CompoundIndex(name = "user_status_history_idx", def = "{ 'userId': 1, 'status': 1, 'createdAt': -1 }"),
+    @CompoundIndex(name = "wallet_history_idx", def = "{ 'walletId': 1, 'createdAt': -1 }"),
+    // Barrido de operaciones pendientes para recuperación
+    @CompoundIndex(name = "status_created_idx", def = "{ 'status': 1, 'createdAt': 1 }")
+    // Los índices únicos de idempotencia (bookingId, userId, type) y stripeSessionId los crea
+    // TransactionIdempotencyIndexMigration antes de que el servidor acepte tráfico
+})
 public class Transaction {
     
     @Id
     private String id;
     
-    @Indexed
     private String userId; // sub de Cognito
     
-    @Indexed
     private String walletId; // Referencia a la wallet
     
     private TransactionType type; // PURCHASE, USAGE, REFUND
@@ -30,7 +41,7 @@ public class Transaction {
     
     private Double moneyAmount; // Cantidad en pesos (para compras)
     
-    private String stripeSessionId; // ID de sesión de Stripe (si aplica)
+    private String stripeSessionId; // ID de sesión de Stripe (índice único creado por TransactionIdempotencyIndexMigration)
     
     private String description; // Descripción de la transacción
     
@@ -38,8 +49,18 @@ public class Transaction {
     
     private String metadata; // Información adicional en formato JSON (opcional)
 
-    @Indexed
     private String bookingId; // ID de la reservación asociada (para transfer/refund)
+
+    private String duplicateOf; // Asiento original de un duplicado heredado puesto en cuarentena por la migración
+
+    private String duplicateKey; // bookingId o stripeSessionId retirado del duplicado (queda fuera del índice único)
+
+    @Indexed(sparse = true)
+    private String operationId; // Operación que agrupa los asientos de una transferencia/reembolso
+
+    private Integer balanceChange; // Variación firmada del saldo de la wallet (+ abono, - cargo)
+
+    private Integer balanceAfter; // Saldo de la wallet al completar la operación (respuesta de reintentos)
     
     private LocalDateTime createdAt;
     
@@ -1,5 +1,6 @@
 package wallet_service.eci.edu.co.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -8,6 +9,8 @@ import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
@@ -34,6 +37,25 @@ public class Wallet {
     private LocalDateTime createdAt;
     
     private LocalDateTime updatedAt;
+
+    @JsonIgnore
+    private List<String> recentOperations; // Operaciones aplicadas aún no completadas en el ledger (marcador para reintentos idempotentes)
+
+    @JsonIgnore
+    private Map<String, WalletRollup> rollups; // Contadores por periodo ("total", "yyyy-MM", "yyyy-MM-dd")
+
+    @JsonIgnore
+    private LocalDateTime rollupsSince; // Primer movimiento contado en rollups (los anteriores solo están en el ledger)
+
+    @JsonIgnore
+    @Indexed(sparse = true)
+    private String rollupDaysFrom; // Día ("yyyy-MM-dd") del contador diario más antiguo que conserva rollups
+
+    @JsonIgnore
+    private WalletMerge merge; // Fusión en curso de esta wallet duplicada en la principal
+
+    @JsonIgnore
+    private List<String> mergedWallets; // Vaciados de duplicadas ya sumados a esta wallet ("<_id>:<vaciado>")
     
     // Constructor para crear una nueva wallet con rol
     public Wallet(String actualUserId, String role, String email) {
@@ -0,0 +1,25 @@
+package wallet_service.eci.edu.co.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Fusión en curso de una wallet duplicada en la principal (WalletDuplicateCleanupMigration).
+ * El saldo de la duplicada se vacía en una sola escritura condicional que guarda aquí
+ * lo retirado; si el proceso cae antes de sumarlo a la principal, la siguiente
+ * ejecución lo retoma desde este documento.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletMerge {
+
+    private String into; // _id de la wallet principal
+
+    private int drains; // Vaciados aplicados; junto al _id identifica cada suma en mergedWallets
+
+    private Integer pendingTokens; // Tokens retirados aún no sumados a la principal (null si no hay)
+
+    private Double pendingSpent; // totalSpent retirado aún no sumado a la principal
+}
@@ -0,0 +1,90 @@
+package wallet_service.eci.edu.co.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Contadores de una wallet en un periodo (total, mes "yyyy-MM" o día "yyyy-MM-dd").
+ * Se incrementan con $inc en la misma escritura que aplica cada variación de saldo,
+ * y equivalen a sumar el historial por tipo de asiento:
+ * <ul>
+ * <li>purchased: tokens de asientos PURCHASE</li>
+ * <li>used: tokens de cargos USAGE (pagos de tutorías)</li>
+ * <li>earned: tokens de abonos USAGE (ingresos por tutorías)</li>
+ * <li>refunded: tokens de abonos REFUND (reembolsos al estudiante)</li>
+ * <li>returned: tokens de cargos REFUND (devueltos por el tutor al cancelarse una reservación)</li>
+ * <li>transactions: asientos aplicados sobre la wallet</li>
+ * </ul>
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletRollup {
+
+    public static final String TOTAL = "total";
+    public static final String PURCHASED = "purchased";
+    public static final String USED = "used";
+    public static final String EARNED = "earned";
+    public static final String REFUNDED = "refunded";
+    public static final String RETURNED = "returned";
+    public static final String TRANSACTIONS = "transactions";
+
+    private long purchased;
+
+    private long used;
+
+    private long earned;
+
+    private long refunded;
+
+    private long returned;
+
+    private long transactions;
+
+    /**
+     * Contador que corresponde a un asiento según su tipo y su sentido
+     * @param type Tipo del asiento
+     * @param credit true si el asiento abona tokens a la wallet
+     * @return Nombre del contador (purchased, used, earned, refunded o returned)
+     */
+    public static String counterFor(Transaction.TransactionType type, boolean credit) {
+        return switch (type) {
+            case PURCHASE -> PURCHASED;
+            case REFUND -> credit ? REFUNDED : RETURNED;
+            case USAGE -> credit ? EARNED : USED;
+        };
+    }
+
+    public static String monthKey(YearMonth month) {
+        return month.toString();
+    }
+
+    public static String dayKey(LocalDate day) {
+        return day.toString();
+    }
+
+    /**
+     * Periodos que actualiza un movimiento aplicado en la fecha indicada: total, mes y día
+     */
+    public static List<String> periodsOf(LocalDate date) {
+        return List.of(TOTAL, monthKey(YearMonth.from(date)), dayKey(date));
+    }
+
+    // Suma un movimiento al contador indicado (lo usa quien no actualiza con $inc)
+    public void add(String counter, long tokens, long entries) {
+        switch (counter) {
+            case PURCHASED -> purchased += tokens;
+            case USED -> used += tokens;
+            case EARNED -> earned += tokens;
+            case REFUNDED -> refunded += tokens;
+            case RETURNED -> returned += tokens;
+            default -> throw new IllegalArgumentException("Contador desconocido: " + counter);
+        }
+        transactions += entries;
+    }
+}
@@ -0,0 +1,28 @@
+package wallet_service.eci.edu.co.repository;
+
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Asiento que suman los contadores de una wallet. El mes y el día que incrementa
+ * salen de su createdAt en el ledger, no de la hora de la escritura: una operación
+ * reaplicada por la recuperación o un lote que cruza la medianoche se cuentan en el
+ * mismo periodo que muestran el historial y los reportes.
+ *
+ * @param createdAt Fecha de creación del asiento
+ * @param tokens    Tokens del asiento
+ */
+public record RollupEntry(LocalDateTime createdAt, int tokens) {
+
+    public static RollupEntry of(Transaction entry) {
+        return new RollupEntry(Optional.ofNullable(entry.getCreatedAt()).orElseGet(LocalDateTime::now),
+                entry.getTokensAmount());
+    }
+
+    public static List<RollupEntry> of(List<Transaction> entries) {
+        return entries.stream().map(RollupEntry::of).toList();
+    }
+}
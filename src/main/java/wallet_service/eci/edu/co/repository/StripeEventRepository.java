@@ -0,0 +1,18 @@
+package wallet_service.eci.edu.co.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+import wallet_service.eci.edu.co.model.StripeEvent;
+
+import java.util.Optional;
+
+@Repository
+public interface StripeEventRepository extends MongoRepository<StripeEvent, String> {
+
+    /**
+     * Busca el evento encolado para una sesión de checkout
+     * @param sessionId ID de la sesión
+     * @return Optional con el evento si llegó por el webhook
+     */
+    Optional<StripeEvent> findFirstBySessionId(String sessionId);
+}
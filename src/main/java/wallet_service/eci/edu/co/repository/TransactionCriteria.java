@@ -0,0 +1,75 @@
+package wallet_service.eci.edu.co.repository;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import wallet_service.eci.edu.co.dto.HistoryCursor;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Transaction.TransactionType;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Criterios de consulta del historial de transacciones compartidos por las
+ * consultas paginadas y los recorridos completos. Siguen la forma de los
+ * índices compuestos (userId[, type], createdAt, _id) de {@code Transaction}.
+ */
+public final class TransactionCriteria {
+
+    /** Orden del historial: más recientes primero, _id como desempate estable */
+    public static final Sort HISTORY_SORT = Sort.by(Sort.Direction.DESC, "createdAt")
+            .and(Sort.by(Sort.Direction.DESC, "_id"));
+
+    private TransactionCriteria() {
+    }
+
+    /**
+     * Construye el filtro del historial de un usuario
+     * @param userId userId de la wallet (con sufijo de rol)
+     * @param type Tipo de transacción (opcional)
+     * @param startDate Fecha de inicio exclusiva (opcional)
+     * @param endDate Fecha de fin exclusiva (opcional)
+     * @param after Cursor a partir del cual continuar (opcional)
+     * @return Criterio de búsqueda
+     */
+    public static Criteria history(String userId, TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate, HistoryCursor after) {
+        List<Criteria> conditions = new ArrayList<>();
+        conditions.add(Criteria.where("userId").is(userId));
+        if (type != null) {
+            conditions.add(Criteria.where("type").is(type));
+        }
+        if (startDate != null) {
+            conditions.add(Criteria.where("createdAt").gt(startDate));
+        }
+        if (endDate != null) {
+            conditions.add(Criteria.where("createdAt").lt(endDate));
+        }
+        if (after != null) {
+            Object id = ObjectId.isValid(after.getId()) ? new ObjectId(after.getId()) : after.getId();
+            // Redundante con el $or, pero da al planificador una cota de createdAt sobre el índice:
+            // sin ella cada página recorre todo el rango del usuario y filtra en FETCH
+            conditions.add(Criteria.where("createdAt").lte(after.getCreatedAt()));
+            conditions.add(new Criteria().orOperator(
+                    Criteria.where("createdAt").lt(after.getCreatedAt()),
+                    Criteria.where("createdAt").is(after.getCreatedAt()).and("_id").lt(id)));
+        }
+        return new Criteria().andOperator(conditions);
+    }
+
+    /**
+     * Actualización que completa un asiento PENDING con la wallet y el saldo resultante
+     * @param entry Asiento ya completado en memoria
+     * @return Actualización a aplicar sobre su _id
+     */
+    public static Update completion(Transaction entry) {
+        return new Update()
+                .set("status", Transaction.TransactionStatus.COMPLETED)
+                .set("completedAt", entry.getCompletedAt())
+                .set("walletId", entry.getWalletId())
+                .set("balanceAfter", entry.getBalanceAfter());
+    }
+}
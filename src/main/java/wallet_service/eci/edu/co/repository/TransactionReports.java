@@ -0,0 +1,134 @@
+package wallet_service.eci.edu.co.repository;
+
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import wallet_service.eci.edu.co.dto.TransactionReportRow;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Transaction.TransactionType;
+import wallet_service.eci.edu.co.model.WalletRollup;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Pipelines de agregación de los reportes de una wallet, compartidos por el
+ * repositorio bloqueante y el servicio reactivo. El $match usa el índice
+ * user_status_history_idx (userId, status, createdAt), el $project deja solo los
+ * campos que se agregan y el $group devuelve una fila por periodo (o reservación),
+ * tipo y sentido del asiento, así que la respuesta crece con la cantidad de
+ * grupos y no con la de transacciones.
+ */
+public final class TransactionReports {
+
+    /** Agrupación del reporte: por periodo (en la zona horaria del servicio) o por reservación */
+    public enum Grouping {
+        DAY("%Y-%m-%d"),
+        WEEK("%G-W%V"),
+        MONTH("%Y-%m"),
+        YEAR("%Y"),
+        BOOKING(null);
+
+        private final String format;
+
+        Grouping(String format) {
+            this.format = format;
+        }
+    }
+
+    private static final String CREATED_AT = "createdAt";
+    private static final String BOOKING_ID = "bookingId";
+    private static final String PERIOD = "period";
+    private static final String CREDIT = "credit";
+    private static final String LAST_AT = "lastAt";
+
+    private TransactionReports() {
+    }
+
+    /**
+     * Construye el pipeline del reporte
+     * @param userId userId de la wallet (con sufijo de rol)
+     * @param grouping Agrupación de las filas
+     * @param type Tipo de transacción (opcional)
+     * @param startDate Fecha de inicio inclusiva (opcional)
+     * @param endDate Fecha de fin exclusiva (opcional)
+     * @param limit Cantidad máxima de filas
+     * @return Pipeline sobre la colección de transacciones
+     */
+    public static Aggregation pipeline(String userId, Grouping grouping, TransactionType type,
+            LocalDateTime startDate, LocalDateTime endDate, int limit) {
+        Criteria match = Criteria.where("userId").is(userId).and("status").is(Transaction.TransactionStatus.COMPLETED);
+        if (startDate != null || endDate != null) {
+            Criteria createdAt = match.and(CREATED_AT);
+            if (startDate != null) {
+                createdAt.gte(startDate);
+            }
+            if (endDate != null) {
+                createdAt.lt(endDate);
+            }
+        }
+        if (type != null) {
+            match.and("type").is(type);
+        }
+        if (grouping == Grouping.BOOKING) {
+            match.and(BOOKING_ID).exists(true);
+        }
+
+        // Los asientos sin balanceChange (anteriores al ledger) cuentan como cargos
+        ProjectionOperation project = Aggregation.project("type", "tokensAmount", "moneyAmount", CREATED_AT)
+                .andExclude("_id")
+                .and(ComparisonOperators.Gt.valueOf("balanceChange").greaterThanValue(0)).as(CREDIT);
+        project = grouping == Grouping.BOOKING
+                ? project.and(BOOKING_ID).as(BOOKING_ID)
+                : project.and(DateOperators.dateOf(CREATED_AT)
+                        .withTimezone(DateOperators.Timezone.fromZone(ZoneId.systemDefault()))
+                        .toString(grouping.format)).as(PERIOD);
+
+        String key = grouping == Grouping.BOOKING ? BOOKING_ID : PERIOD;
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(match));
+        stages.add(project);
+        stages.add(Aggregation.group(key, "type", CREDIT)
+                .sum("tokensAmount").as("tokens")
+                .sum("moneyAmount").as("amount")
+                .count().as("transactions")
+                .min(CREATED_AT).as("firstAt")
+                .max(CREATED_AT).as(LAST_AT));
+        // Periodos más recientes primero; las reservaciones por su último movimiento
+        stages.add(Aggregation.sort(grouping == Grouping.BOOKING
+                ? Sort.by(Sort.Direction.DESC, LAST_AT)
+                : Sort.by(Sort.Direction.DESC, "_id." + PERIOD)));
+        stages.add(Aggregation.limit(limit));
+        return Aggregation.newAggregation(stages);
+    }
+
+    /**
+     * Convierte un resultado del $group en una fila del reporte
+     */
+    public static TransactionReportRow toRow(Document result) {
+        Document id = result.get("_id", Document.class);
+        TransactionType type = TransactionType.valueOf(id.getString("type"));
+        return new TransactionReportRow(
+                id.getString(PERIOD),
+                id.getString(BOOKING_ID),
+                type,
+                WalletRollup.counterFor(type, Boolean.TRUE.equals(id.getBoolean(CREDIT))),
+                ((Number) result.get("tokens")).longValue(),
+                ((Number) result.get("amount")).doubleValue(),
+                ((Number) result.get("transactions")).longValue(),
+                toLocalDateTime(result.getDate("firstAt")),
+                toLocalDateTime(result.getDate(LAST_AT)));
+    }
+
+    private static LocalDateTime toLocalDateTime(Date date) {
+        return date == null ? null : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+}
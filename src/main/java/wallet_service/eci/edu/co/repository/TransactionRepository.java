@@ -7,11 +7,12 @@ import wallet_service.eci.edu.co.model.Transaction.TransactionType;
 import wallet_service.eci.edu.co.model.Transaction.TransactionStatus;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface TransactionRepository extends MongoRepository<Transaction, String> {
+public interface TransactionRepository extends MongoRepository<Transaction, String>, TransactionRepositoryCustom {
     
     /**
      * Busca todas las transacciones de un usuario
@@ -71,4 +72,49 @@ public interface TransactionRepository extends MongoRepository<Transaction, Stri
      * Busca la transacción de un usuario por bookingId y tipo
      */
     Optional<Transaction> findFirstByBookingIdAndUserIdAndType(String bookingId, String userId, TransactionType type);
+
+    /**
+     * Busca los asientos de una operación de transferencia/reembolso
+     * @param operationId ID de la operación
+     * @return Lista de asientos de la operación
+     */
+    List<Transaction> findByOperationId(String operationId);
+
+    /**
+     * Busca asientos de operaciones que quedaron pendientes antes de una fecha (para recuperación)
+     * @param status Estado de la transacción (PENDING)
+     * @param createdAt Fecha límite de creación
+     * @return Lista de hasta 100 asientos pendientes
+     */
+    List<Transaction> findTop100ByStatusAndOperationIdIsNotNullAndCreatedAtBefore(
+        TransactionStatus status, LocalDateTime createdAt);
+
+    /**
+     * Elimina los asientos de una operación abortada
+     * @param operationId ID de la operación
+     * @return Cantidad de asientos eliminados
+     */
+    long deleteByOperationId(String operationId);
+
+    /**
+     * Elimina los asientos de varias operaciones abortadas en una sola escritura
+     * @param operationIds IDs de las operaciones
+     * @return Cantidad de asientos eliminados
+     */
+    long deleteByOperationIdIn(Collection<String> operationIds);
+
+    /**
+     * Busca los asientos de varias operaciones
+     * @param operationIds IDs de las operaciones
+     * @return Asientos de esas operaciones
+     */
+    List<Transaction> findByOperationIdIn(Collection<String> operationIds);
+
+    /**
+     * Busca los asientos de un tipo para varias reservaciones
+     * @param bookingIds IDs de las reservaciones
+     * @param type Tipo de transacción
+     * @return Asientos registrados para esas reservaciones
+     */
+    List<Transaction> findByBookingIdInAndType(Collection<String> bookingIds, TransactionType type);
 }
@@ -0,0 +1,72 @@
+package wallet_service.eci.edu.co.repository;
+
+import wallet_service.eci.edu.co.dto.HistoryCursor;
+import wallet_service.eci.edu.co.dto.TransactionReportRow;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Transaction.TransactionType;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Escrituras agrupadas, recorridos del historial y reportes agregados sobre la
+ * colección de transacciones ejecutados con MongoTemplate.
+ */
+public interface TransactionRepositoryCustom {
+
+    /**
+     * Marca como COMPLETED los asientos de una operación y fija su walletId en una sola
+     * escritura masiva ordenada
+     * @param entries Asientos de la operación (con id ya asignado)
+     */
+    void completeOperation(List<Transaction> entries);
+
+    /**
+     * Inserta asientos en una escritura masiva no ordenada: los que violan el índice
+     * único de reservación se omiten y el resto se inserta igual
+     * @param entries Asientos a insertar (se les asigna id si no lo tienen)
+     * @return operationIds de los asientos rechazados por duplicados
+     */
+    Set<String> insertIgnoringDuplicates(List<Transaction> entries);
+
+    /**
+     * Lee una página del historial con paginación por cursor (keyset) sobre createdAt + _id,
+     * de modo que cada página es un recorrido acotado del índice compuesto
+     * @param userId userId de la wallet (con sufijo de rol)
+     * @param type Tipo de transacción (opcional)
+     * @param startDate Fecha de inicio exclusiva (opcional)
+     * @param endDate Fecha de fin exclusiva (opcional)
+     * @param after Cursor de la página anterior (null para la primera página)
+     * @param limit Cantidad máxima de transacciones a devolver
+     * @return Transacciones de la página, de la más reciente a la más antigua
+     */
+    List<Transaction> findHistoryPage(String userId, TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate, HistoryCursor after, int limit);
+
+    /**
+     * Recorre el historial completo desde un cursor de Mongo sin materializarlo en memoria.
+     * El Stream debe cerrarse para liberar el cursor.
+     * @param userId userId de la wallet (con sufijo de rol)
+     * @param type Tipo de transacción (opcional)
+     * @param startDate Fecha de inicio exclusiva (opcional)
+     * @param endDate Fecha de fin exclusiva (opcional)
+     * @return Stream de transacciones, de la más reciente a la más antigua
+     */
+    Stream<Transaction> streamHistory(String userId, TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate);
+
+    /**
+     * Agrega los asientos COMPLETED de la wallet en el servidor (ver {@link TransactionReports})
+     * @param userId userId de la wallet (con sufijo de rol)
+     * @param grouping Agrupación por periodo o por reservación
+     * @param type Tipo de transacción (opcional)
+     * @param startDate Fecha de inicio inclusiva (opcional)
+     * @param endDate Fecha de fin exclusiva (opcional)
+     * @param limit Cantidad máxima de filas
+     * @return Filas del reporte, de la más reciente a la más antigua
+     */
+    List<TransactionReportRow> aggregateReport(String userId, TransactionReports.Grouping grouping,
+            TransactionType type, LocalDateTime startDate, LocalDateTime endDate, int limit);
+}
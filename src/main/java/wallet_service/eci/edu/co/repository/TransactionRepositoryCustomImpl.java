@@ -0,0 +1,104 @@
+package wallet_service.eci.edu.co.repository;
+
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import wallet_service.eci.edu.co.dto.HistoryCursor;
+import wallet_service.eci.edu.co.dto.TransactionReportRow;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Transaction.TransactionType;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Implementación de {@link TransactionRepositoryCustom} sobre MongoTemplate.
+ */
+public class TransactionRepositoryCustomImpl implements TransactionRepositoryCustom {
+
+    // Documentos por lote del cursor: el siguiente lote se pide solo cuando se consumió el anterior
+    private static final int STREAM_BATCH_SIZE = 500;
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    private final MongoTemplate mongoTemplate;
+
+    public TransactionRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void completeOperation(List<Transaction> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Transaction.class);
+        for (Transaction entry : entries) {
+            entry.complete();
+            bulk.updateOne(new Query(Criteria.where("_id").is(entry.getId())), TransactionCriteria.completion(entry));
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public Set<String> insertIgnoringDuplicates(List<Transaction> entries) {
+        if (entries.isEmpty()) {
+            return Set.of();
+        }
+        // Los ids se asignan antes para poder completar los asientos por _id después
+        for (Transaction entry : entries) {
+            if (entry.getId() == null) {
+                entry.setId(new ObjectId().toHexString());
+            }
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Transaction.class).insert(entries).execute();
+            return Set.of();
+        } catch (BulkOperationException e) {
+            Set<String> rejected = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR) {
+                    throw e;
+                }
+                rejected.add(entries.get(error.getIndex()).getOperationId());
+            }
+            return rejected;
+        }
+    }
+
+    @Override
+    public List<Transaction> findHistoryPage(String userId, TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate, HistoryCursor after, int limit) {
+        Query query = new Query(TransactionCriteria.history(userId, type, startDate, endDate, after))
+                .with(TransactionCriteria.HISTORY_SORT)
+                .limit(limit);
+        return mongoTemplate.find(query, Transaction.class);
+    }
+
+    @Override
+    public Stream<Transaction> streamHistory(String userId, TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate) {
+        Query query = new Query(TransactionCriteria.history(userId, type, startDate, endDate, null))
+                .with(TransactionCriteria.HISTORY_SORT)
+                .cursorBatchSize(STREAM_BATCH_SIZE);
+        return mongoTemplate.stream(query, Transaction.class);
+    }
+
+    @Override
+    public List<TransactionReportRow> aggregateReport(String userId, TransactionReports.Grouping grouping,
+            TransactionType type, LocalDateTime startDate, LocalDateTime endDate, int limit) {
+        return mongoTemplate.aggregate(
+                        TransactionReports.pipeline(userId, grouping, type, startDate, endDate, limit),
+                        Transaction.class, Document.class)
+                .getMappedResults().stream()
+                .map(TransactionReports::toRow)
+                .toList();
+    }
+}
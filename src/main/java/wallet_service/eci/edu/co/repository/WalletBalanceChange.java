@@ -0,0 +1,41 @@
+package wallet_service.eci.edu.co.repository;
+
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Variación neta de saldo de una wallet dentro de una escritura masiva, junto con
+ * las operaciones que la componen (se registran como marcadores en la wallet)
+ *
+ * @param actualUserId Sub de Cognito (sin sufijo de rol)
+ * @param role         Rol de la wallet ("STUDENT" o "TUTOR")
+ * @param tokens       Cantidad neta de tokens (siempre positiva)
+ * @param operationIds Operaciones agrupadas en la variación
+ * @param amount       Monto en pesos que suma a totalSpent (solo en abonos de compras)
+ * @param entries      Asientos agrupados, para contarlos en el periodo de cada uno
+ */
+public record WalletBalanceChange(String actualUserId, String role, int tokens, List<String> operationIds,
+        double amount, List<RollupEntry> entries) {
+
+    /**
+     * Agrupa los asientos de una misma wallet en una variación neta
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param walletEntries Asientos de la wallet, todos cargos o todos abonos
+     */
+    public static WalletBalanceChange of(String walletUserId, List<Transaction> walletEntries) {
+        int separator = walletUserId.lastIndexOf('-');
+        return new WalletBalanceChange(walletUserId.substring(0, separator),
+                walletUserId.substring(separator + 1).toUpperCase(),
+                walletEntries.stream().mapToInt(Transaction::getTokensAmount).sum(),
+                walletEntries.stream().map(Transaction::getOperationId).toList(),
+                walletEntries.stream().mapToDouble(entry -> Optional.ofNullable(entry.getMoneyAmount()).orElse(0.0))
+                        .sum(),
+                RollupEntry.of(walletEntries));
+    }
+
+    public String walletUserId() {
+        return actualUserId + "-" + role.toLowerCase();
+    }
+}
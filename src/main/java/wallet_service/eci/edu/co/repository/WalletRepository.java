@@ -1,14 +1,17 @@
 package wallet_service.eci.edu.co.repository;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
+import wallet_service.eci.edu.co.dto.WalletBalanceView;
 import wallet_service.eci.edu.co.model.Wallet;
 
+import java.util.Collection;
 import java.util.Optional;
 import java.util.List;
 
 @Repository
-public interface WalletRepository extends MongoRepository<Wallet, String> {
+public interface WalletRepository extends MongoRepository<Wallet, String>, WalletRepositoryCustom {
     
     /**
      * Busca una wallet por el userId (sub de Cognito)
@@ -17,9 +20,24 @@ public interface WalletRepository extends MongoRepository<Wallet, String> {
      */
     Optional<Wallet> findByUserId(String userId);
 
+    /**
+     * Lee solo el saldo y la fecha de actualización de la wallet (proyección sobre el índice de userId)
+     * @param userId userId de la wallet (con sufijo de rol)
+     * @return Optional con el saldo si la wallet existe
+     */
+    Optional<WalletBalanceView> findBalanceByUserId(String userId);
+
+    /**
+     * Lee id, userId y saldo de varias wallets en una sola consulta
+     * @param userIds userIds de las wallets (con sufijo de rol)
+     * @return Wallets parciales (solo id, userId y tokenBalance)
+     */
+    @Query(value = "{ 'userId': { '$in': ?0 } }", fields = "{ 'userId': 1, 'tokenBalance': 1 }")
+    List<Wallet> findBalancesByUserIdIn(Collection<String> userIds);
+
     /**
      * Devuelve todas las wallets que coinciden con el userId (no debería haber más de una).
-     * Se usa para detectar y limpiar duplicados cuando existen antes de que se aplique el índice único.
+     * Lo usa la migración que fusiona duplicados creados antes de que se aplicara el índice único.
      */
     List<Wallet> findAllByUserId(String userId);
     
@@ -0,0 +1,134 @@
+package wallet_service.eci.edu.co.repository;
+
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Mutaciones atómicas de saldo ejecutadas en el servidor de Mongo.
+ * Cada método es un único findAndModify que devuelve la wallet ya actualizada,
+ * de modo que no hay ventana de lectura-modificación-escritura entre réplicas.
+ * Cada variación de saldo incrementa en la misma escritura los contadores de la
+ * wallet (rollups) según el tipo del asiento que la origina, en el mes y el día de su
+ * createdAt.
+ */
+public interface WalletRepositoryCustom {
+
+    /**
+     * Devuelve la wallet del usuario creándola si no existe, en un único findAndModify
+     * con upsert y $setOnInsert (respaldado por el índice único de userId)
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role Rol de la wallet ("STUDENT" o "TUTOR")
+     * @param email Email del usuario (solo se guarda al crear)
+     * @return Wallet existente o recién creada
+     */
+    Wallet findOrCreate(String actualUserId, String role, String email);
+
+    /**
+     * Descuenta tokens solo si el saldo alcanza ({@code tokenBalance >= tokens}); cuenta como uso (USAGE)
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param tokens Cantidad de tokens a descontar
+     * @return Optional con la wallet actualizada, vacío si no existe, no tiene saldo suficiente
+     *         o la cantidad no es positiva
+     */
+    Optional<Wallet> debitTokens(String walletUserId, int tokens);
+
+    /**
+     * Descuenta tokens como parte de una operación. El descuento se aplica a lo sumo
+     * una vez por operationId, por lo que puede reintentarse durante la recuperación.
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param tokens Cantidad de tokens a descontar
+     * @param operationId ID de la operación
+     * @param type Tipo del asiento del cargo (USAGE o REFUND)
+     * @param createdAt Fecha del asiento del cargo
+     * @return Optional con la wallet actualizada, vacío si no existe, no tiene saldo
+     *         suficiente o la operación ya estaba aplicada
+     */
+    Optional<Wallet> debitTokens(String walletUserId, int tokens, String operationId,
+            Transaction.TransactionType type, LocalDateTime createdAt);
+
+    /**
+     * Abona tokens como parte de una operación, creando la wallet si todavía no existe (upsert).
+     * Si la operación ya estaba aplicada devuelve la wallet sin volver a abonar.
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role Rol de la wallet ("STUDENT" o "TUTOR")
+     * @param tokens Cantidad de tokens a abonar
+     * @param operationId ID de la operación
+     * @param type Tipo del asiento del abono (USAGE o REFUND)
+     * @param createdAt Fecha del asiento del abono
+     * @return Wallet actualizada
+     */
+    Wallet creditTokensOrCreate(String actualUserId, String role, int tokens, String operationId,
+            Transaction.TransactionType type, LocalDateTime createdAt);
+
+    /**
+     * Acredita una compra: abona los tokens y suma el monto a totalSpent en un único
+     * findAndModify con upsert (crea la wallet si no existe). Se aplica a lo sumo una
+     * vez por operationId.
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role Rol de la wallet ("STUDENT" o "TUTOR")
+     * @param tokens Cantidad de tokens comprados
+     * @param amount Monto pagado
+     * @param operationId ID de la operación de compra
+     * @param createdAt Fecha del asiento de la compra
+     * @return Wallet actualizada
+     */
+    Wallet creditPurchase(String actualUserId, String role, int tokens, double amount, String operationId,
+            LocalDateTime createdAt);
+
+    /**
+     * Aplica cargos condicionales a varias wallets en una sola escritura masiva.
+     * Cada cargo solo se aplica si el saldo alcanza y sus operaciones no estaban aplicadas.
+     * @param debits Cargos netos por wallet
+     * @param type Tipo de los asientos de los cargos
+     * @return userIds de las wallets a las que no se les aplicó el cargo
+     */
+    Set<String> debitTokensBulk(List<WalletBalanceChange> debits, Transaction.TransactionType type);
+
+    /**
+     * Abona tokens (y el monto de las compras) a varias wallets, creándolas si no existen,
+     * en una sola escritura masiva. Los abonos cuyas operaciones ya estaban aplicadas se omiten.
+     * @param credits Abonos netos por wallet
+     * @param type Tipo de los asientos de los abonos
+     */
+    void creditTokensBulk(List<WalletBalanceChange> credits, Transaction.TransactionType type);
+
+    /**
+     * Indica si la operación ya fue aplicada sobre la wallet
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param operationId ID de la operación
+     * @return true si la wallet registra la operación
+     */
+    boolean hasAppliedOperation(String walletUserId, String operationId);
+
+    /**
+     * Quita los marcadores de operaciones ya completadas en el ledger, en una sola
+     * escritura masiva para todas las wallets
+     * @param operationsByWallet IDs de las operaciones completadas por userId de wallet
+     */
+    void releaseOperations(Map<String, ? extends Collection<String>> operationsByWallet);
+
+    /**
+     * Lee el saldo y los contadores de los periodos indicados, sin el resto de la wallet
+     * (el costo no depende de cuántos movimientos o periodos tenga)
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param periods Claves de periodo ("total", "yyyy-MM" o "yyyy-MM-dd")
+     * @return Optional con la wallet parcial (tokenBalance, rollupsSince y rollups pedidos)
+     */
+    Optional<Wallet> findRollups(String walletUserId, Collection<String> periods);
+
+    /**
+     * Quita los contadores diarios anteriores al día indicado, en una sola escritura
+     * sobre las wallets que los tienen (el total y los meses se conservan)
+     * @param day Primer día que se conserva
+     * @return Cantidad de wallets recortadas
+     */
+    long pruneDailyRollups(LocalDate day);
+}
@@ -0,0 +1,226 @@
+package wallet_service.eci.edu.co.repository;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Implementación de {@link WalletRepositoryCustom} sobre MongoTemplate.
+ * Spring Data la enlaza automáticamente a {@link WalletRepository} por el sufijo Impl.
+ */
+public class WalletRepositoryCustomImpl implements WalletRepositoryCustom {
+
+    private static final String USER_ID = WalletUpdates.USER_ID;
+    private static final String TOKEN_BALANCE = WalletUpdates.TOKEN_BALANCE;
+    private static final String UPDATED_AT = WalletUpdates.UPDATED_AT;
+    private static final String RECENT_OPERATIONS = WalletUpdates.RECENT_OPERATIONS;
+    private static final String TOTAL_SPENT = WalletUpdates.TOTAL_SPENT;
+    private static final String ROLLUPS = WalletUpdates.ROLLUPS;
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    private final MongoTemplate mongoTemplate;
+
+    public WalletRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Wallet findOrCreate(String actualUserId, String role, String email) {
+        Query query = WalletUpdates.withoutRollups(WalletUpdates.byUserId(actualUserId + "-" + role.toLowerCase()));
+        Update update = WalletUpdates.createIfMissing(actualUserId, role, email);
+        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true).upsert(true);
+        try {
+            return mongoTemplate.findAndModify(query, update, options, Wallet.class);
+        } catch (DuplicateKeyException e) {
+            // Otro upsert insertó la wallet primero: ahora existe y se devuelve tal cual
+            return mongoTemplate.findOne(query, Wallet.class);
+        }
+    }
+
+    @Override
+    public Optional<Wallet> debitTokens(String walletUserId, int tokens) {
+        if (tokens <= 0) {
+            return Optional.empty();
+        }
+        Query query = WalletUpdates.withoutRollups(
+                new Query(Criteria.where(USER_ID).is(walletUserId).and(TOKEN_BALANCE).gte(tokens)));
+        LocalDateTime now = LocalDateTime.now();
+        Update update = WalletUpdates.countRollups(new Update().inc(TOKEN_BALANCE, -tokens), WalletRollup.USED,
+                List.of(new RollupEntry(now, tokens))).set(UPDATED_AT, now);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Wallet.class));
+    }
+
+    @Override
+    public Optional<Wallet> debitTokens(String walletUserId, int tokens, String operationId,
+            Transaction.TransactionType type, LocalDateTime createdAt) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                WalletUpdates.debitFilter(walletUserId, tokens, operationId),
+                WalletUpdates.debit(tokens, operationId, type, createdAt),
+                FindAndModifyOptions.options().returnNew(true), Wallet.class));
+    }
+
+    @Override
+    public Wallet creditTokensOrCreate(String actualUserId, String role, int tokens, String operationId,
+            Transaction.TransactionType type, LocalDateTime createdAt) {
+        return creditOrCreate(actualUserId, role,
+                WalletUpdates.credit(actualUserId, role, tokens, operationId, type, createdAt), operationId);
+    }
+
+    @Override
+    public Wallet creditPurchase(String actualUserId, String role, int tokens, double amount, String operationId,
+            LocalDateTime createdAt) {
+        return creditOrCreate(actualUserId, role,
+                WalletUpdates.purchaseCredit(actualUserId, role, tokens, amount, operationId, createdAt), operationId);
+    }
+
+    private Wallet creditOrCreate(String actualUserId, String role, Update update, String operationId) {
+        String walletUserId = actualUserId + "-" + role.toLowerCase();
+        Query query = WalletUpdates.creditFilter(walletUserId, operationId);
+        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true).upsert(true);
+        try {
+            return mongoTemplate.findAndModify(query, update, options, Wallet.class);
+        } catch (DuplicateKeyException first) {
+            // O bien otro upsert creó la wallet al mismo tiempo (se reintenta como update normal),
+            // o bien la wallet ya tenía la operación aplicada y el filtro no la encontró
+            try {
+                return mongoTemplate.findAndModify(query, update, options, Wallet.class);
+            } catch (DuplicateKeyException alreadyApplied) {
+                return mongoTemplate.findOne(WalletUpdates.withoutRollups(WalletUpdates.byUserId(walletUserId)),
+                        Wallet.class);
+            }
+        }
+    }
+
+    @Override
+    public Set<String> debitTokensBulk(List<WalletBalanceChange> debits, Transaction.TransactionType type) {
+        if (debits.isEmpty()) {
+            return Set.of();
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Wallet.class);
+        for (WalletBalanceChange debit : debits) {
+            Query query = new Query(Criteria.where(USER_ID).is(debit.walletUserId())
+                    .and(TOKEN_BALANCE).gte(debit.tokens())
+                    .and(RECENT_OPERATIONS).nin(debit.operationIds()));
+            Update update = WalletUpdates.countRollups(new Update().inc(TOKEN_BALANCE, -debit.tokens()),
+                    WalletRollup.counterFor(type, false), debit.entries());
+            bulk.updateOne(query, WalletUpdates.markOperations(update, debit.operationIds()));
+        }
+        BulkWriteResult result = bulk.execute();
+        if (result.getMatchedCount() == debits.size()) {
+            return Set.of();
+        }
+        // El resultado masivo solo informa totales: se consulta qué wallets quedaron sin el marcador
+        return walletsWithoutOperations(debits);
+    }
+
+    @Override
+    public void creditTokensBulk(List<WalletBalanceChange> credits, Transaction.TransactionType type) {
+        if (credits.isEmpty()) {
+            return;
+        }
+        String counter = WalletRollup.counterFor(type, true);
+        executeCredits(credits, counter);
+        // Un upsert puede fallar por clave duplicada si otra réplica creó la wallet al mismo tiempo;
+        // esos abonos se reintentan como update normal (los ya aplicados se omiten por el marcador)
+        Set<String> pending = walletsWithoutOperations(credits);
+        if (!pending.isEmpty()) {
+            executeCredits(credits.stream().filter(c -> pending.contains(c.walletUserId())).toList(), counter);
+        }
+    }
+
+    private void executeCredits(List<WalletBalanceChange> credits, String counter) {
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Wallet.class);
+        for (WalletBalanceChange credit : credits) {
+            Query query = new Query(Criteria.where(USER_ID).is(credit.walletUserId())
+                    .and(RECENT_OPERATIONS).nin(credit.operationIds()));
+            Update credited = WalletUpdates.countRollups(new Update().inc(TOKEN_BALANCE, credit.tokens())
+                    .inc(TOTAL_SPENT, credit.amount()), counter, credit.entries());
+            Update update = WalletUpdates.markOperations(credited, credit.operationIds())
+                    .setOnInsert("actualUserId", credit.actualUserId())
+                    .setOnInsert("role", credit.role())
+                    .setOnInsert("email", "")
+                    .setOnInsert("createdAt", now);
+            bulk.upsert(query, update);
+        }
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve los userIds de las wallets que no registran las operaciones de su variación
+     */
+    private Set<String> walletsWithoutOperations(List<WalletBalanceChange> changes) {
+        Map<String, WalletBalanceChange> byWallet = changes.stream()
+                .collect(Collectors.toMap(WalletBalanceChange::walletUserId, Function.identity()));
+        Query query = new Query(Criteria.where(USER_ID).in(byWallet.keySet()));
+        query.fields().include(USER_ID, RECENT_OPERATIONS);
+        Set<String> pending = new HashSet<>(byWallet.keySet());
+        for (Wallet wallet : mongoTemplate.find(query, Wallet.class)) {
+            List<String> applied = Optional.ofNullable(wallet.getRecentOperations()).orElse(List.of());
+            if (applied.containsAll(byWallet.get(wallet.getUserId()).operationIds())) {
+                pending.remove(wallet.getUserId());
+            }
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean hasAppliedOperation(String walletUserId, String operationId) {
+        return mongoTemplate.exists(WalletUpdates.operationApplied(walletUserId, operationId), Wallet.class);
+    }
+
+    @Override
+    public void releaseOperations(Map<String, ? extends Collection<String>> operationsByWallet) {
+        if (operationsByWallet.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Wallet.class);
+        operationsByWallet.forEach((walletUserId, operationIds) -> bulk.updateOne(
+                WalletUpdates.byUserId(walletUserId), WalletUpdates.releaseOperations(operationIds)));
+        bulk.execute();
+    }
+
+    @Override
+    public Optional<Wallet> findRollups(String walletUserId, Collection<String> periods) {
+        Query query = WalletUpdates.byUserId(walletUserId);
+        query.fields().include(TOKEN_BALANCE, WalletUpdates.ROLLUPS_SINCE);
+        periods.forEach(period -> query.fields().include(ROLLUPS + "." + period));
+        return Optional.ofNullable(mongoTemplate.findOne(query, Wallet.class));
+    }
+
+    @Override
+    public long pruneDailyRollups(LocalDate day) {
+        return mongoTemplate.updateMulti(WalletUpdates.withDailyRollupsBefore(day),
+                WalletUpdates.pruneDailyRollups(day), Wallet.class).getModifiedCount();
+    }
+}
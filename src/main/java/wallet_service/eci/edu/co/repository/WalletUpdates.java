@@ -0,0 +1,216 @@
+package wallet_service.eci.edu.co.repository;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.WalletRollup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filtros y actualizaciones de saldo compartidos por el repositorio bloqueante y
+ * el servicio reactivo, para que ambos stacks apliquen exactamente las mismas
+ * escrituras condicionales y marcadores de operación.
+ * <p>
+ * Cada variación de saldo incrementa también los contadores de la wallet
+ * ({@link WalletRollup}) del total, del mes y del día de cada asiento en la misma
+ * escritura, por lo que el marcador de operación los protege de contarse dos veces
+ * en los reintentos. Los contadores diarios se conservan unos días
+ * ({@link #pruneDailyRollups}); el total y los meses no se recortan.
+ * <p>
+ * El marcador de una operación se conserva en la wallet hasta que sus asientos
+ * quedan COMPLETED; después se quita en lote ({@link #releaseOperations}), fuera del
+ * camino de la petición. Mientras el asiento esté PENDING, la recuperación depende de
+ * él para saber si el cargo o el abono ya se aplicaron.
+ */
+public final class WalletUpdates {
+
+    static final String USER_ID = "userId";
+    static final String TOKEN_BALANCE = "tokenBalance";
+    static final String UPDATED_AT = "updatedAt";
+    static final String RECENT_OPERATIONS = "recentOperations";
+    static final String TOTAL_SPENT = "totalSpent";
+    static final String ROLLUPS = "rollups";
+    static final String ROLLUPS_SINCE = "rollupsSince";
+    static final String ROLLUP_DAYS_FROM = "rollupDaysFrom";
+
+    private WalletUpdates() {
+    }
+
+    public static Query byUserId(String walletUserId) {
+        return new Query(Criteria.where(USER_ID).is(walletUserId));
+    }
+
+    /**
+     * Excluye los contadores de la wallet devuelta: crecen con un día por fecha con
+     * movimientos y las escrituras de saldo no los necesitan
+     */
+    public static Query withoutRollups(Query query) {
+        query.fields().exclude(ROLLUPS);
+        return query;
+    }
+
+    /**
+     * Upsert de creación de wallet: solo fija campos cuando el documento no existe
+     */
+    public static Update createIfMissing(String actualUserId, String role, String email) {
+        LocalDateTime now = LocalDateTime.now();
+        return new Update()
+                .setOnInsert("actualUserId", actualUserId)
+                .setOnInsert("role", role)
+                .setOnInsert("email", email)
+                .setOnInsert(TOKEN_BALANCE, 0)
+                .setOnInsert(TOTAL_SPENT, 0.0)
+                .setOnInsert("createdAt", now)
+                .setOnInsert(UPDATED_AT, now);
+    }
+
+    /**
+     * Filtro del cargo de una operación: saldo suficiente y operación aún no aplicada
+     */
+    public static Query debitFilter(String walletUserId, int tokens, String operationId) {
+        return withoutRollups(new Query(Criteria.where(USER_ID).is(walletUserId)
+                .and(TOKEN_BALANCE).gte(tokens)
+                .and(RECENT_OPERATIONS).ne(operationId)));
+    }
+
+    /**
+     * Cargo de una operación
+     * @param type Tipo del asiento del cargo (define el contador que se incrementa)
+     * @param createdAt Fecha del asiento del cargo (define el mes y el día que se incrementan)
+     */
+    public static Update debit(int tokens, String operationId, Transaction.TransactionType type,
+            LocalDateTime createdAt) {
+        return markOperation(countRollups(new Update().inc(TOKEN_BALANCE, -tokens),
+                WalletRollup.counterFor(type, false), List.of(new RollupEntry(createdAt, tokens))), operationId);
+    }
+
+    /**
+     * Filtro del abono de una operación: la wallet no registra la operación
+     */
+    public static Query creditFilter(String walletUserId, String operationId) {
+        return withoutRollups(new Query(Criteria.where(USER_ID).is(walletUserId).and(RECENT_OPERATIONS).ne(operationId)));
+    }
+
+    /**
+     * Abono de tokens con upsert (crea la wallet si no existe)
+     * @param type Tipo del asiento del abono (define el contador que se incrementa)
+     * @param createdAt Fecha del asiento del abono (define el mes y el día que se incrementan)
+     */
+    public static Update credit(String actualUserId, String role, int tokens, String operationId,
+            Transaction.TransactionType type, LocalDateTime createdAt) {
+        Update credit = new Update().inc(TOKEN_BALANCE, tokens).setOnInsert(TOTAL_SPENT, 0.0);
+        return creditOrCreate(actualUserId, role, countRollups(credit, WalletRollup.counterFor(type, true),
+                List.of(new RollupEntry(createdAt, tokens))), operationId);
+    }
+
+    /**
+     * Abono de una compra: tokens y monto gastado, con upsert
+     * @param createdAt Fecha del asiento de la compra (define el mes y el día que se incrementan)
+     */
+    public static Update purchaseCredit(String actualUserId, String role, int tokens, double amount,
+            String operationId, LocalDateTime createdAt) {
+        Update credit = new Update().inc(TOKEN_BALANCE, tokens).inc(TOTAL_SPENT, amount);
+        return creditOrCreate(actualUserId, role, countRollups(credit, WalletRollup.PURCHASED,
+                List.of(new RollupEntry(createdAt, tokens))), operationId);
+    }
+
+    /**
+     * Libera los marcadores de operaciones cuyos asientos ya se completaron
+     */
+    public static Update releaseOperations(Collection<String> operationIds) {
+        return new Update().pullAll(RECENT_OPERATIONS, operationIds.toArray());
+    }
+
+    public static Query operationApplied(String walletUserId, String operationId) {
+        return new Query(Criteria.where(USER_ID).is(walletUserId).and(RECENT_OPERATIONS).is(operationId));
+    }
+
+    /**
+     * Suma asientos a los contadores del total y del mes y del día de cada uno. Los
+     * asientos de un mismo periodo se agrupan en un solo $inc (un lote puede cruzar
+     * la medianoche y repartirse entre dos días)
+     * @param counter Contador de {@link WalletRollup} (purchased, used, earned, refunded o returned)
+     * @param entries Asientos que agrupa el movimiento (más de uno en las escrituras masivas)
+     */
+    static Update countRollups(Update update, String counter, List<RollupEntry> entries) {
+        Map<String, Integer> tokensByPeriod = new LinkedHashMap<>();
+        Map<String, Integer> entriesByPeriod = new LinkedHashMap<>();
+        LocalDateTime since = null;
+        for (RollupEntry entry : entries) {
+            for (String period : WalletRollup.periodsOf(entry.createdAt().toLocalDate())) {
+                tokensByPeriod.merge(period, entry.tokens(), Integer::sum);
+                entriesByPeriod.merge(period, 1, Integer::sum);
+            }
+            if (since == null || entry.createdAt().isBefore(since)) {
+                since = entry.createdAt();
+            }
+        }
+        tokensByPeriod.forEach((period, tokens) -> update.inc(ROLLUPS + "." + period + "." + counter, tokens)
+                .inc(ROLLUPS + "." + period + "." + WalletRollup.TRANSACTIONS, entriesByPeriod.get(period)));
+        if (since == null) {
+            return update;
+        }
+        return update.min(ROLLUPS_SINCE, since).min(ROLLUP_DAYS_FROM, WalletRollup.dayKey(since.toLocalDate()));
+    }
+
+    /**
+     * Wallets con contadores diarios anteriores al día indicado
+     */
+    public static Query withDailyRollupsBefore(LocalDate day) {
+        return new Query(Criteria.where(ROLLUP_DAYS_FROM).lt(WalletRollup.dayKey(day)));
+    }
+
+    /**
+     * Quita de rollups las claves de día ("yyyy-MM-dd") anteriores al día indicado y
+     * deja en rollupDaysFrom el día más antiguo que queda (o lo quita si no queda
+     * ninguno). El total y los meses se conservan.
+     */
+    public static AggregationUpdate pruneDailyRollups(LocalDate day) {
+        String cutoff = WalletRollup.dayKey(day);
+        Document isDay = new Document("$eq", List.of(new Document("$strLenCP", "$$r.k"), cutoff.length()));
+        Document kept = new Document("$filter", new Document("input", new Document("$objectToArray", "$" + ROLLUPS))
+                .append("as", "r")
+                .append("cond", new Document("$or", List.of(new Document("$not", List.of(isDay)),
+                        new Document("$gte", List.of("$$r.k", cutoff))))));
+        Document oldestDay = new Document("$min", new Document("$map", new Document("input",
+                new Document("$filter", new Document("input", new Document("$objectToArray", "$" + ROLLUPS))
+                        .append("as", "r").append("cond", isDay)))
+                .append("as", "r").append("in", "$$r.k")));
+        return AggregationUpdate.from(List.of(
+                context -> new Document("$set", new Document(ROLLUPS, new Document("$arrayToObject", kept))),
+                context -> new Document("$set", new Document(ROLLUP_DAYS_FROM,
+                        new Document("$ifNull", List.of(oldestDay, "$$REMOVE"))))));
+    }
+
+    private static Update creditOrCreate(String actualUserId, String role, Update credit, String operationId) {
+        return markOperation(credit, operationId)
+                .setOnInsert("actualUserId", actualUserId)
+                .setOnInsert("role", role)
+                .setOnInsert("email", "")
+                .setOnInsert("createdAt", LocalDateTime.now());
+    }
+
+    private static Update markOperation(Update update, String operationId) {
+        return markOperations(update, List.of(operationId));
+    }
+
+    /**
+     * Registra las operaciones en la wallet. La lista no se recorta: un marcador solo se
+     * quita con {@link #releaseOperations} al completar la operación, así ninguna cantidad
+     * de operaciones posteriores lo desaloja antes de que la recuperación lo consulte.
+     */
+    static Update markOperations(Update update, List<String> operationIds) {
+        update.set(UPDATED_AT, LocalDateTime.now());
+        update.push(RECENT_OPERATIONS).each(operationIds.toArray());
+        return update;
+    }
+}
@@ -0,0 +1,67 @@
+package wallet_service.eci.edu.co.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.time.Duration;
+
+/**
+ * Conjunto en proceso de operaciones por reservación aplicadas recientemente,
+ * indexado por la misma clave que el índice único del ledger (bookingId, userId, type).
+ * Permite responder los reintentos del servicio de reservas con el resultado
+ * original sin consultar Mongo; el índice único sigue siendo la garantía cuando
+ * el reintento llega a otra réplica o la entrada ya expiró.
+ */
+@Component
+public class BookingOperationCache {
+
+    /**
+     * Resultado original de una transferencia o reembolso por reservación
+     * @param tokens Tokens movidos
+     * @param studentNewBalance Saldo del estudiante tras la operación
+     * @param tutorNewBalance Saldo del tutor tras la operación
+     */
+    public record SettledBooking(Integer tokens, Integer studentNewBalance, Integer tutorNewBalance) {
+    }
+
+    private final Cache<String, SettledBooking> settled;
+
+    public BookingOperationCache(@Value("${wallet.cache.idempotency.maximum-size:10000}") long maximumSize,
+            @Value("${wallet.cache.idempotency.ttl:PT10M}") Duration ttl) {
+        this.settled = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Clave de idempotencia del asiento del estudiante de una reservación
+     * @param type Tipo del asiento (USAGE para transferencias, REFUND para reembolsos)
+     * @param bookingId ID de la reservación
+     * @param studentWalletUserId userId de la wallet del estudiante (con sufijo de rol)
+     */
+    public static String key(Transaction.TransactionType type, String bookingId, String studentWalletUserId) {
+        return type + ":" + bookingId + ":" + studentWalletUserId;
+    }
+
+    /**
+     * @return Resultado original, o null si la operación no se vio recientemente
+     */
+    public SettledBooking get(String key) {
+        return settled.getIfPresent(key);
+    }
+
+    public void put(String key, SettledBooking result) {
+        settled.put(key, result);
+    }
+
+    /**
+     * @return Cantidad aproximada de operaciones en la caché
+     */
+    public long size() {
+        return settled.estimatedSize();
+    }
+}
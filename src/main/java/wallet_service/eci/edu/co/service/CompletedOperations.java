@@ -0,0 +1,61 @@
+package wallet_service.eci.edu.co.service;
+
+import org.springframework.stereotype.Component;
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Marcadores de operación por liberar. Cuando los asientos de una operación quedan
+ * COMPLETED, WalletService y ReactiveWalletService encolan aquí su marcador en lugar
+ * de quitarlo de las wallets con una escritura más por operación;
+ * PendingOperationRecoveryJob los libera en lote, con una escritura masiva por
+ * intervalo. Si el proceso cae antes, el marcador queda huérfano en la wallet, lo
+ * que solo ocupa espacio (los operationId no se reutilizan).
+ */
+@Component
+public class CompletedOperations {
+
+    private record Marker(String walletUserId, String operationId) {
+    }
+
+    private final ConcurrentLinkedQueue<Marker> markers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Encola los marcadores de asientos ya completados en el ledger
+     */
+    public void add(List<Transaction> entries) {
+        for (Transaction entry : entries) {
+            if (entry.getOperationId() != null) {
+                markers.add(new Marker(entry.getUserId(), entry.getOperationId()));
+            }
+        }
+    }
+
+    /**
+     * Vuelve a encolar marcadores que no se pudieron liberar
+     */
+    public void addAll(Map<String, Set<String>> operationsByWallet) {
+        operationsByWallet.forEach((walletUserId, operationIds) -> operationIds
+                .forEach(operationId -> markers.add(new Marker(walletUserId, operationId))));
+    }
+
+    /**
+     * Saca los marcadores encolados
+     * @return operationIds por userId de wallet
+     */
+    public Map<String, Set<String>> drain() {
+        Map<String, Set<String>> operationsByWallet = new LinkedHashMap<>();
+        Marker marker;
+        while ((marker = markers.poll()) != null) {
+            operationsByWallet.computeIfAbsent(marker.walletUserId(), k -> new LinkedHashSet<>())
+                    .add(marker.operationId());
+        }
+        return operationsByWallet;
+    }
+}
@@ -0,0 +1,40 @@
+package wallet_service.eci.edu.co.service;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Estado de los índices únicos de idempotencia del ledger en esta instancia.
+ * TransactionIdempotencyIndexMigration los confirma al arrancar, antes de que el
+ * servidor acepte tráfico. Mientras un índice no esté confirmado (migración
+ * desactivada sobre una base sin el índice), un reintento no recibe clave duplicada
+ * al insertar su asiento, así que WalletService y ReactiveWalletService lo buscan
+ * antes en el ledger.
+ */
+@Component
+public class IdempotencyIndexes {
+
+    private volatile boolean bookingIndexReady;
+    private volatile boolean stripeSessionIndexReady;
+
+    /**
+     * @return true si el índice único (bookingId, userId, type) existe en la colección
+     */
+    public boolean isBookingIndexReady() {
+        return bookingIndexReady;
+    }
+
+    public void confirmBookingIndex() {
+        bookingIndexReady = true;
+    }
+
+    /**
+     * @return true si el índice único de stripeSessionId existe en la colección
+     */
+    public boolean isStripeSessionIndexReady() {
+        return stripeSessionIndexReady;
+    }
+
+    public void confirmStripeSessionIndex() {
+        stripeSessionIndexReady = true;
+    }
+}
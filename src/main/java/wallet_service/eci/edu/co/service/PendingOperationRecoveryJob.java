@@ -0,0 +1,60 @@
+package wallet_service.eci.edu.co.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Reaplica periódicamente las transferencias y reembolsos que quedaron a medias
+ * (asientos PENDING con operationId) después de una caída del proceso, y libera en
+ * lote los marcadores de las operaciones ya completadas.
+ */
+@Component
+public class PendingOperationRecoveryJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingOperationRecoveryJob.class);
+
+    private final WalletService walletService;
+    private final Duration gracePeriod;
+
+    public PendingOperationRecoveryJob(WalletService walletService,
+            @Value("${wallet.recovery.grace-period:PT2M}") Duration gracePeriod) {
+        this.walletService = walletService;
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Scheduled(initialDelayString = "${wallet.recovery.initial-delay-ms:30000}",
+            fixedDelayString = "${wallet.recovery.interval-ms:60000}")
+    public void recover() {
+        try {
+            int recovered = walletService.recoverPendingOperations(gracePeriod);
+            if (recovered > 0) {
+                logger.info("Operaciones pendientes recuperadas: {}", recovered);
+            }
+        } catch (Exception e) {
+            logger.error("Error en la recuperación de operaciones pendientes: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${wallet.recovery.marker-release-interval-ms:1000}")
+    public void releaseMarkers() {
+        try {
+            walletService.releaseCompletedOperations();
+        } catch (Exception e) {
+            logger.error("Error liberando marcadores de operaciones completadas: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Libera los marcadores encolados antes de detener el proceso
+     */
+    @PreDestroy
+    public void releaseMarkersOnShutdown() {
+        releaseMarkers();
+    }
+}
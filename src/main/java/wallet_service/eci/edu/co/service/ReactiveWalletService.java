@@ -0,0 +1,519 @@
+package wallet_service.eci.edu.co.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import wallet_service.eci.edu.co.dto.HistoryCursor;
+import wallet_service.eci.edu.co.dto.TokenCheckResponse;
+import wallet_service.eci.edu.co.dto.TransactionReport;
+import wallet_service.eci.edu.co.dto.TransactionPage;
+import wallet_service.eci.edu.co.dto.WalletBalanceView;
+import wallet_service.eci.edu.co.dto.WalletSummary;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+import wallet_service.eci.edu.co.repository.TransactionCriteria;
+import wallet_service.eci.edu.co.repository.TransactionReports;
+import wallet_service.eci.edu.co.repository.WalletUpdates;
+import wallet_service.eci.edu.co.service.BookingOperationCache.SettledBooking;
+import wallet_service.eci.edu.co.service.WalletService.AppliedOperation;
+import wallet_service.eci.edu.co.service.WalletService.InsufficientTokensException;
+import wallet_service.eci.edu.co.service.WalletService.OperationInProgressException;
+import wallet_service.eci.edu.co.service.WalletService.WalletNotFoundException;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Variante no bloqueante de las operaciones de {@link WalletService} sobre
+ * ReactiveMongoTemplate, usada por los controladores del perfil "reactive".
+ * Aplica las mismas escrituras condicionales ({@link WalletUpdates}), los mismos
+ * asientos PENDING con operationId y la misma idempotencia por reservación, por lo
+ * que ambos stacks pueden atender la misma base al mismo tiempo y la recuperación
+ * de operaciones pendientes de WalletService cubre también a esta variante.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveWalletService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveWalletService.class);
+
+    // Documentos por lote del cursor: el siguiente lote se pide según la demanda del suscriptor
+    private static final int STREAM_BATCH_SIZE = 500;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final WalletBalanceCache balanceCache;
+    private final BookingOperationCache operationCache;
+    private final IdempotencyIndexes idempotencyIndexes;
+    private final CompletedOperations completedOperations;
+
+    public ReactiveWalletService(ReactiveMongoTemplate mongoTemplate, WalletBalanceCache balanceCache,
+            BookingOperationCache operationCache, IdempotencyIndexes idempotencyIndexes,
+            CompletedOperations completedOperations) {
+        this.mongoTemplate = mongoTemplate;
+        this.balanceCache = balanceCache;
+        this.operationCache = operationCache;
+        this.idempotencyIndexes = idempotencyIndexes;
+        this.completedOperations = completedOperations;
+    }
+
+    /**
+     * Obtiene o crea la wallet de un usuario con rol específico (upsert atómico)
+     *
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role         Rol del usuario ("STUDENT" o "TUTOR")
+     * @param email        Email del usuario
+     * @return Wallet existente o recién creada
+     */
+    public Mono<Wallet> getOrCreateWallet(String actualUserId, String role, String email) {
+        Query query = WalletUpdates.withoutRollups(WalletUpdates.byUserId(actualUserId + "-" + role.toLowerCase()));
+        return mongoTemplate.findAndModify(query, WalletUpdates.createIfMissing(actualUserId, role, email),
+                        FindAndModifyOptions.options().returnNew(true).upsert(true), Wallet.class)
+                // Otro upsert insertó la wallet primero: ahora existe y se devuelve tal cual
+                .onErrorResume(DuplicateKeyException.class, e -> mongoTemplate.findOne(query, Wallet.class));
+    }
+
+    /**
+     * Obtiene el saldo de tokens de un usuario con rol específico (0 si la wallet no existe)
+     */
+    public Mono<Integer> getTokenBalance(String actualUserId, String role) {
+        return findCachedBalance(actualUserId + "-" + role.toLowerCase())
+                .mapNotNull(WalletBalanceView::getTokenBalance)
+                .defaultIfEmpty(0);
+    }
+
+    /**
+     * Verifica si un usuario tiene suficientes tokens
+     */
+    public Mono<TokenCheckResponse> checkTokens(String actualUserId, String role, Integer requiredTokens) {
+        return findCachedBalance(actualUserId + "-" + role.toLowerCase())
+                .map(balance -> {
+                    int currentBalance = Optional.ofNullable(balance.getTokenBalance()).orElse(0);
+                    return new TokenCheckResponse(currentBalance >= requiredTokens, requiredTokens, currentBalance,
+                            role);
+                })
+                .defaultIfEmpty(new TokenCheckResponse(false, requiredTokens, 0, role));
+    }
+
+    /**
+     * Saldo desde el near-cache compartido con WalletService; en caso de fallo se lee
+     * de Mongo solo el saldo. El future cacheado no se cancela si el suscriptor que lo
+     * originó cancela, porque otras lecturas de la misma clave pueden estar esperándolo.
+     */
+    private Mono<WalletBalanceView> findCachedBalance(String walletUserId) {
+        return Mono.fromFuture(() -> balanceCache.getAsync(walletUserId, key -> loadBalance(key).toFuture()), true);
+    }
+
+    private Mono<WalletBalanceView> loadBalance(String walletUserId) {
+        Query query = WalletUpdates.byUserId(walletUserId);
+        query.fields().include("tokenBalance", "updatedAt");
+        return mongoTemplate.query(Wallet.class).as(WalletBalanceView.class).matching(query).one();
+    }
+
+    /**
+     * Obtiene el resumen de la wallet desde sus contadores (misma lectura que
+     * {@link WalletService#getWalletSummary})
+     */
+    public Mono<WalletSummary> getWalletSummary(String actualUserId, String role, YearMonth month, LocalDate day) {
+        return Mono.defer(() -> {
+            LocalDate today = LocalDate.now();
+            YearMonth summaryMonth = month != null ? month : YearMonth.from(today);
+            LocalDate summaryDay = day != null ? day : today;
+            Query query = WalletUpdates.byUserId(actualUserId + "-" + role.toLowerCase());
+            query.fields().include("tokenBalance", "rollupsSince");
+            for (String period : List.of(WalletRollup.TOTAL, WalletRollup.monthKey(summaryMonth),
+                    WalletRollup.dayKey(summaryDay))) {
+                query.fields().include("rollups." + period);
+            }
+            return mongoTemplate.findOne(query, Wallet.class)
+                    .map(wallet -> WalletSummary.of(actualUserId, role, wallet, summaryMonth, summaryDay))
+                    .defaultIfEmpty(WalletSummary.of(actualUserId, role, null, summaryMonth, summaryDay));
+        });
+    }
+
+    /**
+     * Obtiene una página del historial de transacciones (paginación por cursor sobre createdAt + _id)
+     *
+     * @throws IllegalArgumentException (como señal de error) si el cursor es inválido
+     */
+    public Mono<TransactionPage> getTransactionPage(String actualUserId, String role,
+            Transaction.TransactionType type, LocalDateTime startDate, LocalDateTime endDate, String cursor,
+            int limit) {
+        return Mono.defer(() -> {
+            HistoryCursor after = (cursor == null || cursor.isBlank()) ? null : HistoryCursor.decode(cursor);
+            Query query = new Query(TransactionCriteria.history(actualUserId + "-" + role.toLowerCase(), type,
+                    startDate, endDate, after))
+                    .with(TransactionCriteria.HISTORY_SORT)
+                    .limit(limit + 1);
+            return mongoTemplate.find(query, Transaction.class).collectList()
+                    .map(items -> WalletService.toPage(items, limit));
+        });
+    }
+
+    /**
+     * Reporte agregado del historial (mismo pipeline que {@link WalletService#getTransactionReport})
+     */
+    public Mono<TransactionReport> getTransactionReport(String actualUserId, String role,
+            TransactionReports.Grouping grouping, Transaction.TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate, int limit) {
+        return Mono.defer(() -> mongoTemplate.aggregate(TransactionReports.pipeline(
+                                actualUserId + "-" + role.toLowerCase(), grouping, type, startDate, endDate, limit + 1),
+                        Transaction.class, Document.class)
+                .map(TransactionReports::toRow)
+                .collectList()
+                .map(rows -> WalletService.toReport(grouping, rows, limit)));
+    }
+
+    /**
+     * Recorre el historial completo de un usuario, emitiendo cada asiento a medida
+     * que el cursor de Mongo lo produce
+     *
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role         Rol del usuario ("STUDENT" o "TUTOR")
+     * @param type         Tipo de transacción (opcional)
+     * @param startDate    Fecha de inicio (opcional)
+     * @param endDate      Fecha de fin (opcional)
+     * @return Asientos en el orden del historial
+     */
+    public Flux<Transaction> streamHistory(String actualUserId, String role, Transaction.TransactionType type,
+            LocalDateTime startDate, LocalDateTime endDate) {
+        Query query = new Query(TransactionCriteria.history(actualUserId + "-" + role.toLowerCase(), type,
+                startDate, endDate, null))
+                .with(TransactionCriteria.HISTORY_SORT)
+                .cursorBatchSize(STREAM_BATCH_SIZE);
+        return mongoTemplate.find(query, Transaction.class);
+    }
+
+    /**
+     * Busca una transacción por el sessionId de Stripe
+     */
+    public Mono<Transaction> findTransactionByStripeSession(String stripeSessionId) {
+        return mongoTemplate.findOne(new Query(Criteria.where("stripeSessionId").is(stripeSessionId)),
+                Transaction.class);
+    }
+
+    /**
+     * Procesa una compra exitosa de tokens para el estudiante (idempotente por stripeSessionId)
+     *
+     * @see WalletService#processPurchase(String, String, Integer, Double, String)
+     */
+    public Mono<Transaction> processPurchase(String actualUserId, Integer tokens, Double amount,
+            String stripeSessionId) {
+        String role = "STUDENT";
+        String walletUserId = actualUserId + WalletService.STUDENT_SUFFIX;
+        logger.info("processPurchase - walletUserId: {}, tokens: {}, amount: {}, stripeSessionId: {}",
+                walletUserId, tokens, amount, stripeSessionId);
+
+        Transaction transaction = Transaction.createPurchase(walletUserId, null, tokens, amount, stripeSessionId);
+        transaction.setOperationId(UUID.randomUUID().toString());
+        transaction.setBalanceChange(tokens);
+        // Sin el índice único confirmado un reenvío no choca al insertar: se busca antes la sesión
+        Mono<Transaction> recorded = idempotencyIndexes.isStripeSessionIndexReady() ? Mono.empty()
+                : findTransactionByStripeSession(stripeSessionId).doOnNext(existing -> logger.warn(
+                        "Compra duplicada detectada para stripeSessionId: {}. Retornando transacción existente.",
+                        stripeSessionId));
+        return recorded.switchIfEmpty(Mono.defer(() -> insertPurchase(transaction, actualUserId, role, tokens,
+                amount, stripeSessionId)));
+    }
+
+    private Mono<Transaction> insertPurchase(Transaction transaction, String actualUserId, String role,
+            Integer tokens, Double amount, String stripeSessionId) {
+        String walletUserId = transaction.getUserId();
+        return mongoTemplate.insert(transaction)
+                .flatMap(saved -> creditOrCreate(walletUserId,
+                        WalletUpdates.purchaseCredit(actualUserId, role, tokens, amount, saved.getOperationId(),
+                                saved.getCreatedAt()),
+                        saved.getOperationId())
+                        .flatMap(wallet -> {
+                            balanceCache.invalidate(walletUserId);
+                            saved.setWalletId(wallet.getId());
+                            saved.setBalanceAfter(wallet.getTokenBalance());
+                            return completeOperation(List.of(saved)).thenReturn(saved);
+                        }))
+                // Solo la inserción del asiento puede rechazar una clave duplicada: la sesión ya se procesó
+                .onErrorResume(DuplicateKeyException.class, e -> {
+                    logger.warn("Compra duplicada detectada para stripeSessionId: {}. Retornando transacción existente.",
+                            stripeSessionId);
+                    return findTransactionByStripeSession(stripeSessionId).switchIfEmpty(Mono.error(e));
+                });
+    }
+
+    /**
+     * Transfiere tokens de un estudiante a un tutor
+     *
+     * @see WalletService#transferTokens(String, String, Integer, String, String)
+     */
+    public Mono<Map<String, Object>> transferTokens(String fromUserId, String toUserId, Integer tokens,
+            String description, String bookingId) {
+        String studentWalletUserId = fromUserId + WalletService.STUDENT_SUFFIX;
+        String tutorWalletUserId = toUserId + WalletService.TUTOR_SUFFIX;
+        String idempotencyKey = BookingOperationCache.key(Transaction.TransactionType.USAGE, bookingId,
+                studentWalletUserId);
+
+        // Reintento reciente de una transferencia ya aplicada: se responde sin tocar Mongo
+        SettledBooking cached = bookingId == null ? null : operationCache.get(idempotencyKey);
+        Mono<SettledBooking> settled = cached != null ? Mono.just(cached)
+                : applyTransfer(studentWalletUserId, tutorWalletUserId, tokens, description, bookingId)
+                        .doOnNext(result -> {
+                            if (bookingId != null) {
+                                operationCache.put(idempotencyKey, result);
+                            }
+                        });
+        return settled.map(result -> WalletService.transferResponse(fromUserId, toUserId, result));
+    }
+
+    private Mono<SettledBooking> applyTransfer(String studentWalletUserId, String tutorWalletUserId,
+            Integer tokens, String description, String bookingId) {
+        Transaction studentTransaction = Transaction.createUsage(
+                studentWalletUserId, null, tokens, "Pago a tutor - " + description);
+        studentTransaction.setBookingId(bookingId);
+        Transaction tutorTransaction = WalletService.createEntry(tutorWalletUserId,
+                Transaction.TransactionType.USAGE, tokens, "Ingreso por tutoría - " + description, bookingId);
+
+        return recordedWithoutIndex(Transaction.TransactionType.USAGE, bookingId, studentWalletUserId)
+                .flatMap(recorded -> recorded
+                        ? replaySettled(Transaction.TransactionType.USAGE, bookingId, studentWalletUserId,
+                                tutorWalletUserId, null)
+                        : commitOperation(studentTransaction, tutorTransaction,
+                                WalletService.WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId,
+                                WalletService.STUDENT_INSUFFICIENT_TOKENS)
+                                .map(applied -> new SettledBooking(tokens, applied.debited().getTokenBalance(),
+                                        applied.credited().getTokenBalance()))
+                                .onErrorResume(DuplicateKeyException.class, e -> replaySettled(
+                                        Transaction.TransactionType.USAGE, bookingId, studentWalletUserId,
+                                        tutorWalletUserId, e)));
+    }
+
+    /**
+     * Reembolsa los tokens de una reservación cancelada
+     *
+     * @see WalletService#refundTokensByBooking(String, String, String, String)
+     */
+    public Mono<Map<String, Object>> refundTokensByBooking(String studentUserId, String tutorUserId,
+            String bookingId, String description) {
+        String studentWalletUserId = studentUserId + WalletService.STUDENT_SUFFIX;
+        String tutorWalletUserId = tutorUserId + WalletService.TUTOR_SUFFIX;
+        String idempotencyKey = BookingOperationCache.key(Transaction.TransactionType.REFUND, bookingId,
+                studentWalletUserId);
+
+        SettledBooking cached = operationCache.get(idempotencyKey);
+        Mono<SettledBooking> settled = cached != null ? Mono.just(cached)
+                : applyRefundByBooking(studentWalletUserId, tutorWalletUserId, bookingId, description)
+                        .doOnNext(result -> operationCache.put(idempotencyKey, result));
+        return settled.map(result -> WalletService.refundResponse(studentUserId, tutorUserId, result));
+    }
+
+    private Mono<SettledBooking> applyRefundByBooking(String studentWalletUserId, String tutorWalletUserId,
+            String bookingId, String description) {
+        return recordedWithoutIndex(Transaction.TransactionType.REFUND, bookingId, studentWalletUserId)
+                .flatMap(recorded -> recorded
+                        ? replaySettled(Transaction.TransactionType.REFUND, bookingId, studentWalletUserId,
+                                tutorWalletUserId, null)
+                        : commitRefund(studentWalletUserId, tutorWalletUserId, bookingId, description));
+    }
+
+    private Mono<SettledBooking> commitRefund(String studentWalletUserId, String tutorWalletUserId, String bookingId,
+            String description) {
+        return findBookingEntry(bookingId, studentWalletUserId, Transaction.TransactionType.USAGE)
+                .switchIfEmpty(Mono.error(() -> new WalletNotFoundException(
+                        "No se encontró la transacción de uso del estudiante para bookingId: " + bookingId)))
+                .flatMap(studentUsage -> {
+                    int tokens = Optional.ofNullable(studentUsage.getTokensAmount()).orElse(0);
+                    if (tokens <= 0) {
+                        return Mono.error(new InsufficientTokensException(
+                                "La transacción asociada no tiene tokens válidos para reembolso"));
+                    }
+                    Transaction studentRefund = WalletService.createEntry(studentWalletUserId,
+                            Transaction.TransactionType.REFUND, tokens, description, bookingId);
+                    Transaction tutorDeduction = WalletService.createEntry(tutorWalletUserId,
+                            Transaction.TransactionType.REFUND, tokens,
+                            "Devolución por cancelación - " + description, bookingId);
+                    return commitOperation(tutorDeduction, studentRefund,
+                            WalletService.TUTOR_WALLET_NOT_FOUND + tutorWalletUserId,
+                            WalletService.TUTOR_INSUFFICIENT_TOKENS)
+                            .map(applied -> new SettledBooking(tokens, applied.credited().getTokenBalance(),
+                                    applied.debited().getTokenBalance()))
+                            .onErrorResume(DuplicateKeyException.class, e -> replaySettled(
+                                    Transaction.TransactionType.REFUND, bookingId, studentWalletUserId,
+                                    tutorWalletUserId, e));
+                });
+    }
+
+    /**
+     * Lectura previa del ledger mientras el índice único de reservaciones no está confirmado
+     */
+    private Mono<Boolean> recordedWithoutIndex(Transaction.TransactionType type, String bookingId,
+            String studentWalletUserId) {
+        if (bookingId == null || idempotencyIndexes.isBookingIndexReady()) {
+            return Mono.just(false);
+        }
+        return findBookingEntry(bookingId, studentWalletUserId, type).hasElement();
+    }
+
+    /**
+     * Reconstruye el resultado original de una operación por reservación a partir del ledger
+     */
+    private Mono<SettledBooking> replaySettled(Transaction.TransactionType type, String bookingId,
+            String studentWalletUserId, String tutorWalletUserId, DuplicateKeyException cause) {
+        // Sin asiento del estudiante, el duplicado fue el del tutor: la reservación es de otro estudiante
+        return findBookingEntry(bookingId, studentWalletUserId, type)
+                .switchIfEmpty(Mono.error(() -> cause != null ? cause : new IllegalStateException(
+                        "La reservación " + bookingId + " ya está registrada para otro usuario")))
+                .flatMap(studentEntry -> {
+                    if (studentEntry.getStatus() == Transaction.TransactionStatus.PENDING) {
+                        return Mono.error(new OperationInProgressException(
+                                WalletService.operationInProgressMessage(bookingId)));
+                    }
+                    Mono<Optional<Transaction>> tutorEntry = studentEntry.getOperationId() == null
+                            ? Mono.just(Optional.empty())
+                            : mongoTemplate.findOne(new Query(Criteria.where("operationId")
+                                            .is(studentEntry.getOperationId())
+                                            .and("_id").ne(studentEntry.getId())), Transaction.class)
+                                    .map(Optional::of)
+                                    .defaultIfEmpty(Optional.empty());
+                    logger.info("Reintento de la reservación {} ({}) respondido con el resultado original",
+                            bookingId, type);
+                    return tutorEntry.flatMap(tutor -> Mono.zip(
+                                    balanceAfter(studentEntry, studentEntry.getUserId()),
+                                    balanceAfter(tutor.orElse(null), tutorWalletUserId))
+                            .map(balances -> new SettledBooking(studentEntry.getTokensAmount(), balances.getT1(),
+                                    balances.getT2())));
+                });
+    }
+
+    /**
+     * Saldo guardado en el asiento; los asientos anteriores a balanceAfter usan el saldo actual
+     */
+    private Mono<Integer> balanceAfter(Transaction entry, String walletUserId) {
+        if (entry != null && entry.getBalanceAfter() != null) {
+            return Mono.just(entry.getBalanceAfter());
+        }
+        return findCachedBalance(walletUserId).mapNotNull(WalletBalanceView::getTokenBalance).defaultIfEmpty(0);
+    }
+
+    private Mono<Transaction> findBookingEntry(String bookingId, String walletUserId,
+            Transaction.TransactionType type) {
+        return mongoTemplate.findOne(new Query(Criteria.where("bookingId").is(bookingId)
+                .and("userId").is(walletUserId)
+                .and("type").is(type)), Transaction.class);
+    }
+
+    /**
+     * Aplica una operación de cargo/abono en los mismos pasos recuperables que
+     * WalletService: asientos PENDING, cargo condicional, abono con upsert y
+     * completado de los asientos en una escritura masiva
+     */
+    private Mono<AppliedOperation> commitOperation(Transaction debitEntry, Transaction creditEntry,
+            String notFoundMessage, String insufficientMessage) {
+        String operationId = UUID.randomUUID().toString();
+        int tokens = debitEntry.getTokensAmount();
+        for (Transaction entry : List.of(debitEntry, creditEntry)) {
+            // Los ids se asignan antes para poder completar los asientos por _id después
+            entry.setId(new ObjectId().toHexString());
+            entry.setOperationId(operationId);
+            entry.setStatus(Transaction.TransactionStatus.PENDING);
+            entry.setCompletedAt(null);
+        }
+        debitEntry.setBalanceChange(-tokens);
+        creditEntry.setBalanceChange(tokens);
+
+        Mono<Void> discardEntries = mongoTemplate.remove(
+                new Query(Criteria.where("operationId").is(operationId)), Transaction.class).then();
+        return mongoTemplate.insertAll(List.of(debitEntry, creditEntry)).then()
+                // La inserción ordenada pudo dejar el primer asiento antes del duplicado
+                .onErrorResume(DuplicateKeyException.class, e -> discardEntries.then(Mono.error(e)))
+                .then(debitOrError(debitEntry, operationId, notFoundMessage, insufficientMessage)
+                        .onErrorResume(e -> discardEntries.then(Mono.error(e))))
+                .zipWhen(debited -> creditForOperation(creditEntry, operationId))
+                .flatMap(wallets -> {
+                    Wallet debited = wallets.getT1();
+                    Wallet credited = wallets.getT2();
+                    balanceCache.invalidate(debitEntry.getUserId());
+                    balanceCache.invalidate(creditEntry.getUserId());
+                    debitEntry.setWalletId(debited.getId());
+                    debitEntry.setBalanceAfter(debited.getTokenBalance());
+                    creditEntry.setWalletId(credited.getId());
+                    creditEntry.setBalanceAfter(credited.getTokenBalance());
+                    return completeOperation(List.of(debitEntry, creditEntry))
+                            .thenReturn(new AppliedOperation(debited, credited));
+                });
+    }
+
+    /**
+     * Completa los asientos y encola sus marcadores para liberarlos en lote, igual que
+     * WalletService
+     */
+    private Mono<Void> completeOperation(List<Transaction> entries) {
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Transaction.class);
+        for (Transaction entry : entries) {
+            entry.complete();
+            bulk.updateOne(new Query(Criteria.where("_id").is(entry.getId())), TransactionCriteria.completion(entry));
+        }
+        return bulk.execute()
+                .doOnSuccess(result -> completedOperations.add(entries))
+                .then();
+    }
+
+    /**
+     * Descuenta tokens de forma atómica y distingue entre wallet inexistente y
+     * saldo insuficiente cuando el descuento condicional no aplica
+     */
+    private Mono<Wallet> debitOrError(Transaction debitEntry, String operationId, String notFoundMessage,
+            String insufficientMessage) {
+        String walletUserId = debitEntry.getUserId();
+        int tokens = debitEntry.getTokensAmount();
+        if (tokens <= 0) {
+            return Mono.error(new InsufficientTokensException(insufficientMessage));
+        }
+        return mongoTemplate.findAndModify(WalletUpdates.debitFilter(walletUserId, tokens, operationId),
+                        WalletUpdates.debit(tokens, operationId, debitEntry.getType(), debitEntry.getCreatedAt()),
+                        FindAndModifyOptions.options().returnNew(true),
+                        Wallet.class)
+                .switchIfEmpty(Mono.defer(() -> mongoTemplate.exists(WalletUpdates.byUserId(walletUserId),
+                                Wallet.class)
+                        .flatMap(exists -> Mono.error(exists
+                                ? new InsufficientTokensException(insufficientMessage)
+                                : new WalletNotFoundException(notFoundMessage)))));
+    }
+
+    private Mono<Wallet> creditForOperation(Transaction creditEntry, String operationId) {
+        String walletUserId = creditEntry.getUserId();
+        int separator = walletUserId.lastIndexOf('-');
+        String actualUserId = walletUserId.substring(0, separator);
+        String role = walletUserId.substring(separator + 1).toUpperCase();
+        return creditOrCreate(walletUserId,
+                WalletUpdates.credit(actualUserId, role, creditEntry.getTokensAmount(), operationId,
+                        creditEntry.getType(), creditEntry.getCreatedAt()), operationId);
+    }
+
+    private Mono<Wallet> creditOrCreate(String walletUserId, Update update, String operationId) {
+        Query query = WalletUpdates.creditFilter(walletUserId, operationId);
+        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true).upsert(true);
+        // O bien otro upsert creó la wallet al mismo tiempo (se reintenta como update normal),
+        // o bien la wallet ya tenía la operación aplicada y el filtro no la encontró
+        return mongoTemplate.findAndModify(query, update, options, Wallet.class)
+                .onErrorResume(DuplicateKeyException.class, first -> mongoTemplate
+                        .findAndModify(query, update, options, Wallet.class)
+                        .onErrorResume(DuplicateKeyException.class, alreadyApplied -> mongoTemplate
+                                .findOne(WalletUpdates.withoutRollups(WalletUpdates.byUserId(walletUserId)),
+                                        Wallet.class)));
+    }
+}
@@ -0,0 +1,285 @@
+package wallet_service.eci.edu.co.service;
+
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.model.StripeObject;
+import com.stripe.model.checkout.Session;
+import com.stripe.net.Webhook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import wallet_service.eci.edu.co.dto.PurchaseRequest;
+import wallet_service.eci.edu.co.model.StripeEvent;
+import wallet_service.eci.edu.co.model.StripeEvent.EventStatus;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.repository.StripeEventRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Ingesta de webhooks de Stripe: verifica la firma, encola los eventos de checkout
+ * pagado en la colección stripe_events y los acredita por lotes mediante
+ * {@link WalletService#processPurchaseBatch}. Cada lote se toma con una escritura
+ * (claimedBy/claimedUntil), así dos réplicas drenando a la vez no procesan los mismos
+ * eventos; si un worker cae, sus eventos vuelven a la cola al vencer la toma. La
+ * acreditación es idempotente por stripeSessionId, así que un evento procesado dos
+ * veces (reentrega o toma vencida) acredita una sola vez. Un evento que falla se
+ * reintenta con espera exponencial (retry-backoff * 2^(intento - 1)), así una caída
+ * breve de Mongo no agota sus intentos en segundos.
+ * <p>
+ * Sin stripe.webhookSecret los webhooks no se pueden verificar: se registra un error
+ * al arrancar y el controlador responde 503 para que Stripe reintente la entrega.
+ */
+@Service
+public class StripeEventService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripeEventService.class);
+    private static final Set<String> CREDITED_EVENT_TYPES = Set.of(
+            "checkout.session.completed", "checkout.session.async_payment_succeeded");
+    private static final String PAID = "paid";
+    static final int BATCH_SIZE = 100;
+    private static final String RECEIVED_AT = "receivedAt";
+    private static final String CLAIMED_BY = "claimedBy";
+    private static final String CLAIMED_UNTIL = "claimedUntil";
+    // Tope del exponente de la espera entre reintentos (evita desbordes con max-attempts altos)
+    private static final int MAX_BACKOFF_EXPONENT = 10;
+
+    private final StripeEventRepository eventRepository;
+    private final WalletService walletService;
+    private final MongoTemplate mongoTemplate;
+    private final String webhookSecret;
+    private final int maxAttempts;
+    private final Duration claimLease;
+    private final Duration retryBackoff;
+
+    public StripeEventService(StripeEventRepository eventRepository, WalletService walletService,
+            MongoTemplate mongoTemplate,
+            @Value("${stripe.webhookSecret:}") String webhookSecret,
+            @Value("${stripe.webhook.max-attempts:5}") int maxAttempts,
+            @Value("${stripe.webhook.claim-lease:PT1M}") Duration claimLease,
+            @Value("${stripe.webhook.retry-backoff:PT30S}") Duration retryBackoff) {
+        this.eventRepository = eventRepository;
+        this.walletService = walletService;
+        this.mongoTemplate = mongoTemplate;
+        this.webhookSecret = webhookSecret;
+        this.maxAttempts = maxAttempts;
+        this.claimLease = claimLease;
+        this.retryBackoff = retryBackoff;
+        if (!isWebhookConfigured()) {
+            logger.error("stripe.webhookSecret no está configurado: los webhooks de Stripe se rechazarán con 503");
+        }
+    }
+
+    /**
+     * @return true si hay secreto para verificar la firma de los webhooks
+     */
+    public boolean isWebhookConfigured() {
+        return webhookSecret != null && !webhookSecret.isBlank();
+    }
+
+    /**
+     * Verifica la firma del webhook y encola el evento si acredita una compra.
+     * Es una sola escritura en Mongo; la acreditación ocurre después en el worker.
+     *
+     * @param payload         Cuerpo crudo del webhook
+     * @param signatureHeader Valor del header Stripe-Signature
+     * @return true si el evento quedó encolado (o ya lo estaba), false si se ignora
+     * @throws SignatureVerificationException si la firma no es válida
+     */
+    public boolean enqueue(String payload, String signatureHeader) throws SignatureVerificationException {
+        if (!isWebhookConfigured()) {
+            throw new IllegalStateException("stripe.webhookSecret no está configurado");
+        }
+        Event event = Webhook.constructEvent(payload, signatureHeader, webhookSecret);
+        if (!CREDITED_EVENT_TYPES.contains(event.getType())) {
+            return false;
+        }
+        Session session = sessionOf(event);
+        StripeEvent queued = new StripeEvent();
+        queued.setId(event.getId());
+        queued.setType(event.getType());
+        queued.setSessionId(session.getId());
+        queued.setPaymentStatus(session.getPaymentStatus());
+        Map<String, String> metadata = Optional.ofNullable(session.getMetadata()).orElse(Map.of());
+        queued.setUserId(metadata.get("userId"));
+        queued.setTokens(parseInteger(metadata.get("tokens")));
+        queued.setTokenPrice(parseDouble(metadata.get("tokenPrice")));
+        queued.setStatus(EventStatus.PENDING);
+        queued.setReceivedAt(LocalDateTime.now());
+        try {
+            eventRepository.insert(queued);
+        } catch (DuplicateKeyException e) {
+            logger.debug("Evento {} reentregado por Stripe; ya estaba encolado", event.getId());
+        }
+        return true;
+    }
+
+    /**
+     * Toma el siguiente lote de eventos pendientes y acredita sus compras juntas
+     * @return Cantidad de eventos tomados
+     */
+    public int drain() {
+        List<StripeEvent> batch = claimBatch();
+        List<String> processed = new ArrayList<>();
+        List<StripeEvent> paid = new ArrayList<>();
+        for (StripeEvent event : batch) {
+            if (!PAID.equals(event.getPaymentStatus())) {
+                // Pago asíncrono aún no confirmado: llegará un evento async_payment_succeeded
+                logger.info("Sesión {} completada sin pago confirmado ({}); no se acredita", event.getSessionId(),
+                        event.getPaymentStatus());
+                processed.add(event.getId());
+            } else if (!hasMetadata(event)) {
+                recordFailure(event, new IllegalArgumentException(
+                        "Metadata incompleta en la sesión " + event.getSessionId()));
+            } else {
+                paid.add(event);
+            }
+        }
+        if (!paid.isEmpty()) {
+            try {
+                walletService.processPurchaseBatch(paid.stream().map(StripeEventService::purchaseOf).toList());
+                paid.forEach(event -> processed.add(event.getId()));
+            } catch (Exception e) {
+                // Se acredita uno a uno para que solo el evento que falla consuma un intento; las compras
+                // que el lote alcanzó a registrar se omiten por sesión
+                logger.warn("Falló el lote de {} eventos de Stripe ({}); se acreditan uno a uno", paid.size(),
+                        e.getMessage());
+                for (StripeEvent event : paid) {
+                    try {
+                        purchase(event);
+                        processed.add(event.getId());
+                    } catch (Exception single) {
+                        recordFailure(event, single);
+                    }
+                }
+            }
+        }
+        if (!processed.isEmpty()) {
+            mongoTemplate.updateMulti(new Query(Criteria.where("_id").in(processed)),
+                    new Update().set("status", EventStatus.PROCESSED).set("processedAt", LocalDateTime.now()),
+                    StripeEvent.class);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Toma hasta BATCH_SIZE eventos pendientes sin toma vigente, en orden de llegada:
+     * una lectura de ids, una escritura que los marca con un id de lote (solo gana la
+     * réplica que los marca primero) y la lectura de los que quedaron marcados
+     */
+    private List<StripeEvent> claimBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        Query next = new Query(claimable(now)).with(Sort.by(RECEIVED_AT)).limit(BATCH_SIZE);
+        next.fields().include("_id");
+        List<String> ids = mongoTemplate.find(next, StripeEvent.class).stream().map(StripeEvent::getId).toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String claim = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), claimable(now))),
+                new Update().set(CLAIMED_BY, claim).set(CLAIMED_UNTIL, now.plus(claimLease)), StripeEvent.class);
+        return mongoTemplate.find(new Query(Criteria.where("_id").in(ids).and(CLAIMED_BY).is(claim))
+                .with(Sort.by(RECEIVED_AT)), StripeEvent.class);
+    }
+
+    private static Criteria claimable(LocalDateTime now) {
+        return Criteria.where("status").is(EventStatus.PENDING).orOperator(
+                Criteria.where(CLAIMED_UNTIL).exists(false),
+                Criteria.where(CLAIMED_UNTIL).lt(now));
+    }
+
+    /**
+     * Acredita de inmediato la compra de una sesión si su evento ya llegó por el
+     * webhook (confirm-payment la usa para no consultar a Stripe)
+     * @param sessionId ID de la sesión de checkout
+     * @return Optional con la transacción de compra, vacío si no hay evento pagado encolado
+     */
+    public Optional<Transaction> creditQueued(String sessionId) {
+        Optional<StripeEvent> queued = eventRepository.findFirstBySessionId(sessionId)
+                .filter(event -> PAID.equals(event.getPaymentStatus()) && hasMetadata(event));
+        return queued.map(event -> {
+            Transaction purchase = purchase(event);
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())),
+                    new Update().set("status", EventStatus.PROCESSED).set("processedAt", LocalDateTime.now()),
+                    StripeEvent.class);
+            return purchase;
+        });
+    }
+
+    private Transaction purchase(StripeEvent event) {
+        PurchaseRequest purchase = purchaseOf(event);
+        return walletService.processPurchase(purchase.getUserId(), purchase.getTokens(), purchase.getAmount(),
+                purchase.getStripeSessionId());
+    }
+
+    private static PurchaseRequest purchaseOf(StripeEvent event) {
+        return new PurchaseRequest(event.getUserId(), event.getTokens(), event.getTokens() * event.getTokenPrice(),
+                event.getSessionId());
+    }
+
+    private void recordFailure(StripeEvent event, Exception e) {
+        int attempts = event.getAttempts() + 1;
+        EventStatus status = attempts >= maxAttempts ? EventStatus.FAILED : EventStatus.PENDING;
+        logger.error("Error acreditando el evento {} (intento {}): {}", event.getId(), attempts, e.getMessage());
+        // La toma se extiende hasta el siguiente reintento: el worker no lo vuelve a tomar antes
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())),
+                new Update().set("attempts", attempts).set("status", status).set("lastError", e.getMessage())
+                        .set(CLAIMED_UNTIL, LocalDateTime.now().plus(retryDelay(attempts))),
+                StripeEvent.class);
+    }
+
+    /**
+     * Espera antes del siguiente intento: retry-backoff * 2^(intentos - 1)
+     */
+    Duration retryDelay(int attempts) {
+        return retryBackoff.multipliedBy(1L << Math.min(Math.max(attempts - 1, 0), MAX_BACKOFF_EXPONENT));
+    }
+
+    private static Session sessionOf(Event event) {
+        Optional<StripeObject> object = event.getDataObjectDeserializer().getObject();
+        if (object.isPresent()) {
+            return (Session) object.get();
+        }
+        // Versión de API del evento distinta a la del SDK: se deserializa igual (solo se leen campos estables)
+        try {
+            return (Session) event.getDataObjectDeserializer().deserializeUnsafe();
+        } catch (EventDataObjectDeserializationException e) {
+            throw new IllegalArgumentException("No se pudo leer la sesión del evento " + event.getId(), e);
+        }
+    }
+
+    private static boolean hasMetadata(StripeEvent event) {
+        return event.getUserId() != null && event.getTokens() != null && event.getTokenPrice() != null;
+    }
+
+    private static Integer parseInteger(String value) {
+        try {
+            return value == null ? null : Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double parseDouble(String value) {
+        try {
+            return value == null ? null : Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package wallet_service.eci.edu.co.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drena periódicamente la cola de eventos de Stripe y acredita las compras por lotes.
+ */
+@Component
+public class StripeEventWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripeEventWorker.class);
+
+    private final StripeEventService eventService;
+
+    public StripeEventWorker(StripeEventService eventService) {
+        this.eventService = eventService;
+    }
+
+    @Scheduled(initialDelayString = "${stripe.webhook.initial-delay-ms:5000}",
+            fixedDelayString = "${stripe.webhook.drain-interval-ms:1000}")
+    public void drain() {
+        try {
+            // Mientras los lotes vengan llenos se sigue drenando sin esperar al siguiente ciclo
+            int processed;
+            do {
+                processed = eventService.drain();
+                if (processed > 0) {
+                    logger.info("Eventos de Stripe procesados: {}", processed);
+                }
+            } while (processed == StripeEventService.BATCH_SIZE);
+        } catch (Exception e) {
+            logger.error("Error drenando eventos de Stripe: {}", e.getMessage());
+        }
+    }
+}
@@ -2,13 +2,17 @@ package wallet_service.eci.edu.co.service;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.stripe.Stripe;
+import com.stripe.StripeClient;
 import com.stripe.exception.StripeException;
 import com.stripe.model.checkout.Session;
 import com.stripe.param.checkout.SessionCreateParams;
@@ -21,17 +25,44 @@ public class StripeService {
 
     private static final Logger logger = LoggerFactory.getLogger(StripeService.class);
     private static final String CHECKOUT_SESSION_ID_PLACEHOLDER = "{CHECKOUT_SESSION_ID}";
+    private final StripeClient stripeClient;
+    private final Executor stripeExecutor;
     private final String successUrl;
     private final String cancelUrl;
 
     public StripeService(
-            @Value("${stripe.secretKey}") String secretKey,
+            StripeClient stripeClient,
+            @Qualifier("stripeExecutor") Executor stripeExecutor,
             @Value("${stripe.successUrl}") String successUrl,
             @Value("${stripe.cancelUrl}") String cancelUrl) {
+        this.stripeClient = stripeClient;
+        this.stripeExecutor = stripeExecutor;
         this.successUrl = successUrl;
         this.cancelUrl = cancelUrl;
-        Stripe.apiKey = secretKey;
     }
+
+    /**
+     * Crea la sesión de checkout en el executor de Stripe, sin ocupar el hilo de la petición
+     */
+    public CompletableFuture<StripeResponse> createCheckoutSessionAsync(ProductRequest request, String userId) {
+        return CompletableFuture.supplyAsync(() -> createCheckoutSession(request, userId), stripeExecutor);
+    }
+
+    /**
+     * Recupera una sesión de checkout en el executor de Stripe
+     * @param sessionId ID de la sesión
+     * @return Future con la sesión; falla con la StripeException original si Stripe responde con error
+     */
+    public CompletableFuture<Session> retrieveSessionAsync(String sessionId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return stripeClient.v1().checkout().sessions().retrieve(sessionId);
+            } catch (StripeException e) {
+                throw new CompletionException(e);
+            }
+        }, stripeExecutor);
+    }
+
     public StripeResponse createCheckoutSession(ProductRequest request, String userId) {
 
         try {
@@ -67,7 +98,7 @@ public class StripeService {
                             .build())
                     .build();
 
-            Session session = Session.create(params);
+            Session session = stripeClient.v1().checkout().sessions().create(params);
 
             logger.info("✅ Checkout Session creada: ID={}", session.getId());
             logger.info("➡️  URL de pago Stripe: {}", session.getUrl());
@@ -0,0 +1,162 @@
+package wallet_service.eci.edu.co.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.springframework.stereotype.Service;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.repository.TransactionRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Exporta el historial completo de una wallet como NDJSON o CSV escribiendo
+ * directamente desde el cursor de Mongo al stream de salida. La memoria usada es
+ * constante: el cursor solo pide el siguiente lote cuando el cliente consumió el
+ * anterior, porque la escritura en el stream de salida es bloqueante.
+ */
+@Service
+public class TransactionExportService {
+
+    public enum ExportFormat {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        ExportFormat(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final String CSV_HEADER =
+            "id,createdAt,type,status,tokensAmount,moneyAmount,bookingId,stripeSessionId,description\n";
+
+    private final TransactionRepository transactionRepository;
+    private final ObjectWriter jsonWriter;
+
+    public TransactionExportService(TransactionRepository transactionRepository, ObjectMapper objectMapper) {
+        this.transactionRepository = transactionRepository;
+        this.jsonWriter = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Escribe el historial de un usuario con rol específico en el formato indicado
+     *
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role         Rol del usuario ("STUDENT" o "TUTOR")
+     * @param format       Formato de salida
+     * @param type         Tipo de transacción (opcional)
+     * @param startDate    Fecha de inicio (opcional)
+     * @param endDate      Fecha de fin (opcional)
+     * @param out          Stream de salida (no se cierra)
+     */
+    public void export(String actualUserId, String role, ExportFormat format, Transaction.TransactionType type,
+            LocalDateTime startDate, LocalDateTime endDate, OutputStream out) throws IOException {
+        String walletUserId = actualUserId + "-" + role.toLowerCase();
+        try (Stream<Transaction> transactions = transactionRepository.streamHistory(
+                walletUserId, type, startDate, endDate)) {
+            if (format == ExportFormat.CSV) {
+                writeCsv(transactions.iterator(), out);
+            } else {
+                writeNdjson(transactions.iterator(), out);
+            }
+        }
+    }
+
+    private void writeNdjson(Iterator<Transaction> transactions, OutputStream out) throws IOException {
+        try (SequenceWriter sequence = jsonWriter.withRootValueSeparator("\n").writeValues(out)) {
+            while (transactions.hasNext()) {
+                sequence.write(transactions.next());
+            }
+        }
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void writeCsv(Iterator<Transaction> transactions, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+        while (transactions.hasNext()) {
+            writeCsvRow(transactions.next(), writer);
+        }
+        writer.flush();
+    }
+
+    private static void writeCsvRow(Transaction t, Writer writer) throws IOException {
+        writer.write(csv(t.getId()));
+        writer.write(',');
+        writer.write(csv(t.getCreatedAt()));
+        writer.write(',');
+        writer.write(csv(t.getType()));
+        writer.write(',');
+        writer.write(csv(t.getStatus()));
+        writer.write(',');
+        writer.write(csv(t.getTokensAmount()));
+        writer.write(',');
+        writer.write(csv(t.getMoneyAmount()));
+        writer.write(',');
+        writer.write(csv(t.getBookingId()));
+        writer.write(',');
+        writer.write(csv(t.getStripeSessionId()));
+        writer.write(',');
+        writer.write(csv(t.getDescription()));
+        writer.write('\n');
+    }
+
+    /**
+     * Encabezado del formato (vacío para NDJSON), para exportaciones que escriben línea a línea
+     */
+    public byte[] header(ExportFormat format) {
+        return format == ExportFormat.CSV ? CSV_HEADER.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    /**
+     * Codifica un asiento como una línea del formato indicado, incluido el salto de línea.
+     * La usa la exportación reactiva, que emite una línea por documento del cursor.
+     */
+    public byte[] line(Transaction transaction, ExportFormat format) {
+        try {
+            if (format == ExportFormat.CSV) {
+                StringWriter row = new StringWriter();
+                writeCsvRow(transaction, row);
+                return row.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            return (jsonWriter.writeValueAsString(transaction) + "\n").getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String csv(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
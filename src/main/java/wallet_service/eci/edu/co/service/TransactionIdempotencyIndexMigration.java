@@ -0,0 +1,188 @@
+package wallet_service.eci.edu.co.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Migraciones que crean los índices únicos de idempotencia de la colección de
+ * transacciones: (bookingId, userId, type) y stripeSessionId. Antes de la primera
+ * reclasifica como REFUND los egresos del tutor por cancelación, que se registraban
+ * como USAGE y chocaban con el ingreso de la misma reservación.
+ * <p>
+ * Los duplicados heredados (reintentos de /transfer y /refund anteriores al índice)
+ * no bloquean el arranque: por cada clave se conserva el asiento más antiguo y los
+ * demás quedan en cuarentena, sin la clave (movida a duplicateKey) y con duplicateOf
+ * apuntando al conservado, así salen del índice parcial. Cada grupo se registra en el
+ * log y en el documento de la migración para revisar a mano los saldos afectados.
+ * <p>
+ * Corre de forma síncrona al terminar de crear los beans, antes de que arranque el
+ * servidor web: la idempotencia de compras y reservaciones depende de estos índices,
+ * así que si Mongo no los crea la aplicación no arranca. Con la migración desactivada
+ * solo se verifica qué índices existen y se informa a {@link IdempotencyIndexes}.
+ */
+@Component
+public class TransactionIdempotencyIndexMigration implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionIdempotencyIndexMigration.class);
+    private static final String BOOKING_MIGRATION_ID = "transaction-booking-idempotency-index";
+    private static final String STRIPE_MIGRATION_ID = "transaction-stripe-session-index";
+    private static final String MIGRATIONS_COLLECTION = "migrations";
+    private static final String BOOKING_INDEX = "booking_idempotency_idx";
+    private static final String STRIPE_SESSION_INDEX = "stripe_session_idx";
+    private static final String BOOKING_ID = "bookingId";
+    private static final String STRIPE_SESSION_ID = "stripeSessionId";
+
+    private final MongoTemplate mongoTemplate;
+    private final IdempotencyIndexes idempotencyIndexes;
+    private final boolean enabled;
+
+    public TransactionIdempotencyIndexMigration(MongoTemplate mongoTemplate, IdempotencyIndexes idempotencyIndexes,
+            @Value("${wallet.migrations.booking-idempotency-index.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.idempotencyIndexes = idempotencyIndexes;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) {
+            runOnce();
+        }
+        Set<String> existing = indexNames();
+        if (existing.contains(BOOKING_INDEX)) {
+            idempotencyIndexes.confirmBookingIndex();
+        } else {
+            logger.warn("Sin índice {}: los reintentos por reservación se verifican con una lectura previa del ledger",
+                    BOOKING_INDEX);
+        }
+        if (existing.contains(STRIPE_SESSION_INDEX)) {
+            idempotencyIndexes.confirmStripeSessionIndex();
+        } else {
+            logger.warn("Sin índice {}: las compras repetidas se verifican con una lectura previa del ledger",
+                    STRIPE_SESSION_INDEX);
+        }
+    }
+
+    void runOnce() {
+        migrate(BOOKING_MIGRATION_ID, "booking_user_type_idx", new Index()
+                .named(BOOKING_INDEX)
+                .on(BOOKING_ID, Sort.Direction.ASC)
+                .on("userId", Sort.Direction.ASC)
+                .on("type", Sort.Direction.ASC)
+                .unique()
+                .partial(PartialIndexFilter.of(Criteria.where(BOOKING_ID).exists(true))),
+                this::reclassifyTutorDeductions, BOOKING_ID, "userId", "type");
+        migrate(STRIPE_MIGRATION_ID, STRIPE_SESSION_ID, new Index()
+                .named(STRIPE_SESSION_INDEX)
+                .on(STRIPE_SESSION_ID, Sort.Direction.ASC)
+                .unique()
+                .partial(PartialIndexFilter.of(Criteria.where(STRIPE_SESSION_ID).exists(true))),
+                () -> 0L, STRIPE_SESSION_ID);
+    }
+
+    /**
+     * Crea un índice de idempotencia si todavía no existe en la colección
+     * @param migrationId ID del registro en la colección de migraciones
+     * @param legacyIndex Nombre del índice anterior sobre las mismas claves (se elimina)
+     * @param index Índice único a crear
+     * @param cleanup Corrección previa de datos; devuelve la cantidad de asientos modificados
+     * @param keys Campos de la clave única (el primero debe existir en el asiento)
+     * @throws IllegalStateException si Mongo rechaza el índice
+     */
+    private void migrate(String migrationId, String legacyIndex, Index index, LongSupplier cleanup,
+            String... keys) {
+        String indexName = index.getIndexOptions().getString("name");
+        try {
+            Set<String> existing = indexNames();
+            if (existing.contains(indexName)) {
+                return;
+            }
+            long corrected = cleanup.getAsLong();
+            List<Document> quarantined = quarantineDuplicates(keys);
+            if (existing.contains(legacyIndex)) {
+                mongoTemplate.indexOps(Transaction.class).dropIndex(legacyIndex);
+            }
+            mongoTemplate.indexOps(Transaction.class).createIndex(index);
+            mongoTemplate.save(new Document("_id", migrationId)
+                    .append("correctedEntries", corrected)
+                    .append("quarantinedDuplicates", quarantined)
+                    .append("executedAt", LocalDateTime.now()), MIGRATIONS_COLLECTION);
+            logger.info("Migración {} completada. Asientos corregidos: {}. Claves duplicadas en cuarentena: {}",
+                    migrationId, corrected, quarantined.size());
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("No se pudo crear el índice " + indexName + " (migración "
+                    + migrationId + "): " + e.getMessage(), e);
+        }
+    }
+
+    private Set<String> indexNames() {
+        return mongoTemplate.indexOps(Transaction.class).getIndexInfo().stream()
+                .map(IndexInfo::getName)
+                .collect(Collectors.toSet());
+    }
+
+    private long reclassifyTutorDeductions() {
+        Query legacyDeductions = Query.query(Criteria.where(BOOKING_ID).exists(true)
+                .and("type").is(Transaction.TransactionType.USAGE)
+                .and("userId").regex("-tutor$")
+                .and("description").regex("^Devolución por cancelación"));
+        return mongoTemplate.updateMulti(legacyDeductions,
+                new Update().set("type", Transaction.TransactionType.REFUND), Transaction.class)
+                .getModifiedCount();
+    }
+
+    /**
+     * Pone en cuarentena los asientos que repiten una clave única: conserva el más
+     * antiguo y a los demás les mueve la clave a duplicateKey y les asigna duplicateOf
+     * @return Un documento por clave duplicada (clave, asiento conservado y apartados)
+     */
+    private List<Document> quarantineDuplicates(String... keys) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where(keys[0]).exists(true)),
+                Aggregation.sort(Sort.by(Sort.Direction.ASC, "createdAt", "_id")),
+                Aggregation.group(keys).push("_id").as("ids"),
+                Aggregation.match(Criteria.where("ids.1").exists(true)));
+        List<Document> duplicated = mongoTemplate
+                .aggregate(aggregation, Transaction.class, Document.class)
+                .getMappedResults();
+
+        List<Document> quarantined = new ArrayList<>();
+        for (Document group : duplicated) {
+            List<Object> ids = group.getList("ids", Object.class);
+            Object kept = ids.get(0);
+            List<Object> extra = ids.subList(1, ids.size());
+            // Con una sola clave el _id del grupo es el valor; con varias, un documento con cada campo
+            Object key = group.get("_id");
+            Object keyValue = key instanceof Document compound ? compound.get(keys[0]) : key;
+            mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(extra)), new Update()
+                    .set("duplicateOf", kept.toString())
+                    .set("duplicateKey", keyValue)
+                    .unset(keys[0]), Transaction.class);
+            logger.warn("Asientos duplicados heredados para {}={}: se conserva {} y quedan en cuarentena {}; "
+                    + "revise los saldos afectados", List.of(keys), key, kept, extra);
+            quarantined.add(new Document("key", key).append("kept", kept).append("quarantined", extra));
+        }
+        return quarantined;
+    }
+}
@@ -0,0 +1,94 @@
+package wallet_service.eci.edu.co.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wallet_service.eci.edu.co.dto.WalletBalanceView;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Near-cache en proceso de saldos de wallets, indexado por el userId con sufijo
+ * de rol. Está acotado por tamaño y TTL; las mutaciones de WalletService lo
+ * invalidan al escribir, y el TTL acota lo desactualizado que puede quedar un
+ * saldo modificado por otra réplica del servicio. Solo se llena con el loader de
+ * {@link #get}: invalidar una clave con la carga en curso descarta su future, así
+ * que una lectura concurrente con una mutación no deja un saldo viejo cacheado.
+ * <p>
+ * Se usa la variante asíncrona para que la lectura en Mongo no ocurra dentro del
+ * lock del mapa interno: con hilos virtuales ese bloqueo fijaría el hilo portador
+ * mientras dura la I/O. Las lecturas concurrentes de la misma clave esperan el
+ * mismo future, igual que antes.
+ */
+@Component
+public class WalletBalanceCache {
+
+    private final AsyncCache<String, WalletBalanceView> balances;
+
+    public WalletBalanceCache(@Value("${wallet.cache.balance.maximum-size:10000}") long maximumSize,
+            @Value("${wallet.cache.balance.ttl:PT30S}") Duration ttl) {
+        this.balances = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Obtiene el saldo cacheado o lo carga con el loader indicado. Las wallets
+     * inexistentes no se cachean.
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param loader Lectura en Mongo para el caso de fallo de caché
+     * @return Optional con el saldo, vacío si la wallet no existe
+     */
+    public Optional<WalletBalanceView> get(String walletUserId,
+            Function<String, Optional<WalletBalanceView>> loader) {
+        // Dentro del lock solo se registra el future; la lectura la hace el hilo que lo registró
+        CompletableFuture<WalletBalanceView> pending = new CompletableFuture<>();
+        CompletableFuture<WalletBalanceView> cached = balances.get(walletUserId, (key, executor) -> pending);
+        if (cached == pending) {
+            try {
+                pending.complete(loader.apply(walletUserId).orElse(null));
+            } catch (RuntimeException e) {
+                pending.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return Optional.ofNullable(cached.join());
+    }
+
+    /**
+     * Variante no bloqueante para el stack reactivo: el loader devuelve un future
+     * (por ejemplo una lectura de ReactiveMongoTemplate) que se comparte entre las
+     * lecturas concurrentes de la misma clave. Un future completado con null no queda
+     * cacheado.
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     * @param loader Lectura asíncrona en Mongo para el caso de fallo de caché
+     * @return Future con el saldo, o con null si la wallet no existe
+     */
+    public CompletableFuture<WalletBalanceView> getAsync(String walletUserId,
+            Function<String, CompletableFuture<WalletBalanceView>> loader) {
+        return balances.get(walletUserId, (key, executor) -> loader.apply(key));
+    }
+
+    /**
+     * Descarta el saldo cacheado de una wallet tras una escritura
+     * @param walletUserId userId de la wallet (con sufijo de rol)
+     */
+    public void invalidate(String walletUserId) {
+        balances.synchronous().invalidate(walletUserId);
+    }
+
+    public CacheStats stats() {
+        return balances.synchronous().stats();
+    }
+
+    public long size() {
+        return balances.synchronous().estimatedSize();
+    }
+}
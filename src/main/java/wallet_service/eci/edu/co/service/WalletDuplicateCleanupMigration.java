@@ -0,0 +1,187 @@
+package wallet_service.eci.edu.co.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletMerge;
+import wallet_service.eci.edu.co.repository.WalletRepository;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Migración única que fusiona las wallets duplicadas por userId creadas antes de
+ * que existiera el índice único, y luego garantiza dicho índice. Corre en segundo
+ * plano al arrancar, con tráfico en curso, y deja un registro en la colección
+ * "migrations" para no repetirse. Cada duplicada se vacía con escrituras atómicas
+ * (ver {@link #mergeInto}) para que un cargo o abono concurrente no se pierda.
+ */
+@Component
+public class WalletDuplicateCleanupMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletDuplicateCleanupMigration.class);
+    private static final String MIGRATION_ID = "wallet-duplicate-cleanup";
+    private static final String MIGRATIONS_COLLECTION = "migrations";
+    // Vaciados de duplicadas ya sumados a la principal (marcador para que una nueva ejecución no los sume otra vez)
+    private static final String MERGED_WALLETS = "mergedWallets";
+    private static final String TOKEN_BALANCE = "tokenBalance";
+    private static final String TOTAL_SPENT = "totalSpent";
+    private static final String PENDING_TOKENS = "merge.pendingTokens";
+    private static final int MAX_MERGE_ATTEMPTS = 10;
+
+    private final MongoTemplate mongoTemplate;
+    private final WalletRepository walletRepository;
+    private final TaskExecutor taskExecutor;
+    private final boolean enabled;
+
+    public WalletDuplicateCleanupMigration(MongoTemplate mongoTemplate, WalletRepository walletRepository,
+            @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+            @Value("${wallet.migrations.duplicate-cleanup.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.walletRepository = walletRepository;
+        this.taskExecutor = taskExecutor;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            taskExecutor.execute(this::runOnce);
+        }
+    }
+
+    void runOnce() {
+        try {
+            if (mongoTemplate.exists(Query.query(Criteria.where("_id").is(MIGRATION_ID)), MIGRATIONS_COLLECTION)) {
+                return;
+            }
+            int merged = mergeDuplicates();
+            mongoTemplate.indexOps(Wallet.class).createIndex(new Index().on("userId", Sort.Direction.ASC).unique());
+            mongoTemplate.insert(new Document("_id", MIGRATION_ID)
+                    .append("mergedWallets", merged)
+                    .append("executedAt", LocalDateTime.now()), MIGRATIONS_COLLECTION);
+            logger.info("Migración {} completada. Wallets duplicadas fusionadas: {}", MIGRATION_ID, merged);
+        } catch (Exception e) {
+            logger.error("Error ejecutando la migración {}: {}", MIGRATION_ID, e.getMessage());
+        }
+    }
+
+    private int mergeDuplicates() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.group("userId").count().as("count"),
+                Aggregation.match(Criteria.where("count").gt(1)));
+        List<Document> duplicatedUserIds = mongoTemplate
+                .aggregate(aggregation, Wallet.class, Document.class)
+                .getMappedResults();
+
+        int merged = 0;
+        for (Document duplicated : duplicatedUserIds) {
+            String userId = duplicated.getString("_id");
+            List<Wallet> wallets = walletRepository.findAllByUserId(userId);
+            if (wallets.size() < 2) {
+                continue;
+            }
+            // Conservar la wallet más antigua (el _id desempata, así una nueva ejecución elige la misma)
+            Wallet primary = wallets.stream()
+                    .min(Comparator.comparing((Wallet wallet) -> Optional.ofNullable(wallet.getCreatedAt())
+                                    .orElse(LocalDateTime.MAX))
+                            .thenComparing(Wallet::getId))
+                    .orElseThrow();
+            for (Wallet wallet : wallets) {
+                if (!wallet.getId().equals(primary.getId())) {
+                    mergeInto(wallet.getId(), primary.getId());
+                    merged++;
+                }
+            }
+            logger.warn("Wallets duplicadas fusionadas para userId {} en la wallet {}", userId, primary.getId());
+        }
+        return merged;
+    }
+
+    /**
+     * Fusiona una duplicada en la principal sin perder movimientos concurrentes:
+     * <ol>
+     * <li>vacía la duplicada con una escritura condicional al saldo leído, que deja lo
+     * retirado en merge (si otro movimiento cambió el saldo, se vuelve a leer);</li>
+     * <li>suma lo retirado a la principal una sola vez, marcando el vaciado en mergedWallets;</li>
+     * <li>borra la duplicada solo si sigue vacía: un abono que llegó después del vaciado
+     * impide el borrado y se vacía en la siguiente vuelta.</li>
+     * </ol>
+     * Si el proceso cae entre pasos, la siguiente ejecución retoma lo pendiente en merge.
+     */
+    private void mergeInto(String duplicateId, String primaryId) {
+        for (int attempt = 0; attempt < MAX_MERGE_ATTEMPTS; attempt++) {
+            Wallet duplicate = mongoTemplate.findById(duplicateId, Wallet.class);
+            if (duplicate == null) {
+                return;
+            }
+            WalletMerge merge = duplicate.getMerge();
+            if (merge == null || merge.getPendingTokens() == null) {
+                merge = drain(duplicate, primaryId);
+                if (merge == null) {
+                    continue;
+                }
+            }
+
+            String marker = duplicateId + ":" + merge.getDrains();
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(merge.getInto())
+                            .and(MERGED_WALLETS).ne(marker)),
+                    new Update().inc(TOKEN_BALANCE, merge.getPendingTokens())
+                            .inc(TOTAL_SPENT, merge.getPendingSpent())
+                            .push(MERGED_WALLETS, marker)
+                            .set("updatedAt", LocalDateTime.now()),
+                    Wallet.class);
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(duplicateId)
+                            .and("merge.drains").is(merge.getDrains())),
+                    new Update().unset(PENDING_TOKENS).unset("merge.pendingSpent"), Wallet.class);
+
+            long deleted = mongoTemplate.remove(Query.query(Criteria.where("_id").is(duplicateId)
+                            .and("merge.into").is(merge.getInto())
+                            .and(TOKEN_BALANCE).is(0)
+                            .and(TOTAL_SPENT).is(0.0)
+                            .and(PENDING_TOKENS).exists(false)),
+                    Wallet.class).getDeletedCount();
+            if (deleted > 0) {
+                return;
+            }
+        }
+        throw new IllegalStateException("La wallet duplicada " + duplicateId
+                + " siguió recibiendo movimientos durante la fusión; se reintenta en la siguiente ejecución");
+    }
+
+    /**
+     * Vacía la duplicada si su saldo sigue siendo el leído (compare-and-set)
+     * @return Fusión con lo retirado, o null si el saldo cambió entre la lectura y la escritura
+     */
+    private WalletMerge drain(Wallet duplicate, String primaryId) {
+        int drains = duplicate.getMerge() == null ? 1 : duplicate.getMerge().getDrains() + 1;
+        WalletMerge merge = new WalletMerge(primaryId, drains,
+                Optional.ofNullable(duplicate.getTokenBalance()).orElse(0),
+                Optional.ofNullable(duplicate.getTotalSpent()).orElse(0.0));
+        Query unchanged = Query.query(Criteria.where("_id").is(duplicate.getId())
+                .and(TOKEN_BALANCE).is(duplicate.getTokenBalance())
+                .and(TOTAL_SPENT).is(duplicate.getTotalSpent())
+                .and(PENDING_TOKENS).exists(false));
+        Update update = new Update().set(TOKEN_BALANCE, 0)
+                .set(TOTAL_SPENT, 0.0)
+                .set("merge", merge)
+                .set("updatedAt", LocalDateTime.now());
+        return mongoTemplate.updateFirst(unchanged, update, Wallet.class).getModifiedCount() > 0 ? merge : null;
+    }
+}
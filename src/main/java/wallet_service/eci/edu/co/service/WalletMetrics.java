@@ -0,0 +1,177 @@
+package wallet_service.eci.edu.co.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.NOPLogger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Métricas de las operaciones de WalletService, expuestas en /actuator/prometheus:
+ * <ul>
+ * <li>wallet.operation: timer por operación (el histograma de percentiles se
+ * configura en application.properties)</li>
+ * <li>wallet.operation.outcomes: contador por operación y resultado (success,
+ * insufficient, not-found, duplicate, in-progress, error)</li>
+ * <li>wallet.operation.active: operaciones en curso por operación</li>
+ * <li>wallet.cache.idempotency.size: reservaciones aplicadas recientemente</li>
+ * </ul>
+ * Los medidores de cada operación se registran la primera vez que se usa; las
+ * llamadas siguientes no buscan en el MeterRegistry.
+ * <p>
+ * También decide el muestreo del logging por paso: con wallet.logging.sample-rate=N
+ * solo 1 de cada N operaciones de cada tipo escribe sus líneas de diagnóstico (la
+ * decisión se toma al iniciar, así una operación muestreada conserva todos sus
+ * pasos). La línea de resumen de cada operación (logger
+ * wallet_service.eci.edu.co.operations) se escribe siempre.
+ */
+@Component
+public class WalletMetrics {
+
+    static final String SUCCESS = "success";
+    static final String INSUFFICIENT = "insufficient";
+    static final String NOT_FOUND = "not-found";
+    static final String DUPLICATE = "duplicate";
+    static final String IN_PROGRESS = "in-progress";
+    static final String ERROR = "error";
+
+    private static final Logger summary = LoggerFactory.getLogger("wallet_service.eci.edu.co.operations");
+
+    /**
+     * Resultado de la operación en curso: success salvo que el cuerpo lo marque o
+     * termine con una excepción
+     */
+    public static final class Outcome {
+        private final boolean sampled;
+        private String value = SUCCESS;
+        private String subject;
+
+        private Outcome(boolean sampled) {
+            this.sampled = sampled;
+        }
+
+        /**
+         * @return El logger indicado si la operación quedó en la muestra, o uno que descarta todo
+         */
+        public Logger diagnostics(Logger logger) {
+            return sampled ? logger : NOPLogger.NOP_LOGGER;
+        }
+
+        /** Identificador que acompaña la línea de resumen (wallet, reservación o sesión) */
+        public void subject(String subject) {
+            this.subject = subject;
+        }
+
+        /** Reintento respondido con el resultado original (sesión o reservación ya aplicada) */
+        public void duplicate() {
+            value = DUPLICATE;
+        }
+
+        /** Rechazo por saldo insuficiente que no se reporta con excepción */
+        public void insufficient() {
+            value = INSUFFICIENT;
+        }
+    }
+
+    private record OperationMeters(Timer timer, AtomicInteger active, Map<String, Counter> outcomes) {
+    }
+
+    private final MeterRegistry registry;
+    private final int logSampleRate;
+    private final Map<String, OperationMeters> operations = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> logSequences = new ConcurrentHashMap<>();
+
+    public WalletMetrics(MeterRegistry registry, BookingOperationCache operationCache,
+            @Value("${wallet.logging.sample-rate:1}") int logSampleRate) {
+        this.registry = registry;
+        this.logSampleRate = Math.max(1, logSampleRate);
+        Gauge.builder("wallet.cache.idempotency.size", operationCache, BookingOperationCache::size)
+                .description("Operaciones por reservación en la caché de reintentos")
+                .register(registry);
+    }
+
+    /**
+     * Ejecuta una operación midiendo su duración, su resultado y la concurrencia
+     * @param operation Nombre de la operación (etiqueta operation)
+     * @param body Cuerpo de la operación; recibe el resultado para marcarlo
+     * @return Lo que devuelva el cuerpo
+     */
+    public <T> T record(String operation, Function<Outcome, T> body) {
+        OperationMeters meters = operations.computeIfAbsent(operation, this::register);
+        Outcome outcome = new Outcome(sampled(operation));
+        meters.active().incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return body.apply(outcome);
+        } catch (RuntimeException e) {
+            outcome.value = outcomeOf(e);
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            meters.timer().record(elapsed, TimeUnit.NANOSECONDS);
+            meters.active().decrementAndGet();
+            meters.outcomes().computeIfAbsent(outcome.value, value -> Counter.builder("wallet.operation.outcomes")
+                    .description("Operaciones de wallet por resultado")
+                    .tags("operation", operation, "outcome", value)
+                    .register(registry)).increment();
+            if (summary.isInfoEnabled()) {
+                summary.info("op={} outcome={} durationMs={} subject={}", operation, outcome.value,
+                        Math.round(elapsed / 1_000.0) / 1_000.0, outcome.subject);
+            }
+        }
+    }
+
+    /**
+     * Muestreo para líneas de diagnóstico fuera de {@link #record} (p. ej. en controladores)
+     * @param logger Logger de la clase que escribe
+     * @param operation Tipo de operación; cada tipo lleva su propia cuenta
+     * @return El logger indicado para 1 de cada N llamadas, o uno que descarta todo
+     */
+    public Logger diagnostics(Logger logger, String operation) {
+        return sampled(operation) ? logger : NOPLogger.NOP_LOGGER;
+    }
+
+    private boolean sampled(String operation) {
+        return logSampleRate == 1
+                || logSequences.computeIfAbsent(operation, k -> new AtomicLong()).getAndIncrement() % logSampleRate == 0;
+    }
+
+    static String outcomeOf(RuntimeException e) {
+        if (e instanceof WalletService.InsufficientTokensException) {
+            return INSUFFICIENT;
+        }
+        if (e instanceof WalletService.WalletNotFoundException) {
+            return NOT_FOUND;
+        }
+        if (e instanceof DuplicateKeyException) {
+            return DUPLICATE;
+        }
+        if (e instanceof WalletService.OperationInProgressException) {
+            return IN_PROGRESS;
+        }
+        return ERROR;
+    }
+
+    private OperationMeters register(String operation) {
+        Timer timer = Timer.builder("wallet.operation")
+                .description("Duración de las operaciones de wallet")
+                .tag("operation", operation)
+                .register(registry);
+        AtomicInteger active = registry.gauge("wallet.operation.active", Tags.of("operation", operation),
+                new AtomicInteger());
+        return new OperationMeters(timer, active, new ConcurrentHashMap<>());
+    }
+}
@@ -0,0 +1,43 @@
+package wallet_service.eci.edu.co.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recorta cada noche los contadores diarios de las wallets (rollups.yyyy-MM-dd) a los
+ * últimos días configurados, para que el documento de la wallet no crezca con un
+ * día por cada fecha con movimientos.
+ */
+@Component
+public class WalletRollupRetentionJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletRollupRetentionJob.class);
+
+    private final WalletService walletService;
+    private final int retentionDays;
+
+    public WalletRollupRetentionJob(WalletService walletService,
+            @Value("${wallet.rollups.daily-retention-days:90}") int retentionDays) {
+        if (retentionDays < 1) {
+            throw new IllegalStateException("wallet.rollups.daily-retention-days debe ser al menos 1");
+        }
+        this.walletService = walletService;
+        this.retentionDays = retentionDays;
+    }
+
+    @Scheduled(cron = "${wallet.rollups.prune-cron:0 30 3 * * *}")
+    public void prune() {
+        try {
+            long pruned = walletService.pruneDailyRollups(retentionDays);
+            if (pruned > 0) {
+                logger.info("Contadores diarios recortados en {} wallets (se conservan {} días)", pruned,
+                        retentionDays);
+            }
+        } catch (Exception e) {
+            logger.error("Error recortando los contadores diarios de las wallets: {}", e.getMessage());
+        }
+    }
+}
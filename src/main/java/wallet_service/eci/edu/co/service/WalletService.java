@@ -1,18 +1,43 @@
 package wallet_service.eci.edu.co.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
+import wallet_service.eci.edu.co.dto.HistoryCursor;
+import wallet_service.eci.edu.co.dto.PurchaseRequest;
+import wallet_service.eci.edu.co.dto.TokenCheckResponse;
+import wallet_service.eci.edu.co.dto.TransactionReport;
+import wallet_service.eci.edu.co.dto.TransactionReportRow;
+import wallet_service.eci.edu.co.dto.TransactionPage;
+import wallet_service.eci.edu.co.dto.TransferRequest;
+import wallet_service.eci.edu.co.dto.TransferResult;
+import wallet_service.eci.edu.co.dto.WalletBalanceView;
+import wallet_service.eci.edu.co.dto.WalletSummary;
 import wallet_service.eci.edu.co.model.Transaction;
 import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+import wallet_service.eci.edu.co.repository.TransactionReports;
 import wallet_service.eci.edu.co.repository.TransactionRepository;
+import wallet_service.eci.edu.co.repository.WalletBalanceChange;
 import wallet_service.eci.edu.co.repository.WalletRepository;
+import wallet_service.eci.edu.co.service.BookingOperationCache.SettledBooking;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
 @Service
 public class WalletService {
@@ -23,16 +48,35 @@ public class WalletService {
         }
     }
 
+    public static class OperationInProgressException extends RuntimeException {
+        public OperationInProgressException(String message) {
+            super(message);
+        }
+    }
+
+    public static class WalletNotFoundException extends RuntimeException {
+        public WalletNotFoundException(String message) {
+            super(message);
+        }
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(WalletService.class);
-    private static final String STUDENT_SUFFIX = "-student";
-    private static final String TUTOR_SUFFIX = "-tutor";
+    static final String STUDENT_SUFFIX = "-student";
+    static final String TUTOR_SUFFIX = "-tutor";
 
     private final WalletRepository walletRepository;
     private final TransactionRepository transactionRepository;
+    private final WalletBalanceCache balanceCache;
+    private final BookingOperationCache operationCache;
+    private final WalletMetrics metrics;
+    private final IdempotencyIndexes idempotencyIndexes;
+    private final CompletedOperations completedOperations;
 
-    private static final String WALLET_ESTUDIANTE_NO_ENCONTRADA = "Wallet del estudiante no encontrada: ";
+    static final String WALLET_ESTUDIANTE_NO_ENCONTRADA = "Wallet del estudiante no encontrada: ";
+    static final String TUTOR_WALLET_NOT_FOUND = "Wallet del tutor no encontrada: ";
+    static final String TUTOR_INSUFFICIENT_TOKENS = "El tutor no tiene suficientes tokens para devolver";
+    static final String STUDENT_INSUFFICIENT_TOKENS = "El estudiante no tiene suficientes tokens";
 
-    private final java.util.concurrent.ConcurrentHashMap<String, Object> walletLocks = new java.util.concurrent.ConcurrentHashMap<>();
     private static final String SUCCESS_KEY = "success";
     private static final String MESSAGE_KEY = "message";
     private static final String STUDENT_NEW_BALANCE_KEY = "studentNewBalance";
@@ -40,13 +84,24 @@ public class WalletService {
 
     @Autowired
     public WalletService(WalletRepository walletRepository,
-            TransactionRepository transactionRepository) {
+            TransactionRepository transactionRepository,
+            WalletBalanceCache balanceCache,
+            BookingOperationCache operationCache,
+            WalletMetrics metrics,
+            IdempotencyIndexes idempotencyIndexes,
+            CompletedOperations completedOperations) {
         this.walletRepository = walletRepository;
         this.transactionRepository = transactionRepository;
+        this.balanceCache = balanceCache;
+        this.operationCache = operationCache;
+        this.metrics = metrics;
+        this.idempotencyIndexes = idempotencyIndexes;
+        this.completedOperations = completedOperations;
     }
 
     /**
-     * Obtiene o crea una wallet para un usuario con rol específico (thread-safe)
+     * Obtiene o crea una wallet para un usuario con rol específico. Es un único
+     * upsert atómico en Mongo, seguro entre hilos y entre réplicas del servicio.
      * 
      * @param actualUserId Sub de Cognito (sin sufijo de rol)
      * @param role         Rol del usuario ("STUDENT" o "TUTOR")
@@ -54,66 +109,12 @@ public class WalletService {
      * @return Wallet del usuario con el rol especificado
      */
     public Wallet getOrCreateWallet(String actualUserId, String role, String email) {
-        String walletUserId = actualUserId + "-" + role.toLowerCase();
-        logger.info("getOrCreateWallet - actualUserId: {}, role: {}, walletUserId: {}, email: {}",
-                actualUserId, role, walletUserId, email);
-
-        Object lock = walletLocks.computeIfAbsent(walletUserId, k -> new Object());
-
-        synchronized (lock) {
-            try {
-                // Buscar wallet existente dentro del bloque sincronizado
-                var all = walletRepository.findAllByUserId(walletUserId);
-
-                if (!all.isEmpty()) {
-                    if (all.size() > 1) {
-                        logger.warn("Se detectaron {} wallets duplicadas para userId {}. Procediendo a limpiar...",
-                                all.size(), walletUserId);
-                        // Conservar la primera y eliminar el resto
-                        Wallet primary = all.get(0);
-                        for (int i = 1; i < all.size(); i++) {
-                            deleteDuplicateWallet(all.get(i));
-                        }
-                        logger.info("Duplicados eliminados. Wallet primaria id: {}", primary.getId());
-                        return primary;
-                    } else {
-                        logger.info("Wallet existente encontrada para userId: {}", walletUserId);
-                        return all.get(0);
-                    }
-                }
-
-                // Crear nueva wallet con rol
-                Wallet newWallet = new Wallet(actualUserId, role, email);
-                logger.info("Creando nueva wallet para userId: {} con rol: {}", walletUserId, role);
-                Wallet savedWallet = walletRepository.save(newWallet);
-                logger.info("Wallet guardada exitosamente con id: {}", savedWallet.getId());
-                return savedWallet;
-
-            } catch (org.springframework.dao.DuplicateKeyException e) {
-                // Si aún así se genera un duplicado (por índice único), reintentamos buscar
-                logger.warn("DuplicateKeyException detectada para userId: {}. Reintentando búsqueda...", walletUserId);
-                return walletRepository.findAllByUserId(walletUserId).stream()
-                        .findFirst()
-                        .orElseThrow(() -> new RuntimeException(
-                                "No se pudo obtener wallet después de DuplicateKeyException"));
-            } finally {
-                // Limpiar el lock después de usarlo para evitar memory leaks
-                walletLocks.remove(walletUserId);
-            }
-        }
-    }
-
-    /**
-     * Elimina una wallet duplicada y maneja cualquier excepción.
-     * 
-     * @param wallet Wallet duplicada a eliminar
-     */
-    private void deleteDuplicateWallet(Wallet wallet) {
-        try {
-            walletRepository.delete(wallet);
-        } catch (Exception e) {
-            logger.error("Error eliminando duplicado: {}", e.getMessage());
-        }
+        return metrics.record("getOrCreateWallet", outcome -> {
+            outcome.subject(actualUserId);
+            outcome.diagnostics(logger).debug("getOrCreateWallet - actualUserId: {}, role: {}, email: {}",
+                    actualUserId, role, email);
+            return walletRepository.findOrCreate(actualUserId, role, email);
+        });
     }
 
     /**
@@ -137,7 +138,7 @@ public class WalletService {
      */
     public Optional<Wallet> getWallet(String actualUserId, String role) {
         String walletUserId = actualUserId + "-" + role.toLowerCase();
-        return walletRepository.findByUserId(walletUserId);
+        return getWallet(walletUserId);
     }
 
     /**
@@ -147,12 +148,19 @@ public class WalletService {
      * @return Optional con la wallet si existe
      */
     public Optional<Wallet> getWallet(String userId) {
+        // No se cachea el saldo leído: una mutación que invalide entre la lectura y el put dejaría
+        // en la caché un saldo viejo hasta el TTL. La caché solo se llena con su propio loader
         return walletRepository.findByUserId(userId);
     }
 
     /**
      * Procesa una compra exitosa de tokens con rol específico (idempotente por
-     * stripeSessionId)
+     * stripeSessionId). El asiento se inserta primero: el índice único de
+     * stripeSessionId rechaza una segunda confirmación de la misma sesión (si el
+     * índice aún no está confirmado, la sesión se busca antes en el ledger). Luego un
+     * único upsert abona los tokens y el monto (creando la wallet si no existe) y se
+     * completa el asiento. Si el proceso cae entre pasos, la recuperación de
+     * operaciones pendientes acredita la compra una sola vez.
      * 
      * @param actualUserId    Sub de Cognito (sin sufijo de rol)
      * @param role            Rol del usuario ("STUDENT" o "TUTOR")
@@ -163,43 +171,52 @@ public class WalletService {
      */
     public Transaction processPurchase(String actualUserId, String role, Integer tokens, Double amount,
             String stripeSessionId) {
+        return metrics.record("processPurchase",
+                outcome -> applyPurchase(actualUserId, role, tokens, amount, stripeSessionId, outcome));
+    }
+
+    private Transaction applyPurchase(String actualUserId, String role, Integer tokens, Double amount,
+            String stripeSessionId, WalletMetrics.Outcome outcome) {
         String walletUserId = actualUserId + "-" + role.toLowerCase();
-        logger.info(
+        Logger log = outcome.diagnostics(logger);
+        outcome.subject(stripeSessionId);
+        log.info(
                 "processPurchase - actualUserId: {}, role: {}, walletUserId: {}, tokens: {}, amount: {}, stripeSessionId: {}",
                 actualUserId, role, walletUserId, tokens, amount, stripeSessionId);
 
-        // IDEMPOTENCIA: Verificar si ya procesamos esta sesión de Stripe
-        Optional<Transaction> existingTransaction = transactionRepository.findByStripeSessionId(stripeSessionId);
-        if (existingTransaction.isPresent()) {
+        // Sin el índice único confirmado un reenvío no choca al insertar: se busca antes la sesión
+        if (!idempotencyIndexes.isStripeSessionIndexReady()) {
+            Optional<Transaction> recorded = transactionRepository.findByStripeSessionId(stripeSessionId);
+            if (recorded.isPresent()) {
+                logger.warn("Compra duplicada detectada para stripeSessionId: {}. Retornando transacción existente.",
+                        stripeSessionId);
+                outcome.duplicate();
+                return recorded.get();
+            }
+        }
+
+        // Asiento PENDING primero: una clave duplicada significa que la sesión ya se procesó
+        Transaction transaction = Transaction.createPurchase(walletUserId, null, tokens, amount, stripeSessionId);
+        transaction.setOperationId(UUID.randomUUID().toString());
+        transaction.setBalanceChange(tokens);
+        try {
+            transaction = transactionRepository.insert(transaction);
+        } catch (DuplicateKeyException e) {
             logger.warn("Compra duplicada detectada para stripeSessionId: {}. Retornando transacción existente.",
                     stripeSessionId);
-            return existingTransaction.get();
+            outcome.duplicate();
+            return transactionRepository.findByStripeSessionId(stripeSessionId).orElseThrow(() -> e);
         }
 
-        // Obtener la wallet
-        Wallet wallet = walletRepository.findByUserId(walletUserId)
-                .orElseThrow(() -> new RuntimeException("Wallet no encontrada para el usuario: " + walletUserId));
-
-        logger.info("Wallet encontrada con id: {}, balance actual: {}", wallet.getId(), wallet.getTokenBalance());
-
-        // Crear transacción de compra
-        Transaction transaction = Transaction.createPurchase(walletUserId, wallet.getId(), tokens, amount,
-                stripeSessionId);
-        transaction.complete();
-
-        logger.info("Transacción creada, guardando...");
-        Transaction savedTransaction = transactionRepository.save(transaction);
-        logger.info("Transacción guardada con id: {}", savedTransaction.getId());
-
-        // Actualizar wallet
-        wallet.addTokens(tokens);
-        wallet.addToTotalSpent(amount);
+        Wallet wallet = walletRepository.creditPurchase(actualUserId, role, tokens, amount,
+                transaction.getOperationId(), transaction.getCreatedAt());
+        balanceCache.invalidate(walletUserId);
+        log.info("Compra acreditada en la wallet {}, nuevo balance: {}", wallet.getId(), wallet.getTokenBalance());
 
-        logger.info("Actualizando wallet, nuevo balance: {}", wallet.getTokenBalance());
-        walletRepository.save(wallet);
-        logger.info("Wallet actualizada exitosamente");
-
-        return savedTransaction;
+        transaction.setWalletId(wallet.getId());
+        transaction.setBalanceAfter(wallet.getTokenBalance());
+        completeOperation(List.of(transaction));
+        return transaction;
     }
 
     /**
@@ -215,6 +232,60 @@ public class WalletService {
         return processPurchase(userId, "STUDENT", tokens, amount, stripeSessionId);
     }
 
+    /**
+     * Acredita un lote de compras confirmadas de estudiantes (cola de webhooks de
+     * Stripe), idempotente por stripeSessionId. Son los mismos pasos recuperables que
+     * processPurchase, agrupados: un insertMany no ordenado de asientos PENDING (el
+     * índice único omite las sesiones ya registradas), un abono masivo neto por wallet
+     * y el cierre de los asientos. Sin el índice confirmado se acredita una a una.
+     *
+     * @param purchases Compras a acreditar
+     * @return Cantidad de compras acreditadas ahora (sin contar las ya registradas)
+     */
+    public int processPurchaseBatch(List<PurchaseRequest> purchases) {
+        return metrics.record("processPurchaseBatch", outcome -> applyPurchaseBatch(purchases));
+    }
+
+    private int applyPurchaseBatch(List<PurchaseRequest> purchases) {
+        if (!idempotencyIndexes.isStripeSessionIndexReady()) {
+            purchases.forEach(purchase -> processPurchase(purchase.getUserId(), purchase.getTokens(),
+                    purchase.getAmount(), purchase.getStripeSessionId()));
+            return purchases.size();
+        }
+        // Una sesión repetida dentro del lote se registra una sola vez
+        Map<String, Transaction> entriesBySession = new LinkedHashMap<>();
+        for (PurchaseRequest purchase : purchases) {
+            entriesBySession.computeIfAbsent(purchase.getStripeSessionId(), sessionId -> {
+                Transaction entry = Transaction.createPurchase(purchase.getUserId() + STUDENT_SUFFIX, null,
+                        purchase.getTokens(), purchase.getAmount(), sessionId);
+                entry.setOperationId(UUID.randomUUID().toString());
+                entry.setBalanceChange(purchase.getTokens());
+                return entry;
+            });
+        }
+        Set<String> duplicated = transactionRepository.insertIgnoringDuplicates(
+                List.copyOf(entriesBySession.values()));
+        List<Transaction> entries = entriesBySession.values().stream()
+                .filter(entry -> !duplicated.contains(entry.getOperationId()))
+                .toList();
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, List<Transaction>> byWallet = new LinkedHashMap<>();
+        entries.forEach(entry -> byWallet.computeIfAbsent(entry.getUserId(), k -> new ArrayList<>()).add(entry));
+        List<WalletBalanceChange> credits = new ArrayList<>();
+        byWallet.forEach((walletUserId, walletEntries) -> credits.add(
+                WalletBalanceChange.of(walletUserId, walletEntries)));
+        walletRepository.creditTokensBulk(credits, Transaction.TransactionType.PURCHASE);
+
+        recordBalancesAfter(entries, byWallet.keySet());
+        completeOperation(entries);
+        byWallet.keySet().forEach(balanceCache::invalidate);
+        logger.info("Lote de compras acreditado: {} de {} sesiones", entries.size(), purchases.size());
+        return entries.size();
+    }
+
     /**
      * Usa tokens de la wallet (legacy)
      * 
@@ -224,31 +295,38 @@ public class WalletService {
      * @return true si se usaron exitosamente, false si no hay suficientes tokens
      */
     public boolean useTokens(String userId, Integer tokens, String description) {
-        logger.info("useTokens - userId: {}, tokens: {}, description: {}", userId, tokens, description);
-
-        // Obtener la wallet
-        Wallet wallet = walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new RuntimeException("Wallet no encontrada para el usuario: " + userId));
-
-        logger.info("Wallet encontrada, balance actual: {}", wallet.getTokenBalance());
-
-        // Verificar y usar tokens
-        if (wallet.useTokens(tokens)) {
-            // Crear transacción de uso
-            Transaction transaction = Transaction.createUsage(userId, wallet.getId(), tokens, description);
+        return metrics.record("useTokens", outcome -> applyUseTokens(userId, tokens, description, outcome));
+    }
 
-            logger.info("Guardando transacción de uso...");
-            transactionRepository.save(transaction);
+    private boolean applyUseTokens(String userId, Integer tokens, String description, WalletMetrics.Outcome outcome) {
+        Logger log = outcome.diagnostics(logger);
+        outcome.subject(userId);
+        log.info("useTokens - userId: {}, tokens: {}, description: {}", userId, tokens, description);
+
+        // Descuento condicional atómico (tokenBalance >= tokens); una cantidad no positiva no se
+        // aplica, como en Wallet.useTokens
+        Optional<Wallet> updated = tokens != null && tokens > 0
+                ? walletRepository.debitTokens(userId, tokens)
+                : Optional.empty();
+        if (updated.isEmpty()) {
+            Wallet wallet = walletRepository.findByUserId(userId)
+                    .orElseThrow(() -> new WalletNotFoundException("Wallet no encontrada para el usuario: " + userId));
+            logger.warn("Tokens insuficientes. Requeridos: {}, Disponibles: {}", tokens, wallet.getTokenBalance());
+            outcome.insufficient();
+            return false;
+        }
 
-            logger.info("Actualizando wallet, nuevo balance: {}", wallet.getTokenBalance());
-            walletRepository.save(wallet);
+        Wallet wallet = updated.get();
+        balanceCache.invalidate(userId);
+        log.info("Wallet actualizada, nuevo balance: {}", wallet.getTokenBalance());
 
-            logger.info("Tokens usados exitosamente");
-            return true;
-        }
+        // Crear transacción de uso
+        Transaction transaction = Transaction.createUsage(userId, wallet.getId(), tokens, description);
+        log.info("Guardando transacción de uso...");
+        transactionRepository.save(transaction);
 
-        logger.warn("Tokens insuficientes. Requeridos: {}, Disponibles: {}", tokens, wallet.getTokenBalance());
-        return false;
+        log.info("Tokens usados exitosamente");
+        return true;
     }
 
     /**
@@ -261,8 +339,7 @@ public class WalletService {
      */
     public boolean hasEnoughTokens(String actualUserId, String role, Integer requiredTokens) {
         String walletUserId = actualUserId + "-" + role.toLowerCase();
-        Optional<Wallet> wallet = walletRepository.findByUserId(walletUserId);
-        return wallet.isPresent() && wallet.get().getTokenBalance() >= requiredTokens;
+        return hasEnoughTokens(walletUserId, requiredTokens);
     }
 
     /**
@@ -273,8 +350,26 @@ public class WalletService {
      * @return true si tiene suficientes tokens, false en caso contrario
      */
     public boolean hasEnoughTokens(String userId, Integer requiredTokens) {
-        Optional<Wallet> wallet = walletRepository.findByUserId(userId);
-        return wallet.isPresent() && wallet.get().getTokenBalance() >= requiredTokens;
+        return findCachedBalance(userId)
+                .map(balance -> balance.getTokenBalance() >= requiredTokens)
+                .orElse(false);
+    }
+
+    /**
+     * Verifica si un usuario tiene suficientes tokens y devuelve su saldo con una
+     * sola lectura (near-cache o proyección de Mongo)
+     *
+     * @param actualUserId   Sub de Cognito (sin sufijo de rol)
+     * @param role           Rol del usuario ("STUDENT" o "TUTOR")
+     * @param requiredTokens Cantidad de tokens requeridos
+     * @return Resultado de la verificación con el saldo actual
+     */
+    public TokenCheckResponse checkTokens(String actualUserId, String role, Integer requiredTokens) {
+        String walletUserId = actualUserId + "-" + role.toLowerCase();
+        Optional<WalletBalanceView> balance = findCachedBalance(walletUserId);
+        int currentBalance = balance.map(WalletBalanceView::getTokenBalance).orElse(0);
+        return new TokenCheckResponse(balance.isPresent() && currentBalance >= requiredTokens,
+                requiredTokens, currentBalance, role);
     }
 
     /**
@@ -286,9 +381,7 @@ public class WalletService {
      */
     public Integer getTokenBalance(String actualUserId, String role) {
         String walletUserId = actualUserId + "-" + role.toLowerCase();
-        return walletRepository.findByUserId(walletUserId)
-                .map(Wallet::getTokenBalance)
-                .orElse(0);
+        return getTokenBalance(walletUserId);
     }
 
     /**
@@ -298,9 +391,48 @@ public class WalletService {
      * @return Saldo de tokens
      */
     public Integer getTokenBalance(String userId) {
-        return walletRepository.findByUserId(userId)
-                .map(Wallet::getTokenBalance)
-                .orElse(0);
+        return findCachedBalance(userId).map(WalletBalanceView::getTokenBalance).orElse(0);
+    }
+
+    /**
+     * Saldo desde el near-cache; en caso de fallo se lee de Mongo solo el saldo
+     * (proyección) y se cachea
+     */
+    private Optional<WalletBalanceView> findCachedBalance(String walletUserId) {
+        return balanceCache.get(walletUserId, walletRepository::findBalanceByUserId);
+    }
+
+    /**
+     * Obtiene el resumen de la wallet (comprado, usado, ganado, reembolsado y cantidad
+     * de asientos) del total, de un mes y de un día. Se lee de los contadores de la
+     * wallet, así que no recorre el historial. Los días anteriores a la retención de
+     * contadores diarios ({@link #pruneDailyRollups}) quedan en cero.
+     *
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role         Rol del usuario ("STUDENT" o "TUTOR")
+     * @param month        Mes a resumir (null = mes actual)
+     * @param day          Día a resumir (null = hoy)
+     * @return Resumen con los periodos pedidos (en cero si no tienen movimientos)
+     */
+    public WalletSummary getWalletSummary(String actualUserId, String role, YearMonth month, LocalDate day) {
+        String walletUserId = actualUserId + "-" + role.toLowerCase();
+        LocalDate today = LocalDate.now();
+        YearMonth summaryMonth = month != null ? month : YearMonth.from(today);
+        LocalDate summaryDay = day != null ? day : today;
+        Wallet wallet = walletRepository.findRollups(walletUserId, List.of(WalletRollup.TOTAL,
+                WalletRollup.monthKey(summaryMonth), WalletRollup.dayKey(summaryDay))).orElse(null);
+        return WalletSummary.of(actualUserId, role, wallet, summaryMonth, summaryDay);
+    }
+
+    /**
+     * Quita de las wallets los contadores diarios anteriores a la retención; el total
+     * y los meses se conservan
+     *
+     * @param retentionDays Días (contando hoy) cuyos contadores diarios se conservan
+     * @return Cantidad de wallets recortadas
+     */
+    public long pruneDailyRollups(int retentionDays) {
+        return walletRepository.pruneDailyRollups(LocalDate.now().minusDays(retentionDays - 1L));
     }
 
     /**
@@ -315,6 +447,72 @@ public class WalletService {
         return transactionRepository.findByUserIdOrderByCreatedAtDesc(walletUserId);
     }
 
+    /**
+     * Obtiene una página del historial de transacciones de un usuario con rol
+     * específico (paginación por cursor sobre createdAt + _id)
+     *
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role         Rol del usuario ("STUDENT" o "TUTOR")
+     * @param type         Tipo de transacción (opcional)
+     * @param startDate    Fecha de inicio (opcional)
+     * @param endDate      Fecha de fin (opcional)
+     * @param cursor       Cursor opaco de la página anterior (opcional)
+     * @param limit        Tamaño de página
+     * @return Página de transacciones con el cursor de la siguiente
+     * @throws IllegalArgumentException si el cursor es inválido
+     */
+    public TransactionPage getTransactionPage(String actualUserId, String role, Transaction.TransactionType type,
+            LocalDateTime startDate, LocalDateTime endDate, String cursor, int limit) {
+        String walletUserId = actualUserId + "-" + role.toLowerCase();
+        HistoryCursor after = (cursor == null || cursor.isBlank()) ? null : HistoryCursor.decode(cursor);
+
+        // Se pide un elemento extra para saber si existe una página siguiente
+        return toPage(transactionRepository.findHistoryPage(walletUserId, type, startDate, endDate, after, limit + 1),
+                limit);
+    }
+
+    /**
+     * Arma la página a partir de hasta limit + 1 elementos; el sobrante indica que hay página siguiente
+     */
+    static TransactionPage toPage(List<Transaction> items, int limit) {
+        String next = null;
+        if (items.size() > limit) {
+            items = items.subList(0, limit);
+            Transaction last = items.get(limit - 1);
+            next = new HistoryCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+        return new TransactionPage(items, next);
+    }
+
+    /**
+     * Reporte agregado del historial (ganancias o gastos por periodo o por reservación).
+     * La agregación corre en Mongo y devuelve solo las filas agrupadas.
+     *
+     * @param actualUserId Sub de Cognito (sin sufijo de rol)
+     * @param role         Rol del usuario ("STUDENT" o "TUTOR")
+     * @param grouping     Agrupación por día, semana, mes, año o reservación
+     * @param type         Tipo de transacción (opcional)
+     * @param startDate    Fecha de inicio inclusiva (opcional)
+     * @param endDate      Fecha de fin exclusiva (opcional)
+     * @param limit        Cantidad máxima de filas
+     * @return Reporte con las filas y si se alcanzó el límite
+     */
+    public TransactionReport getTransactionReport(String actualUserId, String role,
+            TransactionReports.Grouping grouping, Transaction.TransactionType type, LocalDateTime startDate,
+            LocalDateTime endDate, int limit) {
+        String walletUserId = actualUserId + "-" + role.toLowerCase();
+        // Se pide una fila extra para saber si el reporte quedó truncado
+        return toReport(grouping, transactionRepository.aggregateReport(walletUserId, grouping, type, startDate,
+                endDate, limit + 1), limit);
+    }
+
+    static TransactionReport toReport(TransactionReports.Grouping grouping, List<TransactionReportRow> rows,
+            int limit) {
+        boolean truncated = rows.size() > limit;
+        return new TransactionReport(grouping.name().toLowerCase(), truncated ? rows.subList(0, limit) : rows,
+                truncated);
+    }
+
     /**
      * Obtiene el historial de transacciones de un usuario (legacy)
      * 
@@ -420,60 +618,404 @@ public class WalletService {
      * @param toUserId    Sub de Cognito del tutor (sin sufijo)
      * @param tokens      Cantidad de tokens a transferir
      * @param description Descripción de la transferencia
+     * @param bookingId   ID de la reservación; si viene, la transferencia se aplica a lo
+     *                    sumo una vez y los reintentos reciben el resultado original
      * @return Map con el resultado de la operación
+     * @throws OperationInProgressException si la misma reservación se está aplicando
      */
     public Map<String, Object> transferTokens(String fromUserId, String toUserId, Integer tokens, String description,
             String bookingId) {
+        return metrics.record("transferTokens",
+                outcome -> applyTransferTokens(fromUserId, toUserId, tokens, description, bookingId, outcome));
+    }
+
+    private Map<String, Object> applyTransferTokens(String fromUserId, String toUserId, Integer tokens,
+            String description, String bookingId, WalletMetrics.Outcome outcome) {
+        outcome.subject(bookingId != null ? bookingId : fromUserId);
         // Construir IDs de wallet con roles
         String studentWalletUserId = fromUserId + STUDENT_SUFFIX;
         String tutorWalletUserId = toUserId + TUTOR_SUFFIX;
-        Wallet studentWallet = walletRepository.findByUserId(studentWalletUserId)
-                .orElseThrow(() -> new RuntimeException(WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId));
-
-        // Verificar que el estudiante tenga suficientes tokens
-        if (!studentWallet.useTokens(tokens)) {
-            throw new InsufficientTokensException("El estudiante no tiene suficientes tokens");
+        String idempotencyKey = BookingOperationCache.key(Transaction.TransactionType.USAGE, bookingId,
+                studentWalletUserId);
+
+        // Reintento reciente de una transferencia ya aplicada: se responde sin tocar Mongo
+        SettledBooking settled = bookingId == null ? null : operationCache.get(idempotencyKey);
+        if (settled == null) {
+            settled = applyTransfer(studentWalletUserId, tutorWalletUserId, tokens, description, bookingId, outcome);
+            if (bookingId != null) {
+                operationCache.put(idempotencyKey, settled);
+            }
+        } else {
+            outcome.duplicate();
         }
+        return transferResponse(fromUserId, toUserId, settled);
+    }
 
-        // Obtener o crear wallet del tutor
-        Wallet tutorWallet = walletRepository.findByUserId(tutorWalletUserId)
-                .orElseGet(() -> new Wallet(toUserId, "TUTOR", ""));
+    static Map<String, Object> transferResponse(String fromUserId, String toUserId, SettledBooking settled) {
+        return Map.of(
+                SUCCESS_KEY, true,
+                MESSAGE_KEY, "Tokens transferidos exitosamente",
+                "fromUserId", fromUserId,
+                "toUserId", toUserId,
+                STUDENT_NEW_BALANCE_KEY, settled.studentNewBalance(),
+                TUTOR_NEW_BALANCE_KEY, settled.tutorNewBalance());
+    }
 
-        // Agregar tokens al tutor
-        tutorWallet.addTokens(tokens);
+    private SettledBooking applyTransfer(String studentWalletUserId, String tutorWalletUserId, Integer tokens,
+            String description, String bookingId, WalletMetrics.Outcome outcome) {
+        if (recordedWithoutIndex(Transaction.TransactionType.USAGE, bookingId, studentWalletUserId)) {
+            outcome.duplicate();
+            return replaySettled(Transaction.TransactionType.USAGE, bookingId, studentWalletUserId,
+                    tutorWalletUserId, null);
+        }
 
-        // Crear transacción de uso para el estudiante (egreso)
+        // Asiento de uso para el estudiante (egreso)
         Transaction studentTransaction = Transaction.createUsage(
-                studentWalletUserId, studentWallet.getId(), tokens,
+                studentWalletUserId, null, tokens,
                 "Pago a tutor - " + description);
         studentTransaction.setBookingId(bookingId);
 
-        // Crear transacción de ingreso para el tutor
-        Transaction tutorTransaction = new Transaction();
-        tutorTransaction.setUserId(tutorWalletUserId);
-        tutorTransaction.setWalletId(tutorWallet.getId());
-        tutorTransaction.setType(Transaction.TransactionType.USAGE);
-        tutorTransaction.setTokensAmount(tokens);
-        tutorTransaction.setMoneyAmount(0.0);
-        tutorTransaction.setDescription("Ingreso por tutoría - " + description);
-        tutorTransaction.setBookingId(bookingId);
-        tutorTransaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        tutorTransaction.setCreatedAt(LocalDateTime.now());
-        tutorTransaction.setCompletedAt(LocalDateTime.now());
-
-        // Guardar los cambios en las wallets y las transacciones en la base de datos
-        logger.info("Guardando cambios de transferencia...");
-        walletRepository.save(studentWallet);
-        walletRepository.save(tutorWallet);
-        transactionRepository.save(studentTransaction);
-        transactionRepository.save(tutorTransaction);
-        return Map.of(
-                SUCCESS_KEY, true,
-                MESSAGE_KEY, "Tokens transferidos exitosamente",
-                "fromUserId", fromUserId,
-                "toUserId", toUserId,
-                STUDENT_NEW_BALANCE_KEY, studentWallet.getTokenBalance(),
-                TUTOR_NEW_BALANCE_KEY, tutorWallet.getTokenBalance());
+        // Asiento de ingreso para el tutor
+        Transaction tutorTransaction = createEntry(tutorWalletUserId, Transaction.TransactionType.USAGE, tokens,
+                "Ingreso por tutoría - " + description, bookingId);
+
+        // Cargo al estudiante (si tiene saldo) y abono al tutor (creando su wallet si no existe)
+        outcome.diagnostics(logger).info("Guardando cambios de transferencia...");
+        try {
+            AppliedOperation applied = commitOperation(studentTransaction, tutorTransaction,
+                    WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId,
+                    STUDENT_INSUFFICIENT_TOKENS);
+            return new SettledBooking(tokens, applied.debited().getTokenBalance(),
+                    applied.credited().getTokenBalance());
+        } catch (DuplicateKeyException e) {
+            // El índice único (bookingId, userId, type) rechazó un reintento: resultado original
+            outcome.duplicate();
+            return replaySettled(Transaction.TransactionType.USAGE, bookingId, studentWalletUserId,
+                    tutorWalletUserId, e);
+        }
+    }
+
+    /**
+     * Transfiere tokens de estudiantes a tutores para un lote de reservaciones
+     * (liquidación masiva). Cada elemento es una operación independiente con su
+     * propio operationId, pero las escrituras se agrupan: los asientos se insertan
+     * con un único insertMany y los saldos se aplican netos por wallet con dos
+     * escrituras masivas (cargos y abonos). Los elementos que no se pueden aplicar
+     * (datos inválidos, wallet inexistente o saldo insuficiente) se reportan como
+     * fallidos sin afectar al resto del lote. Las reservaciones ya aplicadas
+     * (reintentos del lote) devuelven su resultado original sin volver a cobrar.
+     *
+     * @param requests Transferencias a aplicar, en orden
+     * @return Resultado por elemento, en el mismo orden de la solicitud
+     */
+    public List<TransferResult> transferTokensBatch(List<TransferRequest> requests) {
+        return metrics.record("transferTokensBatch", outcome -> applyTransferTokensBatch(requests, outcome));
+    }
+
+    private List<TransferResult> applyTransferTokensBatch(List<TransferRequest> requests,
+            WalletMetrics.Outcome outcome) {
+        TransferResult[] results = new TransferResult[requests.size()];
+
+        // Validación, reservaciones repetidas dentro del lote y reintentos vistos recientemente
+        Map<String, Integer> firstIndexByKey = new HashMap<>();
+        Map<Integer, Integer> repeated = new LinkedHashMap<>();
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            TransferRequest request = requests.get(i);
+            String error = validateTransfer(request);
+            if (error != null) {
+                results[i] = TransferResult.failure(i, request == null ? null : request.getReservationId(), error);
+                continue;
+            }
+            if (request.getReservationId() != null) {
+                String key = transferKey(request);
+                Integer first = firstIndexByKey.putIfAbsent(key, i);
+                if (first != null) {
+                    repeated.put(i, first);
+                    continue;
+                }
+                SettledBooking settled = operationCache.get(key);
+                if (settled != null) {
+                    results[i] = transferResult(i, request, settled);
+                    continue;
+                }
+            }
+            candidates.add(i);
+        }
+        replayRecordedTransfers(requests, candidates, results);
+
+        // Una sola lectura de saldos; el lote se simula en orden para detectar saldos insuficientes
+        Set<String> studentWalletUserIds = new LinkedHashSet<>();
+        candidates.forEach(i -> studentWalletUserIds.add(requests.get(i).getFromUserId() + STUDENT_SUFFIX));
+        Map<String, Integer> available = new HashMap<>();
+        for (Wallet wallet : walletRepository.findBalancesByUserIdIn(studentWalletUserIds)) {
+            available.put(wallet.getUserId(), Optional.ofNullable(wallet.getTokenBalance()).orElse(0));
+        }
+
+        Map<Integer, List<Transaction>> entriesByIndex = new LinkedHashMap<>();
+        for (int i : candidates) {
+            TransferRequest request = requests.get(i);
+            String studentWalletUserId = request.getFromUserId() + STUDENT_SUFFIX;
+            Integer balance = available.get(studentWalletUserId);
+            if (balance == null) {
+                results[i] = TransferResult.failure(i, request.getReservationId(),
+                        WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId);
+            } else if (balance < request.getTokens()) {
+                results[i] = TransferResult.failure(i, request.getReservationId(), STUDENT_INSUFFICIENT_TOKENS);
+            } else {
+                available.put(studentWalletUserId, balance - request.getTokens());
+                entriesByIndex.put(i, createTransferEntries(request));
+            }
+        }
+
+        if (!entriesByIndex.isEmpty()) {
+            applyTransferBatch(requests, entriesByIndex, results, outcome);
+        }
+        repeated.forEach((index, first) -> results[index] = new TransferResult(index,
+                results[first].getReservationId(), results[first].isSuccess(), results[first].getError(),
+                results[first].getStudentNewBalance(), results[first].getTutorNewBalance()));
+        return List.of(results);
+    }
+
+    /**
+     * Responde con el resultado original los elementos cuya reservación ya está en el
+     * ledger (un reintento del lote) y los quita de los candidatos. Usa una consulta
+     * para los asientos del estudiante y otra para sus contrapartes.
+     */
+    private void replayRecordedTransfers(List<TransferRequest> requests, List<Integer> candidates,
+            TransferResult[] results) {
+        Map<String, Integer> indexByKey = new HashMap<>();
+        for (int i : candidates) {
+            if (requests.get(i).getReservationId() != null) {
+                indexByKey.put(transferKey(requests.get(i)), i);
+            }
+        }
+        if (indexByKey.isEmpty()) {
+            return;
+        }
+        Set<String> bookingIds = new LinkedHashSet<>();
+        indexByKey.values().forEach(i -> bookingIds.add(requests.get(i).getReservationId()));
+
+        Map<Integer, Transaction> recorded = new LinkedHashMap<>();
+        for (Transaction entry : transactionRepository.findByBookingIdInAndType(bookingIds,
+                Transaction.TransactionType.USAGE)) {
+            Integer index = indexByKey.get(BookingOperationCache.key(Transaction.TransactionType.USAGE,
+                    entry.getBookingId(), entry.getUserId()));
+            if (index != null) {
+                recorded.put(index, entry);
+            }
+        }
+        if (recorded.isEmpty()) {
+            return;
+        }
+        Set<String> operationIds = new LinkedHashSet<>();
+        recorded.values().stream().map(Transaction::getOperationId).filter(Objects::nonNull)
+                .forEach(operationIds::add);
+        Map<String, Transaction> counterparts = new HashMap<>();
+        for (Transaction entry : transactionRepository.findByOperationIdIn(operationIds)) {
+            if (entry.getBalanceChange() != null && entry.getBalanceChange() > 0) {
+                counterparts.put(entry.getOperationId(), entry);
+            }
+        }
+
+        recorded.forEach((index, studentEntry) -> {
+            TransferRequest request = requests.get(index);
+            if (studentEntry.getStatus() == Transaction.TransactionStatus.PENDING) {
+                results[index] = TransferResult.failure(index, request.getReservationId(),
+                        operationInProgressMessage(request.getReservationId()));
+            } else {
+                SettledBooking settled = settledFrom(studentEntry,
+                        counterparts.get(studentEntry.getOperationId()), request.getToUserId() + TUTOR_SUFFIX);
+                operationCache.put(transferKey(request), settled);
+                results[index] = transferResult(index, request, settled);
+            }
+        });
+        candidates.removeAll(recorded.keySet());
+    }
+
+    /**
+     * Aplica los elementos aceptados de un lote: asientos PENDING, cargos netos,
+     * abonos netos y cierre de asientos. Si el cargo neto de una wallet se rechaza
+     * (el saldo cambió entre la lectura y la escritura), sus elementos se reintentan
+     * uno a uno al final, así que solo fallan los que ya no caben en el saldo.
+     */
+    private void applyTransferBatch(List<TransferRequest> requests, Map<Integer, List<Transaction>> entriesByIndex,
+            TransferResult[] results, WalletMetrics.Outcome outcome) {
+        // Un reintento concurrente puede haber registrado la reservación después de la lectura:
+        // el índice único rechaza esos asientos y el elemento responde con el resultado original
+        Set<String> duplicated = transactionRepository.insertIgnoringDuplicates(
+                entriesByIndex.values().stream().flatMap(List::stream).toList());
+        if (!duplicated.isEmpty()) {
+            transactionRepository.deleteByOperationIdIn(duplicated);
+            entriesByIndex.entrySet().removeIf(item -> {
+                if (!duplicated.contains(item.getValue().get(0).getOperationId())) {
+                    return false;
+                }
+                results[item.getKey()] = replayTransfer(item.getKey(), requests.get(item.getKey()));
+                return true;
+            });
+        }
+
+        Set<String> rejected = walletRepository.debitTokensBulk(netChanges(entriesByIndex, true),
+                Transaction.TransactionType.USAGE);
+        List<Integer> retried = new ArrayList<>();
+        if (!rejected.isEmpty()) {
+            List<String> abortedOperations = new ArrayList<>();
+            entriesByIndex.entrySet().removeIf(item -> {
+                Transaction debitEntry = item.getValue().get(0);
+                if (!rejected.contains(debitEntry.getUserId())) {
+                    return false;
+                }
+                abortedOperations.add(debitEntry.getOperationId());
+                retried.add(item.getKey());
+                return true;
+            });
+            transactionRepository.deleteByOperationIdIn(abortedOperations);
+        }
+        if (!entriesByIndex.isEmpty()) {
+            settleTransferBatch(requests, entriesByIndex, results);
+        }
+        // Después del lote, para que los saldos reconstruidos de sus asientos no incluyan los reintentos
+        retried.forEach(index -> results[index] = retryTransfer(index, requests.get(index), outcome));
+    }
+
+    private void settleTransferBatch(List<TransferRequest> requests, Map<Integer, List<Transaction>> entriesByIndex,
+            TransferResult[] results) {
+        walletRepository.creditTokensBulk(netChanges(entriesByIndex, false), Transaction.TransactionType.USAGE);
+
+        List<Transaction> entries = entriesByIndex.values().stream().flatMap(List::stream).toList();
+        Set<String> walletUserIds = new LinkedHashSet<>();
+        entries.forEach(entry -> walletUserIds.add(entry.getUserId()));
+        recordBalancesAfter(entries, walletUserIds);
+        completeOperation(entries);
+        walletUserIds.forEach(balanceCache::invalidate);
+
+        entriesByIndex.forEach((index, itemEntries) -> {
+            TransferRequest request = requests.get(index);
+            SettledBooking settled = new SettledBooking(request.getTokens(),
+                    itemEntries.get(0).getBalanceAfter(), itemEntries.get(1).getBalanceAfter());
+            if (request.getReservationId() != null) {
+                operationCache.put(transferKey(request), settled);
+            }
+            results[index] = transferResult(index, request, settled);
+        });
+        logger.info("Lote de transferencias aplicado: {} de {} elementos", entriesByIndex.size(), requests.size());
+    }
+
+    /**
+     * Saldos finales e ids de wallet en una sola lectura. Las escrituras masivas son netas
+     * por wallet, así que el saldo tras cada asiento se reconstruye hacia atrás desde el
+     * final, en el orden de los asientos
+     */
+    private void recordBalancesAfter(List<Transaction> entries, Set<String> walletUserIds) {
+        Map<String, Wallet> wallets = new HashMap<>();
+        Map<String, Integer> runningBalances = new HashMap<>();
+        for (Wallet wallet : walletRepository.findBalancesByUserIdIn(walletUserIds)) {
+            wallets.put(wallet.getUserId(), wallet);
+            runningBalances.put(wallet.getUserId(), wallet.getTokenBalance());
+        }
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Transaction entry = entries.get(i);
+            int balanceAfter = runningBalances.get(entry.getUserId());
+            entry.setWalletId(wallets.get(entry.getUserId()).getId());
+            entry.setBalanceAfter(balanceAfter);
+            runningBalances.put(entry.getUserId(), balanceAfter - entry.getBalanceChange());
+        }
+    }
+
+    /**
+     * Aplica por separado, como transferTokens, un elemento cuyo cargo neto fue rechazado
+     */
+    private TransferResult retryTransfer(int index, TransferRequest request, WalletMetrics.Outcome outcome) {
+        try {
+            SettledBooking settled = applyTransfer(request.getFromUserId() + STUDENT_SUFFIX,
+                    request.getToUserId() + TUTOR_SUFFIX, request.getTokens(),
+                    "Pago por reservación: " + request.getReservationId(), request.getReservationId(), outcome);
+            if (request.getReservationId() != null) {
+                operationCache.put(transferKey(request), settled);
+            }
+            return transferResult(index, request, settled);
+        } catch (RuntimeException e) {
+            return TransferResult.failure(index, request.getReservationId(), e.getMessage());
+        }
+    }
+
+    private TransferResult replayTransfer(int index, TransferRequest request) {
+        try {
+            SettledBooking settled = replaySettled(Transaction.TransactionType.USAGE, request.getReservationId(),
+                    request.getFromUserId() + STUDENT_SUFFIX, request.getToUserId() + TUTOR_SUFFIX, null);
+            operationCache.put(transferKey(request), settled);
+            return transferResult(index, request, settled);
+        } catch (RuntimeException e) {
+            return TransferResult.failure(index, request.getReservationId(), e.getMessage());
+        }
+    }
+
+    private static String transferKey(TransferRequest request) {
+        return BookingOperationCache.key(Transaction.TransactionType.USAGE, request.getReservationId(),
+                request.getFromUserId() + STUDENT_SUFFIX);
+    }
+
+    private static TransferResult transferResult(int index, TransferRequest request, SettledBooking settled) {
+        return new TransferResult(index, request.getReservationId(), true, null,
+                settled.studentNewBalance(), settled.tutorNewBalance());
+    }
+
+    private static String validateTransfer(TransferRequest request) {
+        if (request == null) {
+            return "Elemento vacío";
+        }
+        if (request.getFromUserId() == null || request.getFromUserId().isEmpty()) {
+            return "El ID del estudiante es requerido";
+        }
+        if (request.getToUserId() == null || request.getToUserId().isEmpty()) {
+            return "El ID del tutor es requerido";
+        }
+        if (request.getTokens() == null || request.getTokens() <= 0) {
+            return "La cantidad de tokens debe ser mayor a 0";
+        }
+        return null;
+    }
+
+    /**
+     * Crea el par de asientos PENDING (cargo al estudiante, abono al tutor) de un
+     * elemento del lote, con su propio operationId para que la recuperación lo
+     * trate como una transferencia individual
+     */
+    private static List<Transaction> createTransferEntries(TransferRequest request) {
+        String operationId = UUID.randomUUID().toString();
+        String description = "Pago por reservación: " + request.getReservationId();
+        int tokens = request.getTokens();
+        Transaction debitEntry = createEntry(request.getFromUserId() + STUDENT_SUFFIX,
+                Transaction.TransactionType.USAGE, tokens, "Pago a tutor - " + description,
+                request.getReservationId());
+        Transaction creditEntry = createEntry(request.getToUserId() + TUTOR_SUFFIX,
+                Transaction.TransactionType.USAGE, tokens, "Ingreso por tutoría - " + description,
+                request.getReservationId());
+        debitEntry.setBalanceChange(-tokens);
+        creditEntry.setBalanceChange(tokens);
+        for (Transaction entry : List.of(debitEntry, creditEntry)) {
+            entry.setOperationId(operationId);
+            entry.setStatus(Transaction.TransactionStatus.PENDING);
+            entry.setCompletedAt(null);
+        }
+        return List.of(debitEntry, creditEntry);
+    }
+
+    /**
+     * Agrupa los asientos de cargo (o de abono) por wallet y suma sus montos
+     */
+    private static List<WalletBalanceChange> netChanges(Map<Integer, List<Transaction>> entriesByIndex,
+            boolean debits) {
+        Map<String, List<Transaction>> byWallet = new LinkedHashMap<>();
+        for (List<Transaction> itemEntries : entriesByIndex.values()) {
+            Transaction entry = itemEntries.get(debits ? 0 : 1);
+            byWallet.computeIfAbsent(entry.getUserId(), k -> new ArrayList<>()).add(entry);
+        }
+        List<WalletBalanceChange> changes = new ArrayList<>();
+        byWallet.forEach((walletUserId, walletEntries) -> changes.add(
+                WalletBalanceChange.of(walletUserId, walletEntries)));
+        return changes;
     }
 
     /**
@@ -488,86 +1030,102 @@ public class WalletService {
      */
     public Map<String, Object> refundTokens(String studentUserId, String tutorUserId, Integer tokens,
             String description) {
+        return metrics.record("refundTokens",
+                outcome -> applyRefund(studentUserId, tutorUserId, tokens, description, outcome));
+    }
+
+    private Map<String, Object> applyRefund(String studentUserId, String tutorUserId, Integer tokens,
+            String description, WalletMetrics.Outcome outcome) {
+        outcome.subject(studentUserId);
         // Construir IDs de wallet con roles
         String studentWalletUserId = studentUserId + STUDENT_SUFFIX;
         String tutorWalletUserId = tutorUserId + TUTOR_SUFFIX;
 
-        // Obtener wallet del estudiante
-        Wallet studentWallet = walletRepository.findByUserId(studentWalletUserId)
-                .orElseThrow(() -> new RuntimeException(WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId));
-
-        // Obtener wallet del tutor
-        Wallet tutorWallet = walletRepository.findByUserId(tutorWalletUserId)
-                .orElseThrow(() -> new RuntimeException("Wallet del tutor no encontrada: " + tutorWalletUserId));
-        if (!tutorWallet.useTokens(tokens)) {
-            throw new InsufficientTokensException("El tutor no tiene suficientes tokens para devolver");
-        }
-
-        // Agregar tokens al estudiante
-        studentWallet.addTokens(tokens);
-
-        // Crear transacción de reembolso para el estudiante (ingreso)
-        Transaction studentRefundTransaction = new Transaction();
-        studentRefundTransaction.setUserId(studentWalletUserId);
-        studentRefundTransaction.setWalletId(studentWallet.getId());
-        studentRefundTransaction.setType(Transaction.TransactionType.REFUND);
-        studentRefundTransaction.setTokensAmount(tokens);
-        studentRefundTransaction.setMoneyAmount(0.0);
-        studentRefundTransaction.setDescription(description);
-        studentRefundTransaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        studentRefundTransaction.setCreatedAt(LocalDateTime.now());
-        studentRefundTransaction.setCompletedAt(LocalDateTime.now());
-
-        // Crear transacción de egreso para el tutor
-        Transaction tutorDeductionTransaction = new Transaction();
-        tutorDeductionTransaction.setUserId(tutorWalletUserId);
-        tutorDeductionTransaction.setWalletId(tutorWallet.getId());
-        tutorDeductionTransaction.setType(Transaction.TransactionType.USAGE);
-        tutorDeductionTransaction.setTokensAmount(tokens);
-        tutorDeductionTransaction.setMoneyAmount(0.0);
-        tutorDeductionTransaction.setDescription("Devolución por cancelación - " + description);
-        tutorDeductionTransaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        tutorDeductionTransaction.setCreatedAt(LocalDateTime.now());
-        tutorDeductionTransaction.setCompletedAt(LocalDateTime.now());
-
-        // Guardar cambios
-        logger.info("Guardando reembolso...");
-        walletRepository.save(studentWallet);
-        transactionRepository.save(studentRefundTransaction);
-        transactionRepository.save(tutorDeductionTransaction);
+        // El abono crearía la wallet del estudiante: un reembolso sin ella sigue respondiendo "no encontrada".
+        // El reembolso por reservación no lo necesita, porque el asiento de uso prueba que la wallet existe
+        if (!walletRepository.existsByUserId(studentWalletUserId)) {
+            throw new WalletNotFoundException(WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId);
+        }
+
+        // Asiento de reembolso para el estudiante (ingreso) y de egreso para el tutor
+        Transaction studentRefundTransaction = createEntry(studentWalletUserId, Transaction.TransactionType.REFUND,
+                tokens, description, null);
+        Transaction tutorDeductionTransaction = createEntry(tutorWalletUserId, Transaction.TransactionType.USAGE,
+                tokens, "Devolución por cancelación - " + description, null);
+
+        outcome.diagnostics(logger).info("Guardando reembolso...");
+        AppliedOperation applied = commitOperation(tutorDeductionTransaction, studentRefundTransaction,
+                TUTOR_WALLET_NOT_FOUND + tutorWalletUserId,
+                TUTOR_INSUFFICIENT_TOKENS);
         return Map.of(
                 SUCCESS_KEY, true,
                 MESSAGE_KEY, "Tokens reembolsados exitosamente",
                 "studentUserId", studentUserId,
                 "tutorUserId", tutorUserId,
                 "tokensRefunded", tokens,
-                STUDENT_NEW_BALANCE_KEY, studentWallet.getTokenBalance(),
-                TUTOR_NEW_BALANCE_KEY, tutorWallet.getTokenBalance());
+                STUDENT_NEW_BALANCE_KEY, applied.credited().getTokenBalance(),
+                TUTOR_NEW_BALANCE_KEY, applied.debited().getTokenBalance());
     }
 
     /**
      * Reembolsa tokens automáticamente con base en la reservación (bookingId).
      * Busca la transacción de USAGE del estudiante para esa reservación y devuelve
-     * exactamente esos tokens.
+     * exactamente esos tokens. Cada reservación se reembolsa a lo sumo una vez; los
+     * reintentos reciben el resultado original.
+     *
+     * @throws OperationInProgressException si el reembolso de la reservación se está aplicando
      */
     public Map<String, Object> refundTokensByBooking(String studentUserId, String tutorUserId, String bookingId,
             String description) {
-        logger.info("refundTokensByBooking - studentUserId: {}, tutorUserId: {}, bookingId: {}", studentUserId,
+        return metrics.record("refundTokensByBooking",
+                outcome -> applyRefundTokensByBooking(studentUserId, tutorUserId, bookingId, description, outcome));
+    }
+
+    private Map<String, Object> applyRefundTokensByBooking(String studentUserId, String tutorUserId,
+            String bookingId, String description, WalletMetrics.Outcome outcome) {
+        outcome.subject(bookingId);
+        outcome.diagnostics(logger).info("refundTokensByBooking - studentUserId: {}, tutorUserId: {}, bookingId: {}", studentUserId,
                 tutorUserId, bookingId);
 
         String studentWalletUserId = studentUserId + STUDENT_SUFFIX;
         String tutorWalletUserId = tutorUserId + TUTOR_SUFFIX;
+        String idempotencyKey = BookingOperationCache.key(Transaction.TransactionType.REFUND, bookingId,
+                studentWalletUserId);
+
+        // Reintento reciente de un reembolso ya aplicado: se responde sin tocar Mongo
+        SettledBooking settled = operationCache.get(idempotencyKey);
+        if (settled == null) {
+            settled = applyRefundByBooking(studentWalletUserId, tutorWalletUserId, bookingId, description, outcome);
+            operationCache.put(idempotencyKey, settled);
+        } else {
+            outcome.duplicate();
+        }
+        return refundResponse(studentUserId, tutorUserId, settled);
+    }
 
-        Wallet studentWallet = walletRepository.findByUserId(studentWalletUserId)
-                .orElseThrow(() -> new RuntimeException(WALLET_ESTUDIANTE_NO_ENCONTRADA + studentWalletUserId));
+    static Map<String, Object> refundResponse(String studentUserId, String tutorUserId, SettledBooking settled) {
+        return Map.of(
+                SUCCESS_KEY, true,
+                MESSAGE_KEY, "Tokens reembolsados automáticamente",
+                "studentUserId", studentUserId,
+                "tutorUserId", tutorUserId,
+                "tokensRefunded", settled.tokens(),
+                STUDENT_NEW_BALANCE_KEY, settled.studentNewBalance(),
+                TUTOR_NEW_BALANCE_KEY, settled.tutorNewBalance());
+    }
 
-        Wallet tutorWallet = walletRepository.findByUserId(tutorWalletUserId)
-                .orElseThrow(() -> new RuntimeException("Wallet del tutor no encontrada: " + tutorWalletUserId));
+    private SettledBooking applyRefundByBooking(String studentWalletUserId, String tutorWalletUserId,
+            String bookingId, String description, WalletMetrics.Outcome outcome) {
+        if (recordedWithoutIndex(Transaction.TransactionType.REFUND, bookingId, studentWalletUserId)) {
+            outcome.duplicate();
+            return replaySettled(Transaction.TransactionType.REFUND, bookingId, studentWalletUserId,
+                    tutorWalletUserId, null);
+        }
 
         // Obtener tokens usados originalmente por el estudiante para esta reservación
         Transaction studentUsage = transactionRepository
                 .findFirstByBookingIdAndUserIdAndType(bookingId, studentWalletUserId, Transaction.TransactionType.USAGE)
-                .orElseThrow(() -> new RuntimeException(
+                .orElseThrow(() -> new WalletNotFoundException(
                         "No se encontró la transacción de uso del estudiante para bookingId: " + bookingId));
 
         Integer tokens = Optional.ofNullable(studentUsage.getTokensAmount()).orElse(0);
@@ -575,49 +1133,295 @@ public class WalletService {
             throw new InsufficientTokensException("La transacción asociada no tiene tokens válidos para reembolso");
         }
 
-        // Verificar que el tutor tenga suficientes tokens para devolver
-        if (!tutorWallet.useTokens(tokens)) {
-            throw new InsufficientTokensException("El tutor no tiene suficientes tokens para devolver");
-        }
-
-        // Agregar tokens al estudiante
-        studentWallet.addTokens(tokens);
-
-        // Crear transacción de reembolso para el estudiante
-        Transaction studentRefundTransaction = new Transaction();
-        studentRefundTransaction.setUserId(studentWalletUserId);
-        studentRefundTransaction.setWalletId(studentWallet.getId());
-        studentRefundTransaction.setType(Transaction.TransactionType.REFUND);
-        studentRefundTransaction.setTokensAmount(tokens);
-        studentRefundTransaction.setMoneyAmount(0.0);
-        studentRefundTransaction.setDescription(description);
-        studentRefundTransaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        studentRefundTransaction.setCreatedAt(LocalDateTime.now());
-        studentRefundTransaction.setCompletedAt(LocalDateTime.now());
-        studentRefundTransaction.setBookingId(bookingId);
-
-        // Crear transacción de egreso para el tutor
-        Transaction tutorDeductionTransaction = new Transaction();
-        tutorDeductionTransaction.setUserId(tutorWalletUserId);
-        tutorDeductionTransaction.setWalletId(tutorWallet.getId());
-        tutorDeductionTransaction.setType(Transaction.TransactionType.USAGE);
-        tutorDeductionTransaction.setTokensAmount(tokens);
-        tutorDeductionTransaction.setMoneyAmount(0.0);
-        tutorDeductionTransaction.setDescription("Devolución por cancelación - " + description);
-        tutorDeductionTransaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        tutorDeductionTransaction.setCreatedAt(LocalDateTime.now());
-        tutorDeductionTransaction.setCompletedAt(LocalDateTime.now());
-        tutorDeductionTransaction.setBookingId(bookingId);
-
-        // Guardar cambios
-        transactionRepository.save(studentRefundTransaction);
-        return Map.of(
-                SUCCESS_KEY, true,
-                MESSAGE_KEY, "Tokens reembolsados automáticamente",
-                "studentUserId", studentUserId,
-                "tutorUserId", tutorUserId,
-                "tokensRefunded", tokens,
-                STUDENT_NEW_BALANCE_KEY, studentWallet.getTokenBalance(),
-                TUTOR_NEW_BALANCE_KEY, tutorWallet.getTokenBalance());
+        // Asiento de reembolso para el estudiante y de egreso para el tutor. El egreso es REFUND
+        // para no chocar en el índice único con el ingreso (USAGE) del tutor por la misma reservación;
+        // su balanceChange negativo lo separa del reembolso en contadores y reportes (returned)
+        Transaction studentRefundTransaction = createEntry(studentWalletUserId, Transaction.TransactionType.REFUND,
+                tokens, description, bookingId);
+        Transaction tutorDeductionTransaction = createEntry(tutorWalletUserId, Transaction.TransactionType.REFUND,
+                tokens, "Devolución por cancelación - " + description, bookingId);
+
+        // Descontar al tutor (solo si tiene saldo suficiente) y abonar al estudiante
+        try {
+            AppliedOperation applied = commitOperation(tutorDeductionTransaction, studentRefundTransaction,
+                    TUTOR_WALLET_NOT_FOUND + tutorWalletUserId,
+                    TUTOR_INSUFFICIENT_TOKENS);
+            return new SettledBooking(tokens, applied.credited().getTokenBalance(),
+                    applied.debited().getTokenBalance());
+        } catch (DuplicateKeyException e) {
+            outcome.duplicate();
+            return replaySettled(Transaction.TransactionType.REFUND, bookingId, studentWalletUserId,
+                    tutorWalletUserId, e);
+        }
+    }
+
+    /**
+     * Sin el índice único de reservaciones confirmado, un reintento no recibe clave
+     * duplicada al insertar su asiento: se busca antes en el ledger. Dos intentos
+     * simultáneos aún pueden pasar ambos esta lectura, por eso el índice es obligatorio
+     * mientras la migración esté activa.
+     */
+    private boolean recordedWithoutIndex(Transaction.TransactionType type, String bookingId,
+            String studentWalletUserId) {
+        return bookingId != null && !idempotencyIndexes.isBookingIndexReady()
+                && transactionRepository.findFirstByBookingIdAndUserIdAndType(bookingId, studentWalletUserId, type)
+                        .isPresent();
+    }
+
+    /**
+     * Reconstruye el resultado original de una operación por reservación a partir del
+     * ledger (saldos guardados en balanceAfter al completarla)
+     *
+     * @param type                Tipo del asiento del estudiante (USAGE o REFUND)
+     * @param bookingId           ID de la reservación
+     * @param studentWalletUserId userId de la wallet del estudiante
+     * @param tutorWalletUserId   userId de la wallet del tutor
+     * @param cause               Error de clave duplicada a propagar si no hay asiento del estudiante
+     * @throws OperationInProgressException si la operación original aún no se completa
+     */
+    private SettledBooking replaySettled(Transaction.TransactionType type, String bookingId,
+            String studentWalletUserId, String tutorWalletUserId, DuplicateKeyException cause) {
+        Optional<Transaction> recorded = transactionRepository.findFirstByBookingIdAndUserIdAndType(
+                bookingId, studentWalletUserId, type);
+        if (recorded.isEmpty()) {
+            // El duplicado fue el asiento del tutor: la reservación ya se registró con otro estudiante
+            throw cause != null ? cause : new IllegalStateException(
+                    "La reservación " + bookingId + " ya está registrada para otro usuario");
+        }
+        Transaction studentEntry = recorded.get();
+        if (studentEntry.getStatus() == Transaction.TransactionStatus.PENDING) {
+            throw new OperationInProgressException(operationInProgressMessage(bookingId));
+        }
+        Transaction tutorEntry = studentEntry.getOperationId() == null ? null
+                : transactionRepository.findByOperationId(studentEntry.getOperationId()).stream()
+                        .filter(entry -> !entry.getId().equals(studentEntry.getId()))
+                        .findFirst().orElse(null);
+        logger.info("Reintento de la reservación {} ({}) respondido con el resultado original", bookingId, type);
+        return settledFrom(studentEntry, tutorEntry, tutorWalletUserId);
+    }
+
+    private SettledBooking settledFrom(Transaction studentEntry, Transaction tutorEntry, String tutorWalletUserId) {
+        return new SettledBooking(studentEntry.getTokensAmount(),
+                balanceAfter(studentEntry, studentEntry.getUserId()),
+                balanceAfter(tutorEntry, tutorWalletUserId));
+    }
+
+    /**
+     * Saldo guardado en el asiento; los asientos anteriores a balanceAfter usan el saldo actual
+     */
+    private Integer balanceAfter(Transaction entry, String walletUserId) {
+        if (entry != null && entry.getBalanceAfter() != null) {
+            return entry.getBalanceAfter();
+        }
+        return findCachedBalance(walletUserId).map(WalletBalanceView::getTokenBalance).orElse(0);
+    }
+
+    static String operationInProgressMessage(String bookingId) {
+        return "La operación de la reservación " + bookingId + " está en curso, reintente más tarde";
+    }
+
+    /**
+     * Reaplica las operaciones que quedaron a medias (asientos PENDING más antiguos
+     * que el margen indicado), por ejemplo tras una caída del proceso. Cada paso es
+     * idempotente gracias al marcador de operación guardado en la wallet.
+     *
+     * @param gracePeriod Antigüedad mínima de un asiento pendiente para considerarlo abandonado
+     * @return Cantidad de operaciones recuperadas
+     */
+    public int recoverPendingOperations(Duration gracePeriod) {
+        LocalDateTime cutoff = LocalDateTime.now().minus(gracePeriod);
+        Set<String> operationIds = new LinkedHashSet<>();
+        for (Transaction pending : transactionRepository.findTop100ByStatusAndOperationIdIsNotNullAndCreatedAtBefore(
+                Transaction.TransactionStatus.PENDING, cutoff)) {
+            operationIds.add(pending.getOperationId());
+        }
+
+        int recovered = 0;
+        for (String operationId : operationIds) {
+            try {
+                if (recoverOperation(operationId)) {
+                    recovered++;
+                }
+            } catch (Exception e) {
+                logger.error("Error recuperando la operación {}: {}", operationId, e.getMessage());
+            }
+        }
+        return recovered;
+    }
+
+    private boolean recoverOperation(String operationId) {
+        List<Transaction> entries = transactionRepository.findByOperationId(operationId);
+        if (entries.size() == 1 && entries.get(0).getType() == Transaction.TransactionType.PURCHASE) {
+            return recoverPurchase(entries.get(0));
+        }
+        Transaction debitEntry = entries.stream().filter(t -> t.getBalanceChange() < 0).findFirst().orElse(null);
+        Transaction creditEntry = entries.stream().filter(t -> t.getBalanceChange() > 0).findFirst().orElse(null);
+        if (debitEntry == null || creditEntry == null) {
+            logger.warn("Operación {} incompleta en el ledger; se descartan {} asientos", operationId, entries.size());
+            transactionRepository.deleteByOperationId(operationId);
+            return false;
+        }
+
+        int tokens = debitEntry.getTokensAmount();
+        String debitWalletUserId = debitEntry.getUserId();
+        Optional<Wallet> debited = walletRepository.debitTokens(debitWalletUserId, tokens, operationId,
+                debitEntry.getType(), debitEntry.getCreatedAt());
+        if (debited.isEmpty() && !walletRepository.hasAppliedOperation(debitWalletUserId, operationId)) {
+            // El cargo nunca se aplicó y ya no es posible: el abono tampoco se aplicó, se aborta
+            logger.warn("Operación {} abortada durante la recuperación: cargo no aplicable a {}", operationId,
+                    debitWalletUserId);
+            transactionRepository.deleteByOperationId(operationId);
+            return false;
+        }
+
+        Wallet debitWallet = debited.or(() -> walletRepository.findByUserId(debitWalletUserId)).orElseThrow();
+        Wallet creditWallet = creditForOperation(creditEntry, operationId);
+        balanceCache.invalidate(debitWalletUserId);
+        balanceCache.invalidate(creditEntry.getUserId());
+        debitEntry.setWalletId(debitWallet.getId());
+        debitEntry.setBalanceAfter(debitWallet.getTokenBalance());
+        creditEntry.setWalletId(creditWallet.getId());
+        creditEntry.setBalanceAfter(creditWallet.getTokenBalance());
+        completeOperation(List.of(debitEntry, creditEntry));
+        logger.info("Operación {} recuperada", operationId);
+        return true;
+    }
+
+    /**
+     * Acredita una compra cuyo asiento quedó PENDING (el abono se aplica a lo sumo una vez)
+     */
+    private boolean recoverPurchase(Transaction purchase) {
+        String walletUserId = purchase.getUserId();
+        int separator = walletUserId.lastIndexOf('-');
+        Wallet wallet = walletRepository.creditPurchase(walletUserId.substring(0, separator),
+                walletUserId.substring(separator + 1).toUpperCase(), purchase.getTokensAmount(),
+                Optional.ofNullable(purchase.getMoneyAmount()).orElse(0.0), purchase.getOperationId(),
+                purchase.getCreatedAt());
+        balanceCache.invalidate(walletUserId);
+        purchase.setWalletId(wallet.getId());
+        purchase.setBalanceAfter(wallet.getTokenBalance());
+        completeOperation(List.of(purchase));
+        logger.info("Compra {} recuperada", purchase.getStripeSessionId());
+        return true;
+    }
+
+    /**
+     * Aplica una operación de cargo/abono de forma que sea recuperable:
+     * primero inserta ambos asientos PENDING en una sola escritura (marcador de
+     * recuperación), luego aplica el cargo condicional y el abono marcando la
+     * operación en cada wallet, y finalmente completa los asientos en una
+     * escritura masiva. Si el proceso cae entre pasos, {@link #recoverPendingOperations}
+     * reaplica lo que falte sin duplicar saldos.
+     */
+    private AppliedOperation commitOperation(Transaction debitEntry, Transaction creditEntry,
+            String notFoundMessage, String insufficientMessage) {
+        String operationId = UUID.randomUUID().toString();
+        int tokens = debitEntry.getTokensAmount();
+        for (Transaction entry : List.of(debitEntry, creditEntry)) {
+            entry.setOperationId(operationId);
+            entry.setStatus(Transaction.TransactionStatus.PENDING);
+            entry.setCompletedAt(null);
+        }
+        debitEntry.setBalanceChange(-tokens);
+        creditEntry.setBalanceChange(tokens);
+
+        try {
+            transactionRepository.insert(List.of(debitEntry, creditEntry));
+        } catch (DuplicateKeyException e) {
+            // La inserción ordenada pudo dejar el primer asiento antes del duplicado
+            transactionRepository.deleteByOperationId(operationId);
+            throw e;
+        }
+
+        Wallet debited;
+        try {
+            debited = debitOrThrow(debitEntry, operationId, notFoundMessage, insufficientMessage);
+        } catch (RuntimeException e) {
+            transactionRepository.deleteByOperationId(operationId);
+            throw e;
+        }
+        Wallet credited = creditForOperation(creditEntry, operationId);
+        balanceCache.invalidate(debitEntry.getUserId());
+        balanceCache.invalidate(creditEntry.getUserId());
+
+        debitEntry.setWalletId(debited.getId());
+        debitEntry.setBalanceAfter(debited.getTokenBalance());
+        creditEntry.setWalletId(credited.getId());
+        creditEntry.setBalanceAfter(credited.getTokenBalance());
+        completeOperation(List.of(debitEntry, creditEntry));
+        return new AppliedOperation(debited, credited);
+    }
+
+    /**
+     * Completa los asientos y encola sus marcadores para liberarlos en lote
+     * ({@link #releaseCompletedOperations}), fuera del camino de la petición. El orden
+     * importa: mientras un asiento siga PENDING su marcador debe existir, o la
+     * recuperación volvería a aplicar el cargo o el abono.
+     */
+    private void completeOperation(List<Transaction> entries) {
+        transactionRepository.completeOperation(entries);
+        completedOperations.add(entries);
+    }
+
+    /**
+     * Quita de las wallets, en una sola escritura masiva, los marcadores de las
+     * operaciones completadas desde la última llamada. Si la escritura falla se
+     * vuelven a encolar para el siguiente intervalo.
+     *
+     * @return Cantidad de wallets actualizadas
+     */
+    public int releaseCompletedOperations() {
+        Map<String, Set<String>> operationsByWallet = completedOperations.drain();
+        try {
+            walletRepository.releaseOperations(operationsByWallet);
+        } catch (RuntimeException e) {
+            completedOperations.addAll(operationsByWallet);
+            throw e;
+        }
+        return operationsByWallet.size();
+    }
+
+    private Wallet creditForOperation(Transaction creditEntry, String operationId) {
+        String walletUserId = creditEntry.getUserId();
+        int separator = walletUserId.lastIndexOf('-');
+        String actualUserId = walletUserId.substring(0, separator);
+        String role = walletUserId.substring(separator + 1).toUpperCase();
+        return walletRepository.creditTokensOrCreate(actualUserId, role, creditEntry.getTokensAmount(), operationId,
+                creditEntry.getType(), creditEntry.getCreatedAt());
+    }
+
+    /**
+     * Descuenta tokens de forma atómica y distingue entre wallet inexistente y
+     * saldo insuficiente cuando el descuento condicional no aplica.
+     */
+    private Wallet debitOrThrow(Transaction debitEntry, String operationId, String notFoundMessage,
+            String insufficientMessage) {
+        String walletUserId = debitEntry.getUserId();
+        int tokens = debitEntry.getTokensAmount();
+        if (tokens <= 0) {
+            throw new InsufficientTokensException(insufficientMessage);
+        }
+        return walletRepository.debitTokens(walletUserId, tokens, operationId, debitEntry.getType(),
+                debitEntry.getCreatedAt())
+                .orElseThrow(() -> walletRepository.existsByUserId(walletUserId)
+                        ? new InsufficientTokensException(insufficientMessage)
+                        : new WalletNotFoundException(notFoundMessage));
+    }
+
+    static Transaction createEntry(String walletUserId, Transaction.TransactionType type, Integer tokens,
+            String description, String bookingId) {
+        Transaction transaction = new Transaction();
+        transaction.setUserId(walletUserId);
+        transaction.setType(type);
+        transaction.setTokensAmount(tokens);
+        transaction.setMoneyAmount(0.0);
+        transaction.setDescription(description);
+        transaction.setBookingId(bookingId);
+        transaction.setCreatedAt(LocalDateTime.now());
+        return transaction;
+    }
+
+    /** Wallets resultantes de aplicar el cargo y el abono de una operación */
+    record AppliedOperation(Wallet debited, Wallet credited) {
     }
 }
@@ -0,0 +1,38 @@
+package wallet_service.eci.edu.co.util;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.util.Collection;
+
+/**
+ * Autenticación de una petición con token de Cognito. El principal es el
+ * {@link CognitoUserInfo} ya decodificado (disponible con @AuthenticationPrincipal)
+ * y getName() devuelve el sub, igual que la autenticación anterior por sub.
+ */
+public class CognitoAuthenticationToken extends AbstractAuthenticationToken {
+
+    private final CognitoUserInfo userInfo;
+
+    public CognitoAuthenticationToken(CognitoUserInfo userInfo, Collection<? extends GrantedAuthority> authorities) {
+        super(authorities);
+        this.userInfo = userInfo;
+        setAuthenticated(true);
+    }
+
+    @Override
+    public Object getCredentials() {
+        return null;
+    }
+
+    @Override
+    public CognitoUserInfo getPrincipal() {
+        return userInfo;
+    }
+
+    @Override
+    public String getName() {
+        return userInfo.getSub();
+    }
+}
@@ -0,0 +1,286 @@
+package wallet_service.eci.edu.co.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.JwtException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Verifica la firma RS256 de los tokens de Cognito contra el JWKS del user pool.
+ * Las claves se descargan una vez, se guardan por kid como PublicKey ya
+ * construidas y se refrescan en segundo plano. Un kid desconocido (rotación de
+ * claves) rechaza el token de inmediato y lanza una recarga en un hilo virtual,
+ * como mucho una vez por intervalo de enfriamiento y sin recargas simultáneas:
+ * verify nunca espera la red, así que puede llamarse desde el event loop. El
+ * cliente reintenta con el mismo token cuando la recarga terminó.
+ * La ubicación del JWKS puede ser una URL https o un recurso local (file:,
+ * classpath:) para pruebas. Sin cognito.jwks-uri el servicio no arranca, salvo que
+ * se desactive la verificación explícitamente con cognito.signature-verification=false.
+ * Además de la firma se exigen el emisor del user pool (iss), token_use=id y, si se
+ * configura cognito.client-id, la audiencia del app client: un token de otro pool o
+ * de otro cliente que comparta el JWKS no se acepta.
+ */
+@Component
+public class CognitoJwksVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(CognitoJwksVerifier.class);
+    private static final String ALGORITHM = "RS256";
+    private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(5);
+    private static final String JWKS_PATH = "/.well-known/jwks.json";
+    // Los claims de usuario (email, name) solo vienen en el ID token
+    private static final String TOKEN_USE = "id";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String jwksUri;
+    private final boolean signatureVerification;
+    private final String issuer;
+    private final String clientId;
+    private final long refreshCooldownMillis;
+    private final HttpClient httpClient;
+
+    // Reemplazado completo en cada recarga; las lecturas no necesitan bloqueo
+    private volatile Map<String, PublicKey> keys = Map.of();
+    private volatile long lastRefreshMillis;
+
+    // Recarga en curso (o la última); el lock solo protege la decisión de lanzar otra
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private CompletableFuture<Boolean> refreshing = CompletableFuture.completedFuture(false);
+
+    /**
+     * @param jwksUri               Ubicación del JWKS del user pool
+     * @param issuer                Emisor esperado; vacío lo deriva de una jwksUri de Cognito
+     * @param clientId              App client esperado en aud; vacío no revisa la audiencia
+     * @param signatureVerification false desactiva la verificación de firma (solo desarrollo)
+     * @throws IllegalStateException si la verificación está activa y no hay jwksUri
+     */
+    public CognitoJwksVerifier(@Value("${cognito.jwks-uri:}") String jwksUri,
+            @Value("${cognito.issuer:}") String issuer,
+            @Value("${cognito.client-id:}") String clientId,
+            @Value("${cognito.signature-verification:true}") boolean signatureVerification,
+            @Value("${cognito.jwks-refresh-cooldown:PT5M}") Duration refreshCooldown) {
+        this.jwksUri = jwksUri == null ? "" : jwksUri.trim();
+        this.signatureVerification = signatureVerification;
+        this.issuer = issuer != null && !issuer.isBlank() ? issuer.trim() : issuerOf(this.jwksUri);
+        this.clientId = clientId == null || clientId.isBlank() ? null : clientId.trim();
+        this.refreshCooldownMillis = refreshCooldown.toMillis();
+        this.httpClient = HttpClient.newBuilder().connectTimeout(FETCH_TIMEOUT).build();
+        if (!signatureVerification) {
+            logger.error("cognito.signature-verification=false: la firma de los tokens NO se verifica");
+            return;
+        }
+        if (this.jwksUri.isEmpty()) {
+            throw new IllegalStateException("cognito.jwks-uri (COGNITO_JWKS_URI) es obligatorio para verificar "
+                    + "la firma de los tokens; para desactivarla use cognito.signature-verification=false");
+        }
+        if (this.issuer == null) {
+            logger.warn("No se pudo derivar el emisor de {}: configure cognito.issuer para validar iss", jwksUri);
+        }
+        lastRefreshMillis = System.currentTimeMillis();
+        load();
+    }
+
+    public boolean isEnabled() {
+        return signatureVerification;
+    }
+
+    /**
+     * Verifica la firma del token. No revisa claims; la expiración la valida
+     * CognitoPrincipalCache, que además memoriza el resultado hasta el exp.
+     * @param token Token JWT de Cognito (sin "Bearer ")
+     * @return true si la firma se verificó; false solo con cognito.signature-verification=false
+     * @throws JwtException si el token está mal formado, usa otro algoritmo, su kid
+     *                      no está en el JWKS cargado o la firma no coincide
+     */
+    public boolean verify(String token) throws JwtException {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        int firstDot = token.indexOf('.');
+        int lastDot = token.lastIndexOf('.');
+        if (firstDot <= 0 || lastDot == firstDot || lastDot == token.length() - 1) {
+            throw new JwtException("Token JWT malformado");
+        }
+
+        JsonNode header;
+        byte[] signature;
+        try {
+            header = objectMapper.readTree(Base64.getUrlDecoder().decode(token.substring(0, firstDot)));
+            signature = Base64.getUrlDecoder().decode(token.substring(lastDot + 1));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new JwtException("Token JWT malformado: " + e.getMessage());
+        }
+
+        if (!ALGORITHM.equals(header.path("alg").asText())) {
+            throw new JwtException("Algoritmo de firma no soportado: " + header.path("alg").asText());
+        }
+        String kid = header.path("kid").asText(null);
+        if (kid == null) {
+            throw new JwtException("El token no trae kid");
+        }
+
+        PublicKey key = keys.get(kid);
+        if (key == null) {
+            refreshAsync(false);
+            throw new JwtException("Clave de firma desconocida: " + kid);
+        }
+
+        try {
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(key);
+            verifier.update(token.substring(0, lastDot).getBytes(StandardCharsets.US_ASCII));
+            if (!verifier.verify(signature)) {
+                throw new JwtException("Firma del token inválida");
+            }
+        } catch (GeneralSecurityException e) {
+            throw new JwtException("No se pudo verificar la firma: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Revisa los claims que ligan el token a este user pool y app client. La firma
+     * ya se verificó con {@link #verify}; la expiración la revisa CognitoPrincipalCache.
+     * @throws JwtException si el emisor, el token_use o la audiencia no corresponden
+     */
+    public void verifyClaims(CognitoTokenDecoder.CognitoUserInfo userInfo) throws JwtException {
+        if (issuer != null && !issuer.equals(userInfo.getIssuer())) {
+            throw new JwtException("Emisor del token no esperado: " + userInfo.getIssuer());
+        }
+        if (!TOKEN_USE.equals(userInfo.getTokenUse())) {
+            throw new JwtException("token_use no soportado: " + userInfo.getTokenUse());
+        }
+        if (clientId != null && !clientId.equals(userInfo.getAudience())) {
+            throw new JwtException("El token es de otro app client: " + userInfo.getAudience());
+        }
+    }
+
+    /**
+     * Recarga periódica del JWKS para seguir la rotación de claves de Cognito.
+     */
+    @Scheduled(initialDelayString = "${cognito.jwks-refresh-interval-ms:3600000}",
+            fixedDelayString = "${cognito.jwks-refresh-interval-ms:3600000}")
+    public void scheduledRefresh() {
+        if (isEnabled()) {
+            refresh();
+        }
+    }
+
+    /**
+     * Recarga el JWKS y espera el resultado (se une a la recarga en curso si la hay)
+     * @return true si el JWKS se cargó
+     */
+    public boolean refresh() {
+        return refreshAsync(true).join();
+    }
+
+    /**
+     * Lanza una recarga en un hilo virtual si no hay otra en curso y, salvo que se
+     * fuerce, si ya pasó el enfriamiento desde la anterior
+     * @return Recarga en curso, o la última si no se lanzó otra
+     */
+    CompletableFuture<Boolean> refreshAsync(boolean force) {
+        refreshLock.lock();
+        try {
+            boolean coolingDown = System.currentTimeMillis() - lastRefreshMillis < refreshCooldownMillis;
+            if (!refreshing.isDone() || (coolingDown && !force)) {
+                return refreshing;
+            }
+            lastRefreshMillis = System.currentTimeMillis();
+            CompletableFuture<Boolean> started = new CompletableFuture<>();
+            refreshing = started;
+            Thread.ofVirtual().name("jwks-refresh").start(() -> started.complete(load()));
+            return started;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Descarga el JWKS y reemplaza el conjunto de claves. Si falla se conservan
+     * las claves anteriores.
+     */
+    private boolean load() {
+        try {
+            Map<String, PublicKey> loaded = parseKeys(objectMapper.readTree(fetchJwks()));
+            keys = Map.copyOf(loaded);
+            logger.info("JWKS de Cognito cargado: {} claves", loaded.size());
+            return true;
+        } catch (Exception e) {
+            logger.error("Error cargando el JWKS de Cognito desde {}: {}", jwksUri, e.getMessage());
+            return false;
+        }
+    }
+
+    public int keyCount() {
+        return keys.size();
+    }
+
+    /**
+     * Emisor de un JWKS de Cognito (https://cognito-idp.<region>.amazonaws.com/<userPoolId>)
+     * @return null si la ubicación no tiene la forma del JWKS de un user pool
+     */
+    private static String issuerOf(String jwksUri) {
+        if (jwksUri.startsWith("https://") && jwksUri.endsWith(JWKS_PATH)) {
+            return jwksUri.substring(0, jwksUri.length() - JWKS_PATH.length());
+        }
+        return null;
+    }
+
+    private byte[] fetchJwks() throws IOException, InterruptedException {
+        if (jwksUri.startsWith("http://") || jwksUri.startsWith("https://")) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(jwksUri)).timeout(FETCH_TIMEOUT).GET().build();
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                throw new IOException("HTTP " + response.statusCode());
+            }
+            return response.body();
+        }
+        try (InputStream in = new DefaultResourceLoader().getResource(jwksUri).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Map<String, PublicKey> parseKeys(JsonNode jwks) throws GeneralSecurityException {
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        Map<String, PublicKey> parsed = new HashMap<>();
+        for (JsonNode jwk : jwks.path("keys")) {
+            // Solo claves RSA de firma; las de cifrado u otros algoritmos se ignoran
+            if (!"RSA".equals(jwk.path("kty").asText())
+                    || (jwk.has("use") && !"sig".equals(jwk.path("use").asText()))
+                    || (jwk.has("alg") && !ALGORITHM.equals(jwk.path("alg").asText()))
+                    || !jwk.hasNonNull("kid")) {
+                continue;
+            }
+            BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.path("n").asText()));
+            BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.path("e").asText()));
+            parsed.put(jwk.path("kid").asText(), keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,75 @@
+package wallet_service.eci.edu.co.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Principals de Cognito ya verificados y decodificados, indexados por la firma del
+ * token. Cada entrada vence en el exp del token, así que una petición repetida con
+ * el mismo token cuesta una búsqueda en el mapa en lugar de verificar la firma y
+ * decodificar el JWT. La entrada
+ * guarda el token completo y solo se reutiliza si coincide, para que un token
+ * distinto con la misma firma no herede un principal ajeno.
+ */
+@Component
+public class CognitoPrincipalCache {
+
+    private record CachedPrincipal(String token, CognitoUserInfo userInfo) {
+    }
+
+    private final CognitoTokenDecoder cognitoTokenDecoder;
+    private final CognitoJwksVerifier jwksVerifier;
+    private final Cache<String, CachedPrincipal> principals;
+
+    public CognitoPrincipalCache(CognitoTokenDecoder cognitoTokenDecoder, CognitoJwksVerifier jwksVerifier,
+            @Value("${wallet.cache.principal.maximum-size:10000}") long maximumSize) {
+        this.cognitoTokenDecoder = cognitoTokenDecoder;
+        this.jwksVerifier = jwksVerifier;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(Expiry.creating((String signature, CachedPrincipal cached) -> untilExpiry(cached)))
+                .build();
+    }
+
+    /**
+     * Devuelve el principal del token, verificándolo y decodificándolo solo la primera vez
+     * @param token Token JWT de Cognito (sin "Bearer ")
+     * @return Optional con el principal, vacío si el token ya venció o no trae exp
+     * @throws io.jsonwebtoken.JwtException si el token está mal formado, su firma no es válida
+     *                                      o es de otro user pool, app client o token_use
+     */
+    public Optional<CognitoUserInfo> authenticate(String token) {
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        CachedPrincipal cached = principals.getIfPresent(signature);
+        if (cached != null && cached.token().equals(token)) {
+            return Optional.of(cached.userInfo());
+        }
+
+        boolean signatureVerified = jwksVerifier.verify(token);
+        CognitoUserInfo userInfo = cognitoTokenDecoder.extractUserInfo(token);
+        userInfo.setSignatureVerified(signatureVerified);
+        jwksVerifier.verifyClaims(userInfo);
+        if (!userInfo.isUnexpired()) {
+            return Optional.empty();
+        }
+        principals.put(signature, new CachedPrincipal(token, userInfo));
+        return Optional.of(userInfo);
+    }
+
+    public long size() {
+        return principals.estimatedSize();
+    }
+
+    private static Duration untilExpiry(CachedPrincipal cached) {
+        Duration remaining = Duration.between(Instant.now(), Instant.ofEpochSecond(cached.userInfo().getExpiresAt()));
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+}
@@ -1,21 +1,40 @@
 package wallet_service.eci.edu.co.util;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.JwtException;
 import org.springframework.stereotype.Component;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Component
 public class CognitoTokenDecoder {
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int INITIAL_BUFFER_SIZE = 2048;
+    private static final ThreadLocal<byte[]> PAYLOAD_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+    private static final int[] BASE64_URL = new int[128];
+
+    static {
+        Arrays.fill(BASE64_URL, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_URL[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final JsonFactory jsonFactory = new JsonFactory();
 
     /**
-     * Decodifica un token JWT de AWS Cognito sin verificar la firma
+     * Decodifica un token JWT de AWS Cognito sin verificar la firma (la verificación
+     * contra el JWKS está en CognitoJwksVerifier)
      * @param token Token JWT de Cognito
      * @return Claims del token
      * @throws JwtException si el token es inválido
@@ -27,8 +46,7 @@ public class CognitoTokenDecoder {
                 token = token.substring(7);
             }
 
-            // Parsear el token sin verificar la firma (ya que Cognito la maneja)
-            // En un entorno de producción, deberías verificar la firma con la clave pública de Cognito
+            // Parsear el token sin verificar la firma
             return Jwts.parserBuilder()
                     .build()
                     .parseClaimsJwt(token.substring(0, token.lastIndexOf('.') + 1))
@@ -45,35 +63,11 @@ public class CognitoTokenDecoder {
      */
     public CognitoUserInfo extractUserInfo(String token) {
         try {
-            // Separar las partes del JWT
-            String[] parts = token.split("\\.");
-            if (parts.length != 3) {
-                throw new JwtException("Token JWT malformado");
+            CognitoUserInfo userInfo = readPayload(token);
+            if (userInfo.getSub() == null || userInfo.getEmail() == null || userInfo.getName() == null) {
+                throw new JwtException("El token no trae sub, email o name");
             }
-
-            // Decodificar el payload (segunda parte)
-            String payload = new String(Base64.getUrlDecoder().decode(parts[1]));
-            JsonNode jsonNode = objectMapper.readTree(payload);
-
-            CognitoUserInfo userInfo = new CognitoUserInfo();
-            userInfo.setSub(jsonNode.get("sub").asText());
-            userInfo.setEmail(jsonNode.get("email").asText());
-            userInfo.setName(jsonNode.get("name").asText());
-            
             // Ya no extraemos el rol del token, viene del frontend
-
-            // Teléfono opcional
-            JsonNode phoneNode = jsonNode.get("phone_number");
-            if (phoneNode != null) {
-                userInfo.setPhoneNumber(phoneNode.asText());
-            }
-
-            // Nickname opcional
-            JsonNode nicknameNode = jsonNode.get("nickname");
-            if (nicknameNode != null) {
-                userInfo.setNickname(nicknameNode.asText());
-            }
-
             return userInfo;
         } catch (Exception e) {
             throw new JwtException("Error al extraer información del token: " + e.getMessage());
@@ -87,35 +81,170 @@ public class CognitoTokenDecoder {
      */
     public boolean isTokenValid(String token) {
         try {
-            String[] parts = token.split("\\.");
-            if (parts.length != 3) {
-                return false;
+            return readPayload(token).isUnexpired();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lee del payload solo los claims que usa el servicio. Las partes del JWT se
+     * ubican con indexOf, el Base64URL se decodifica en un buffer reutilizado por
+     * hilo y el JSON se recorre con el parser de streaming de Jackson, saltando los
+     * demás claims sin construir el árbol.
+     */
+    CognitoUserInfo readPayload(String token) throws IOException {
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            throw new JwtException("Token JWT malformado");
+        }
+
+        byte[] buffer = payloadBuffer(secondDot - firstDot - 1);
+        int length = decodeBase64Url(token, firstDot + 1, secondDot, buffer);
+
+        CognitoUserInfo userInfo = new CognitoUserInfo();
+        try (JsonParser parser = jsonFactory.createParser(buffer, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JwtException("El payload del token no es un objeto JSON");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String claim = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (claim) {
+                    case "sub" -> userInfo.setSub(readString(parser, value));
+                    case "email" -> userInfo.setEmail(readString(parser, value));
+                    case "name" -> userInfo.setName(readString(parser, value));
+                    // Teléfono y nickname opcionales
+                    case "phone_number" -> userInfo.setPhoneNumber(readString(parser, value));
+                    case "nickname" -> userInfo.setNickname(readString(parser, value));
+                    // Expiración (segundos epoch); sin ella el token no se considera válido
+                    case "exp" -> userInfo.setExpiresAt(readLong(parser, value));
+                    // Emisor, tipo de token y app client (los revisa CognitoJwksVerifier.verifyClaims)
+                    case "iss" -> userInfo.setIssuer(readString(parser, value));
+                    case "token_use" -> userInfo.setTokenUse(readString(parser, value));
+                    case "aud" -> userInfo.setAudience(readString(parser, value));
+                    // Grupos del user pool; de ellos sale el rol ADMIN
+                    case "cognito:groups" -> userInfo.setGroups(readStrings(parser, value));
+                    default -> parser.skipChildren();
+                }
             }
+        }
+        return userInfo;
+    }
+
+    /**
+     * Lee un claim escalar como texto. Un arreglo u objeto se salta completo (si no, el
+     * parser quedaría dentro de él y se perderían los claims siguientes) y se lee como null
+     */
+    private static String readString(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsString();
+    }
+
+    private static Long readLong(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsLong();
+    }
 
-            String payload = new String(Base64.getUrlDecoder().decode(parts[1]));
-            JsonNode jsonNode = objectMapper.readTree(payload);
-            
-            JsonNode expNode = jsonNode.get("exp");
-            if (expNode != null) {
-                long exp = expNode.asLong();
-                long currentTime = System.currentTimeMillis() / 1000;
-                return exp > currentTime;
+    /**
+     * Lee un claim de tipo arreglo de strings (o un string suelto) como lista
+     */
+    private static List<String> readStrings(JsonParser parser, JsonToken value) throws IOException {
+        List<String> strings = new ArrayList<>();
+        if (value != JsonToken.START_ARRAY) {
+            if (value == JsonToken.VALUE_STRING) {
+                strings.add(parser.getText());
             }
-            return false;
-        } catch (Exception e) {
-            return false;
+            parser.skipChildren();
+            return strings;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                strings.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * Buffer para el payload decodificado. Los hilos de plataforma (pool de Tomcat)
+     * reutilizan el suyo; un hilo virtual vive una sola petición, así que recibe
+     * un arreglo nuevo en lugar de dejar uno en su ThreadLocal.
+     */
+    private static byte[] payloadBuffer(int encodedLength) {
+        int required = encodedLength * 3 / 4 + 3;
+        if (Thread.currentThread().isVirtual()) {
+            return new byte[required];
         }
+        byte[] buffer = PAYLOAD_BUFFER.get();
+        if (buffer.length < required) {
+            buffer = new byte[Math.max(required, buffer.length * 2)];
+            PAYLOAD_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Decodifica Base64URL (con o sin relleno) de source[from, to) en target
+     * @return cantidad de bytes escritos
+     */
+    private static int decodeBase64Url(String source, int from, int to, byte[] target) {
+        while (to > from && source.charAt(to - 1) == '=') {
+            to--;
+        }
+        if ((to - from) % 4 == 1) {
+            // Un solo carácter final aporta 6 bits: no alcanza para un byte
+            throw new JwtException("Longitud Base64URL inválida en el token");
+        }
+        int written = 0;
+        int accumulator = 0;
+        int bits = 0;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            int sextet = c < 128 ? BASE64_URL[c] : -1;
+            if (sextet < 0) {
+                throw new JwtException("Carácter Base64URL inválido en el token");
+            }
+            accumulator = (accumulator << 6) | sextet;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                target[written++] = (byte) (accumulator >> bits);
+            }
+        }
+        return written;
     }
 
     /**
      * Clase interna para encapsular la información del usuario desde Cognito
      */
-    public static class CognitoUserInfo {
+    public static class CognitoUserInfo implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         private String sub;
         private String email;
         private String name;
         private String phoneNumber;
         private String nickname;
+        private Long expiresAt;
+        private List<String> groups = List.of();
+        private String issuer;
+        private String tokenUse;
+        private String audience;
+        // Lo marca CognitoPrincipalCache; sin firma verificada los claims no dan roles
+        private boolean signatureVerified;
 
         // Getters y Setters
         public String getSub() { return sub; }
@@ -133,6 +262,31 @@ public class CognitoTokenDecoder {
         public String getNickname() { return nickname; }
         public void setNickname(String nickname) { this.nickname = nickname; }
 
+        public Long getExpiresAt() { return expiresAt; }
+        public void setExpiresAt(Long expiresAt) { this.expiresAt = expiresAt; }
+
+        public List<String> getGroups() { return groups; }
+        public void setGroups(List<String> groups) { this.groups = List.copyOf(groups); }
+
+        public String getIssuer() { return issuer; }
+        public void setIssuer(String issuer) { this.issuer = issuer; }
+
+        public String getTokenUse() { return tokenUse; }
+        public void setTokenUse(String tokenUse) { this.tokenUse = tokenUse; }
+
+        public String getAudience() { return audience; }
+        public void setAudience(String audience) { this.audience = audience; }
+
+        public boolean isSignatureVerified() { return signatureVerified; }
+        public void setSignatureVerified(boolean signatureVerified) { this.signatureVerified = signatureVerified; }
+
+        /**
+         * @return true si el token trae exp y todavía no venció
+         */
+        public boolean isUnexpired() {
+            return expiresAt != null && expiresAt > System.currentTimeMillis() / 1000;
+        }
+
         @Override
         public String toString() {
             return "CognitoUserInfo{" +
@@ -141,6 +295,7 @@ public class CognitoTokenDecoder {
                     ", name='" + name + '\'' +
                     ", phoneNumber='" + phoneNumber + '\'' +
                     ", nickname='" + nickname + '\'' +
+                    ", groups=" + groups +
                     '}';
         }
     }
@@ -5,7 +5,7 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
@@ -13,17 +13,23 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 @Component
+@Profile("!reactive")
 public class CognitoTokenFilter extends OncePerRequestFilter {
 
-    private final CognitoTokenDecoder cognitoTokenDecoder;
+    /**
+     * Grupo del user pool de Cognito cuyos miembros reciben ROLE_ADMIN (endpoints /api/admin)
+     */
+    static final String ADMIN_GROUP = "admin";
+
+    private final CognitoPrincipalCache principalCache;
 
     @Autowired
-    public CognitoTokenFilter(CognitoTokenDecoder cognitoTokenDecoder) {
-        this.cognitoTokenDecoder = cognitoTokenDecoder;
+    public CognitoTokenFilter(CognitoPrincipalCache principalCache) {
+        this.principalCache = principalCache;
     }
 
     @Override
@@ -40,30 +46,24 @@ public class CognitoTokenFilter extends OncePerRequestFilter {
 
         final String authorizationHeader = request.getHeader("Authorization");
 
-        String sub = null;
-        String jwt = null;
+        Optional<CognitoTokenDecoder.CognitoUserInfo> userInfo = Optional.empty();
 
         if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            jwt = authorizationHeader.substring(7);
+            String jwt = authorizationHeader.substring(7);
             try {
-                // Validar que el token de Cognito sea válido
-                if (cognitoTokenDecoder != null && cognitoTokenDecoder.isTokenValid(jwt)) {
-                    CognitoTokenDecoder.CognitoUserInfo userInfo = cognitoTokenDecoder.extractUserInfo(jwt);
-                    sub = userInfo.getSub();
-                }
+                // Valida la expiración y decodifica el token una sola vez (cacheado hasta su exp)
+                userInfo = principalCache.authenticate(jwt);
             } catch (Exception e) {
                 logger.error("Error validating Cognito token", e);
             }
         }
 
-        if (sub != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+        if (userInfo.isPresent() && SecurityContextHolder.getContext().getAuthentication() == null) {
             try {
-                List<SimpleGrantedAuthority> authorities = new ArrayList<>();
-                // Ya no usamos el rol del token, asignar rol básico
-                authorities.add(new SimpleGrantedAuthority("ROLE_USER"));
+                List<SimpleGrantedAuthority> authorities = authoritiesOf(userInfo.get());
 
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        sub, null, authorities);
+                // El principal es el usuario decodificado; getName() sigue devolviendo el sub
+                CognitoAuthenticationToken authToken = new CognitoAuthenticationToken(userInfo.get(), authorities);
 
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authToken);
@@ -74,10 +74,23 @@ public class CognitoTokenFilter extends OncePerRequestFilter {
         chain.doFilter(request, response);
     }
 
+    /**
+     * Rol básico para todo token válido (el rol de estudiante o tutor viene del frontend)
+     * y ROLE_ADMIN para los miembros del grupo {@value #ADMIN_GROUP}, solo si la firma
+     * del token se verificó: con la verificación desactivada cualquiera podría declararse
+     * en el grupo. Compartido con CognitoTokenWebFilter
+     */
+    static List<SimpleGrantedAuthority> authoritiesOf(CognitoTokenDecoder.CognitoUserInfo userInfo) {
+        if (userInfo.isSignatureVerified() && userInfo.getGroups().contains(ADMIN_GROUP)) {
+            return List.of(new SimpleGrantedAuthority("ROLE_USER"), new SimpleGrantedAuthority("ROLE_ADMIN"));
+        }
+        return List.of(new SimpleGrantedAuthority("ROLE_USER"));
+    }
+
     /**
      * Determina si el filtro debe saltarse para ciertos endpoints
      */
-    private boolean shouldSkipFilter(String requestPath) {
+    static boolean shouldSkipFilter(String requestPath) {
         return requestPath.equals("/Api-user/process-cognito-user") ||
                requestPath.equals("/Api-user/users") ||
                requestPath.equals("/Api-user/public/") ||   
@@ -0,0 +1,51 @@
+package wallet_service.eci.edu.co.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Optional;
+
+/**
+ * Versión WebFlux de {@link CognitoTokenFilter} para el perfil "reactive". No se
+ * registra como bean: ReactiveSecurityConfig la agrega a la cadena de seguridad,
+ * así no se ejecuta además como filtro global de WebFlux.
+ */
+public class CognitoTokenWebFilter implements WebFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CognitoTokenWebFilter.class);
+
+    private final CognitoPrincipalCache principalCache;
+
+    public CognitoTokenWebFilter(CognitoPrincipalCache principalCache) {
+        this.principalCache = principalCache;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (CognitoTokenFilter.shouldSkipFilter(exchange.getRequest().getPath().value())) {
+            return chain.filter(exchange);
+        }
+
+        String authorizationHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorizationHeader == null || !authorizationHeader.startsWith("Bearer ")) {
+            return chain.filter(exchange);
+        }
+        // La verificación de firma (RSA) y el decodificado salen del event loop
+        return Mono.fromCallable(() -> principalCache.authenticate(authorizationHeader.substring(7)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(e -> {
+                    logger.error("Error validating Cognito token", e);
+                    return Mono.just(Optional.empty());
+                })
+                .flatMap(userInfo -> userInfo.isEmpty() ? chain.filter(exchange) : chain.filter(exchange)
+                        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(new CognitoAuthenticationToken(
+                                userInfo.get(), CognitoTokenFilter.authoritiesOf(userInfo.get())))));
+    }
+}
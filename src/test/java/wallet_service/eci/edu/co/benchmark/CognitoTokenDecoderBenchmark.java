@@ -0,0 +1,60 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Las tres operaciones de CognitoTokenDecoder sobre un mismo token: decodeToken
+ * (parser de jjwt), isTokenValid (solo exp) y extractUserInfo (claims del usuario).
+ * Los tokens son los de TokenClaimsBenchmark.
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="CognitoTokenDecoderBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CognitoTokenDecoderBenchmark {
+
+    @Param({"access", "id"})
+    public String tokenType;
+
+    private final CognitoTokenDecoder decoder = new CognitoTokenDecoder();
+    private String token;
+
+    @Setup
+    public void setUp() {
+        token = TokenClaimsBenchmark.cognitoToken(tokenType);
+    }
+
+    @Benchmark
+    public Claims decode() {
+        return decoder.decodeToken(token);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return decoder.isTokenValid(token);
+    }
+
+    @Benchmark
+    public CognitoUserInfo extract() {
+        return decoder.extractUserInfo(token);
+    }
+}
@@ -0,0 +1,160 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.repository.InMemoryTransactionRepository;
+import wallet_service.eci.edu.co.repository.InMemoryWalletRepository;
+import wallet_service.eci.edu.co.service.BookingOperationCache;
+import wallet_service.eci.edu.co.service.CompletedOperations;
+import wallet_service.eci.edu.co.service.WalletBalanceCache;
+import wallet_service.eci.edu.co.service.WalletMetrics;
+import wallet_service.eci.edu.co.service.WalletService;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Costo del logging en las operaciones calientes de WalletService (processPurchase,
+ * useTokens y getOrCreateWallet) con repositorios en memoria, para que el logging
+ * sea lo único que cambia entre modos:
+ * <ul>
+ * <li>sync: configuración actual de producción, wallet_service en DEBUG, todas las
+ * líneas por paso y escritura síncrona</li>
+ * <li>async-sampled: perfil async-logging, wallet_service en INFO, líneas por paso
+ * de 1 de cada 100 operaciones más el resumen, a través de un AsyncAppender
+ * acotado que no bloquea</li>
+ * </ul>
+ * Los eventos se escriben a un archivo en target/ con el patrón de consola de
+ * Spring Boot (sin colores), como la salida estándar redirigida de un contenedor.
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="LoggingModeBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(4)
+@Fork(1)
+public class LoggingModeBenchmark {
+
+    private static final int USERS = 1_000;
+    private static final String PATTERN = "%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p --- [%15.15t] %-40.40logger{39} : %m%n";
+
+    @Param({"sync", "async-sampled"})
+    public String mode;
+
+    private final AtomicLong sessions = new AtomicLong();
+    private LoggerContext loggerContext;
+    private WalletService walletService;
+
+    @Setup(Level.Trial)
+    public void configureLogging() {
+        boolean async = "async-sampled".equals(mode);
+        loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerContext.reset();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+
+        FileAppender<ILoggingEvent> file = new FileAppender<>();
+        file.setContext(loggerContext);
+        file.setName("FILE");
+        file.setFile("target/logging-benchmark-" + mode + ".log");
+        file.setAppend(false);
+        file.setEncoder(encoder);
+        file.start();
+
+        Appender<ILoggingEvent> appender = file;
+        if (async) {
+            // Mismos valores que logback-spring.xml con el perfil async-logging
+            AsyncAppender asyncAppender = new AsyncAppender();
+            asyncAppender.setContext(loggerContext);
+            asyncAppender.setName("ASYNC_FILE");
+            asyncAppender.setQueueSize(8192);
+            asyncAppender.setNeverBlock(true);
+            asyncAppender.setIncludeCallerData(false);
+            asyncAppender.addAppender(file);
+            asyncAppender.start();
+            appender = asyncAppender;
+        }
+
+        ch.qos.logback.classic.Logger root = loggerContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.setLevel(ch.qos.logback.classic.Level.INFO);
+        root.addAppender(appender);
+        loggerContext.getLogger("wallet_service.eci.edu.co")
+                .setLevel(async ? ch.qos.logback.classic.Level.INFO : ch.qos.logback.classic.Level.DEBUG);
+    }
+
+    /**
+     * Repositorios nuevos en cada iteración para que el ledger en memoria no crezca sin límite
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        InMemoryWalletRepository wallets = new InMemoryWalletRepository();
+        BookingOperationCache operationCache = new BookingOperationCache(10_000, Duration.ofMinutes(10));
+        InMemoryTransactionRepository ledger = new InMemoryTransactionRepository();
+        walletService = new WalletService(wallets.asRepository(),
+                ledger.asRepository(),
+                new WalletBalanceCache(10_000, Duration.ofSeconds(30)),
+                operationCache,
+                new WalletMetrics(new SimpleMeterRegistry(), operationCache,
+                        "async-sampled".equals(mode) ? 100 : 1),
+                ledger.idempotencyIndexes(), new CompletedOperations());
+        // Saldo de sobra para que useTokens nunca se quede sin tokens durante la iteración
+        for (int i = 0; i < USERS; i++) {
+            walletService.processPurchase("user-" + i, "STUDENT", 1_000_000_000, 0.0, "cs_seed_" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        loggerContext.stop();
+    }
+
+    @Benchmark
+    public Transaction processPurchase() {
+        return walletService.processPurchase(randomUser(), "STUDENT", 10, 50_000.0,
+                "cs_" + sessions.incrementAndGet());
+    }
+
+    @Benchmark
+    public boolean useTokens() {
+        return walletService.useTokens(randomUser() + "-student", 1, "Uso en tutoría");
+    }
+
+    @Benchmark
+    public Wallet getOrCreateWallet() {
+        return walletService.getOrCreateWallet(randomUser(), "STUDENT", "user@mail.escuelaing.edu.co");
+    }
+
+    private static String randomUser() {
+        return "user-" + ThreadLocalRandom.current().nextInt(USERS);
+    }
+}
@@ -0,0 +1,127 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import wallet_service.eci.edu.co.dto.TokenCheckResponse;
+import wallet_service.eci.edu.co.dto.WalletBalanceView;
+import wallet_service.eci.edu.co.repository.TransactionRepository;
+import wallet_service.eci.edu.co.repository.WalletRepository;
+import wallet_service.eci.edu.co.service.BookingOperationCache;
+import wallet_service.eci.edu.co.service.CompletedOperations;
+import wallet_service.eci.edu.co.service.IdempotencyIndexes;
+import wallet_service.eci.edu.co.service.WalletBalanceCache;
+import wallet_service.eci.edu.co.service.WalletMetrics;
+import wallet_service.eci.edu.co.service.WalletService;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compara el manejo de peticiones con un pool de hilos de plataforma (como el pool
+ * de workers de Tomcat, 200 por defecto) frente a un hilo virtual por petición.
+ * Cada petición es una verificación de saldo de WalletService cuya lectura en Mongo
+ * se simula con una latencia bloqueante fija; las claves no se repiten para que
+ * ninguna lectura salga del near-cache.
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="RequestExecutionBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class RequestExecutionBenchmark {
+
+    private static final int CONCURRENT_REQUESTS = 2000;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    @Param({"5", "20"})
+    public int mongoLatencyMs;
+
+    @Param({"200"})
+    public int platformPoolSize;
+
+    private final AtomicLong users = new AtomicLong();
+    private ExecutorService executor;
+    private WalletService walletService;
+
+    @Setup
+    public void setUp() {
+        executor = "virtual".equals(mode)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(platformPoolSize);
+        BookingOperationCache operationCache = new BookingOperationCache(10_000, Duration.ofMinutes(10));
+        walletService = new WalletService(slowWalletRepository(mongoLatencyMs), unusedRepository(),
+                new WalletBalanceCache(10_000, Duration.ofSeconds(30)),
+                operationCache,
+                new WalletMetrics(new SimpleMeterRegistry(), operationCache, 1),
+                new IdempotencyIndexes(), new CompletedOperations());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_REQUESTS)
+    public int checkTokens() throws Exception {
+        List<Future<TokenCheckResponse>> responses = new ArrayList<>(CONCURRENT_REQUESTS);
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            String userId = "user-" + users.incrementAndGet();
+            responses.add(executor.submit(() -> walletService.checkTokens(userId, "STUDENT", 1)));
+        }
+        int enough = 0;
+        for (Future<TokenCheckResponse> response : responses) {
+            if (response.get().isHasEnoughTokens()) {
+                enough++;
+            }
+        }
+        return enough;
+    }
+
+    /**
+     * Repositorio de wallets cuya proyección de saldo bloquea el hilo como una consulta a Mongo
+     */
+    private static WalletRepository slowWalletRepository(int latencyMs) {
+        return (WalletRepository) Proxy.newProxyInstance(WalletRepository.class.getClassLoader(),
+                new Class<?>[] {WalletRepository.class}, (proxy, method, args) -> {
+                    if (!"findBalanceByUserId".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    Thread.sleep(latencyMs);
+                    return Optional.of(new WalletBalanceView(10, LocalDateTime.now()));
+                });
+    }
+
+    private static TransactionRepository unusedRepository() {
+        return (TransactionRepository) Proxy.newProxyInstance(TransactionRepository.class.getClassLoader(),
+                new Class<?>[] {TransactionRepository.class}, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
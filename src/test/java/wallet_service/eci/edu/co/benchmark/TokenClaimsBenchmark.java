@@ -0,0 +1,157 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.JwtException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracción de claims de CognitoTokenDecoder (parser de streaming sobre un buffer
+ * reutilizado) frente a la implementación anterior (split con regex, String
+ * intermedio y árbol JsonNode), con tokens del tamaño de los de Cognito: un access
+ * token (~1.2 KB), un id token (~1.6 KB) y un id token con grupos y atributos
+ * personalizados (~2.5 KB).
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="TokenClaimsBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenClaimsBenchmark {
+
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+
+    @Param({"access", "id", "id-with-groups"})
+    public String tokenType;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CognitoTokenDecoder decoder = new CognitoTokenDecoder();
+    private String token;
+
+    @Setup
+    public void setUp() {
+        token = cognitoToken(tokenType);
+    }
+
+    @Benchmark
+    public CognitoUserInfo streaming() {
+        return decoder.extractUserInfo(token);
+    }
+
+    @Benchmark
+    public CognitoUserInfo jsonTree() {
+        return treeExtractUserInfo(token);
+    }
+
+    /**
+     * Implementación anterior de CognitoTokenDecoder.extractUserInfo, como línea base
+     */
+    private CognitoUserInfo treeExtractUserInfo(String token) {
+        try {
+            String[] parts = token.split("\\.");
+            if (parts.length != 3) {
+                throw new JwtException("Token JWT malformado");
+            }
+
+            String payload = new String(Base64.getUrlDecoder().decode(parts[1]));
+            JsonNode jsonNode = objectMapper.readTree(payload);
+
+            CognitoUserInfo userInfo = new CognitoUserInfo();
+            userInfo.setSub(jsonNode.get("sub").asText());
+            userInfo.setEmail(jsonNode.get("email").asText());
+            userInfo.setName(jsonNode.get("name").asText());
+
+            JsonNode phoneNode = jsonNode.get("phone_number");
+            if (phoneNode != null) {
+                userInfo.setPhoneNumber(phoneNode.asText());
+            }
+            JsonNode nicknameNode = jsonNode.get("nickname");
+            if (nicknameNode != null) {
+                userInfo.setNickname(nicknameNode.asText());
+            }
+            JsonNode expNode = jsonNode.get("exp");
+            if (expNode != null) {
+                userInfo.setExpiresAt(expNode.asLong());
+            }
+            return userInfo;
+        } catch (Exception e) {
+            throw new JwtException("Error al extraer información del token: " + e.getMessage());
+        }
+    }
+
+    static String cognitoToken(String tokenType) {
+        long now = System.currentTimeMillis() / 1000;
+        String pool = "https://cognito-idp.us-east-1.amazonaws.com/us-east-1_AbCdEfGhI";
+        String sub = UUID.nameUUIDFromBytes(tokenType.getBytes(StandardCharsets.UTF_8)).toString();
+        StringBuilder payload = new StringBuilder("{")
+                .append("\"sub\":\"").append(sub).append("\",")
+                .append("\"iss\":\"").append(pool).append("\",")
+                .append("\"client_id\":\"4k1c2s9f8o7u6t5r4e3w2q1a0z\",")
+                .append("\"origin_jti\":\"").append(UUID.randomUUID()).append("\",")
+                .append("\"event_id\":\"").append(UUID.randomUUID()).append("\",")
+                .append("\"auth_time\":").append(now).append(',')
+                .append("\"exp\":").append(now + 3600).append(',')
+                .append("\"iat\":").append(now).append(',')
+                .append("\"jti\":\"").append(UUID.randomUUID()).append("\",")
+                .append("\"username\":\"").append(sub).append("\",")
+                .append("\"email\":\"estudiante@mail.escuelaing.edu.co\",")
+                .append("\"name\":\"Estudiante de Prueba\"");
+        if (tokenType.startsWith("id")) {
+            payload.append(",\"aud\":\"4k1c2s9f8o7u6t5r4e3w2q1a0z\"")
+                    .append(",\"token_use\":\"id\"")
+                    .append(",\"email_verified\":true")
+                    .append(",\"phone_number\":\"+573001234567\"")
+                    .append(",\"phone_number_verified\":false")
+                    .append(",\"nickname\":\"estudiante\"")
+                    .append(",\"cognito:username\":\"").append(sub).append('"')
+                    .append(",\"identities\":[{\"userId\":\"109876543210987654321\",\"providerName\":\"Google\"")
+                    .append(",\"providerType\":\"Google\",\"issuer\":null,\"primary\":\"true\"")
+                    .append(",\"dateCreated\":\"").append(now * 1000).append("\"}]");
+        } else {
+            payload.append(",\"token_use\":\"access\"")
+                    .append(",\"scope\":\"aws.cognito.signin.user.admin openid profile email phone\"")
+                    .append(",\"version\":2");
+        }
+        if (tokenType.equals("id-with-groups")) {
+            payload.append(",\"cognito:groups\":[");
+            for (int i = 0; i < 12; i++) {
+                payload.append(i == 0 ? "" : ",").append("\"us-east-1_AbCdEfGhI_curso-").append(1000 + i).append('"');
+            }
+            payload.append("],\"cognito:roles\":[\"arn:aws:iam::123456789012:role/estudiantes\"")
+                    .append(",\"arn:aws:iam::123456789012:role/monitores\"]")
+                    .append(",\"custom:programa\":\"Ingeniería de Sistemas\"")
+                    .append(",\"custom:semestre\":\"7\"")
+                    .append(",\"custom:preferencias\":\"{\\\"idioma\\\":\\\"es\\\",\\\"notificaciones\\\":true}\"");
+        }
+        payload.append('}');
+
+        String header = "{\"kid\":\"abcdefghijklmnopqrstuvwxyz0123456789ABCDEFG=\",\"alg\":\"RS256\"}";
+        byte[] signature = new byte[256];
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = (byte) (i * 31);
+        }
+        return B64.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + B64.encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8)) + "."
+                + B64.encodeToString(signature);
+    }
+}
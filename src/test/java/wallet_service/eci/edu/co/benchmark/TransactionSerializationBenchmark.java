@@ -0,0 +1,90 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import wallet_service.eci.edu.co.model.Transaction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialización con Jackson de listas de Transaction como las del historial y la
+ * exportación, con el ObjectMapper configurado como el de Spring Boot (módulo de
+ * java.time). Se escribe a un OutputStream que descarta los bytes para medir
+ * solo la serialización y no el crecimiento de un buffer.
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="TransactionSerializationBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionSerializationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<Transaction> transactions;
+    private CountingOutputStream out;
+
+    @Setup
+    public void setUp() {
+        transactions = sampleTransactions(size);
+        out = new CountingOutputStream();
+    }
+
+    @Benchmark
+    public long writeList() throws IOException {
+        out.count = 0;
+        objectMapper.writeValue(out, transactions);
+        return out.count;
+    }
+
+    static List<Transaction> sampleTransactions(int size) {
+        List<Transaction> sample = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String userId = "9df3b01c-60df-30d1-b843-841ff0d4482c-student";
+            Transaction transaction = i % 3 == 0
+                    ? Transaction.createPurchase(userId, "665f1c2e9b1d4a3f2c8e7d6b", 10, 50_000.0, "cs_test_" + i)
+                    : Transaction.createUsage(userId, "665f1c2e9b1d4a3f2c8e7d6b", 5, "Pago por reservación: res-" + i);
+            transaction.setId(String.format("%024x", i));
+            transaction.setBookingId(i % 3 == 0 ? null : "res-" + i);
+            transaction.setBalanceChange(i % 3 == 0 ? 10 : -5);
+            transaction.setBalanceAfter(100 + i);
+            transaction.complete();
+            sample.add(transaction);
+        }
+        return sample;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutaciones de Wallet y fábricas de Transaction. Ambas toman LocalDateTime.now(),
+ * que suele ser lo más caro de cada llamada. Cada hilo trabaja sobre su propia
+ * wallet, que se recrea en cada iteración; useTokens alterna con addTokens para
+ * que el saldo no se agote.
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="WalletModelBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletModelBenchmark {
+
+    private static final String USER_ID = "9df3b01c-60df-30d1-b843-841ff0d4482c";
+    private static final String WALLET_ID = "665f1c2e9b1d4a3f2c8e7d6b";
+
+    private Wallet wallet;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        wallet = new Wallet(USER_ID, "STUDENT", "estudiante@mail.escuelaing.edu.co");
+        wallet.addTokens(1_000);
+    }
+
+    @Benchmark
+    public Integer addTokens() {
+        wallet.addTokens(5);
+        return wallet.getTokenBalance();
+    }
+
+    @Benchmark
+    public boolean useAndRestoreTokens() {
+        boolean used = wallet.useTokens(5);
+        wallet.addTokens(5);
+        return used;
+    }
+
+    @Benchmark
+    public Transaction createPurchase() {
+        return Transaction.createPurchase(USER_ID, WALLET_ID, 10, 50_000.0, "cs_test_a1b2c3d4e5f6");
+    }
+
+    @Benchmark
+    public Transaction createUsage() {
+        return Transaction.createUsage(USER_ID, WALLET_ID, 5, "Pago por reservación: res-123");
+    }
+}
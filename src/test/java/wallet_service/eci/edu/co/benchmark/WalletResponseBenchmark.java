@@ -0,0 +1,103 @@
+package wallet_service.eci.edu.co.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import wallet_service.eci.edu.co.controller.WalletController;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.repository.TransactionRepository;
+import wallet_service.eci.edu.co.repository.WalletRepository;
+import wallet_service.eci.edu.co.service.BookingOperationCache;
+import wallet_service.eci.edu.co.service.CompletedOperations;
+import wallet_service.eci.edu.co.service.IdempotencyIndexes;
+import wallet_service.eci.edu.co.service.WalletBalanceCache;
+import wallet_service.eci.edu.co.service.WalletMetrics;
+import wallet_service.eci.edu.co.service.WalletService;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Respuestas de WalletController construidas con Map.of: el error de validación de
+ * /transfer y la respuesta de /process-purchase (con WalletService reemplazado por
+ * uno que devuelve una transacción fija), cada una sola y serializada a JSON con el
+ * ObjectMapper configurado como el de Spring Boot.
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="WalletResponseBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletResponseBenchmark {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private WalletController controller;
+    private Map<String, Object> invalidTransfer;
+    private Map<String, Object> purchase;
+
+    @Setup
+    public void setUp() {
+        Transaction transaction = TransactionSerializationBenchmark.sampleTransactions(1).get(0);
+        BookingOperationCache operationCache = new BookingOperationCache(10, Duration.ofMinutes(10));
+        WalletService walletService = new WalletService(unused(WalletRepository.class),
+                unused(TransactionRepository.class),
+                new WalletBalanceCache(10, Duration.ofSeconds(30)),
+                operationCache,
+                new WalletMetrics(new SimpleMeterRegistry(), operationCache, 1),
+                new IdempotencyIndexes(), new CompletedOperations()) {
+            @Override
+            public Transaction processPurchase(String actualUserId, String role, Integer tokens, Double amount,
+                    String stripeSessionId) {
+                return transaction;
+            }
+        };
+        controller = new WalletController(walletService, null);
+        invalidTransfer = Map.of("fromUserId", "9df3b01c-60df-30d1-b843-841ff0d4482c",
+                "toUserId", "b80bb774-0288-3da1-b201-890375a60c8f", "reservationId", "res-1", "tokens", 0);
+        purchase = Map.of("userId", "9df3b01c-60df-30d1-b843-841ff0d4482c", "tokens", 10,
+                "amount", 50_000, "stripeSessionId", "cs_test_0");
+    }
+
+    @Benchmark
+    public ResponseEntity<Map<String, Object>> transferValidationError() {
+        return controller.transferTokens(null, invalidTransfer);
+    }
+
+    @Benchmark
+    public byte[] transferValidationErrorJson() throws Exception {
+        return objectMapper.writeValueAsBytes(controller.transferTokens(null, invalidTransfer).getBody());
+    }
+
+    @Benchmark
+    public ResponseEntity<Map<String, Object>> processPurchase() {
+        return controller.processPurchase(purchase);
+    }
+
+    @Benchmark
+    public byte[] processPurchaseJson() throws Exception {
+        return objectMapper.writeValueAsBytes(controller.processPurchase(purchase).getBody());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unused(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package wallet_service.eci.edu.co.config;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MongoCommandProfilerTest {
+
+    private static final ConnectionDescription CONNECTION = new ConnectionDescription(
+            new ServerId(new ClusterId(), new ServerAddress()));
+
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private SimpleMeterRegistry registry;
+    private MongoCommandProfiler profiler;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        // Sin MongoTemplate: el explain falla y el fallo queda como plan de la forma
+        profiler = new MongoCommandProfiler(registry,
+                new StaticListableBeanFactory().getBeanProvider(MongoTemplate.class),
+                Runnable::run, Duration.ofMillis(100), 3, true, Duration.ofMinutes(10));
+    }
+
+    @Test
+    void recordsLatencyByCommandCollectionAndRepositoryMethod() {
+        Greeter repository = repositoryProxy(() -> run(
+                "{find: 'wallets', filter: {userId: 'abc-student'}, $db: 'wallet'}", 5));
+        repository.findByUserId();
+        run("{find: 'wallets', filter: {userId: 'abc-student'}, $db: 'wallet'}", 5);
+
+        Timer tagged = registry.find("mongodb.command")
+                .tags("command", "find", "collection", "wallets", "origin", "Greeter.findByUserId")
+                .timer();
+        Timer untagged = registry.find("mongodb.command").tags("origin", "none").timer();
+        assertNotNull(tagged);
+        assertNotNull(untagged);
+        assertEquals(1, tagged.count());
+        assertEquals(1, untagged.count());
+        assertEquals(0, profiler.slowQueryCount());
+    }
+
+    @Test
+    void capturesSlowQueriesWithShapeAndPlan() {
+        run("{findAndModify: 'wallets', query: {userId: 'abc-student', tokenBalance: {$gte: 5}}, "
+                + "update: {$inc: {tokenBalance: -5}}, $db: 'wallet'}", 250);
+        run("{insert: 'transactions', documents: [{userId: 'abc-student'}], $db: 'wallet'}", 250);
+
+        assertEquals(1, profiler.slowQueryCount());
+        Map<String, Object> slow = profiler.recentSlowQueries(10).get(0);
+        assertEquals("findAndModify", slow.get("command"));
+        assertEquals("wallets", slow.get("collection"));
+        assertEquals("filter: {userId: ?, tokenBalance: {$gte: ?}}", slow.get("shape"));
+        assertTrue(((String) slow.get("plan")).startsWith("EXPLAIN_FAILED"));
+    }
+
+    @Test
+    void keepsOnlyTheMostRecentSlowQueries() {
+        for (int i = 0; i < 5; i++) {
+            run("{find: 'transactions', filter: {bookingId: 'bk-" + i + "'}, sort: {createdAt: -1}}", 150 + i);
+        }
+
+        List<Map<String, Object>> recent = profiler.recentSlowQueries(10);
+        assertEquals(5, profiler.slowQueryCount());
+        assertEquals(3, recent.size());
+        assertEquals(154.0, recent.get(0).get("durationMs"));
+        assertEquals("filter: {bookingId: ?}, sort: {\"createdAt\": -1}", recent.get(0).get("shape"));
+    }
+
+    @Test
+    void shapeKeepsOperatorsAndNestedConditions() {
+        BsonDocument filter = BsonDocument.parse("{$and: [{userId: 'u'}, {type: 'USAGE'}, "
+                + "{$or: [{createdAt: {$lt: 1}}, {createdAt: 1, _id: {$lt: 'x'}}]}], bookingId: {$in: ['a', 'b']}}");
+
+        assertEquals("{$and: [{userId: ?}, {type: ?}, {$or: [{createdAt: {$lt: ?}}, {createdAt: ?, _id: {$lt: ?}}]}], "
+                + "bookingId: {$in: [?]}}", MongoCommandProfiler.shapeOf(filter));
+    }
+
+    @Test
+    void summarizesWinningPlanIncludingSbePlans() {
+        Document classic = Document.parse("{queryPlanner: {winningPlan: {stage: 'FETCH', "
+                + "inputStage: {stage: 'IXSCAN', indexName: 'userId_1_createdAt_-1'}}}}");
+        Document sbe = Document.parse("{queryPlanner: {winningPlan: {queryPlan: {stage: 'COLLSCAN'}}}}");
+
+        assertEquals("FETCH <- IXSCAN userId_1_createdAt_-1", MongoCommandProfiler.summarizePlan(classic));
+        assertEquals("COLLSCAN", MongoCommandProfiler.summarizePlan(sbe));
+    }
+
+    private void run(String command, long elapsedMs) {
+        BsonDocument document = BsonDocument.parse(command);
+        String name = document.getFirstKey();
+        int requestId = requestIds.incrementAndGet();
+        profiler.commandStarted(new CommandStartedEvent(null, 1, requestId, CONNECTION, "wallet", name, document));
+        profiler.commandSucceeded(new CommandSucceededEvent(null, 1, requestId, CONNECTION, "wallet", name,
+                new BsonDocument(), TimeUnit.MILLISECONDS.toNanos(elapsedMs)));
+    }
+
+    /** Repositorio de prueba; el nombre del método es el que aparece en la etiqueta origin */
+    interface Greeter {
+        void findByUserId();
+    }
+
+    private static Greeter repositoryProxy(Runnable body) {
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.setInterfaces(Greeter.class);
+        proxyFactory.addAdvice(MongoCommandProfiler.originInterceptor(Greeter.class));
+        proxyFactory.addAdvice((MethodInterceptor) (MethodInvocation invocation) -> {
+            body.run();
+            return null;
+        });
+        return (Greeter) proxyFactory.getProxy();
+    }
+}
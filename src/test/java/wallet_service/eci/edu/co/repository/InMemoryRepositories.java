@@ -0,0 +1,89 @@
+package wallet_service.eci.edu.co.repository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Expone un almacén en memoria como la interfaz de repositorio de Spring Data. Cada
+ * llamada se despacha al método público del almacén con el mismo nombre y
+ * parámetros; los métodos que el almacén no implementa lanzan
+ * UnsupportedOperationException, así una prueba que toque una consulta no simulada
+ * falla de forma explícita. La latencia opcional bloquea el hilo antes de cada
+ * llamada, como un viaje de ida y vuelta a Mongo.
+ */
+final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    static <T> T proxy(Class<T> repositoryType, Object store, Duration latency) {
+        long latencyNanos = latency.toNanos();
+        Map<Method, Method> targets = new ConcurrentHashMap<>();
+        Object repository = Proxy.newProxyInstance(repositoryType.getClassLoader(), new Class<?>[] {repositoryType},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return switch (method.getName()) {
+                            case "equals" -> proxy == args[0];
+                            case "hashCode" -> System.identityHashCode(proxy);
+                            default -> repositoryType.getSimpleName() + " en memoria";
+                        };
+                    }
+                    Method target = targets.computeIfAbsent(method, m -> resolve(store.getClass(), m));
+                    if (latencyNanos > 0) {
+                        LockSupport.parkNanos(latencyNanos);
+                    }
+                    try {
+                        return target.invoke(store, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        return repositoryType.cast(repository);
+    }
+
+    /**
+     * Busca el método del almacén. Los métodos genéricos de MongoRepository
+     * (insert, save) se borran a Object, así que si no hay coincidencia exacta se
+     * acepta un único método con el mismo nombre y cantidad de parámetros.
+     */
+    private static Method resolve(Class<?> storeType, Method method) {
+        try {
+            return storeType.getMethod(method.getName(), method.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            Method match = null;
+            for (Method candidate : storeType.getMethods()) {
+                if (candidate.getName().equals(method.getName())
+                        && candidate.getParameterCount() == method.getParameterCount()
+                        && accepts(method.getParameterTypes(), candidate.getParameterTypes())) {
+                    if (match != null) {
+                        throw new IllegalStateException("Método ambiguo en " + storeType.getSimpleName() + ": "
+                                + method.getName());
+                    }
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                throw new UnsupportedOperationException(
+                        storeType.getSimpleName() + " no implementa " + method.getName());
+            }
+            return match;
+        }
+    }
+
+    private static boolean accepts(Class<?>[] declared, Class<?>[] candidate) {
+        for (int i = 0; i < declared.length; i++) {
+            if (declared[i] != Object.class && !candidate[i].isAssignableFrom(declared[i])) {
+                return false;
+            }
+            if (declared[i] == Object.class && Iterable.class.isAssignableFrom(candidate[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,264 @@
+package wallet_service.eci.edu.co.repository;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.DuplicateKeyException;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Transaction.TransactionStatus;
+import wallet_service.eci.edu.co.model.Transaction.TransactionType;
+import wallet_service.eci.edu.co.service.IdempotencyIndexes;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * {@link TransactionRepository} en memoria para pruebas sin Mongo. Reproduce los
+ * índices únicos que crea TransactionIdempotencyIndexMigration, (bookingId, userId,
+ * type) para los asientos con reservación y stripeSessionId, y lanza
+ * DuplicateKeyException como el driver; sin ellos (una base donde la migración aún
+ * no creó los índices) solo _id es único. También indexa operationId para que las
+ * búsquedas por operación no recorran todo el ledger. Las escrituras se serializan
+ * con un solo monitor para mantener los índices consistentes; la latencia simulada
+ * se aplica fuera de él.
+ */
+public class InMemoryTransactionRepository {
+
+    private final Map<String, Transaction> transactions = new HashMap<>();
+    private final Map<String, String> bookingIndex = new HashMap<>();
+    private final Map<String, String> stripeSessionIndex = new HashMap<>();
+    private final Map<String, Set<String>> operationIndex = new HashMap<>();
+    private final boolean uniqueIndexes;
+
+    public InMemoryTransactionRepository() {
+        this(true);
+    }
+
+    /**
+     * @param uniqueIndexes false para simular la colección antes de los índices únicos de idempotencia
+     */
+    public InMemoryTransactionRepository(boolean uniqueIndexes) {
+        this.uniqueIndexes = uniqueIndexes;
+    }
+
+    /**
+     * Estado de índices que corresponde a este repositorio: confirmados si aplica la unicidad
+     */
+    public IdempotencyIndexes idempotencyIndexes() {
+        IdempotencyIndexes indexes = new IdempotencyIndexes();
+        if (uniqueIndexes) {
+            indexes.confirmBookingIndex();
+            indexes.confirmStripeSessionIndex();
+        }
+        return indexes;
+    }
+
+    public TransactionRepository asRepository() {
+        return asRepository(Duration.ZERO);
+    }
+
+    /**
+     * @param latency Espera antes de cada llamada al repositorio (simula el viaje a Mongo)
+     */
+    public TransactionRepository asRepository(Duration latency) {
+        return InMemoryRepositories.proxy(TransactionRepository.class, this, latency);
+    }
+
+    public synchronized Transaction insert(Transaction entry) {
+        assignId(entry);
+        checkUnique(entry);
+        store(entry);
+        return entry;
+    }
+
+    /**
+     * Inserción ordenada: los asientos anteriores al duplicado quedan insertados
+     */
+    public synchronized List<Transaction> insert(Iterable<Transaction> entries) {
+        List<Transaction> inserted = new ArrayList<>();
+        for (Transaction entry : entries) {
+            inserted.add(insert(entry));
+        }
+        return inserted;
+    }
+
+    public synchronized Transaction save(Transaction entry) {
+        if (entry.getId() != null && transactions.containsKey(entry.getId())) {
+            unindex(transactions.get(entry.getId()));
+            store(entry);
+            return entry;
+        }
+        return insert(entry);
+    }
+
+    public synchronized void completeOperation(List<Transaction> entries) {
+        for (Transaction entry : entries) {
+            entry.complete();
+            Transaction stored = transactions.get(entry.getId());
+            if (stored != null) {
+                stored.setStatus(entry.getStatus());
+                stored.setCompletedAt(entry.getCompletedAt());
+                stored.setWalletId(entry.getWalletId());
+                stored.setBalanceAfter(entry.getBalanceAfter());
+            }
+        }
+    }
+
+    /**
+     * Inserción no ordenada: se omiten los duplicados y se insertan los demás
+     */
+    public synchronized Set<String> insertIgnoringDuplicates(List<Transaction> entries) {
+        Set<String> rejected = new LinkedHashSet<>();
+        for (Transaction entry : entries) {
+            try {
+                insert(entry);
+            } catch (DuplicateKeyException e) {
+                rejected.add(entry.getOperationId());
+            }
+        }
+        return rejected;
+    }
+
+    public synchronized long deleteByOperationId(String operationId) {
+        return deleteByOperationIdIn(List.of(operationId));
+    }
+
+    public synchronized long deleteByOperationIdIn(Collection<String> operationIds) {
+        List<Transaction> deleted = byOperation(operationIds);
+        for (Transaction entry : deleted) {
+            transactions.remove(entry.getId());
+            unindex(entry);
+        }
+        return deleted.size();
+    }
+
+    public synchronized Optional<Transaction> findByStripeSessionId(String stripeSessionId) {
+        return Optional.ofNullable(stripeSessionIndex.get(stripeSessionId)).map(transactions::get).map(this::copy);
+    }
+
+    public synchronized Optional<Transaction> findFirstByBookingIdAndUserIdAndType(String bookingId, String userId,
+            TransactionType type) {
+        return Optional.ofNullable(bookingIndex.get(bookingKey(bookingId, userId, type)))
+                .map(transactions::get).map(this::copy);
+    }
+
+    public synchronized List<Transaction> findByOperationId(String operationId) {
+        return byOperation(List.of(operationId)).stream().map(this::copy).toList();
+    }
+
+    public synchronized List<Transaction> findByOperationIdIn(Collection<String> operationIds) {
+        return byOperation(operationIds).stream().map(this::copy).toList();
+    }
+
+    public List<Transaction> findByBookingId(String bookingId) {
+        return find(entry -> bookingId.equals(entry.getBookingId()));
+    }
+
+    public List<Transaction> findByBookingIdInAndType(Collection<String> bookingIds, TransactionType type) {
+        return find(entry -> entry.getType() == type && bookingIds.contains(entry.getBookingId()));
+    }
+
+    public List<Transaction> findTop100ByStatusAndOperationIdIsNotNullAndCreatedAtBefore(TransactionStatus status,
+            LocalDateTime createdAt) {
+        return find(entry -> entry.getStatus() == status && entry.getOperationId() != null
+                && entry.getCreatedAt().isBefore(createdAt)).stream().limit(100).toList();
+    }
+
+    public List<Transaction> findByUserIdOrderByCreatedAtDesc(String userId) {
+        return find(entry -> userId.equals(entry.getUserId())).stream()
+                .sorted(Comparator.comparing(Transaction::getCreatedAt).reversed())
+                .toList();
+    }
+
+    public List<Transaction> findAll() {
+        return find(entry -> true);
+    }
+
+    public synchronized long count() {
+        return transactions.size();
+    }
+
+    private synchronized List<Transaction> find(Predicate<Transaction> filter) {
+        return transactions.values().stream().filter(filter).map(this::copy).toList();
+    }
+
+    private List<Transaction> byOperation(Collection<String> operationIds) {
+        List<Transaction> found = new ArrayList<>();
+        for (String operationId : operationIds) {
+            operationIndex.getOrDefault(operationId, Set.of()).forEach(id -> found.add(transactions.get(id)));
+        }
+        return found;
+    }
+
+    private void checkUnique(Transaction entry) {
+        if (transactions.containsKey(entry.getId())) {
+            throw new DuplicateKeyException("E11000 duplicate key: _id " + entry.getId());
+        }
+        if (!uniqueIndexes) {
+            return;
+        }
+        if (entry.getBookingId() != null
+                && bookingIndex.containsKey(bookingKey(entry.getBookingId(), entry.getUserId(), entry.getType()))) {
+            throw new DuplicateKeyException("E11000 duplicate key: booking_user_type_idx " + entry.getBookingId());
+        }
+        if (entry.getStripeSessionId() != null && stripeSessionIndex.containsKey(entry.getStripeSessionId())) {
+            throw new DuplicateKeyException("E11000 duplicate key: stripeSessionId " + entry.getStripeSessionId());
+        }
+    }
+
+    private void store(Transaction entry) {
+        Transaction stored = copy(entry);
+        transactions.put(stored.getId(), stored);
+        if (stored.getBookingId() != null) {
+            bookingIndex.putIfAbsent(bookingKey(stored.getBookingId(), stored.getUserId(), stored.getType()),
+                    stored.getId());
+        }
+        if (stored.getStripeSessionId() != null) {
+            stripeSessionIndex.putIfAbsent(stored.getStripeSessionId(), stored.getId());
+        }
+        if (stored.getOperationId() != null) {
+            operationIndex.computeIfAbsent(stored.getOperationId(), k -> new LinkedHashSet<>()).add(stored.getId());
+        }
+    }
+
+    private void unindex(Transaction entry) {
+        if (entry.getBookingId() != null) {
+            bookingIndex.remove(bookingKey(entry.getBookingId(), entry.getUserId(), entry.getType()), entry.getId());
+        }
+        if (entry.getStripeSessionId() != null) {
+            stripeSessionIndex.remove(entry.getStripeSessionId(), entry.getId());
+        }
+        if (entry.getOperationId() != null) {
+            Set<String> ids = operationIndex.get(entry.getOperationId());
+            if (ids != null && ids.remove(entry.getId()) && ids.isEmpty()) {
+                operationIndex.remove(entry.getOperationId());
+            }
+        }
+    }
+
+    private static void assignId(Transaction entry) {
+        if (entry.getId() == null) {
+            entry.setId(new ObjectId().toHexString());
+        }
+    }
+
+    private static String bookingKey(String bookingId, String userId, TransactionType type) {
+        return bookingId + "|" + userId + "|" + Objects.toString(type);
+    }
+
+    private Transaction copy(Transaction entry) {
+        Transaction copy = new Transaction();
+        BeanUtils.copyProperties(entry, copy);
+        return copy;
+    }
+}
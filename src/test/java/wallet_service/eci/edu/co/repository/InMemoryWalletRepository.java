@@ -0,0 +1,293 @@
+package wallet_service.eci.edu.co.repository;
+
+import org.springframework.beans.BeanUtils;
+import wallet_service.eci.edu.co.dto.WalletBalanceView;
+import wallet_service.eci.edu.co.model.Transaction.TransactionType;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * {@link WalletRepository} en memoria para pruebas sin Mongo. Cada mutación es
+ * atómica sobre su wallet (ConcurrentHashMap.compute), con los mismos filtros que
+ * los findAndModify de {@link WalletRepositoryCustomImpl}: saldo suficiente para
+ * los cargos y marcador de operación en recentOperations. Cada variación de saldo
+ * suma a los contadores (rollups) como el $inc de {@link WalletUpdates}. Las
+ * lecturas devuelven copias, como los documentos que llegan de Mongo.
+ */
+public class InMemoryWalletRepository {
+
+    private final ConcurrentHashMap<String, Wallet> wallets = new ConcurrentHashMap<>();
+
+    public WalletRepository asRepository() {
+        return asRepository(Duration.ZERO);
+    }
+
+    /**
+     * @param latency Espera antes de cada llamada al repositorio (simula el viaje a Mongo)
+     */
+    public WalletRepository asRepository(Duration latency) {
+        return InMemoryRepositories.proxy(WalletRepository.class, this, latency);
+    }
+
+    public Wallet findOrCreate(String actualUserId, String role, String email) {
+        AtomicReference<Wallet> result = new AtomicReference<>();
+        wallets.compute(walletUserId(actualUserId, role), (k, current) -> {
+            Wallet target = current != null ? current : newWallet(actualUserId, role, email);
+            result.set(copy(target));
+            return target;
+        });
+        return result.get();
+    }
+
+    public Optional<Wallet> debitTokens(String walletUserId, int tokens) {
+        return updateIf(walletUserId, current -> tokens > 0 && current.getTokenBalance() >= tokens, current -> {
+            LocalDateTime now = LocalDateTime.now();
+            current.setTokenBalance(current.getTokenBalance() - tokens);
+            countRollups(current, WalletRollup.USED, List.of(new RollupEntry(now, tokens)));
+            current.setUpdatedAt(now);
+        });
+    }
+
+    public Optional<Wallet> debitTokens(String walletUserId, int tokens, String operationId, TransactionType type,
+            LocalDateTime createdAt) {
+        return updateIf(walletUserId,
+                current -> current.getTokenBalance() >= tokens && !current.getRecentOperations().contains(operationId),
+                current -> {
+                    current.setTokenBalance(current.getTokenBalance() - tokens);
+                    countRollups(current, WalletRollup.counterFor(type, false),
+                            List.of(new RollupEntry(createdAt, tokens)));
+                    markOperations(current, List.of(operationId));
+                });
+    }
+
+    public Wallet creditTokensOrCreate(String actualUserId, String role, int tokens, String operationId,
+            TransactionType type, LocalDateTime createdAt) {
+        return credit(actualUserId, role, tokens, 0.0, List.of(operationId), WalletRollup.counterFor(type, true),
+                List.of(new RollupEntry(createdAt, tokens)));
+    }
+
+    public Wallet creditPurchase(String actualUserId, String role, int tokens, double amount, String operationId,
+            LocalDateTime createdAt) {
+        return credit(actualUserId, role, tokens, amount, List.of(operationId), WalletRollup.PURCHASED,
+                List.of(new RollupEntry(createdAt, tokens)));
+    }
+
+    public Set<String> debitTokensBulk(List<WalletBalanceChange> debits, TransactionType type) {
+        Set<String> rejected = new LinkedHashSet<>();
+        for (WalletBalanceChange debit : debits) {
+            Optional<Wallet> applied = updateIf(debit.walletUserId(),
+                    current -> current.getTokenBalance() >= debit.tokens()
+                            && debit.operationIds().stream().noneMatch(current.getRecentOperations()::contains),
+                    current -> {
+                        current.setTokenBalance(current.getTokenBalance() - debit.tokens());
+                        countRollups(current, WalletRollup.counterFor(type, false), debit.entries());
+                        markOperations(current, debit.operationIds());
+                    });
+            if (applied.isEmpty()) {
+                rejected.add(debit.walletUserId());
+            }
+        }
+        return rejected;
+    }
+
+    public void creditTokensBulk(List<WalletBalanceChange> credits, TransactionType type) {
+        for (WalletBalanceChange credit : credits) {
+            credit(credit.actualUserId(), credit.role(), credit.tokens(), credit.amount(), credit.operationIds(),
+                    WalletRollup.counterFor(type, true), credit.entries());
+        }
+    }
+
+    public boolean hasAppliedOperation(String walletUserId, String operationId) {
+        Wallet wallet = wallets.get(walletUserId);
+        return wallet != null && wallet.getRecentOperations().contains(operationId);
+    }
+
+    public void releaseOperations(Map<String, ? extends Collection<String>> operationsByWallet) {
+        operationsByWallet.forEach((walletUserId, operationIds) -> updateIf(walletUserId, current -> true, current -> {
+            List<String> recent = new ArrayList<>(current.getRecentOperations());
+            recent.removeAll(operationIds);
+            current.setRecentOperations(recent);
+        }));
+    }
+
+    public Optional<Wallet> findByUserId(String userId) {
+        return updateIf(userId, current -> true, current -> {
+        });
+    }
+
+    /**
+     * Wallet parcial con el saldo y solo los contadores de los periodos pedidos
+     */
+    public Optional<Wallet> findRollups(String walletUserId, Collection<String> periods) {
+        return findByUserId(walletUserId).map(wallet -> {
+            Wallet partial = new Wallet();
+            partial.setTokenBalance(wallet.getTokenBalance());
+            partial.setRollupsSince(wallet.getRollupsSince());
+            Map<String, WalletRollup> rollups = new HashMap<>();
+            for (String period : periods) {
+                if (wallet.getRollups().containsKey(period)) {
+                    rollups.put(period, wallet.getRollups().get(period));
+                }
+            }
+            partial.setRollups(rollups);
+            return partial;
+        });
+    }
+
+    /**
+     * Mismo recorte que WalletUpdates.pruneDailyRollups
+     */
+    public long pruneDailyRollups(LocalDate day) {
+        String cutoff = WalletRollup.dayKey(day);
+        long pruned = 0;
+        for (String walletUserId : wallets.keySet()) {
+            Optional<Wallet> updated = updateIf(walletUserId,
+                    current -> current.getRollupDaysFrom() != null && current.getRollupDaysFrom().compareTo(cutoff) < 0,
+                    current -> {
+                        current.getRollups().keySet().removeIf(period -> isDay(period) && period.compareTo(cutoff) < 0);
+                        current.setRollupDaysFrom(current.getRollups().keySet().stream()
+                                .filter(InMemoryWalletRepository::isDay).min(String::compareTo).orElse(null));
+                    });
+            pruned += updated.isPresent() ? 1 : 0;
+        }
+        return pruned;
+    }
+
+    private static boolean isDay(String period) {
+        return period.length() == WalletRollup.dayKey(LocalDate.EPOCH).length();
+    }
+
+    public Optional<WalletBalanceView> findBalanceByUserId(String userId) {
+        return findByUserId(userId).map(wallet -> new WalletBalanceView(wallet.getTokenBalance(), wallet.getUpdatedAt()));
+    }
+
+    public List<Wallet> findBalancesByUserIdIn(Collection<String> userIds) {
+        List<Wallet> found = new ArrayList<>();
+        for (String userId : userIds) {
+            findByUserId(userId).ifPresent(wallet -> {
+                Wallet partial = new Wallet();
+                partial.setId(wallet.getId());
+                partial.setUserId(wallet.getUserId());
+                partial.setTokenBalance(wallet.getTokenBalance());
+                found.add(partial);
+            });
+        }
+        return found;
+    }
+
+    public boolean existsByUserId(String userId) {
+        return wallets.containsKey(userId);
+    }
+
+    public List<Wallet> findAll() {
+        return wallets.keySet().stream().map(this::findByUserId).flatMap(Optional::stream).toList();
+    }
+
+    public long count() {
+        return wallets.size();
+    }
+
+    /**
+     * Abono con upsert: si alguna de las operaciones ya está registrada, la wallet
+     * se devuelve sin volver a abonar
+     */
+    private Wallet credit(String actualUserId, String role, int tokens, double amount, List<String> operationIds,
+            String counter, List<RollupEntry> entries) {
+        AtomicReference<Wallet> result = new AtomicReference<>();
+        wallets.compute(walletUserId(actualUserId, role), (k, current) -> {
+            Wallet target = current != null ? current : newWallet(actualUserId, role, "");
+            if (operationIds.stream().noneMatch(target.getRecentOperations()::contains)) {
+                target.setTokenBalance(target.getTokenBalance() + tokens);
+                target.setTotalSpent(target.getTotalSpent() + amount);
+                countRollups(target, counter, entries);
+                markOperations(target, operationIds);
+            }
+            result.set(copy(target));
+            return target;
+        });
+        return result.get();
+    }
+
+    /**
+     * Equivalente a un findAndModify con returnNew: aplica la mutación solo si la
+     * wallet existe y cumple la condición, y devuelve una copia tomada dentro de la
+     * misma sección atómica (con una mutación vacía es una lectura consistente)
+     */
+    private Optional<Wallet> updateIf(String walletUserId, Predicate<Wallet> condition, Consumer<Wallet> mutation) {
+        AtomicReference<Wallet> result = new AtomicReference<>();
+        wallets.computeIfPresent(walletUserId, (k, current) -> {
+            if (condition.test(current)) {
+                mutation.accept(current);
+                result.set(copy(current));
+            }
+            return current;
+        });
+        return Optional.ofNullable(result.get());
+    }
+
+    private static void markOperations(Wallet wallet, List<String> operationIds) {
+        List<String> recent = new ArrayList<>(wallet.getRecentOperations());
+        recent.addAll(operationIds);
+        wallet.setRecentOperations(recent);
+        wallet.setUpdatedAt(LocalDateTime.now());
+    }
+
+    /**
+     * Mismos periodos que WalletUpdates.countRollups (total, mes y día de cada asiento)
+     */
+    private static void countRollups(Wallet wallet, String counter, List<RollupEntry> entries) {
+        for (RollupEntry entry : entries) {
+            for (String period : WalletRollup.periodsOf(entry.createdAt().toLocalDate())) {
+                wallet.getRollups().computeIfAbsent(period, k -> new WalletRollup()).add(counter, entry.tokens(), 1);
+            }
+            if (wallet.getRollupsSince() == null || entry.createdAt().isBefore(wallet.getRollupsSince())) {
+                wallet.setRollupsSince(entry.createdAt());
+            }
+            String day = WalletRollup.dayKey(entry.createdAt().toLocalDate());
+            if (wallet.getRollupDaysFrom() == null || day.compareTo(wallet.getRollupDaysFrom()) < 0) {
+                wallet.setRollupDaysFrom(day);
+            }
+        }
+    }
+
+    private static Wallet newWallet(String actualUserId, String role, String email) {
+        Wallet wallet = new Wallet(actualUserId, role, email);
+        wallet.setId(UUID.randomUUID().toString());
+        wallet.setRecentOperations(List.of());
+        wallet.setRollups(new HashMap<>());
+        return wallet;
+    }
+
+    private static String walletUserId(String actualUserId, String role) {
+        return actualUserId + "-" + role.toLowerCase();
+    }
+
+    private static Wallet copy(Wallet wallet) {
+        Wallet copy = new Wallet();
+        BeanUtils.copyProperties(wallet, copy);
+        copy.setRecentOperations(List.copyOf(wallet.getRecentOperations()));
+        Map<String, WalletRollup> rollups = new HashMap<>();
+        wallet.getRollups().forEach((period, rollup) -> rollups.put(period, new WalletRollup(rollup.getPurchased(),
+                rollup.getUsed(), rollup.getEarned(), rollup.getRefunded(), rollup.getReturned(),
+                rollup.getTransactions())));
+        copy.setRollups(rollups);
+        return copy;
+    }
+}
@@ -0,0 +1,80 @@
+package wallet_service.eci.edu.co.service;
+
+import com.stripe.StripeClient;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.model.checkout.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import wallet_service.eci.edu.co.dto.ProductRequest;
+import wallet_service.eci.edu.co.dto.StripeResponse;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StripeServiceTest {
+
+    private StripeStubServer stub;
+    private ExecutorService executor;
+    private StripeService stripeService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StripeStubServer();
+        executor = Executors.newFixedThreadPool(2);
+        StripeClient client = StripeClient.builder()
+                .setApiKey("sk_test_stub")
+                .setApiBase(stub.baseUrl())
+                .setConnectTimeout(1000)
+                .setReadTimeout(500)
+                .setMaxNetworkRetries(0)
+                .build();
+        stripeService = new StripeService(client, executor, "http://localhost/success", "http://localhost/cancel");
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        stub.close();
+    }
+
+    @Test
+    void createsCheckoutSessionOnStripeExecutor() throws Exception {
+        Thread caller = Thread.currentThread();
+        StripeResponse response = stripeService.createCheckoutSessionAsync(new ProductRequest(), "user-1")
+                .thenApply(r -> {
+                    assertNotEquals(caller, Thread.currentThread());
+                    return r;
+                })
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals("success", response.getStatus());
+        assertEquals("cs_test_stub", response.getSessionId());
+    }
+
+    @Test
+    void retrievesSessionMetadata() throws Exception {
+        Session session = stripeService.retrieveSessionAsync("cs_test_42").get(5, TimeUnit.SECONDS);
+
+        assertEquals("cs_test_42", session.getId());
+        assertEquals("paid", session.getPaymentStatus());
+        assertEquals("3", session.getMetadata().get("tokens"));
+    }
+
+    @Test
+    void failsWhenStripeExceedsReadTimeout() {
+        stub.setLatency(Duration.ofSeconds(2));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> stripeService.retrieveSessionAsync("cs_test_slow").get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ApiConnectionException.class, e.getCause());
+    }
+}
@@ -0,0 +1,65 @@
+package wallet_service.eci.edu.co.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+/**
+ * Stub local de la API de checkout de Stripe con latencia configurable, para
+ * pruebas y pruebas de carga (apuntar stripe.api-base a {@link #baseUrl()}).
+ * Responde sesiones pagadas con la metadata que usa confirm-payment.
+ */
+class StripeStubServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private volatile Duration latency = Duration.ZERO;
+
+    StripeStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/checkout/sessions", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(latency.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String path = exchange.getRequestURI().getPath();
+        String id = "POST".equals(exchange.getRequestMethod())
+                ? "cs_test_stub"
+                : path.substring(path.lastIndexOf('/') + 1);
+        byte[] body = ("{\"id\":\"" + id + "\",\"object\":\"checkout.session\","
+                + "\"url\":\"https://checkout.stripe.test/" + id + "\","
+                + "\"status\":\"complete\",\"payment_status\":\"paid\","
+                + "\"metadata\":{\"userId\":\"user-1\",\"tokens\":\"3\",\"tokenPrice\":\"2000\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("Request-Id", "req_stub");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,264 @@
+package wallet_service.eci.edu.co.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+import wallet_service.eci.edu.co.repository.InMemoryTransactionRepository;
+import wallet_service.eci.edu.co.repository.InMemoryWalletRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Carga concurrente sobre WalletService con repositorios en memoria: N hilos mezclan
+ * compras (con reenvíos de la misma sesión de Stripe), transferencias (con reintentos
+ * de la misma reservación), reembolsos por reservación y consultas de saldo. Al final
+ * la suma de los saldos debe ser igual a lo comprado, porque transferencias y
+ * reembolsos solo mueven tokens entre wallets, y cada wallet (saldo y contadores)
+ * debe cuadrar con sus asientos del ledger.
+ * <p>
+ * Los valores por defecto corren en segundos dentro de mvn test; para una corrida
+ * de carga: mvn test -Dtest=WalletServiceStressTest -Dstress.threads=64
+ * -Dstress.operations=500000 -Dstress.latency-ms=2 -Dstress.report-level=INFO
+ * (el reporte de tiempos se registra en INFO y logback-test.xml lo calla por defecto)
+ */
+class WalletServiceStressTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletServiceStressTest.class);
+    private static final int THREADS = Integer.getInteger("stress.threads", 16);
+    private static final int OPERATIONS = Integer.getInteger("stress.operations", 40_000);
+    private static final long LATENCY_MS = Long.getLong("stress.latency-ms", 0L);
+    private static final int STUDENTS = 40;
+    private static final int TUTORS = 10;
+
+    private enum Operation { PURCHASE, TRANSFER, REFUND, BALANCE }
+
+    private record Booking(String studentId, String tutorId, String bookingId, int tokens) {
+    }
+
+    private final InMemoryWalletRepository wallets = new InMemoryWalletRepository();
+    private final InMemoryTransactionRepository ledger = new InMemoryTransactionRepository();
+    private final BookingOperationCache operationCache = new BookingOperationCache(10_000, Duration.ofMinutes(10));
+    private final WalletService walletService = new WalletService(
+            wallets.asRepository(Duration.ofMillis(LATENCY_MS)),
+            ledger.asRepository(Duration.ofMillis(LATENCY_MS)),
+            new WalletBalanceCache(10_000, Duration.ofSeconds(30)),
+            operationCache,
+            new WalletMetrics(new SimpleMeterRegistry(), operationCache, 1),
+            ledger.idempotencyIndexes(), new CompletedOperations());
+
+    private final Set<String> purchasedSessions = ConcurrentHashMap.newKeySet();
+    private final List<String> sessions = new ArrayList<>();
+    private final AtomicLong purchasedTokens = new AtomicLong();
+    private final List<Booking> bookings = new ArrayList<>();
+    private final AtomicInteger bookingSequence = new AtomicInteger();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    @Test
+    void concurrentOperationsConserveTokenSupply() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            int operations = OPERATIONS / THREADS;
+            workers.add(executor.submit(() -> {
+                start.await();
+                return runWorker(new SplittableRandom(seed), operations);
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        long[] latencies = workers.stream().flatMapToLong(worker -> {
+            try {
+                return Arrays.stream(worker.get(5, TimeUnit.MINUTES));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).sorted().toArray();
+        double elapsedSeconds = (System.nanoTime() - startedAt) / 1e9;
+        executor.shutdown();
+
+        if (logger.isInfoEnabled()) {
+            logger.info("WalletService stress: {} hilos, {} operaciones, latencia simulada {} ms",
+                    THREADS, latencies.length, LATENCY_MS);
+            logger.info(String.format("  %.0f ops/s, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    latencies.length / elapsedSeconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    latencies[latencies.length - 1] / 1e6));
+            logger.info("  resultados: {}", outcomes.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .map(e -> e.getKey() + "=" + e.getValue().sum())
+                    .collect(Collectors.joining(", ")));
+        }
+
+        assertInvariants();
+    }
+
+    private long[] runWorker(SplittableRandom random, int operations) {
+        long[] latencies = new long[operations];
+        for (int i = 0; i < operations; i++) {
+            Operation operation = pick(random);
+            long begin = System.nanoTime();
+            String outcome;
+            try {
+                outcome = execute(operation, random);
+            } catch (WalletService.InsufficientTokensException e) {
+                outcome = "insufficient";
+            } catch (WalletService.OperationInProgressException e) {
+                outcome = "in-progress";
+            } catch (RuntimeException e) {
+                // Transferencia de un estudiante que todavía no compró: su wallet no existe
+                if (e.getMessage() == null || !e.getMessage().startsWith(WalletService.WALLET_ESTUDIANTE_NO_ENCONTRADA)) {
+                    throw e;
+                }
+                outcome = "no-wallet";
+            }
+            latencies[i] = System.nanoTime() - begin;
+            outcomes.computeIfAbsent(operation.name().toLowerCase() + ":" + outcome, k -> new LongAdder()).increment();
+        }
+        return latencies;
+    }
+
+    private static Operation pick(SplittableRandom random) {
+        int roll = random.nextInt(100);
+        if (roll < 25) {
+            return Operation.PURCHASE;
+        }
+        if (roll < 55) {
+            return Operation.TRANSFER;
+        }
+        if (roll < 70) {
+            return Operation.REFUND;
+        }
+        return Operation.BALANCE;
+    }
+
+    private String execute(Operation operation, SplittableRandom random) {
+        String student = "student-" + random.nextInt(STUDENTS);
+        String tutor = "tutor-" + random.nextInt(TUTORS);
+        switch (operation) {
+            case PURCHASE -> {
+                // Uno de cada diez es un reenvío de una sesión ya vista (webhook repetido)
+                String seen = random.nextInt(10) == 0 ? pickRecorded(sessions, random) : null;
+                String session = seen != null ? seen : "cs_" + UUID.randomUUID();
+                int tokens = 1 + random.nextInt(20);
+                Transaction purchase = walletService.processPurchase(student, "STUDENT", tokens, tokens * 5_000.0,
+                        session);
+                if (purchasedSessions.add(session)) {
+                    purchasedTokens.addAndGet(purchase.getTokensAmount());
+                    record(sessions, session);
+                    return "ok";
+                }
+                return "replayed";
+            }
+            case TRANSFER -> {
+                // Uno de cada diez reintenta una reservación existente con sus mismos datos
+                Booking retry = random.nextInt(10) == 0 ? pickRecorded(bookings, random) : null;
+                if (retry != null) {
+                    walletService.transferTokens(retry.studentId(), retry.tutorId(), retry.tokens(),
+                            "Pago por reservación: " + retry.bookingId(), retry.bookingId());
+                    return "replayed";
+                }
+                int tokens = 1 + random.nextInt(10);
+                String bookingId = "bk-" + bookingSequence.incrementAndGet();
+                walletService.transferTokens(student, tutor, tokens, "Pago por reservación: " + bookingId, bookingId);
+                record(bookings, new Booking(student, tutor, bookingId, tokens));
+                return "ok";
+            }
+            case REFUND -> {
+                Booking booking = pickRecorded(bookings, random);
+                if (booking == null) {
+                    return "skipped";
+                }
+                walletService.refundTokensByBooking(booking.studentId(), booking.tutorId(), booking.bookingId(),
+                        "Cancelación de " + booking.bookingId());
+                return "ok";
+            }
+            default -> {
+                walletService.checkTokens(student, "STUDENT", 5);
+                walletService.getTokenBalance(tutor, "TUTOR");
+                return "ok";
+            }
+        }
+    }
+
+    private static <T> void record(List<T> recorded, T item) {
+        synchronized (recorded) {
+            recorded.add(item);
+        }
+    }
+
+    private static <T> T pickRecorded(List<T> recorded, SplittableRandom random) {
+        synchronized (recorded) {
+            return recorded.isEmpty() ? null : recorded.get(random.nextInt(recorded.size()));
+        }
+    }
+
+    private void assertInvariants() {
+        List<Wallet> allWallets = wallets.findAll();
+        List<Transaction> entries = ledger.findAll();
+
+        long totalBalance = allWallets.stream().mapToLong(Wallet::getTokenBalance).sum();
+        assertEquals(purchasedTokens.get(), totalBalance, "La suma de saldos debe ser igual a lo comprado");
+
+        long ledgerPurchases = entries.stream()
+                .filter(entry -> entry.getType() == Transaction.TransactionType.PURCHASE)
+                .mapToLong(Transaction::getTokensAmount)
+                .sum();
+        assertEquals(purchasedTokens.get(), ledgerPurchases, "Cada sesión de Stripe se acredita una sola vez");
+
+        assertTrue(entries.stream().noneMatch(entry -> entry.getStatus() == Transaction.TransactionStatus.PENDING),
+                "No deben quedar asientos pendientes");
+        assertTrue(allWallets.stream().allMatch(wallet -> wallet.getTokenBalance() >= 0), "Ningún saldo negativo");
+
+        Map<String, Integer> ledgerBalances = entries.stream().collect(Collectors.groupingBy(Transaction::getUserId,
+                Collectors.summingInt(Transaction::getBalanceChange)));
+        for (Wallet wallet : allWallets) {
+            assertEquals(ledgerBalances.getOrDefault(wallet.getUserId(), 0), wallet.getTokenBalance(),
+                    "El saldo de " + wallet.getUserId() + " debe cuadrar con sus asientos");
+        }
+
+        // Los contadores totales equivalen a sumar el historial de cada wallet por tipo de asiento
+        Map<String, WalletRollup> ledgerRollups = new HashMap<>();
+        for (Transaction entry : entries) {
+            ledgerRollups.computeIfAbsent(entry.getUserId(), k -> new WalletRollup())
+                    .add(WalletRollup.counterFor(entry.getType(), entry.getBalanceChange() > 0),
+                            entry.getTokensAmount(), 1);
+        }
+        for (Wallet wallet : allWallets) {
+            assertEquals(ledgerRollups.getOrDefault(wallet.getUserId(), new WalletRollup()),
+                    wallet.getRollups().getOrDefault(WalletRollup.TOTAL, new WalletRollup()),
+                    "Los contadores de " + wallet.getUserId() + " deben cuadrar con sus asientos");
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
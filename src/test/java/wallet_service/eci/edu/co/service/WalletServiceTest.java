@@ -0,0 +1,319 @@
+package wallet_service.eci.edu.co.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import wallet_service.eci.edu.co.dto.PurchaseRequest;
+import wallet_service.eci.edu.co.dto.TransferRequest;
+import wallet_service.eci.edu.co.dto.TransferResult;
+import wallet_service.eci.edu.co.model.Transaction;
+import wallet_service.eci.edu.co.model.Wallet;
+import wallet_service.eci.edu.co.model.WalletRollup;
+import wallet_service.eci.edu.co.repository.InMemoryTransactionRepository;
+import wallet_service.eci.edu.co.repository.InMemoryWalletRepository;
+import wallet_service.eci.edu.co.repository.TransactionRepository;
+import wallet_service.eci.edu.co.repository.WalletRepository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Casos deterministas de WalletService sobre los repositorios en memoria. Las caídas
+ * del proceso se simulan con un Error lanzado antes de una llamada al repositorio:
+ * ningún catch de RuntimeException del servicio lo atrapa, así que la operación
+ * queda a medias como si el proceso hubiera muerto en ese punto.
+ */
+class WalletServiceTest {
+
+    private static final class SimulatedCrash extends Error {
+        SimulatedCrash(String method) {
+            super("Caída simulada antes de " + method);
+        }
+    }
+
+    private final InMemoryWalletRepository wallets = new InMemoryWalletRepository();
+    private final InMemoryTransactionRepository ledger = new InMemoryTransactionRepository();
+    private final AtomicReference<String> crashBefore = new AtomicReference<>();
+    private final Map<String, Runnable> runBefore = new ConcurrentHashMap<>();
+    private final CompletedOperations completedOperations = new CompletedOperations();
+    private final WalletService walletService = newService();
+
+    private WalletService newService() {
+        return newService(ledger);
+    }
+
+    /**
+     * Instancia sobre los repositorios en memoria, con su propia caché de reintentos
+     */
+    private WalletService newService(InMemoryTransactionRepository transactions) {
+        BookingOperationCache operationCache = new BookingOperationCache(1_000, Duration.ofMinutes(10));
+        return new WalletService(crashing(WalletRepository.class, wallets.asRepository()),
+                crashing(TransactionRepository.class, transactions.asRepository()),
+                new WalletBalanceCache(1_000, Duration.ofSeconds(30)), operationCache,
+                new WalletMetrics(new SimpleMeterRegistry(), operationCache, 1),
+                transactions.idempotencyIndexes(), completedOperations);
+    }
+
+    private <T> T crashing(Class<T> type, T delegate) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    Runnable concurrent = runBefore.remove(method.getName());
+                    if (concurrent != null) {
+                        concurrent.run();
+                    }
+                    String crashPoint = crashBefore.get();
+                    if (method.getName().equals(crashPoint) && crashBefore.compareAndSet(crashPoint, null)) {
+                        throw new SimulatedCrash(method.getName());
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+
+    private int balance(String walletUserId) {
+        return wallets.findByUserId(walletUserId).orElseThrow().getTokenBalance();
+    }
+
+    private void assertSettled(String... walletUserIds) {
+        // Los marcadores se liberan en lote, como lo hace PendingOperationRecoveryJob
+        walletService.releaseCompletedOperations();
+        assertTrue(ledger.findAll().stream()
+                .noneMatch(entry -> entry.getStatus() == Transaction.TransactionStatus.PENDING),
+                "No deben quedar asientos pendientes");
+        for (String walletUserId : walletUserIds) {
+            assertTrue(wallets.findByUserId(walletUserId).orElseThrow().getRecentOperations().isEmpty(),
+                    "Los marcadores de " + walletUserId + " se liberan al completar sus operaciones");
+        }
+    }
+
+    @Test
+    void useTokensRejectsNonPositiveAmounts() {
+        walletService.processPurchase("ana", "STUDENT", 10, 50_000.0, "cs_ana");
+
+        assertFalse(walletService.useTokens("ana-student", -100, "Uso negativo"));
+        assertFalse(walletService.useTokens("ana-student", 0, "Uso vacío"));
+        assertTrue(walletService.useTokens("ana-student", 4, "Uso"));
+
+        Wallet wallet = wallets.findByUserId("ana-student").orElseThrow();
+        assertEquals(6, wallet.getTokenBalance());
+        assertEquals(4, wallet.getRollups().get(WalletRollup.TOTAL).getUsed());
+        assertEquals(2, ledger.count(), "Solo la compra y el uso válido quedan en el ledger");
+    }
+
+    @Test
+    void completedOperationsReleaseTheirMarkersInOneBatch() {
+        walletService.processPurchase("ana", "STUDENT", 20, 100_000.0, "cs_ana");
+        walletService.transferTokens("ana", "tomas", 5, "Clase", "bk-1");
+        walletService.transferTokens("ana", "tomas", 5, "Clase", "bk-2");
+
+        // El camino de la petición no escribe la liberación; queda pendiente para el lote
+        assertEquals(3, wallets.findByUserId("ana-student").orElseThrow().getRecentOperations().size());
+        assertEquals(2, walletService.releaseCompletedOperations(), "Una entrada por wallet en la escritura masiva");
+        assertSettled("ana-student", "tomas-tutor");
+    }
+
+    @Test
+    void refundWithoutStudentWalletIsNotFound() {
+        walletService.processPurchase("tomas", "TUTOR", 10, 50_000.0, "cs_tomas");
+
+        assertThrows(WalletService.WalletNotFoundException.class,
+                () -> walletService.refundTokens("ana", "tomas", 5, "Cancelada"));
+        assertFalse(wallets.existsByUserId("ana-student"));
+        assertEquals(10, balance("tomas-tutor"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"debitTokens", "creditTokensOrCreate", "completeOperation"})
+    void crashedTransferIsRecoveredOnceAfterManyLaterOperations(String crashPoint) {
+        walletService.processPurchase("ana", "STUDENT", 100, 500_000.0, "cs_ana");
+
+        crashBefore.set(crashPoint);
+        assertThrows(SimulatedCrash.class, () -> walletService.transferTokens("ana", "tomas", 10, "Clase", "bk-1"));
+
+        // Más operaciones sobre las mismas wallets que el antiguo límite de 50 marcadores
+        for (int i = 0; i < 60; i++) {
+            walletService.transferTokens("ana", "tomas", 1, "Clase " + i, "bk-next-" + i);
+        }
+
+        assertEquals(1, walletService.recoverPendingOperations(Duration.ZERO));
+        assertEquals(0, walletService.recoverPendingOperations(Duration.ZERO));
+        assertEquals(30, balance("ana-student"));
+        assertEquals(70, balance("tomas-tutor"));
+        assertSettled("ana-student", "tomas-tutor");
+    }
+
+    @Test
+    void recoveredOperationCountsOnItsLedgerDayAndOldDaysArePruned() {
+        walletService.processPurchase("ana", "STUDENT", 50, 250_000.0, "cs_ana");
+        crashBefore.set("debitTokens");
+        assertThrows(SimulatedCrash.class, () -> walletService.transferTokens("ana", "tomas", 10, "Clase", "bk-1"));
+
+        // La recuperación corre al día siguiente de creados los asientos
+        LocalDate today = LocalDate.now();
+        LocalDate yesterday = today.minusDays(1);
+        for (Transaction entry : ledger.findAll()) {
+            if (entry.getStatus() == Transaction.TransactionStatus.PENDING) {
+                entry.setCreatedAt(entry.getCreatedAt().minusDays(1));
+                ledger.save(entry);
+            }
+        }
+        assertEquals(1, walletService.recoverPendingOperations(Duration.ZERO));
+
+        Map<String, WalletRollup> ana = wallets.findByUserId("ana-student").orElseThrow().getRollups();
+        Map<String, WalletRollup> tomas = wallets.findByUserId("tomas-tutor").orElseThrow().getRollups();
+        assertEquals(10, ana.get(WalletRollup.dayKey(yesterday)).getUsed());
+        assertEquals(0, ana.get(WalletRollup.dayKey(today)).getUsed());
+        assertEquals(10, tomas.get(WalletRollup.dayKey(yesterday)).getEarned());
+        assertFalse(tomas.containsKey(WalletRollup.dayKey(today)));
+
+        // Con un día de retención solo queda el de hoy; el total y los meses se conservan
+        assertEquals(2, walletService.pruneDailyRollups(1));
+        Wallet anaWallet = wallets.findByUserId("ana-student").orElseThrow();
+        Wallet tomasWallet = wallets.findByUserId("tomas-tutor").orElseThrow();
+        assertFalse(anaWallet.getRollups().containsKey(WalletRollup.dayKey(yesterday)));
+        assertEquals(50, anaWallet.getRollups().get(WalletRollup.dayKey(today)).getPurchased());
+        assertEquals(WalletRollup.dayKey(today), anaWallet.getRollupDaysFrom());
+        assertEquals(10, anaWallet.getRollups().get(WalletRollup.TOTAL).getUsed());
+        assertEquals(10, anaWallet.getRollups().get(WalletRollup.monthKey(YearMonth.from(yesterday))).getUsed());
+        assertFalse(tomasWallet.getRollups().containsKey(WalletRollup.dayKey(yesterday)));
+        assertNull(tomasWallet.getRollupDaysFrom());
+        assertEquals(0, walletService.pruneDailyRollups(1), "Las wallets ya recortadas no se vuelven a escribir");
+        assertSettled("ana-student", "tomas-tutor");
+    }
+
+    @Test
+    void batchRecordsRunningBalancesAndReplaysOriginalResults() {
+        walletService.processPurchase("ana", "STUDENT", 50, 250_000.0, "cs_ana");
+        walletService.processPurchase("ben", "STUDENT", 20, 100_000.0, "cs_ben");
+        List<TransferRequest> batch = List.of(
+                new TransferRequest("ana", "tomas", "bk-1", 10),
+                new TransferRequest("ben", "tomas", "bk-2", 5),
+                new TransferRequest("ana", "tomas", "bk-3", 15),
+                new TransferRequest("ana", "lucia", "bk-4", 30));
+
+        List<TransferResult> results = walletService.transferTokensBatch(batch);
+
+        assertEquals(List.of(true, true, true, false), results.stream().map(TransferResult::isSuccess).toList());
+        assertEquals(List.of(40, 15, 25), results.subList(0, 3).stream()
+                .map(TransferResult::getStudentNewBalance).toList());
+        assertEquals(List.of(10, 15, 30), results.subList(0, 3).stream()
+                .map(TransferResult::getTutorNewBalance).toList());
+        // Cada asiento guarda el saldo tras su propio elemento, no el saldo final del lote
+        assertEquals(Map.of("bk-1", 40, "bk-3", 25), balancesAfter("ana-student"));
+        assertEquals(Map.of("bk-1", 10, "bk-2", 15, "bk-3", 30), balancesAfter("tomas-tutor"));
+
+        // El mismo lote reenviado a otra réplica (sin la caché de reintentos) responde igual y no cobra de nuevo
+        long entries = ledger.count();
+        assertEquals(results, newService().transferTokensBatch(batch));
+        assertEquals(entries, ledger.count());
+        assertEquals(25, balance("ana-student"));
+        assertEquals(15, balance("ben-student"));
+        assertEquals(30, balance("tomas-tutor"));
+        assertSettled("ana-student", "ben-student", "tomas-tutor");
+    }
+
+    @Test
+    void batchRetriesItemsOfWalletsWhoseNettedDebitWasRejected() {
+        walletService.processPurchase("ana", "STUDENT", 50, 250_000.0, "cs_ana");
+        walletService.processPurchase("ben", "STUDENT", 20, 100_000.0, "cs_ben");
+        // Un uso concurrente entre la lectura de saldos y el cargo neto deja a ana con 30 de los 45 del lote
+        runBefore.put("debitTokensBulk", () -> walletService.useTokens("ana-student", 20, "Uso concurrente"));
+        List<TransferRequest> batch = List.of(
+                new TransferRequest("ana", "tomas", "bk-1", 10),
+                new TransferRequest("ben", "tomas", "bk-2", 5),
+                new TransferRequest("ana", "tomas", "bk-3", 15),
+                new TransferRequest("ana", "lucia", "bk-4", 20));
+
+        List<TransferResult> results = walletService.transferTokensBatch(batch);
+
+        // Solo falla el elemento que ya no cabe; los demás de ana se aplican uno a uno
+        assertEquals(List.of(true, true, true, false), results.stream().map(TransferResult::isSuccess).toList());
+        assertEquals(WalletService.STUDENT_INSUFFICIENT_TOKENS, results.get(3).getError());
+        assertEquals(List.of(20, 15, 5), results.subList(0, 3).stream()
+                .map(TransferResult::getStudentNewBalance).toList());
+        assertEquals(5, balance("ana-student"));
+        assertEquals(15, balance("ben-student"));
+        assertEquals(30, balance("tomas-tutor"));
+        assertFalse(wallets.existsByUserId("lucia-tutor"));
+        assertEquals(Map.of("bk-1", 20, "bk-3", 5), balancesAfter("ana-student"));
+        assertSettled("ana-student", "ben-student", "tomas-tutor");
+    }
+
+    @Test
+    void purchaseBatchCreditsEachSessionOnce() {
+        walletService.processPurchase("ana", "STUDENT", 5, 25_000.0, "cs_1");
+        List<PurchaseRequest> batch = List.of(
+                new PurchaseRequest("ana", 5, 25_000.0, "cs_1"),
+                new PurchaseRequest("ana", 10, 50_000.0, "cs_2"),
+                new PurchaseRequest("ben", 20, 100_000.0, "cs_3"),
+                new PurchaseRequest("ana", 10, 50_000.0, "cs_2"),
+                new PurchaseRequest("ana", 3, 15_000.0, "cs_4"));
+
+        assertEquals(3, walletService.processPurchaseBatch(batch));
+        // El mismo lote reentregado no acredita de nuevo
+        assertEquals(0, newService().processPurchaseBatch(batch));
+
+        Wallet ana = wallets.findByUserId("ana-student").orElseThrow();
+        assertEquals(18, ana.getTokenBalance());
+        assertEquals(90_000.0, ana.getTotalSpent());
+        assertEquals(18, ana.getRollups().get(WalletRollup.TOTAL).getPurchased());
+        assertEquals(20, balance("ben-student"));
+        assertEquals(4, ledger.count());
+        Map<String, Integer> balanceAfter = ledger.findAll().stream()
+                .filter(entry -> "ana-student".equals(entry.getUserId()))
+                .collect(Collectors.toMap(Transaction::getStripeSessionId, Transaction::getBalanceAfter));
+        assertEquals(Map.of("cs_1", 5, "cs_2", 15, "cs_4", 18), balanceAfter);
+        assertSettled("ana-student", "ben-student");
+    }
+
+    @Test
+    void retriesBeforeTheUniqueIndexesExistAreAnsweredFromTheLedger() {
+        InMemoryTransactionRepository unindexed = new InMemoryTransactionRepository(false);
+        WalletService service = newService(unindexed);
+        Transaction purchase = service.processPurchase("ana", "STUDENT", 50, 250_000.0, "cs_ana");
+
+        // Cada reintento llega a otra réplica (sin la caché de reintentos) y sin índice que rechace el asiento
+        assertEquals(purchase.getId(),
+                newService(unindexed).processPurchase("ana", "STUDENT", 50, 250_000.0, "cs_ana").getId());
+        Map<String, Object> transfer = service.transferTokens("ana", "tomas", 10, "Clase", "bk-1");
+        assertEquals(transfer, newService(unindexed).transferTokens("ana", "tomas", 10, "Clase", "bk-1"));
+        Map<String, Object> refund = service.refundTokensByBooking("ana", "tomas", "bk-1", "Cancelada");
+        assertEquals(refund, newService(unindexed).refundTokensByBooking("ana", "tomas", "bk-1", "Cancelada"));
+
+        assertEquals(50, balance("ana-student"));
+        assertEquals(0, balance("tomas-tutor"));
+        assertEquals(5, unindexed.count(), "Compra, transferencia y reembolso sin asientos repetidos");
+
+        // El egreso del tutor cuenta como devuelto, no como reembolso recibido
+        WalletRollup tutor = wallets.findByUserId("tomas-tutor").orElseThrow().getRollups().get(WalletRollup.TOTAL);
+        assertEquals(10, tutor.getEarned());
+        assertEquals(10, tutor.getReturned());
+        assertEquals(0, tutor.getRefunded());
+        assertEquals(10, wallets.findByUserId("ana-student").orElseThrow().getRollups()
+                .get(WalletRollup.TOTAL).getRefunded());
+    }
+
+    private Map<String, Integer> balancesAfter(String walletUserId) {
+        return ledger.findAll().stream()
+                .filter(entry -> walletUserId.equals(entry.getUserId()) && entry.getBookingId() != null)
+                .collect(Collectors.toMap(Transaction::getBookingId, Transaction::getBalanceAfter));
+    }
+}
@@ -0,0 +1,221 @@
+package wallet_service.eci.edu.co.util;
+
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CognitoJwksVerifierTest {
+
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final String ISSUER = "https://cognito-idp.us-east-1.amazonaws.com/us-east-1_pool";
+    private static final String CLIENT_ID = "frontend-client";
+
+    @TempDir
+    Path dir;
+
+    private KeyPair signingKey;
+    private KeyPair otherKey;
+    private Path jwksFile;
+    private CognitoJwksVerifier verifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        signingKey = generator.generateKeyPair();
+        otherKey = generator.generateKeyPair();
+
+        jwksFile = dir.resolve("jwks.json");
+        writeJwks(jwk("kid-1", signingKey));
+        verifier = verifier(Duration.ZERO);
+    }
+
+    @Test
+    void loadsKeysFromLocalFile() {
+        assertTrue(verifier.isEnabled());
+        assertEquals(1, verifier.keyCount());
+    }
+
+    @Test
+    void acceptsTokenSignedWithPublishedKey() throws Exception {
+        assertDoesNotThrow(() -> verifier.verify(token("RS256", "kid-1", payload(3600), signingKey.getPrivate())));
+    }
+
+    @Test
+    void rejectsTamperedPayload() throws Exception {
+        String token = token("RS256", "kid-1", payload(3600), signingKey.getPrivate());
+        String[] parts = token.split("\\.");
+        String tampered = parts[0] + "." + B64.encodeToString(
+                "{\"sub\":\"intruder\"}".getBytes(StandardCharsets.UTF_8)) + "." + parts[2];
+
+        assertThrows(JwtException.class, () -> verifier.verify(tampered));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherKey() throws Exception {
+        String token = token("RS256", "kid-1", payload(3600), otherKey.getPrivate());
+
+        assertThrows(JwtException.class, () -> verifier.verify(token));
+    }
+
+    @Test
+    void rejectsUnsignedAndNonRsaTokens() throws Exception {
+        String header = B64.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String body = B64.encodeToString(payload(3600).getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(JwtException.class, () -> verifier.verify(header + "." + body + "."));
+        assertThrows(JwtException.class, () -> verifier.verify(header + "." + body + ".c2ln"));
+        assertThrows(JwtException.class, () -> verifier.verify("not-a-token"));
+    }
+
+    @Test
+    void unknownKidFailsFastAndReloadsJwksInBackground() throws Exception {
+        String token = token("RS256", "kid-2", payload(3600), otherKey.getPrivate());
+        assertThrows(JwtException.class, () -> verifier.verify(token));
+        verifier.refreshAsync(false).get(5, TimeUnit.SECONDS);
+
+        // Rotación: Cognito publica la nueva clave junto a la anterior. El primer intento se
+        // rechaza sin esperar la descarga; el reintento usa las claves ya recargadas
+        writeJwks(jwk("kid-1", signingKey), jwk("kid-2", otherKey));
+        assertThrows(JwtException.class, () -> verifier.verify(token));
+        verifier.refreshAsync(false).get(5, TimeUnit.SECONDS);
+
+        assertDoesNotThrow(() -> verifier.verify(token));
+        assertEquals(2, verifier.keyCount());
+    }
+
+    @Test
+    void unknownKidsWithinCooldownDoNotReload() throws Exception {
+        CognitoJwksVerifier cooledDown = verifier(Duration.ofMinutes(5));
+        String token = token("RS256", "kid-2", payload(3600), otherKey.getPrivate());
+
+        assertThrows(JwtException.class, () -> cooledDown.verify(token));
+        writeJwks(jwk("kid-1", signingKey), jwk("kid-2", otherKey));
+
+        // Dentro del enfriamiento no se lanza otra descarga aunque lleguen más kids desconocidos
+        assertThrows(JwtException.class, () -> cooledDown.verify(token));
+        cooledDown.refreshAsync(false).get(5, TimeUnit.SECONDS);
+        assertEquals(1, cooledDown.keyCount());
+        assertTrue(cooledDown.refresh());
+        assertEquals(2, cooledDown.keyCount());
+    }
+
+    @Test
+    void principalCacheMemoizesVerifiedTokensAndRejectsExpiredOnes() throws Exception {
+        CognitoPrincipalCache cache = new CognitoPrincipalCache(new CognitoTokenDecoder(), verifier, 100);
+        String token = token("RS256", "kid-1", payload(3600), signingKey.getPrivate());
+
+        Optional<CognitoUserInfo> first = cache.authenticate(token);
+        Optional<CognitoUserInfo> second = cache.authenticate(token);
+
+        assertTrue(first.isPresent());
+        assertEquals("user-1", first.get().getSub());
+        assertSame(first.get(), second.get());
+        assertTrue(cache.authenticate(token("RS256", "kid-1", payload(-60), signingKey.getPrivate())).isEmpty());
+        assertThrows(JwtException.class,
+                () -> cache.authenticate(token("RS256", "kid-1", payload(3600), otherKey.getPrivate())));
+    }
+
+    @Test
+    void refusesToStartWithoutJwksUnlessVerificationIsDisabled() {
+        assertThrows(IllegalStateException.class,
+                () -> new CognitoJwksVerifier("", ISSUER, CLIENT_ID, true, Duration.ZERO));
+        assertFalse(new CognitoJwksVerifier("", "", "", false, Duration.ZERO).isEnabled());
+    }
+
+    @Test
+    void rejectsTokensFromAnotherPoolClientOrTokenUse() throws Exception {
+        CognitoPrincipalCache cache = new CognitoPrincipalCache(new CognitoTokenDecoder(), verifier, 100);
+        long exp = System.currentTimeMillis() / 1000 + 3600;
+        String otherPool = "{\"sub\":\"user-1\",\"email\":\"user@example.com\",\"name\":\"User\",\"exp\":" + exp
+                + ",\"iss\":\"https://cognito-idp.us-east-1.amazonaws.com/other\",\"token_use\":\"id\",\"aud\":\""
+                + CLIENT_ID + "\"}";
+        String otherClient = otherPool.replace("/other", "/us-east-1_pool").replace(CLIENT_ID, "other-client");
+        String accessToken = otherClient.replace("other-client", CLIENT_ID).replace("\"id\"", "\"access\"");
+
+        assertThrows(JwtException.class,
+                () -> cache.authenticate(token("RS256", "kid-1", otherPool, signingKey.getPrivate())));
+        assertThrows(JwtException.class,
+                () -> cache.authenticate(token("RS256", "kid-1", otherClient, signingKey.getPrivate())));
+        assertThrows(JwtException.class,
+                () -> cache.authenticate(token("RS256", "kid-1", accessToken, signingKey.getPrivate())));
+        assertTrue(cache.authenticate(token("RS256", "kid-1", accessToken.replace("\"access\"", "\"id\""),
+                signingKey.getPrivate())).isPresent());
+    }
+
+    @Test
+    void adminGroupGrantsAdminRoleOnlyWithVerifiedSignature() throws Exception {
+        String admin = payload(3600).replace("}", ",\"cognito:groups\":[\"admin\"]}");
+        String forged = B64.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + B64.encodeToString(admin.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+        CognitoPrincipalCache verified = new CognitoPrincipalCache(new CognitoTokenDecoder(), verifier, 100);
+        CognitoPrincipalCache unverified = new CognitoPrincipalCache(new CognitoTokenDecoder(),
+                new CognitoJwksVerifier("", ISSUER, CLIENT_ID, false, Duration.ZERO), 100);
+
+        CognitoUserInfo signed = verified.authenticate(token("RS256", "kid-1", admin, signingKey.getPrivate())).get();
+        assertEquals(List.of("admin"), signed.getGroups());
+        assertTrue(CognitoTokenFilter.authoritiesOf(signed).contains(new SimpleGrantedAuthority("ROLE_ADMIN")));
+        assertEquals(List.of(new SimpleGrantedAuthority("ROLE_USER")),
+                CognitoTokenFilter.authoritiesOf(unverified.authenticate(forged).get()));
+    }
+
+    private CognitoJwksVerifier verifier(Duration refreshCooldown) {
+        return new CognitoJwksVerifier("file:" + jwksFile, ISSUER, CLIENT_ID, true, refreshCooldown);
+    }
+
+    private void writeJwks(String... keys) throws Exception {
+        Files.writeString(jwksFile, "{\"keys\":[" + String.join(",", keys) + "]}");
+    }
+
+    private static String jwk(String kid, KeyPair keyPair) {
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        return "{\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"kid\":\"" + kid + "\""
+                + ",\"n\":\"" + B64.encodeToString(unsigned(publicKey.getModulus().toByteArray())) + "\""
+                + ",\"e\":\"" + B64.encodeToString(unsigned(publicKey.getPublicExponent().toByteArray())) + "\"}";
+    }
+
+    private static byte[] unsigned(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static String payload(long secondsToExpiry) {
+        long exp = System.currentTimeMillis() / 1000 + secondsToExpiry;
+        return "{\"sub\":\"user-1\",\"email\":\"user@example.com\",\"name\":\"User\",\"exp\":" + exp
+                + ",\"iss\":\"" + ISSUER + "\",\"token_use\":\"id\",\"aud\":\"" + CLIENT_ID + "\"}";
+    }
+
+    private static String token(String alg, String kid, String payload, PrivateKey key) throws Exception {
+        String signingInput = B64.encodeToString(("{\"alg\":\"" + alg + "\",\"kid\":\"" + kid + "\"}")
+                .getBytes(StandardCharsets.UTF_8))
+                + "." + B64.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        return signingInput + "." + B64.encodeToString(signature.sign());
+    }
+}
@@ -0,0 +1,174 @@
+package wallet_service.eci.edu.co.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import wallet_service.eci.edu.co.util.CognitoTokenDecoder.CognitoUserInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * El decodificador de streaming (Base64URL propio y JsonParser) contra la lectura
+ * con el árbol de Jackson que reemplazó: mismos claims, campo por campo.
+ */
+class CognitoTokenDecoderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String HEADER = "eyJhbGciOiJSUzI1NiIsImtpZCI6ImtpZC0xIn0";
+    private static final String POOL = "https://cognito-idp.us-east-1.amazonaws.com/us-east-1_pool";
+    private static final long EXP = System.currentTimeMillis() / 1000 + 3600;
+
+    private static final String ID_PAYLOAD = "{\"sub\":\"3f1c-ana\",\"iss\":\"" + POOL + "\","
+            + "\"aud\":\"frontend-client\",\"token_use\":\"id\",\"exp\":" + EXP + ","
+            + "\"email\":\"ana@mail.escuelaing.edu.co\",\"email_verified\":true,"
+            + "\"name\":\"José \\\"Pepe\\\" Núñez \\u00e9\",\"phone_number\":\"+573001234567\","
+            + "\"nickname\":\"ana\",\"identities\":[{\"userId\":\"1098\",\"issuer\":null,\"primary\":\"true\"}],"
+            + "\"cognito:groups\":[\"admin\",\"tutores\"]}";
+
+    private static final String ACCESS_PAYLOAD = "{\"sub\":\"3f1c-ana\",\"iss\":\"" + POOL + "\","
+            + "\"client_id\":\"frontend-client\",\"token_use\":\"access\",\"scope\":\"aws.cognito.signin.user.admin\","
+            + "\"auth_time\":" + (EXP - 3600) + ",\"exp\":" + EXP + ",\"cognito:groups\":[\"admin\"],"
+            + "\"username\":\"3f1c-ana\"}";
+
+    private static final String GROUPS_PAYLOAD = "{\"sub\":\"3f1c-ana\",\"email\":\"ana@mail.escuelaing.edu.co\","
+            + "\"name\":\"Ana\",\"phone_number\":null,\"aud\":[\"frontend-client\",\"otro\"],"
+            + "\"cognito:groups\":[\"admin\",null,7,{\"x\":[1]},\"\"],\"exp\":\"" + EXP + "\"}";
+
+    private final CognitoTokenDecoder decoder = new CognitoTokenDecoder();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"id", "access", "groups"})
+    void streamingReadMatchesJsonTreeForPaddedAndUnpaddedPayloads(String tokenType) throws IOException {
+        String payload = switch (tokenType) {
+            case "id" -> ID_PAYLOAD;
+            case "access" -> ACCESS_PAYLOAD;
+            default -> GROUPS_PAYLOAD;
+        };
+        // Un claim de relleno de 0 a 2 caracteres cubre los tres restos posibles del Base64
+        for (int filler = 0; filler < 3; filler++) {
+            String padded = payload.substring(0, payload.length() - 1) + ",\"f\":\"" + "x".repeat(filler) + "\"}";
+            for (boolean withPadding : new boolean[] {true, false}) {
+                String token = token(padded, withPadding);
+                CognitoUserInfo expected = treeUserInfo(token);
+                assertSameClaims(expected, decoder.readPayload(token));
+                assertEquals(expected.isUnexpired(), decoder.isTokenValid(token));
+            }
+        }
+    }
+
+    @Test
+    void extractUserInfoKeepsTheRequiredClaimsOfTheTreeReader() throws IOException {
+        String idToken = token(ID_PAYLOAD, false);
+        CognitoUserInfo extracted = decoder.extractUserInfo(idToken);
+        assertSameClaims(treeUserInfo(idToken), extracted);
+        assertEquals("José \"Pepe\" Núñez é", extracted.getName());
+        assertEquals(List.of("admin", "tutores"), extracted.getGroups());
+
+        // Un access token no trae email ni name: no identifica al usuario en ninguna de las dos lecturas
+        String accessToken = token(ACCESS_PAYLOAD, true);
+        assertNull(treeUserInfo(accessToken).getEmail());
+        assertThrows(JwtException.class, () -> decoder.extractUserInfo(accessToken));
+        assertTrue(decoder.isTokenValid(accessToken));
+    }
+
+    @Test
+    void claimsAfterAnUnexpectedArrayAreStillRead() throws IOException {
+        String token = token(GROUPS_PAYLOAD, false);
+        CognitoUserInfo info = decoder.readPayload(token);
+        assertNull(info.getAudience());
+        assertEquals(List.of("admin", ""), info.getGroups());
+        assertEquals(EXP, info.getExpiresAt());
+        assertSameClaims(treeUserInfo(token), info);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "solo-una-parte",
+            HEADER + ".e30",
+            HEADER + ".e30.c2ln.extra",
+            HEADER + ".eyJzdWIi*fQ.c2ln",
+            HEADER + ".eyJzdWIiOiJhIn0xx.c2ln",
+            HEADER + ".W10.c2ln",
+            HEADER + ".eyJzdWIiOiJhIg.c2ln",
+            HEADER + "..c2ln"})
+    void malformedTokensAreRejectedByBothReaders(String token) {
+        assertThrows(Exception.class, () -> treeUserInfo(token));
+        assertThrows(Exception.class, () -> decoder.readPayload(token));
+        assertThrows(JwtException.class, () -> decoder.extractUserInfo(token));
+        assertFalse(decoder.isTokenValid(token));
+    }
+
+    private static String token(String payload, boolean withPadding) {
+        Base64.Encoder encoder = withPadding ? Base64.getUrlEncoder() : Base64.getUrlEncoder().withoutPadding();
+        return HEADER + "." + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+    }
+
+    /**
+     * Lectura de referencia: Base64 del JDK y árbol de Jackson, como la implementación
+     * anterior, extendida a los claims que hoy lee el decodificador
+     */
+    private static CognitoUserInfo treeUserInfo(String token) throws IOException {
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Token JWT malformado");
+        }
+        JsonNode payload = MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1]));
+        if (payload == null || !payload.isObject()) {
+            throw new IllegalArgumentException("El payload del token no es un objeto JSON");
+        }
+        CognitoUserInfo info = new CognitoUserInfo();
+        info.setSub(text(payload, "sub"));
+        info.setEmail(text(payload, "email"));
+        info.setName(text(payload, "name"));
+        info.setPhoneNumber(text(payload, "phone_number"));
+        info.setNickname(text(payload, "nickname"));
+        info.setIssuer(text(payload, "iss"));
+        info.setTokenUse(text(payload, "token_use"));
+        info.setAudience(text(payload, "aud"));
+        info.setExpiresAt(text(payload, "exp") == null ? null : payload.get("exp").asLong());
+        List<String> groups = new ArrayList<>();
+        JsonNode groupsNode = payload.path("cognito:groups");
+        if (groupsNode.isTextual()) {
+            groups.add(groupsNode.asText());
+        }
+        groupsNode.forEach(group -> {
+            if (group.isTextual()) {
+                groups.add(group.asText());
+            }
+        });
+        info.setGroups(groups);
+        return info;
+    }
+
+    private static String text(JsonNode payload, String claim) {
+        JsonNode node = payload.get(claim);
+        return node == null || node.isNull() || node.isContainerNode() ? null : node.asText();
+    }
+
+    private static void assertSameClaims(CognitoUserInfo expected, CognitoUserInfo actual) {
+        assertEquals(expected.getSub(), actual.getSub(), "sub");
+        assertEquals(expected.getEmail(), actual.getEmail(), "email");
+        assertEquals(expected.getName(), actual.getName(), "name");
+        assertEquals(expected.getPhoneNumber(), actual.getPhoneNumber(), "phone_number");
+        assertEquals(expected.getNickname(), actual.getNickname(), "nickname");
+        assertEquals(expected.getIssuer(), actual.getIssuer(), "iss");
+        assertEquals(expected.getTokenUse(), actual.getTokenUse(), "token_use");
+        assertEquals(expected.getAudience(), actual.getAudience(), "aud");
+        assertEquals(expected.getExpiresAt(), actual.getExpiresAt(), "exp");
+        assertEquals(expected.getGroups(), actual.getGroups(), "cognito:groups");
+    }
+}